@@ -53,6 +53,9 @@ import com.sun.midp.security.Permissions;
 import com.sun.midp.io.j2me.storage.RandomAccessStream;
 import com.sun.midp.io.Base64;
 
+import com.sun.midp.log.Logging;
+import com.sun.midp.log.LogChannels;
+
 /**
  * Verifier that is able to verify midlet suite's signature.
  * It is used when the crypto code is present in the build.
@@ -408,6 +411,12 @@ public class VerifierImpl implements Verifier {
                             cert.getSubject());
                 }
             }
+
+            if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
+                Logging.report(Logging.INFORMATION, LogChannels.LC_AMS,
+                    "OCSP response cache: " + certValidator.getCacheHits() +
+                    " hits, " + certValidator.getCacheMisses() + " misses");
+            }
         }
 
         cpCert = (X509Certificate)derCerts.elementAt(0);
@@ -26,17 +26,21 @@
 
 package com.sun.midp.util;
 
-import java.util.Vector;
-import java.util.Enumeration;
-
 /**
  * The <code>Properties</code> class represents a persistent set of
  * properties. Each key and its corresponding value in
  * the property list is a string.
  * <p>
+ * Properties are kept in insertion order so they can be accessed by
+ * index, and are found by key through two open addressed hash tables of
+ * positions: one on the exact key and one on the key with its case
+ * folded. Lookups do not lock. A writer fills in an entry before it links
+ * it into a table and only replaces a table with a completely built one,
+ * so once a property list has been loaded any number of threads can read
+ * it concurrently.
  */
 public class Properties {
-    /** An appropriate initial size for storage vectors (10). */
+    /** An appropriate initial size for storage arrays (10). */
     private static int INITIAL_SIZE = 10;
 
     /**
@@ -46,21 +50,37 @@ public class Properties {
      * The Java installer adds properties, also when a system MIDlet is
      * run with arguments, the arguments are added to properties.
      * 99.99% of the time, when running a downloaded MIDlet properties are
-     * not added the is no need to load the vectors.
+     * not added the is no need to load the arrays.
      */
     private String[] initProps;
 
-    /** A vector of property keys. */
-    private Vector keys;
-    /** A vector of property values. */
-    private Vector vals;
-    
+    /** Property keys in insertion order. */
+    private String[] keys;
+    /** Property values, parallel to <code>keys</code>. */
+    private String[] vals;
+    /** Number of properties in <code>keys</code> and <code>vals</code>. */
+    private int count;
+
+    /**
+     * Hash table of keys. A slot holds 1 + the position of the first
+     * property with the key, or 0 if it is free. The table is at least
+     * twice as large as <code>keys</code> so it always has free slots.
+     */
+    private int[] index;
+
+    /**
+     * Hash table of keys compared ignoring case. A slot holds 1 + the
+     * position of the last property with the key, or 0 if it is free.
+     */
+    private int[] foldedIndex;
+
     /**
      * Constructor - creates an empty property list.
      */
     public Properties() {
-        keys = new Vector(INITIAL_SIZE);
-        vals = new Vector(INITIAL_SIZE);
+        vals = new String[INITIAL_SIZE];
+        keys = new String[INITIAL_SIZE];
+        reindex();
     }
 
     /**
@@ -77,26 +97,199 @@ public class Properties {
     }
 
     /**
-     * Convert the init property String array to vectors for changing
+     * Convert the init property String array to hashed arrays for changing
      * properties.
      */
-    private void convertInitPropsToVectors() {
+    private void convertInitProps() {
         int numberOfProps;
+        String[] newKeys;
+        String[] newVals;
 
         numberOfProps = initProps.length / 2;
 
-        keys = new Vector(numberOfProps + INITIAL_SIZE);
-        vals = new Vector(numberOfProps + INITIAL_SIZE);
+        newKeys = new String[numberOfProps + INITIAL_SIZE];
+        newVals = new String[numberOfProps + INITIAL_SIZE];
 
-        for (int i = 0; i < initProps.length; i += 2) {
-            keys.addElement(initProps[i]);
-            vals.addElement(initProps[i + 1]);
+        for (int i = 0; i < numberOfProps; i++) {
+            newKeys[i] = initProps[i * 2];
+            newVals[i] = initProps[(i * 2) + 1];
         }
 
+        vals = newVals;
+        keys = newKeys;
+        count = numberOfProps;
+        reindex();
+
         // The initial properties are no longer needed.
         initProps = null;
     }
 
+    /**
+     * Makes room for one more property, growing the arrays and the hash
+     * tables if needed.
+     */
+    private void ensureCapacity() {
+        if (initProps != null) {
+            convertInitProps();
+        }
+
+        if (count < keys.length) {
+            return;
+        }
+
+        String[] newKeys = new String[keys.length * 2];
+        String[] newVals = new String[newKeys.length];
+
+        System.arraycopy(keys, 0, newKeys, 0, count);
+        System.arraycopy(vals, 0, newVals, 0, count);
+
+        // readers look at the tables before the arrays, publish in reverse
+        vals = newVals;
+        keys = newKeys;
+        reindex();
+    }
+
+    /**
+     * Rebuilds both hash tables from the current arrays.
+     */
+    private void reindex() {
+        int size = 4;
+        int[] newIndex;
+        int[] newFoldedIndex;
+
+        while (size < keys.length * 2) {
+            size <<= 1;
+        }
+
+        newIndex = new int[size];
+        newFoldedIndex = new int[size];
+
+        for (int i = 0; i < count; i++) {
+            link(newIndex, keys, i, false);
+            link(newFoldedIndex, keys, i, true);
+        }
+
+        index = newIndex;
+        foldedIndex = newFoldedIndex;
+    }
+
+    /**
+     * Appends a property to the arrays and links it into the hash tables.
+     * The caller must have called <code>ensureCapacity</code>.
+     *
+     * @param key the key of the property
+     * @param value the value of the property
+     */
+    private void append(String key, String value) {
+        keys[count] = key;
+        vals[count] = value;
+        link(index, keys, count, false);
+        link(foldedIndex, keys, count, true);
+        count++;
+    }
+
+    /**
+     * Links the property at the given position into a hash table. The
+     * exact table keeps the first position of a duplicated key, the
+     * folded table the last one.
+     *
+     * @param table hash table to update
+     * @param k property keys
+     * @param pos position of the property to link
+     * @param ignoreCase true for the folded table
+     */
+    private static void link(int[] table, String[] k, int pos,
+                             boolean ignoreCase) {
+        String key = k[pos];
+        int mask = table.length - 1;
+        int i = hash(key, ignoreCase) & mask;
+        int slot;
+
+        while ((slot = table[i]) != 0) {
+            if (matches(k[slot - 1], key, ignoreCase)) {
+                if (ignoreCase) {
+                    table[i] = pos + 1;
+                }
+
+                return;
+            }
+
+            i = (i + 1) & mask;
+        }
+
+        table[i] = pos + 1;
+    }
+
+    /**
+     * Looks a key up in a hash table.
+     *
+     * @param table hash table to search
+     * @param k property keys the table was built from
+     * @param key the key to find
+     * @param ignoreCase true for the folded table
+     * @return position of the property, or -1 if there is none
+     */
+    private static int lookup(int[] table, String[] k, String key,
+                              boolean ignoreCase) {
+        int mask = table.length - 1;
+        int i = hash(key, ignoreCase) & mask;
+        int slot;
+
+        while ((slot = table[i]) != 0) {
+            if (matches(k[slot - 1], key, ignoreCase)) {
+                return slot - 1;
+            }
+
+            i = (i + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Computes the hash of a key. The folded hash maps every character
+     * through upper and then lower case so keys that are equal ignoring
+     * case hash the same.
+     *
+     * @param key the key, may be null
+     * @param ignoreCase true to hash the folded key
+     * @return hash code of the key
+     */
+    private static int hash(String key, boolean ignoreCase) {
+        int h = 0;
+
+        if (key == null) {
+            return h;
+        }
+
+        if (!ignoreCase) {
+            h = key.hashCode();
+        } else {
+            for (int i = 0; i < key.length(); i++) {
+                h = 31 * h + Character.toLowerCase(
+                    Character.toUpperCase(key.charAt(i)));
+            }
+        }
+
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Compares two keys.
+     *
+     * @param a a key from the arrays, may be null
+     * @param b the key being looked for, may be null
+     * @param ignoreCase true to compare ignoring case
+     * @return true if the keys match
+     */
+    private static boolean matches(String a, String b, boolean ignoreCase) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+
+        return ignoreCase ? a.equalsIgnoreCase(b) : a.equals(b);
+    }
+
     /**
      * Store multiple key:value pair.  Provided for parallelism with the 
      * <tt>getProperty</tt> method. Enforces use of strings for 
@@ -108,14 +301,8 @@ public class Properties {
      */
     public synchronized void addProperty(String key, 
                                          String value) {
-        if (keys == null) {
-            convertInitPropsToVectors();
-        }
-
-    	keys.addElement(key);
-        vals.addElement(value);
-
-        return;
+        ensureCapacity();
+        append(key, value);
     }
 
     /**
@@ -135,18 +322,15 @@ public class Properties {
         int idx;
         String rv = null;
 
-        if (keys == null) {
-            convertInitPropsToVectors();
-        }
+        ensureCapacity();
 
-        idx = keys.indexOf(key);
+        idx = lookup(index, keys, key, false);
 
         if (idx == -1) {    // If I don't have this, add it and return null
-            keys.addElement(key);
-            vals.addElement(value);    
+            append(key, value);
         } else {	    // Else replace it and return the old one.
-            rv = (String)vals.elementAt(idx);
-            vals.setElementAt(value, idx);
+            rv = vals[idx];
+            vals[idx] = value;
         }
 
         return rv;
@@ -168,30 +352,27 @@ public class Properties {
      * @see #removeProperty
      */
     public synchronized String setPropertyIgnoreCase(String key, String value) {
-        int idx = -1;
+        int idx;
         String rv = null;
 
-        if (keys == null) {
-            convertInitPropsToVectors();
-        }
+        ensureCapacity();
 
-        for (int count = 0; count < keys.size(); count++) {
-            if (((String)keys.elementAt(count)).equalsIgnoreCase(key)) {
-                idx = count;
-            }
-        }
+        idx = lookup(foldedIndex, keys, key, true);
 
         if (idx == -1) {    // If I don't have this, add it and return null
-            keys.addElement(key);
-            vals.addElement(value);    
+            append(key, value);
         } else {	    // Else replace it and return the old one.
-            rv = (String)vals.elementAt(idx);
-            vals.setElementAt(value, idx);
+            rv = vals[idx];
+            vals[idx] = value;
+
             /*
              * Also replace the key at idx in case there is change in case
              * for the key
              */
-            keys.setElementAt(key, idx);
+            if (!matches(keys[idx], key, false)) {
+                keys[idx] = key;
+                reindex();
+            }
         }
 
         return rv;
@@ -210,13 +391,15 @@ public class Properties {
     public synchronized String setPropertyAt(int index, String value) {
         String rv;
 
-        if (keys == null) {
-            convertInitPropsToVectors();
+        if (initProps != null) {
+            convertInitProps();
         }
 
-        rv = (String)vals.elementAt(index);
+        checkIndex(index, count);
+
+        rv = vals[index];
 
-        vals.setElementAt(value, index);
+        vals[index] = value;
 
         return rv;
     }
@@ -232,27 +415,36 @@ public class Properties {
      * @see     #removeProperty
      */
     public String getProperty(String key) {
-        String rv = null;
+        String[] init = initProps;
+        int[] table;
+        String[] k;
+        String[] v;
+        int idx;
 
         if (key == null) {
             throw new NullPointerException();
         }
 
-        if (keys == null) {
-            for (int i = 0; i < initProps.length; i += 2) {
-                if (initProps[i].equals(key)) {
-                    rv = initProps[i + 1];
-                    break;
+        if (init != null) {
+            for (int i = 0; i < init.length; i += 2) {
+                if (init[i].equals(key)) {
+                    return init[i + 1];
                 }
             }
-        } else {
-            int idx = keys.indexOf(key);
-            if (idx > -1) {
-                rv = (String)vals.elementAt(idx);
-            }
+
+            return null;
         }
 
-    	return rv;
+        table = index;
+        k = keys;
+        v = vals;
+
+        idx = lookup(table, k, key, false);
+        if (idx > -1) {
+            return v[idx];
+        }
+
+    	return null;
     }
 
     /**
@@ -267,32 +459,36 @@ public class Properties {
      * @see     #removeProperty
      */
     public String getPropertyIgnoreCase(String key) {
-        String rv = null;
+        String[] init = initProps;
+        int[] table;
+        String[] k;
+        String[] v;
+        int idx;
 
         if (key == null) {
             throw new NullPointerException();
         }
 
-        if (keys == null) {
-            for (int i = 0; i < initProps.length; i += 2) {
-                if (initProps[i].equalsIgnoreCase(key)) {
-                    rv = initProps[i + 1];
-                    break;
-                }
-            }
-        } else {
-            int idx = -1;
-            for (int count = 0; count < keys.size(); count++) {
-                if (((String)keys.elementAt(count)).equalsIgnoreCase(key)) {
-                    idx = count;
+        if (init != null) {
+            for (int i = 0; i < init.length; i += 2) {
+                if (init[i].equalsIgnoreCase(key)) {
+                    return init[i + 1];
                 }
             }
-            if (idx > -1) {
-                rv = (String)vals.elementAt(idx);
-            }
+
+            return null;
         }
 
-    	return rv;
+        table = foldedIndex;
+        k = keys;
+        v = vals;
+
+        idx = lookup(table, k, key, true);
+        if (idx > -1) {
+            return v[idx];
+        }
+
+    	return null;
     }
     
     
@@ -306,11 +502,16 @@ public class Properties {
      *     if an invalid index was given.
      */
     public String getValueAt(int index) {
-        if (keys == null) {
-            return initProps[(index * 2) + 1];
+        String[] init = initProps;
+        String[] v;
+
+        if (init != null) {
+            return init[(index * 2) + 1];
         }
 
-        return (String)vals.elementAt(index);
+        v = vals;
+        checkIndex(index, count);
+        return v[index];
     }
 
     /**
@@ -323,11 +524,31 @@ public class Properties {
      *     if an invalid index was given.
      */
     public String getKeyAt(int index) {
-        if (keys == null) {
-            return initProps[index * 2];
+        String[] init = initProps;
+        String[] k;
+
+        if (init != null) {
+            return init[index * 2];
         }
 
-        return (String)keys.elementAt(index);
+        k = keys;
+        checkIndex(index, count);
+        return k[index];
+    }
+
+    /**
+     * Checks a property index against the number of properties, the arrays
+     * themselves may be longer.
+     *
+     * @param index 0 based index of a property
+     * @param size number of properties
+     * @exception ArrayIndexOutOfBoundsException
+     *     if an invalid index was given.
+     */
+    private static void checkIndex(int index, int size) {
+        if (index < 0 || index >= size) {
+            throw new ArrayIndexOutOfBoundsException(index + " >= " + size);
+        }
     }
 
     /**
@@ -336,11 +557,13 @@ public class Properties {
      * @return  number of properties
      */
     public int size() {
-        if (keys == null) {
-            return initProps.length / 2;
+        String[] init = initProps;
+
+        if (init != null) {
+            return init.length / 2;
         }
 
-        return keys.size();
+        return count;
     }
 
     /**
@@ -356,15 +579,19 @@ public class Properties {
 	int idx;
 	String rv = null;
 
-        if (keys == null) {
-            convertInitPropsToVectors();
+        if (initProps != null) {
+            convertInitProps();
         }
 
-	idx = keys.indexOf(key);
+	idx = lookup(index, keys, key, false);
 	if (idx > -1) {
-	    rv = (String)vals.elementAt(idx);
-	    keys.removeElementAt(idx);
-	    vals.removeElementAt(idx);
+	    rv = vals[idx];
+            count--;
+            System.arraycopy(keys, idx + 1, keys, idx, count - idx);
+            System.arraycopy(vals, idx + 1, vals, idx, count - idx);
+            keys[count] = null;
+            vals[count] = null;
+            reindex();
 	}
 
 	return rv;
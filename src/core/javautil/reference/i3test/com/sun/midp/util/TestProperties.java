@@ -0,0 +1,361 @@
+/*
+ *   
+ *
+ * Copyright  1990-2007 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.util;
+
+import java.util.Vector;
+
+import com.sun.midp.i3test.TestCase;
+
+/**
+ * Unit tests and a lookup benchmark for the hashed property list.
+ */
+public class TestProperties extends TestCase {
+    /** Number of attributes in the benchmark manifest. */
+    static final int ATTRIBUTES = 200;
+
+    /** Number of times the benchmark manifest is resolved. */
+    static final int ROUNDS = 50;
+
+    /**
+     * Runs all the tests.
+     */
+    public void runTests() throws Throwable {
+        declare("testOrder");
+        testOrder();
+        declare("testDuplicates");
+        testDuplicates();
+        declare("testIgnoreCase");
+        testIgnoreCase();
+        declare("testRemove");
+        testRemove();
+        declare("testInitProps");
+        testInitProps();
+        declare("testGrow");
+        testGrow();
+        declare("testIndexBounds");
+        testIndexBounds();
+        declare("testManifestResolution");
+        testManifestResolution();
+    }
+
+    /**
+     * Tests properties keep their insertion order and can be set by index.
+     */
+    void testOrder() {
+        Properties props = new Properties();
+
+        assertNull("replaced a missing property",
+                   props.setProperty("MIDlet-Name", "Game"));
+        props.setProperty("MIDlet-Vendor", "Vendor");
+        props.setProperty("MIDlet-Version", "1.0");
+        assertEquals("replaced value", "Game",
+                     props.setProperty("MIDlet-Name", "Game 2"));
+
+        assertEquals("size", 3, props.size());
+        assertEquals("key 0", "MIDlet-Name", props.getKeyAt(0));
+        assertEquals("key 2", "MIDlet-Version", props.getKeyAt(2));
+        assertEquals("value 0", "Game 2", props.getValueAt(0));
+
+        assertEquals("previous value", "Vendor",
+                     props.setPropertyAt(1, "Other"));
+        assertEquals("value by key", "Other",
+                     props.getProperty("MIDlet-Vendor"));
+        assertNull("missing key", props.getProperty("MIDlet-Icon"));
+    }
+
+    /**
+     * Tests duplicated keys resolve to the first property and, ignoring
+     * case, to the last one.
+     */
+    void testDuplicates() {
+        Properties props = new Properties();
+
+        props.addProperty("Set-Cookie", "a");
+        props.addProperty("set-cookie", "b");
+        props.addProperty("Set-Cookie", "c");
+
+        assertEquals("size", 3, props.size());
+        assertEquals("first exact match", "a",
+                     props.getProperty("Set-Cookie"));
+        assertEquals("last match ignoring case", "c",
+                     props.getPropertyIgnoreCase("SET-COOKIE"));
+
+        assertEquals("removed first", "a",
+                     props.removeProperty("Set-Cookie"));
+        assertEquals("next exact match", "c",
+                     props.getProperty("Set-Cookie"));
+        assertEquals("key order after removal", "set-cookie",
+                     props.getKeyAt(0));
+    }
+
+    /**
+     * Tests case-insensitive set replaces the key and the value.
+     */
+    void testIgnoreCase() {
+        Properties props = new Properties();
+
+        props.setPropertyIgnoreCase("content-type", "text/plain");
+        assertEquals("replaced value", "text/plain",
+            props.setPropertyIgnoreCase("Content-Type", "text/html"));
+
+        assertEquals("size", 1, props.size());
+        assertEquals("key case replaced", "Content-Type",
+                     props.getKeyAt(0));
+        assertNull("old key", props.getProperty("content-type"));
+        assertEquals("new key", "text/html",
+                     props.getProperty("Content-Type"));
+        assertEquals("any case", "text/html",
+                     props.getPropertyIgnoreCase("CONTENT-TYPE"));
+        assertNull("missing key", props.getPropertyIgnoreCase("Content"));
+    }
+
+    /**
+     * Tests the tables still find every property after removals.
+     */
+    void testRemove() {
+        Properties props = new Properties();
+
+        for (int i = 0; i < 20; i++) {
+            props.addProperty("key-" + i, "value-" + i);
+        }
+
+        for (int i = 0; i < 20; i += 2) {
+            assertEquals("removed", "value-" + i,
+                         props.removeProperty("key-" + i));
+        }
+
+        assertNull("removed twice", props.removeProperty("key-0"));
+        assertEquals("size", 10, props.size());
+
+        for (int i = 0; i < 20; i++) {
+            String expected = (i % 2 == 0) ? null : "value-" + i;
+
+            assertEquals("exact " + i, expected,
+                         props.getProperty("key-" + i));
+            assertEquals("ignoring case " + i, expected,
+                         props.getPropertyIgnoreCase("KEY-" + i));
+        }
+
+        assertEquals("key 0", "key-1", props.getKeyAt(0));
+        assertEquals("key 9", "key-19", props.getKeyAt(9));
+    }
+
+    /**
+     * Tests a list created from an array is searched and converted.
+     */
+    void testInitProps() {
+        String[] init = {"arg-0", "a", "ARG-1", "b"};
+        Properties props = new Properties(init);
+
+        assertEquals("size", 2, props.size());
+        assertEquals("exact", "a", props.getProperty("arg-0"));
+        assertEquals("ignoring case", "b",
+                     props.getPropertyIgnoreCase("arg-1"));
+        assertEquals("key", "ARG-1", props.getKeyAt(1));
+
+        props.addProperty("arg-2", "c");
+
+        assertEquals("size after add", 3, props.size());
+        assertEquals("initial after add", "a", props.getProperty("arg-0"));
+        assertEquals("added", "c", props.getPropertyIgnoreCase("ARG-2"));
+        assertEquals("array not changed", "arg-0", init[0]);
+    }
+
+    /**
+     * Tests the arrays and tables grow past the initial size.
+     */
+    void testGrow() {
+        Properties props = new Properties();
+
+        for (int i = 0; i < 1000; i++) {
+            assertNull("new key", props.setProperty("k" + i, "v" + i));
+        }
+
+        assertEquals("size", 1000, props.size());
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("value " + i, "v" + i, props.getProperty("k" + i));
+            assertEquals("key " + i, "k" + i, props.getKeyAt(i));
+        }
+    }
+
+    /**
+     * Tests index based access is bounded by the number of properties,
+     * not by the size of the arrays.
+     */
+    void testIndexBounds() {
+        Properties props = new Properties();
+
+        props.addProperty("a", "b");
+
+        try {
+            props.getKeyAt(1);
+            fail("getKeyAt past the end");
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // expected
+        }
+
+        try {
+            props.getValueAt(-1);
+            fail("getValueAt before the start");
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // expected
+        }
+
+        try {
+            props.setPropertyAt(1, "c");
+            fail("setPropertyAt past the end");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Resolves the attributes of a 200 attribute manifest the way the
+     * installer does: each attribute is put with setProperty as it is
+     * parsed, then every attribute is looked up, MIDlet-&lt;n&gt; entries are
+     * probed until one is missing and a few optional attributes are not
+     * found. The same work is timed against a linear search of vectors,
+     * the previous implementation.
+     */
+    void testManifestResolution() {
+        String[] names = new String[ATTRIBUTES];
+        String[] values = new String[ATTRIBUTES];
+        String[] optional = {"MIDlet-Icon", "MIDlet-Description",
+            "MIDlet-Info-URL", "MIDlet-Data-Size", "MIDlet-Install-Notify"};
+        int midlets = ATTRIBUTES / 4;
+        String hashed = null;
+        String linear = null;
+        long start;
+        long hashedTime;
+        long linearTime;
+
+        for (int i = 0; i < ATTRIBUTES; i++) {
+            if (i < midlets) {
+                names[i] = "MIDlet-" + (i + 1);
+            } else {
+                names[i] = "Application-Attribute-" + i;
+            }
+
+            values[i] = "value " + i;
+        }
+
+        start = System.currentTimeMillis();
+        for (int r = 0; r < ROUNDS; r++) {
+            Properties props = new Properties();
+
+            for (int i = 0; i < ATTRIBUTES; i++) {
+                props.setProperty(names[i], values[i]);
+            }
+
+            hashed = resolve(props, null, names, optional);
+        }
+        hashedTime = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        for (int r = 0; r < ROUNDS; r++) {
+            Vector keys = new Vector(10);
+            Vector vals = new Vector(10);
+
+            for (int i = 0; i < ATTRIBUTES; i++) {
+                int idx = keys.indexOf(names[i]);
+
+                if (idx == -1) {
+                    keys.addElement(names[i]);
+                    vals.addElement(values[i]);
+                } else {
+                    vals.setElementAt(values[i], idx);
+                }
+            }
+
+            linear = resolve(keys, vals, names, optional);
+        }
+        linearTime = System.currentTimeMillis() - start;
+
+        assertEquals("same resolution", linear, hashed);
+        assertTrue("all MIDlets found",
+                   hashed.startsWith(midlets + " MIDlets"));
+
+        info(ROUNDS + " resolutions of " + ATTRIBUTES + " attributes: " +
+             hashedTime + " ms hashed, " + linearTime + " ms linear");
+    }
+
+    /**
+     * Resolves the benchmark manifest from either a property list or a
+     * pair of vectors.
+     *
+     * @param source a Properties or a Vector of keys
+     * @param vals the Vector of values if source is a Vector
+     * @param names attributes to look up
+     * @param optional attributes that are not in the manifest
+     * @return a summary of what was found
+     */
+    private static String resolve(Object source, Vector vals,
+                                  String[] names, String[] optional) {
+        StringBuffer found = new StringBuffer();
+        int midlets = 0;
+
+        while (get(source, vals, "MIDlet-" + (midlets + 1)) != null) {
+            midlets++;
+        }
+
+        found.append(midlets).append(" MIDlets");
+
+        for (int i = 0; i < names.length; i++) {
+            found.append(',').append(get(source, vals, names[i]));
+        }
+
+        for (int i = 0; i < optional.length; i++) {
+            found.append(',').append(get(source, vals, optional[i]));
+        }
+
+        return found.toString();
+    }
+
+    /**
+     * Gets an attribute from a property list or a pair of vectors.
+     *
+     * @param source a Properties or a Vector of keys
+     * @param vals the Vector of values if source is a Vector
+     * @param key the attribute name
+     * @return the attribute value or null
+     */
+    private static String get(Object source, Vector vals, String key) {
+        int idx;
+
+        if (source instanceof Properties) {
+            return ((Properties)source).getProperty(key);
+        }
+
+        idx = ((Vector)source).indexOf(key);
+        if (idx == -1) {
+            return null;
+        }
+
+        return (String)vals.elementAt(idx);
+    }
+}
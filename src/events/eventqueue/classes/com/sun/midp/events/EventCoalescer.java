@@ -0,0 +1,55 @@
+/*
+ * 	
+ *
+ * Copyright  1990-2007 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.events;
+
+/**
+ * A coalescing policy for one or more event types, registered with the
+ * event queue together with the listener of the type.
+ * <p>
+ * The policy is applied in the thread posting an event, after the
+ * listener has accepted the event in its pre-processing method, when an
+ * event of the same type is still waiting in the queue. The policy can
+ * merge the new event into the waiting one, for example keep only the
+ * latest position of a dragged pointer, and then the new event is not
+ * queued. The waiting event does not change while the policy runs and is
+ * dispatched at its place in the queue, so events of other types are not
+ * reordered.</p>
+ */
+public interface EventCoalescer {
+    /**
+     * Merges an event being posted into an event of the same type
+     * waiting in the queue.
+     *
+     * @param waitingEvent the latest event of this type waiting in the
+     *     queue to be processed
+     * @param event event being posted
+     *
+     * @return true if the event has been merged into the waiting event
+     *     and must not be queued, false to queue the event
+     */
+    public boolean coalesce(Event waitingEvent, Event event);
+}
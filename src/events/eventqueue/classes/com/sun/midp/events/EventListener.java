@@ -48,6 +48,12 @@ public interface EventListener {
     /**
      * Preprocess an event that is being posted to the event queue.
      * This method will get called in the thread that posted the event.
+     * <p>
+     * Calls for the same event type are serialized, but calls for
+     * different event types may run at the same time in different
+     * posting threads, even when one listener is registered for several
+     * types. An implementation must therefore only look at its two
+     * arguments, or guard any other state it touches itself.
      * 
      * @param event event being posted
      *
@@ -36,6 +36,12 @@ public class Event {
     /** Links events in the queue. */
     Event next;
 
+    /** Priority lane of the event queue the event is posted to. */
+    int lane;
+
+    /** Time the event was posted, in milliseconds. */
+    long postTime;
+
     /**
      * Construct an event.
      *
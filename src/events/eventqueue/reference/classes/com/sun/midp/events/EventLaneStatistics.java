@@ -0,0 +1,82 @@
+/*
+ * 	
+ *
+ * Copyright  1990-2007 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.events;
+
+/**
+ * A snapshot of the metrics of one priority lane of the event queue.
+ * Times are in milliseconds.
+ */
+public class EventLaneStatistics {
+    /** The lane the metrics belong to. */
+    public int lane;
+
+    /**
+     * Number of events in the lane taken from the queue by the
+     * dispatch thread and not yet dispatched.
+     */
+    public int depth;
+
+    /** Largest depth the lane has had. */
+    public int maxDepth;
+
+    /** Number of events dispatched from the lane. */
+    public int dispatched;
+
+    /** Number of events merged into waiting events of the lane. */
+    public int coalesced;
+
+    /** Sum of the ages of the dispatched events when dispatched. */
+    public long totalAge;
+
+    /** Largest age of a dispatched event when dispatched. */
+    public int maxAge;
+
+    /**
+     * Gets the average age of the dispatched events when dispatched.
+     *
+     * @return average age or 0 if no event has been dispatched
+     */
+    public int getAverageAge() {
+        if (dispatched == 0) {
+            return 0;
+        }
+
+        return (int)(totalAge / dispatched);
+    }
+
+    /**
+     * Returns a string representation of the metrics.
+     *
+     * @return string for logging
+     */
+    public String toString() {
+        return "lane " + lane + ": depth = " + depth +
+            ", max depth = " + maxDepth + ", dispatched = " + dispatched +
+            ", coalesced = " + coalesced + ", average age = " +
+            getAverageAge() + ", max age = " + maxAge;
+    }
+}
@@ -211,6 +211,172 @@ public class TestEventQueue extends TestCase {
         assertEquals("waiting[1] should be ev0", ev0, arr[1]);
     }
 
+    /**
+     * Tests that events are taken from the highest lane first and in
+     * the order they were posted within a lane.
+     */
+    void testLanes() throws InterruptedException {
+        EventQueue eq = new EventQueue();
+        InstrumentedEventListener iel = new InstrumentedEventListener();
+
+        eq.lanesEnabled = true;
+        eq.maxLaneDelay = Integer.MAX_VALUE;
+        eq.registerEventListener(EventTypes.REPAINT_EVENT, iel);
+        eq.registerEventListener(EventTypes.KEY_EVENT, iel);
+        eq.registerEventListener(EventTypes.PAUSE_MIDLET_EVENT, iel);
+
+        Event repaint = new Event(EventTypes.REPAINT_EVENT);
+        Event shutdown = new Event(EventTypes.EVENT_QUEUE_SHUTDOWN);
+        Event key0 = new Event(EventTypes.KEY_EVENT);
+        Event key1 = new Event(EventTypes.KEY_EVENT);
+        Event pause = new Event(EventTypes.PAUSE_MIDLET_EVENT);
+        eq.post(repaint);
+        eq.post(shutdown);
+        eq.post(key0);
+        eq.post(key1);
+        eq.post(pause);
+
+        assertSame("key0 should be first", key0, eq.take());
+        assertSame("key1 should be second", key1, eq.take());
+        assertSame("pause should be third", pause, eq.take());
+        assertSame("repaint should be fourth", repaint, eq.take());
+        assertSame("shutdown should be last", shutdown, eq.take());
+
+        EventLaneStatistics stats =
+            eq.getLaneStatistics(EventQueue.LANE_INPUT);
+        assertEquals("input depth", 0, stats.depth);
+        assertEquals("input max depth", 3, stats.maxDepth);
+        assertEquals("input dispatched", 3, stats.dispatched);
+    }
+
+    /**
+     * Tests that lifecycle events do not overtake key and pen events
+     * posted before them, but still overtake repaints.
+     */
+    void testLifecycleAfterInput() throws InterruptedException {
+        EventQueue eq = new EventQueue();
+        InstrumentedEventListener iel = new InstrumentedEventListener();
+
+        eq.lanesEnabled = true;
+        eq.maxLaneDelay = Integer.MAX_VALUE;
+        eq.registerEventListener(EventTypes.REPAINT_EVENT, iel);
+        eq.registerEventListener(EventTypes.KEY_EVENT, iel);
+        eq.registerEventListener(EventTypes.PEN_EVENT, iel);
+        eq.registerEventListener(EventTypes.PAUSE_MIDLET_EVENT, iel);
+        eq.registerEventListener(EventTypes.DESTROY_MIDLET_EVENT, iel);
+
+        Event repaint = new Event(EventTypes.REPAINT_EVENT);
+        Event key = new Event(EventTypes.KEY_EVENT);
+        Event pen = new Event(EventTypes.PEN_EVENT);
+        Event pause = new Event(EventTypes.PAUSE_MIDLET_EVENT);
+        Event key1 = new Event(EventTypes.KEY_EVENT);
+        Event destroy = new Event(EventTypes.DESTROY_MIDLET_EVENT);
+        eq.post(repaint);
+        eq.post(key);
+        eq.post(pen);
+        eq.post(pause);
+        eq.post(key1);
+        eq.post(destroy);
+
+        assertSame("key should be first", key, eq.take());
+        assertSame("pen should be second", pen, eq.take());
+        assertSame("pause should be third", pause, eq.take());
+        assertSame("key1 should be fourth", key1, eq.take());
+        assertSame("destroy should be fifth", destroy, eq.take());
+        assertSame("repaint should be last", repaint, eq.take());
+    }
+
+    /**
+     * Tests that lanes are off unless switched on.
+     */
+    void testLanesDefault() {
+        EventQueue eq = new EventQueue();
+
+        assertFalse("lanes should be off", eq.lanesEnabled);
+    }
+
+    /**
+     * Tests that an event of a low lane waiting too long is taken
+     * before events of higher lanes.
+     */
+    void testLaneDelay() throws InterruptedException {
+        EventQueue eq = new EventQueue();
+        InstrumentedEventListener iel = new InstrumentedEventListener();
+
+        eq.lanesEnabled = true;
+        eq.registerEventListener(EventTypes.REPAINT_EVENT, iel);
+        eq.registerEventListener(EventTypes.KEY_EVENT, iel);
+
+        Event repaint = new Event(EventTypes.REPAINT_EVENT);
+        Event key = new Event(EventTypes.KEY_EVENT);
+        eq.post(repaint);
+        eq.post(key);
+        repaint.postTime -= eq.maxLaneDelay + 1000;
+
+        assertSame("repaint should be first", repaint, eq.take());
+        assertSame("key should be second", key, eq.take());
+        assertTrue("repaint age", eq.getLaneStatistics(
+            EventQueue.LANE_REPAINT).maxAge >= eq.maxLaneDelay);
+    }
+
+    /**
+     * Tests that all events are taken in the order they were posted
+     * when lanes are switched off.
+     */
+    void testLanesDisabled() throws InterruptedException {
+        EventQueue eq = new EventQueue();
+        InstrumentedEventListener iel = new InstrumentedEventListener();
+
+        eq.lanesEnabled = false;
+        eq.registerEventListener(EventTypes.REPAINT_EVENT, iel);
+        eq.registerEventListener(EventTypes.PAUSE_MIDLET_EVENT, iel);
+
+        Event repaint = new Event(EventTypes.REPAINT_EVENT);
+        Event shutdown = new Event(EventTypes.EVENT_QUEUE_SHUTDOWN);
+        Event pause = new Event(EventTypes.PAUSE_MIDLET_EVENT);
+        eq.post(repaint);
+        eq.post(shutdown);
+        eq.post(pause);
+
+        assertSame("repaint should be first", repaint, eq.take());
+        assertSame("shutdown should be second", shutdown, eq.take());
+        assertSame("pause should be last", pause, eq.take());
+    }
+
+    /**
+     * Tests the coalescing policy of an event type.
+     */
+    void testCoalescer() throws InterruptedException {
+        final int EVENT_TYPE = EventTypes.PEN_EVENT;
+        EventQueue eq = new EventQueue();
+        InstrumentedEventListener iel = new InstrumentedEventListener();
+
+        eq.lanesEnabled = true;
+        eq.registerEventListener(EVENT_TYPE, iel, EventQueue.LANE_INPUT,
+            new EventCoalescer() {
+                public boolean coalesce(Event waitingEvent, Event event) {
+                    return true;
+                }
+            });
+
+        Event ev0 = new Event(EVENT_TYPE);
+        Event ev1 = new Event(EVENT_TYPE);
+        eq.post(ev0);
+        eq.post(ev1);
+
+        assertSame("nextEvent should be ev0", ev0, eq.nextEvent);
+        assertSame("lastEvent should be ev0", ev0, eq.lastEvent);
+        assertEquals("preprocessed should be length 2", 2,
+                     iel.getPreprocessedEvents().length);
+
+        assertSame("ev0 should be taken", ev0, eq.take());
+
+        EventLaneStatistics stats =
+            eq.getLaneStatistics(EventQueue.LANE_INPUT);
+        assertEquals("coalesced", 1, stats.coalesced);
+        assertEquals("dispatched", 1, stats.dispatched);
+    }
+
     /**
      * Runs all tests.
      */
@@ -227,6 +393,18 @@ public class TestEventQueue extends TestCase {
         testPost3();
         declare("testPreprocess");
         testPreprocess();
+        declare("testLanes");
+        testLanes();
+        declare("testLifecycleAfterInput");
+        testLifecycleAfterInput();
+        declare("testLanesDefault");
+        testLanesDefault();
+        declare("testLaneDelay");
+        testLaneDelay();
+        declare("testLanesDisabled");
+        testLanesDisabled();
+        declare("testCoalescer");
+        testCoalescer();
     }
 
 }
@@ -0,0 +1,204 @@
+/*
+ * 	
+ *
+ * Copyright  1990-2007 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.events;
+
+import com.sun.midp.i3test.*;
+
+/**
+ * Posts events from several threads at once to a running event queue,
+ * reports the time taken and checks that no event is lost, reordered
+ * or merged wrongly.
+ */
+public class TestEventQueueContention extends TestCase {
+    /** Number of posting threads. */
+    static final int PRODUCERS = 4;
+
+    /** Number of events of each type posted by each thread. */
+    static final int EVENTS = 2000;
+
+    /** Type of the events that are dispatched one by one. */
+    static final int PLAIN_TYPE = 1;
+
+    /** Type of the events that are merged into a waiting event. */
+    static final int MERGED_TYPE = 2;
+
+    /** An event posted by a numbered producer. */
+    static class CountedEvent extends Event {
+        /** Number of the posting thread. */
+        int producer;
+
+        /** Sequence number of the event within the producer. */
+        int sequence;
+
+        /** Number of events merged into this one, including itself. */
+        int count = 1;
+
+        /**
+         * Constructs a counted event.
+         *
+         * @param type event type
+         * @param theProducer number of the posting thread
+         * @param theSequence sequence number of the event
+         */
+        CountedEvent(int type, int theProducer, int theSequence) {
+            super(type);
+            producer = theProducer;
+            sequence = theSequence;
+        }
+    }
+
+    /** Last sequence number dispatched for each producer. */
+    int[] lastSequence = new int[PRODUCERS];
+
+    /** Number of plain events dispatched. */
+    int plainEvents;
+
+    /** Number of plain events dispatched out of order. */
+    int outOfOrder;
+
+    /** Number of merged events dispatched, counting each merged one. */
+    int mergedEvents;
+
+    /** Guards the preprocess bookkeeping of the merged type. */
+    final Object preprocessLock = new Object();
+
+    /** True while a merged event is being preprocessed. */
+    boolean inMergedPreprocess;
+
+    /** Number of merged type preprocess calls that overlapped. */
+    int overlappingPreprocess;
+
+    /**
+     * Posts plain and merged events from several threads and waits
+     * until the queue has dispatched all of them.
+     */
+    void testContention() throws InterruptedException {
+        final EventQueue eq = new EventQueue();
+        Thread[] producers = new Thread[PRODUCERS];
+
+        eq.registerEventListener(PLAIN_TYPE, new EventListener() {
+            public boolean preprocess(Event event, Event waitingEvent) {
+                return true;
+            }
+
+            public void process(Event event) {
+                CountedEvent ce = (CountedEvent)event;
+
+                if (ce.sequence != lastSequence[ce.producer] + 1) {
+                    outOfOrder++;
+                }
+
+                lastSequence[ce.producer] = ce.sequence;
+                plainEvents++;
+            }
+        });
+
+        eq.registerEventListener(MERGED_TYPE, new EventListener() {
+            public boolean preprocess(Event event, Event waitingEvent) {
+                synchronized (preprocessLock) {
+                    if (inMergedPreprocess) {
+                        overlappingPreprocess++;
+                    }
+                    inMergedPreprocess = true;
+                }
+
+                try {
+                    if (waitingEvent == null) {
+                        return true;
+                    }
+
+                    ((CountedEvent)waitingEvent).count +=
+                        ((CountedEvent)event).count;
+                    return false;
+                } finally {
+                    synchronized (preprocessLock) {
+                        inMergedPreprocess = false;
+                    }
+                }
+            }
+
+            public void process(Event event) {
+                mergedEvents += ((CountedEvent)event).count;
+            }
+        });
+
+        for (int i = 0; i < PRODUCERS; i++) {
+            lastSequence[i] = -1;
+        }
+
+        /* Only the dispatch thread is needed, not the native monitor. */
+        eq.eventQueueThread.start();
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < PRODUCERS; i++) {
+            final int producer = i;
+
+            producers[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < EVENTS; j++) {
+                        eq.post(new CountedEvent(PLAIN_TYPE, producer, j));
+                        eq.post(new CountedEvent(MERGED_TYPE, producer, j));
+                    }
+                }
+            };
+
+            producers[i].start();
+        }
+
+        for (int i = 0; i < PRODUCERS; i++) {
+            producers[i].join();
+        }
+
+        eq.post(new Event(EventTypes.EVENT_QUEUE_SHUTDOWN));
+        eq.eventQueueThread.join();
+        long time = System.currentTimeMillis() - start;
+
+        info("Event queue contention: " + PRODUCERS +
+            " threads posted " + (PRODUCERS * EVENTS * 2) +
+            " events in " + time + " ms");
+
+        assertFalse("queue should be shut down", eq.alive);
+        assertEquals("plain events", PRODUCERS * EVENTS, plainEvents);
+        assertEquals("out of order events", 0, outOfOrder);
+        assertEquals("merged events", PRODUCERS * EVENTS, mergedEvents);
+        assertEquals("overlapping preprocess of one type", 0,
+                     overlappingPreprocess);
+
+        for (int i = 0; i < PRODUCERS; i++) {
+            assertEquals("last event of producer " + i,
+                         EVENTS - 1, lastSequence[i]);
+        }
+    }
+
+    /**
+     * Runs all tests.
+     */
+    public void runTests() throws Throwable {
+        declare("testContention");
+        testContention();
+    }
+}
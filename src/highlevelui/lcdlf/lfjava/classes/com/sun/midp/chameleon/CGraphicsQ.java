@@ -26,13 +26,17 @@
 
 package com.sun.midp.chameleon;
 
-import javax.microedition.lcdui.*;
-import java.util.Vector;
-
 /**
  * Chameleon graphics queue class. This class contains methods 
  * to help to better control when, how, and how many pixels 
  * actually get blitted from the buffer to the physical display.
+ * <p>
+ * The queued areas are kept as a small set of rectangles. A new area
+ * is merged with a queued rectangle when the extra pixels blitted by
+ * the merged rectangle cost less than a separate blit, so overlapping,
+ * adjacent and nearby areas are blitted together. The number of
+ * rectangles is bounded; when it is reached, the two rectangles which
+ * are cheapest to merge are merged.</p>
  */
 public class CGraphicsQ {
     /** 
@@ -41,15 +45,36 @@ public class CGraphicsQ {
      * bounds, repaints, etc.
      */    
     public static final boolean DEBUG = false;
-    
-    /** A queue of refresh areas, represented by 4 element arrays */
-    protected Vector refreshQ;
-    
+
+    /** Maximum number of refresh regions returned by one flush. */
+    public static final int MAX_REGIONS = 8;
+
+    /**
+     * Cost of one blit to the display, in pixels. Two regions are merged
+     * if the merged region has at most this number of extra pixels.
+     */
+    static final int BLIT_COST = 1024;
+
+    /**
+     * The queued refresh regions, x, y, width and height of each
+     * region. The array has room for one more region than the maximum
+     * so a new region can be added before the regions are reduced.
+     */
+    private int[] regions = new int[(MAX_REGIONS + 1) * 4];
+
+    /** Number of queued refresh regions. */
+    private int regionCount; // = 0;
+
+    /** Number of pixels queued for refresh, including overlaps. */
+    private long dirtyPixels; // = 0;
+
+    /** Number of pixels returned for refresh. */
+    private long flushedPixels; // = 0;
+
     /**
      * Construct a new Graphics queue. 
      */
     public CGraphicsQ() {
-        refreshQ = new Vector();
     }
     
     /**
@@ -65,67 +90,176 @@ public class CGraphicsQ {
      * @param w the width of the region
      * @param h the height of the region
      */
-    public void queueRefresh(int x, int y, int w, int h) {
-        synchronized (refreshQ) {
-            int[] region;
-            for (int i = 0; i < refreshQ.size(); i++) {
-                region = (int[])refreshQ.elementAt(i);
-                
-                // We test to see if we already have the dirty region
-                if (region[0] == x && region[1] == y &&
-                    region[2] == w && region[3] == h)
-                {
-                    return;
-                }
+    public synchronized void queueRefresh(int x, int y, int w, int h) {
+        if (w <= 0 || h <= 0) {
+            return;
+        }
 
-                // We also test to see if the dirty region is wholely
-                // contained within another region
-                if (x >= region[0] && y >= region[1] &&                
-                    (x + w) <= (region[0] + region[2]) && 
-                    (y + h) <= (region[1] + region[3])) 
-                {
-                    return;                    
-                }
+        dirtyPixels += (long)w * h;
+
+        int last = regionCount * 4;
+        regions[last] = x;
+        regions[last + 1] = y;
+        regions[last + 2] = w;
+        regions[last + 3] = h;
+        regionCount++;
 
-                // Lastly, we do a special case whereby the region
-                // is congruent with a previous region. For instance,
-                // when changing screens, the title area will repaint,
-                // the body area will repaint, and the soft button
-                // area will repaint. All 3 areas are congruent and
-                // can be coalesced.
-                if (x == region[0] && w == region[2]) {
-                    if ((region[1] + region[3]) == y ||
-                        (y + h) == region[1]) 
-                    {
-                        if (region[1] > y) {
-                            region[1] = y;
-                        }
-                        region[3] += h;
-                        return;
-                    } 
+        // Merge the new region with the queued ones for as long as it
+        // is cheaper than blitting them separately. A merge grows the
+        // region, so it may then be worth merging with another one.
+        int index = regionCount - 1;
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            for (int i = 0; i < regionCount; i++) {
+                if (i != index && mergeCost(i, index) <= BLIT_COST) {
+                    index = merge(i, index);
+                    merged = true;
+                    break;
                 }
             }
-            refreshQ.addElement(new int[] {x, y, w, h});
+        }
+
+        if (regionCount > MAX_REGIONS) {
+            mergeCheapest();
         }
     }
     
     /**
-     * Get the queue of all areas of the screen to be refreshed
-     * (blitted to the screen). This method will empty the queue
-     * and return its contents. Each element in the array will be
-     * a 4 element int[] holding the x, y, w, and h of each refresh
-     * region
+     * Get all areas of the screen to be refreshed (blitted to the
+     * screen). This method will empty the queue and copy its contents
+     * into the given array, the x, y, w, and h of each refresh region
+     * one after another.
      *
-     * @return the queue of all areas of the screen to be refreshed,
-     *         as an array of arrays
+     * @param q array for the regions, it must have room for
+     *        4 * MAX_REGIONS elements
+     *
+     * @return the number of regions copied
      */
-    public Object[] getRefreshRegions() {
-        synchronized (refreshQ) {
-            Object[] q = new Object[refreshQ.size()];
-            refreshQ.copyInto(q);
-            refreshQ.removeAllElements();
-            return q;
+    public synchronized int getRefreshRegions(int[] q) {
+        int count = regionCount;
+
+        System.arraycopy(regions, 0, q, 0, count * 4);
+        for (int i = 0; i < count * 4; i += 4) {
+            flushedPixels += (long)regions[i + 2] * regions[i + 3];
         }
+
+        regionCount = 0;
+        return count;
     }
-}
 
+    /**
+     * Get the number of pixels queued for refresh so far. Areas queued
+     * more than once are counted each time.
+     *
+     * @return the number of dirty pixels
+     */
+    public synchronized long getDirtyPixels() {
+        return dirtyPixels;
+    }
+
+    /**
+     * Get the number of pixels returned for refresh so far. The
+     * difference to the dirty pixels is the saving from merging
+     * overlapping regions minus the cost of merging regions which are
+     * near to each other.
+     *
+     * @return the number of flushed pixels
+     */
+    public synchronized long getFlushedPixels() {
+        return flushedPixels;
+    }
+
+    /**
+     * Compute the number of extra pixels blitted if two regions are
+     * replaced by their bounding box.
+     *
+     * @param r1 index of the first region
+     * @param r2 index of the second region
+     *
+     * @return pixels in the bounding box minus pixels in the union of
+     *         the regions
+     */
+    private long mergeCost(int r1, int r2) {
+        int i1 = r1 * 4;
+        int i2 = r2 * 4;
+        int x1 = regions[i1];
+        int y1 = regions[i1 + 1];
+        int right1 = x1 + regions[i1 + 2];
+        int bottom1 = y1 + regions[i1 + 3];
+        int x2 = regions[i2];
+        int y2 = regions[i2 + 1];
+        int right2 = x2 + regions[i2 + 2];
+        int bottom2 = y2 + regions[i2 + 3];
+
+        long box = (long)(Math.max(right1, right2) - Math.min(x1, x2)) *
+            (Math.max(bottom1, bottom2) - Math.min(y1, y2));
+        long union = (long)regions[i1 + 2] * regions[i1 + 3] +
+            (long)regions[i2 + 2] * regions[i2 + 3];
+
+        int overlapWidth = Math.min(right1, right2) - Math.max(x1, x2);
+        int overlapHeight = Math.min(bottom1, bottom2) - Math.max(y1, y2);
+        if (overlapWidth > 0 && overlapHeight > 0) {
+            union -= (long)overlapWidth * overlapHeight;
+        }
+
+        return box - union;
+    }
+
+    /**
+     * Replace two regions by their bounding box.
+     *
+     * @param r1 index of the first region
+     * @param r2 index of the second region
+     *
+     * @return the index of the merged region
+     */
+    private int merge(int r1, int r2) {
+        int keep = Math.min(r1, r2);
+        int drop = Math.max(r1, r2);
+        int i1 = keep * 4;
+        int i2 = drop * 4;
+
+        int x = Math.min(regions[i1], regions[i2]);
+        int y = Math.min(regions[i1 + 1], regions[i2 + 1]);
+        int right = Math.max(regions[i1] + regions[i1 + 2],
+                             regions[i2] + regions[i2 + 2]);
+        int bottom = Math.max(regions[i1 + 1] + regions[i1 + 3],
+                              regions[i2 + 1] + regions[i2 + 3]);
+
+        regions[i1] = x;
+        regions[i1 + 1] = y;
+        regions[i1 + 2] = right - x;
+        regions[i1 + 3] = bottom - y;
+
+        // Move the last region into the freed slot
+        regionCount--;
+        if (drop != regionCount) {
+            System.arraycopy(regions, regionCount * 4, regions, i2, 4);
+        }
+
+        return keep;
+    }
+
+    /**
+     * Merge the two regions with the smallest merge cost.
+     */
+    private void mergeCheapest() {
+        int best1 = 0;
+        int best2 = 1;
+        long bestCost = Long.MAX_VALUE;
+
+        for (int i = 0; i < regionCount; i++) {
+            for (int j = i + 1; j < regionCount; j++) {
+                long cost = mergeCost(i, j);
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    best1 = i;
+                    best2 = j;
+                }
+            }
+        }
+
+        merge(best1, best2);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ *   
+ *
+ * Copyright  1990-2007 Sun Microsystems, Inc. All Rights Reserved. 
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER 
+ *  
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License version 
+ * 2 only, as published by the Free Software Foundation. 
+ *  
+ * This program is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License version 2 for more details (a copy is 
+ * included at /legal/license.txt). 
+ *  
+ * You should have received a copy of the GNU General Public License 
+ * version 2 along with this work; if not, write to the Free Software 
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 
+ * 02110-1301 USA 
+ *  
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa 
+ * Clara, CA 95054 or visit www.sun.com if you need additional 
+ * information or have any questions.
+ */
+
+package com.sun.midp.lcdui;
+
+import java.util.Hashtable;
+
+import javax.microedition.lcdui.Font;
+
+/**
+ * Cache of the advance widths of the characters of a font, so text
+ * layout does not ask the native font for every character again.
+ * <p>
+ * The widths are kept in pages of 256 characters. A page is allocated
+ * when a character of its block is measured first, so the table is
+ * dense for the Latin and other blocks in use and does not take any
+ * memory for the rest of the character set.</p>
+ */
+final class GlyphAdvances {
+    /** Number of characters in a page, a power of 2. */
+    private static final int PAGE_SIZE = 256;
+
+    /** Shift to get the page of a character. */
+    private static final int PAGE_SHIFT = 8;
+
+    /** The caches of the fonts used so far, by Font. */
+    private static Hashtable fonts = new Hashtable(4);
+
+    /** The font the widths are measured with. */
+    private final Font font;
+
+    /**
+     * Pages of character widths plus one, 0 stands for a width not
+     * measured yet.
+     */
+    private final short[][] pages = new short[0x10000 >> PAGE_SHIFT][];
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param font the font to measure
+     */
+    private GlyphAdvances(Font font) {
+        this.font = font;
+    }
+
+    /**
+     * Gets the cache of a font. Fonts are shared by Font.getFont, so
+     * there are only a few of them.
+     *
+     * @param font the font
+     *
+     * @return the cache of the font
+     */
+    static GlyphAdvances get(Font font) {
+        synchronized (fonts) {
+            GlyphAdvances advances = (GlyphAdvances)fonts.get(font);
+
+            if (advances == null) {
+                advances = new GlyphAdvances(font);
+                fonts.put(font, advances);
+            }
+
+            return advances;
+        }
+    }
+
+    /**
+     * Gets the advance width of a character, the same as
+     * Font.charWidth().
+     *
+     * @param ch the character
+     *
+     * @return the width of the character in pixels
+     */
+    int charWidth(char ch) {
+        short[] page = pages[ch >> PAGE_SHIFT];
+
+        if (page == null) {
+            page = new short[PAGE_SIZE];
+            pages[ch >> PAGE_SHIFT] = page;
+        }
+
+        int width = page[ch & (PAGE_SIZE - 1)] - 1;
+
+        if (width < 0) {
+            width = font.charWidth(ch);
+            page[ch & (PAGE_SIZE - 1)] = (short)(width + 1);
+        }
+
+        return width;
+    }
+}
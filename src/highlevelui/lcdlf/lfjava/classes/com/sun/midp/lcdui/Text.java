@@ -124,7 +124,8 @@ public class Text {
         inout[GNL_HEIGHT] = h;
         inout[GNL_OPTIONS] = options;
         inout[GNL_OFFSET] = offset;
-        inout[GNL_ELLIP_WIDTH] = font.charWidth(truncationMark);
+        inout[GNL_ELLIP_WIDTH] =
+            GlyphAdvances.get(font).charWidth(truncationMark);
         inout[GNL_LINE_START] = 0;
         inout[GNL_LINE_END] = 0;
         inout[GNL_NEW_LINE_START] = 0;
@@ -280,6 +281,12 @@ public class Text {
 	if (info.isModified) {
 	    
 	    int[] inout = initGNL(font, w, h, options, offset);
+
+	    // without truncation the line breaks do not depend on the height
+	    int[] lines = null;
+	    if ((options & TRUNCATE) == 0) {
+		lines = getLineBreaks(str, font, w, offset);
+	    }
 	    
 	    int numLines = 0;
 	    int height   = 0;
@@ -294,7 +301,11 @@ public class Text {
 		
 		inout[GNL_NUM_LINES] = numLines;
 		
-		getNextLine(text, font, inout);
+		if (lines != null) {
+		    getCachedLine(lines, numLines - 1, inout);
+		} else {
+		    getNextLine(text, font, inout);
+		}
 		
 		int lineStart    = inout[GNL_LINE_START];
 		int lineEnd      = inout[GNL_LINE_END];
@@ -556,6 +567,12 @@ public class Text {
 
         int[] inout = initGNL(font, w, h, options, offset );
 
+        // without truncation the line breaks do not depend on the height
+        int[] lines = null;
+        if ((options & TRUNCATE) == 0) {
+            lines = getLineBreaks(str, font, w, offset);
+        }
+
         if (ScreenSkin.RL_DIRECTION) {
             offset = w - offset;
         }
@@ -574,7 +591,12 @@ public class Text {
 
             inout[GNL_NUM_LINES] = numLines;
 
-            boolean truncate = getNextLine(text, font, inout);
+            boolean truncate = false;
+            if (lines != null) {
+                getCachedLine(lines, numLines - 1, inout);
+            } else {
+                truncate = getNextLine(text, font, inout);
+            }
 
             int lineStart    = inout[GNL_LINE_START];
             int lineEnd      = inout[GNL_LINE_END];
@@ -769,37 +791,24 @@ public class Text {
 	    return;
         }
 
-	char[] text = str.toCharArray();
-
-        int[] inout = initGNL(font, availableWidth, 0, Text.NORMAL, offset);
+        int[] lines = getLineBreaks(str, font, availableWidth, offset);
 
-        int numLines = 0;
+        int numLines = lines[0];
         int widest = 0;
-	boolean widthFound = false;
-
-        do {
-
-            numLines++;
-
-            inout[GNL_NUM_LINES] = numLines;
-
-            getNextLine(text, font, inout);
-
 
-        if (!widthFound) {
-		// a long line with no spaces
-		if (inout[GNL_LINE_WIDTH] > availableWidth && offset == 0) {
-		    widest = availableWidth;
-		    widthFound = true;
-		} else if (inout[GNL_LINE_WIDTH] > widest) {
-		    widest = inout[GNL_LINE_WIDTH];
-		}
-	    }
-
-            inout[GNL_LINE_START] = inout[GNL_NEW_LINE_START];
-            inout[GNL_OFFSET] = 0;
+        for (int i = 0; i < numLines; i++) {
+            int lineWidth =
+                lines[1 + i * TextLayoutCache.LINE_DATA +
+                      TextLayoutCache.LINE_WIDTH];
 
-        } while (inout[GNL_LINE_END] < text.length);
+            // a long line with no spaces
+            if (lineWidth > availableWidth && offset == 0) {
+                widest = availableWidth;
+                break;
+            } else if (lineWidth > widest) {
+                widest = lineWidth;
+            }
+        }
 
 	size[WIDTH] = widest;
 	size[HEIGHT] = font.getHeight() * numLines;
@@ -849,6 +858,78 @@ public class Text {
 	return tmpSize[WIDTH];
     }
 
+    /**
+     * Gets the line breaks of a string which is not truncated. The
+     * breaks of recently wrapped strings are taken from the layout
+     * cache.
+     *
+     * @param str the text to wrap, not null
+     * @param font font to use for width information
+     * @param w the available width for the text
+     * @param offset the first line pixel offset
+     * @return the number of lines followed by the start, end, start of
+     *         the next line and width of each line, see TextLayoutCache.
+     *         The array must not be modified.
+     */
+    private static int[] getLineBreaks(String str, Font font,
+                                       int w, int offset) {
+        int[] lines = TextLayoutCache.get(str, font, w, offset);
+
+        if (lines != null) {
+            return lines;
+        }
+
+        char[] text = str.toCharArray();
+        int[] inout = initGNL(font, w, 0, Text.NORMAL, offset);
+        int numLines = 0;
+
+        lines = new int[1 + 4 * TextLayoutCache.LINE_DATA];
+
+        do {
+            numLines++;
+            inout[GNL_NUM_LINES] = numLines;
+
+            getNextLine(text, font, inout);
+
+            int i = 1 + (numLines - 1) * TextLayoutCache.LINE_DATA;
+            if (i + TextLayoutCache.LINE_DATA > lines.length) {
+                int[] newLines = new int[lines.length * 2];
+                System.arraycopy(lines, 0, newLines, 0, lines.length);
+                lines = newLines;
+            }
+
+            lines[i + TextLayoutCache.LINE_START] = inout[GNL_LINE_START];
+            lines[i + TextLayoutCache.LINE_END] = inout[GNL_LINE_END];
+            lines[i + TextLayoutCache.NEW_LINE_START] =
+                inout[GNL_NEW_LINE_START];
+            lines[i + TextLayoutCache.LINE_WIDTH] = inout[GNL_LINE_WIDTH];
+
+            inout[GNL_LINE_START] = inout[GNL_NEW_LINE_START];
+            inout[GNL_OFFSET] = 0;
+        } while (inout[GNL_LINE_END] < text.length);
+
+        lines[0] = numLines;
+        TextLayoutCache.put(str, font, w, offset, lines);
+        return lines;
+    }
+
+    /**
+     * Copies the breaks of a line from the result of getLineBreaks
+     * into the inout structure, as getNextLine would have set them.
+     *
+     * @param lines line breaks returned by getLineBreaks
+     * @param line index of the line, 0 for the first line
+     * @param inout the GNL_ structure to update
+     */
+    private static void getCachedLine(int[] lines, int line, int[] inout) {
+        int i = 1 + line * TextLayoutCache.LINE_DATA;
+
+        inout[GNL_LINE_START] = lines[i + TextLayoutCache.LINE_START];
+        inout[GNL_LINE_END] = lines[i + TextLayoutCache.LINE_END];
+        inout[GNL_NEW_LINE_START] = lines[i + TextLayoutCache.NEW_LINE_START];
+        inout[GNL_LINE_WIDTH] = lines[i + TextLayoutCache.LINE_WIDTH];
+    }
+
     /**
      * Calculates the starting and ending points for a new line of
      * text given the font and input parameters. Beware of the
@@ -876,6 +957,8 @@ public class Text {
         int prevLineWidth     = 0;
         int curLineWidth      = 0;
 
+        GlyphAdvances advances = GlyphAdvances.get(font);
+
         while (curLoc < text.length) {
 
             //
@@ -918,7 +1001,7 @@ public class Text {
             // otherwise the word is broken. 
             //
 
-            curLineWidth = prevLineWidth + font.charWidth(text[curLoc]);
+            curLineWidth = prevLineWidth + advances.charWidth(text[curLoc]);
             
             // check up the mode is "truncate" and we reached the end of
             // the last line that we can put into the specifed rectangle area
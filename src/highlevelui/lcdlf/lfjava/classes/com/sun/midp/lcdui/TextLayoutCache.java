@@ -0,0 +1,157 @@
+/*
+ *   
+ *
+ * Copyright  1990-2007 Sun Microsystems, Inc. All Rights Reserved. 
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER 
+ *  
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License version 
+ * 2 only, as published by the Free Software Foundation. 
+ *  
+ * This program is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License version 2 for more details (a copy is 
+ * included at /legal/license.txt). 
+ *  
+ * You should have received a copy of the GNU General Public License 
+ * version 2 along with this work; if not, write to the Free Software 
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 
+ * 02110-1301 USA 
+ *  
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa 
+ * Clara, CA 95054 or visit www.sun.com if you need additional 
+ * information or have any questions.
+ */
+
+package com.sun.midp.lcdui;
+
+import javax.microedition.lcdui.Font;
+
+import com.sun.midp.main.Configuration;
+
+/**
+ * Cache of the line breaks of recently wrapped strings. Wrapping text
+ * that is not truncated depends only on the string, the font, the
+ * available width and the offset of the first line, so items which
+ * are laid out and painted again and again can reuse the breaks.
+ * <p>
+ * Strings are compared by identity; an item that keeps its String
+ * finds its breaks, a changed text is a new String and is wrapped
+ * again. The least recently used entry is replaced when the cache
+ * is full.</p>
+ */
+final class TextLayoutCache {
+    /**
+     * Number of cached layouts. A Form asks for the size of an item
+     * several times during a layout, so a few dozens are enough for
+     * long Forms.
+     */
+    private static final int SIZE = Configuration.getPositiveIntProperty(
+        "com.sun.midp.lcdui.textLayoutCacheSize", 32);
+
+    /** Number of ints kept for each line. */
+    static final int LINE_DATA = 4;
+
+    /** Index of the line start in the data of a line. */
+    static final int LINE_START = 0;
+
+    /** Index of the line end in the data of a line. */
+    static final int LINE_END = 1;
+
+    /** Index of the start of the next line in the data of a line. */
+    static final int NEW_LINE_START = 2;
+
+    /** Index of the line width in the data of a line. */
+    static final int LINE_WIDTH = 3;
+
+    /** The wrapped strings. */
+    private static String[] strings = new String[SIZE];
+
+    /** The fonts of the layouts. */
+    private static Font[] fonts = new Font[SIZE];
+
+    /** The available widths of the layouts. */
+    private static int[] widths = new int[SIZE];
+
+    /** The offsets of the first lines of the layouts. */
+    private static int[] offsets = new int[SIZE];
+
+    /**
+     * The line breaks of the layouts, the number of lines followed by
+     * LINE_DATA ints for each line.
+     */
+    private static int[][] lines = new int[SIZE][];
+
+    /** Value of useCount when a layout was used last. */
+    private static int[] lastUse = new int[SIZE];
+
+    /** Incremented each time a layout is used. */
+    private static int useCount; // = 0;
+
+    /** Number of lookups that found a layout, for tuning. */
+    static int hits; // = 0;
+
+    /** Number of lookups that did not find a layout, for tuning. */
+    static int misses; // = 0;
+
+    /** No instances. */
+    private TextLayoutCache() {
+    }
+
+    /**
+     * Gets the cached line breaks of a string.
+     *
+     * @param str the string
+     * @param font the font of the text
+     * @param width the available width
+     * @param offset the pixel offset of the first line
+     *
+     * @return the number of lines followed by LINE_DATA ints for each
+     *         line, or null if the layout is not cached. The array must
+     *         not be modified.
+     */
+    static synchronized int[] get(String str, Font font, int width,
+                                  int offset) {
+        for (int i = 0; i < SIZE; i++) {
+            if (strings[i] == str && fonts[i] == font &&
+                    widths[i] == width && offsets[i] == offset) {
+                lastUse[i] = ++useCount;
+                hits++;
+                return lines[i];
+            }
+        }
+
+        misses++;
+        return null;
+    }
+
+    /**
+     * Adds the line breaks of a string, replacing the least recently
+     * used layout.
+     *
+     * @param str the string
+     * @param font the font of the text
+     * @param width the available width
+     * @param offset the pixel offset of the first line
+     * @param lineData the number of lines followed by LINE_DATA ints for
+     *        each line
+     */
+    static synchronized void put(String str, Font font, int width,
+                                 int offset, int[] lineData) {
+        int oldest = 0;
+
+        for (int i = 1; i < SIZE; i++) {
+            if (lastUse[i] - lastUse[oldest] < 0) {
+                oldest = i;
+            }
+        }
+
+        strings[oldest] = str;
+        fonts[oldest] = font;
+        widths[oldest] = width;
+        offsets[oldest] = offset;
+        lines[oldest] = lineData;
+        lastUse[oldest] = ++useCount;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ *
+ *
+ * Copyright  1990-2007 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.chameleon;
+
+import com.sun.midp.i3test.TestCase;
+
+/**
+ * Tests merging of refresh regions in the chameleon graphics queue.
+ */
+public class TestCGraphicsQ extends TestCase {
+
+    /** Buffer for the refresh regions. */
+    private int[] q = new int[CGraphicsQ.MAX_REGIONS * 4];
+
+    /**
+     * Overridden from TestCase parent. This method will kick off each
+     * individual test
+     */
+    public void runTests() {
+        declare("testContained");
+        testContained();
+
+        declare("testAdjacent");
+        testAdjacent();
+
+        declare("testDistant");
+        testDistant();
+
+        declare("testBounded");
+        testBounded();
+
+        declare("testPixelCounts");
+        testPixelCounts();
+    }
+
+    /**
+     * Regions inside a queued region and duplicates are absorbed.
+     */
+    public void testContained() {
+        CGraphicsQ gq = new CGraphicsQ();
+
+        gq.queueRefresh(0, 0, 100, 100);
+        gq.queueRefresh(10, 10, 20, 20);
+        gq.queueRefresh(0, 0, 100, 100);
+        gq.queueRefresh(0, 0, 0, 50);
+
+        assertEquals(1, gq.getRefreshRegions(q));
+        assertRegion(0, 0, 0, 100, 100);
+        assertEquals("queue not emptied", 0, gq.getRefreshRegions(q));
+    }
+
+    /**
+     * Adjacent and overlapping regions, like the title, body and soft
+     * button areas, are merged into one.
+     */
+    public void testAdjacent() {
+        CGraphicsQ gq = new CGraphicsQ();
+
+        gq.queueRefresh(0, 20, 240, 260);
+        gq.queueRefresh(0, 0, 240, 20);
+        gq.queueRefresh(0, 280, 240, 40);
+        gq.queueRefresh(200, 100, 100, 10);
+
+        assertEquals(2, gq.getRefreshRegions(q));
+        assertRegion(0, 0, 0, 240, 320);
+        assertRegion(1, 200, 100, 100, 10);
+
+        // the first region grows, then swallows the second one
+        gq.queueRefresh(0, 0, 100, 100);
+        gq.queueRefresh(100, 0, 100, 100);
+        gq.queueRefresh(50, 50, 100, 100);
+        gq.queueRefresh(0, 100, 200, 100);
+
+        assertEquals(1, gq.getRefreshRegions(q));
+        assertRegion(0, 0, 0, 200, 200);
+    }
+
+    /**
+     * Regions far from each other are not merged.
+     */
+    public void testDistant() {
+        CGraphicsQ gq = new CGraphicsQ();
+
+        gq.queueRefresh(0, 0, 50, 50);
+        gq.queueRefresh(100, 100, 50, 50);
+
+        assertEquals(2, gq.getRefreshRegions(q));
+        assertRegion(0, 0, 0, 50, 50);
+        assertRegion(1, 100, 100, 50, 50);
+    }
+
+    /**
+     * The number of regions is bounded, the cheapest pair is merged
+     * when there are too many.
+     */
+    public void testBounded() {
+        CGraphicsQ gq = new CGraphicsQ();
+
+        // too far from each other to be merged by cost
+        for (int i = 0; i < CGraphicsQ.MAX_REGIONS; i++) {
+            gq.queueRefresh(i * 200, 0, 10, 10);
+        }
+        // nearer to the last region than any other regions are
+        gq.queueRefresh((CGraphicsQ.MAX_REGIONS - 1) * 200 + 130, 0, 10, 10);
+
+        int count = gq.getRefreshRegions(q);
+        assertEquals(CGraphicsQ.MAX_REGIONS, count);
+
+        boolean found = false;
+        for (int i = 0; i < count; i++) {
+            if (q[i * 4] == (CGraphicsQ.MAX_REGIONS - 1) * 200) {
+                assertEquals("merged width", 140, q[i * 4 + 2]);
+                found = true;
+            }
+        }
+        assertTrue("merged region", found);
+    }
+
+    /**
+     * The queue counts the dirty and the flushed pixels.
+     */
+    public void testPixelCounts() {
+        CGraphicsQ gq = new CGraphicsQ();
+
+        gq.queueRefresh(0, 0, 10, 10);
+        gq.queueRefresh(5, 0, 10, 10);
+        gq.getRefreshRegions(q);
+
+        assertTrue("dirty", gq.getDirtyPixels() == 200);
+        assertTrue("flushed", gq.getFlushedPixels() == 150);
+    }
+
+    /**
+     * Checks a region returned by the queue.
+     *
+     * @param i index of the region
+     * @param x expected x coordinate
+     * @param y expected y coordinate
+     * @param w expected width
+     * @param h expected height
+     */
+    private void assertRegion(int i, int x, int y, int w, int h) {
+        assertEquals("x", x, q[i * 4]);
+        assertEquals("y", y, q[i * 4 + 1]);
+        assertEquals("w", w, q[i * 4 + 2]);
+        assertEquals("h", h, q[i * 4 + 3]);
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ *
+ *
+ * Copyright  1990-2007 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.lcdui;
+
+import javax.microedition.lcdui.Font;
+import javax.microedition.lcdui.Graphics;
+import javax.microedition.lcdui.Image;
+
+import com.sun.midp.i3test.TestCase;
+
+/**
+ * Tests the glyph advance and line break caches of Text and measures
+ * the layout of the strings of a long Form.
+ */
+public class TestTextLayout extends TestCase {
+
+    /** Number of items of the long Form. */
+    private static final int NUM_ITEMS = 200;
+
+    /** Width available to the items. */
+    private static final int WIDTH = 100;
+
+    /** Font of the items. */
+    private Font font = Font.getDefaultFont();
+
+    /**
+     * Overridden from TestCase parent. This method will kick off each
+     * individual test
+     */
+    public void runTests() {
+        declare("testGlyphAdvances");
+        testGlyphAdvances();
+
+        declare("testSizes");
+        testSizes();
+
+        declare("testTextInfo");
+        testTextInfo();
+
+        declare("testPaint");
+        testPaint();
+
+        declare("benchmarkLongForm");
+        benchmarkLongForm();
+    }
+
+    /**
+     * The cached widths are the widths of the font.
+     */
+    public void testGlyphAdvances() {
+        GlyphAdvances advances = GlyphAdvances.get(font);
+
+        assertSame(advances, GlyphAdvances.get(font));
+
+        for (char ch = 0; ch < 0x180; ch++) {
+            assertEquals("char " + (int)ch,
+                         font.charWidth(ch), advances.charWidth(ch));
+            assertEquals("again char " + (int)ch,
+                         font.charWidth(ch), advances.charWidth(ch));
+        }
+
+        assertEquals(font.charWidth('\u4e00'), advances.charWidth('\u4e00'));
+    }
+
+    /**
+     * Sizes of cached layouts are the same as the sizes of strings
+     * wrapped again.
+     */
+    public void testSizes() {
+        int[] size = new int[4];
+        int[] expected = new int[4];
+
+        for (int i = 0; i < NUM_ITEMS; i++) {
+            String str = getItemText(i);
+
+            for (int offset = 0; offset < 30; offset += 15) {
+                // a copy is not found in the cache and is wrapped again
+                Text.getSizeForWidth(expected, WIDTH, new String(str),
+                                     font, offset);
+
+                Text.getSizeForWidth(size, WIDTH, str, font, offset);
+                int hits = TextLayoutCache.hits;
+                Text.getSizeForWidth(size, WIDTH, str, font, offset);
+
+                assertEquals("layout not reused", hits + 1,
+                             TextLayoutCache.hits);
+                assertEquals("width " + i, expected[Text.WIDTH],
+                             size[Text.WIDTH]);
+                assertEquals("height " + i, expected[Text.HEIGHT],
+                             size[Text.HEIGHT]);
+            }
+        }
+    }
+
+    /**
+     * Line breaks of cached layouts are the same as the ones found
+     * when the text is truncated but fits.
+     */
+    public void testTextInfo() {
+        for (int i = 0; i < NUM_ITEMS; i += 7) {
+            String str = getItemText(i);
+            TextInfo cached = new TextInfo(4);
+            TextInfo wrapped = new TextInfo(4);
+
+            Text.updateTextInfo(str, font, WIDTH, 10000, 0, Text.NORMAL,
+                                null, cached);
+            Text.updateTextInfo(str, font, WIDTH, 10000, 0, Text.TRUNCATE,
+                                null, wrapped);
+
+            assertEquals("lines " + i, wrapped.numLines, cached.numLines);
+            for (int l = 0; l < cached.numLines; l++) {
+                assertEquals("start " + i, wrapped.lineStart[l],
+                             cached.lineStart[l]);
+                assertEquals("end " + i, wrapped.lineEnd[l],
+                             cached.lineEnd[l]);
+            }
+        }
+    }
+
+    /**
+     * Text painted with cached line breaks looks the same as text
+     * truncated but fitting.
+     */
+    public void testPaint() {
+        int h = 200;
+        Image cached = Image.createImage(WIDTH, h);
+        Image wrapped = Image.createImage(WIDTH, h);
+        int[] cachedRGB = new int[WIDTH * h];
+        int[] wrappedRGB = new int[WIDTH * h];
+
+        for (int i = 0; i < NUM_ITEMS; i += 13) {
+            String str = getItemText(i);
+            Graphics g;
+
+            g = cached.getGraphics();
+            g.setColor(0xffffff);
+            g.fillRect(0, 0, WIDTH, h);
+            int cachedWidth = Text.paint(g, str, font, 0, 0, WIDTH, 10000,
+                                         5, Text.NORMAL, null);
+
+            g = wrapped.getGraphics();
+            g.setColor(0xffffff);
+            g.fillRect(0, 0, WIDTH, h);
+            int wrappedWidth = Text.paint(g, str, font, 0, 0, WIDTH, 10000,
+                                          5, Text.TRUNCATE, null);
+
+            assertEquals("last line " + i, wrappedWidth, cachedWidth);
+
+            cached.getRGB(cachedRGB, 0, WIDTH, 0, 0, WIDTH, h);
+            wrapped.getRGB(wrappedRGB, 0, WIDTH, 0, 0, WIDTH, h);
+            for (int p = 0; p < cachedRGB.length; p++) {
+                if (cachedRGB[p] != wrappedRGB[p]) {
+                    fail("pixel " + p + " of item " + i);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Measures the sizes of the items of a long Form, asking for the
+     * size of each item a few times like a Form layout does.
+     */
+    public void benchmarkLongForm() {
+        int[] size = new int[4];
+        String[] items = new String[NUM_ITEMS];
+
+        for (int i = 0; i < NUM_ITEMS; i++) {
+            items[i] = getItemText(i);
+        }
+
+        int hits = TextLayoutCache.hits;
+        int misses = TextLayoutCache.misses;
+        long start = System.currentTimeMillis();
+        int total = 0;
+
+        for (int layout = 0; layout < 10; layout++) {
+            for (int i = 0; i < NUM_ITEMS; i++) {
+                // preferred, minimum and content size
+                for (int n = 0; n < 3; n++) {
+                    Text.getSizeForWidth(size, WIDTH, items[i], font, 0);
+                    total += size[Text.HEIGHT];
+                }
+            }
+        }
+
+        long time = System.currentTimeMillis() - start;
+
+        info("TestTextLayout: 10 layouts of " + NUM_ITEMS +
+             " items in " + time + " ms, " +
+             (TextLayoutCache.hits - hits) + " hits, " +
+             (TextLayoutCache.misses - misses) + " misses");
+
+        assertTrue("no layout reused", TextLayoutCache.hits - hits >=
+                   2 * 10 * NUM_ITEMS);
+        assertTrue(total > 0);
+    }
+
+    /**
+     * Gets the text of an item of the long Form.
+     *
+     * @param i index of the item
+     *
+     * @return text of a few words, some of them too long for a line
+     */
+    private static String getItemText(int i) {
+        StringBuffer sb = new StringBuffer();
+
+        sb.append("Item ").append(i).append(':');
+        for (int w = 0; w < i % 17 + 1; w++) {
+            sb.append(' ');
+            for (int c = 0; c <= (i + w) % 9; c++) {
+                sb.append((char)('a' + (i * 3 + w + c) % 26));
+            }
+            if ((i + w) % 23 == 0) {
+                sb.append("averyveryverylongwordwithoutanyspaces");
+            }
+            if ((i + w) % 11 == 0) {
+                sb.append('\n');
+            }
+        }
+
+        return sb.toString();
+    }
+}
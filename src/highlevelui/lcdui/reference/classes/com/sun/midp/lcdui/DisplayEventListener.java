@@ -32,6 +32,7 @@ import com.sun.midp.events.Event;
 import com.sun.midp.events.EventTypes;
 import com.sun.midp.events.EventQueue;
 import com.sun.midp.events.EventListener;
+import com.sun.midp.events.EventCoalescer;
 import com.sun.midp.events.NativeEvent;
 
 import com.sun.midp.lcdui.EventConstants;
@@ -45,8 +46,10 @@ import com.sun.midp.log.LogChannels;
 
 /**
  * Listener for LCDUI events (user inputs, etc).
+ * Pointer drag events waiting in the event queue are coalesced, only the
+ * latest position is delivered.
  */
-public class DisplayEventListener implements EventListener {
+public class DisplayEventListener implements EventListener, EventCoalescer {
 
     /** Active displays. */
     private DisplayContainer displayContainer;
@@ -80,7 +83,8 @@ public class DisplayEventListener implements EventListener {
          * to call methods of found consumer.
          */
         eventQueue.registerEventListener(EventTypes.KEY_EVENT, this);
-        eventQueue.registerEventListener(EventTypes.PEN_EVENT, this);
+        eventQueue.registerEventListener(EventTypes.PEN_EVENT, this,
+                                         EventQueue.LANE_INPUT, this);
         eventQueue.registerEventListener(EventTypes.COMMAND_EVENT, this);
         eventQueue.registerEventListener(EventTypes.PEER_CHANGED_EVENT, this);
         eventQueue.registerEventListener(EventTypes.ROTATION_EVENT,this);
@@ -105,6 +109,30 @@ public class DisplayEventListener implements EventListener {
         return true;
     }
 
+    /**
+     * Merges a pointer drag event into a drag event of the same display
+     * waiting in the queue, keeping the latest position.
+     *
+     * @param waitingEvent the latest pointer event waiting in the queue
+     * @param event pointer event being posted
+     *
+     * @return true if the event has been merged into the waiting event
+     */
+    public boolean coalesce(Event waitingEvent, Event event) {
+        NativeEvent waiting = (NativeEvent)waitingEvent;
+        NativeEvent pen = (NativeEvent)event;
+
+        if (waiting.intParam1 != EventConstants.DRAGGED ||
+                pen.intParam1 != EventConstants.DRAGGED ||
+                waiting.intParam4 != pen.intParam4) {
+            return false;
+        }
+
+        waiting.intParam2 = pen.intParam2;
+        waiting.intParam3 = pen.intParam3;
+        return true;
+    }
+
     /**
      * Process an event.
      *
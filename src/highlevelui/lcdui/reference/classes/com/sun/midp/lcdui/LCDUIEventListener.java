@@ -83,6 +83,8 @@ public class LCDUIEventListener implements EventListener {
 
     /**
      * Preprocess an event that is being posted to the event queue.
+     * Only the two events are looked at, so posts of different types
+     * may preprocess at the same time.
      * 
      * @param newEvent event being posted
      *
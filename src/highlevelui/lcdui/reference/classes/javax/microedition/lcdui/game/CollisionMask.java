@@ -0,0 +1,241 @@
+/*
+ *   
+ *
+ * Copyright  1990-2007 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package javax.microedition.lcdui.game;
+
+import javax.microedition.lcdui.Image;
+
+/**
+ * Opacity of the pixels of an image region as a bitmask, used for pixel
+ * level collision detection. Each row of pixels is stored in whole ints,
+ * the leftmost pixel in the most significant bit, and a bit is set if
+ * the pixel is fully opaque. Two masks are compared 32 pixels at a time.
+ * <p>
+ * A mask is created once for an image and reused, it does not follow
+ * later changes of the image. Only mutable images can change and they
+ * are always fully opaque, so their masks stay valid.</p>
+ */
+final class CollisionMask {
+    /**
+     * Alpha channel bitmask.
+     */
+    private static final int ALPHA_BITMASK = 0xff000000;
+
+    /**
+     * Alpha channel value for full opacity.
+     */
+    private static final int FULLY_OPAQUE_ALPHA = 0xff000000;
+
+    /** Width of the mask in pixels. */
+    final int width;
+
+    /** Height of the mask in pixels. */
+    final int height;
+
+    /** Number of ints used for each row. */
+    final int wordsPerRow;
+
+    /** The rows of the mask. */
+    final int[] bits;
+
+    /**
+     * Creates an empty mask.
+     *
+     * @param w width in pixels
+     * @param h height in pixels
+     */
+    CollisionMask(int w, int h) {
+        width = w;
+        height = h;
+        wordsPerRow = (w + 31) >> 5;
+        bits = new int[wordsPerRow * h];
+    }
+
+    /**
+     * Creates the mask of an image. The pixels are read one row at a
+     * time, so only one row of ARGB data is allocated.
+     *
+     * @param image the image
+     *
+     * @return mask of the whole image
+     */
+    static CollisionMask create(Image image) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        CollisionMask mask = new CollisionMask(w, h);
+        int[] row = new int[w];
+
+        for (int y = 0, rowStart = 0; y < h;
+                 y++, rowStart += mask.wordsPerRow) {
+            image.getRGB(row, 0, w, 0, y, w, 1);
+
+            for (int x = 0; x < w; x++) {
+                if ((row[x] & ALPHA_BITMASK) == FULLY_OPAQUE_ALPHA) {
+                    mask.bits[rowStart + (x >> 5)] |= 0x80000000 >>> x;
+                }
+            }
+        }
+
+        return mask;
+    }
+
+    /**
+     * Creates the mask of a region of this mask as it is painted with
+     * a Sprite transform.
+     *
+     * @param x left coordinate of the region
+     * @param y top coordinate of the region
+     * @param w width of the untransformed region
+     * @param h height of the untransformed region
+     * @param transform one of the Sprite transforms
+     *
+     * @return mask of the transformed region, its top left pixel is the
+     *     top left pixel of the painted region
+     */
+    CollisionMask getRegion(int x, int y, int w, int h, int transform) {
+        boolean invertedAxes = (transform & Sprite.INVERTED_AXES) != 0;
+        boolean xFlip = (transform & Sprite.X_FLIP) != 0;
+        boolean yFlip = (transform & Sprite.Y_FLIP) != 0;
+        CollisionMask mask = invertedAxes ?
+            new CollisionMask(h, w) : new CollisionMask(w, h);
+
+        for (int dy = 0; dy < mask.height; dy++) {
+            int rowStart = dy * mask.wordsPerRow;
+
+            if (transform == Sprite.TRANS_NONE) {
+                int srcRowStart = (y + dy) * wordsPerRow;
+
+                for (int i = 0; i < mask.wordsPerRow; i++) {
+                    mask.bits[rowStart + i] =
+                        getBits(srcRowStart, x + (i << 5));
+                }
+
+                int extra = (mask.wordsPerRow << 5) - mask.width;
+                if (extra > 0) {
+                    /* clear the pixels right of the region */
+                    mask.bits[rowStart + mask.wordsPerRow - 1] &=
+                        -1 << extra;
+                }
+
+                continue;
+            }
+
+            for (int dx = 0; dx < mask.width; dx++) {
+                int sx;
+                int sy;
+
+                if (invertedAxes) {
+                    sx = xFlip ? mask.height - 1 - dy : dy;
+                    sy = yFlip ? mask.width - 1 - dx : dx;
+                } else {
+                    sx = xFlip ? mask.width - 1 - dx : dx;
+                    sy = yFlip ? mask.height - 1 - dy : dy;
+                }
+
+                if (isOpaque(x + sx, y + sy)) {
+                    mask.bits[rowStart + (dx >> 5)] |= 0x80000000 >>> dx;
+                }
+            }
+        }
+
+        return mask;
+    }
+
+    /**
+     * Checks if a pixel is opaque.
+     *
+     * @param x horizontal coordinate of the pixel
+     * @param y vertical coordinate of the pixel
+     *
+     * @return true if the pixel is fully opaque
+     */
+    boolean isOpaque(int x, int y) {
+        return (bits[y * wordsPerRow + (x >> 5)] & (0x80000000 >>> x)) != 0;
+    }
+
+    /**
+     * Gets 32 pixels of a row starting at any pixel. Pixels past the
+     * end of the row are not opaque or belong to the next row.
+     *
+     * @param rowStart index of the first int of the row
+     * @param x horizontal coordinate of the first pixel
+     *
+     * @return the pixels, the first in the most significant bit
+     */
+    private int getBits(int rowStart, int x) {
+        int word = x >> 5;
+        int shift = x & 31;
+        int result = bits[rowStart + word] << shift;
+
+        if (shift != 0 && word + 1 < wordsPerRow) {
+            result |= bits[rowStart + word + 1] >>> (32 - shift);
+        }
+
+        return result;
+    }
+
+    /**
+     * Checks if two masks have opaque pixels at the same place of a
+     * region. The region must lie within both masks.
+     *
+     * @param mask1 first mask
+     * @param x1 left coordinate of the region in the first mask
+     * @param y1 top coordinate of the region in the first mask
+     * @param mask2 second mask
+     * @param x2 left coordinate of the region in the second mask
+     * @param y2 top coordinate of the region in the second mask
+     * @param width width of the region
+     * @param height height of the region
+     *
+     * @return true if there is a pixel level collision
+     */
+    static boolean collide(CollisionMask mask1, int x1, int y1,
+                           CollisionMask mask2, int x2, int y2,
+                           int width, int height) {
+        int rowStart1 = y1 * mask1.wordsPerRow;
+        int rowStart2 = y2 * mask2.wordsPerRow;
+
+        for (int row = 0; row < height; row++,
+                 rowStart1 += mask1.wordsPerRow,
+                 rowStart2 += mask2.wordsPerRow) {
+            for (int col = 0; col < width; col += 32) {
+                int overlap = mask1.getBits(rowStart1, x1 + col) &
+                    mask2.getBits(rowStart2, x2 + col);
+
+                if (width - col < 32) {
+                    /* ignore the pixels right of the region */
+                    overlap &= -1 << (32 - (width - col));
+                }
+
+                if (overlap != 0) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+}
@@ -253,6 +253,14 @@ public abstract class Layer {
      */
     boolean visible = true;
 
+    /**
+     * Number of changes to the content of this Layer. Subclasses
+     * increment it whenever the pixels they paint change without a
+     * change of position, size or visibility, e.g. a new frame or tile.
+     * The LayerManager compares it to find the Layers to repaint.
+     */
+    int changeCount; // = 0;
+
 }
 
 
@@ -30,6 +30,8 @@ import javax.microedition.lcdui.Image;
 import javax.microedition.lcdui.Graphics;
 import javax.microedition.lcdui.Display;
 
+import com.sun.midp.main.Configuration;
+
 
 /**
  * The LayerManager manages a series of Layers.  The LayerManager simplifies
@@ -240,14 +242,33 @@ public class LayerManager {
         // set the clip to view window
         g.clipRect(viewX, viewY, viewWidth, viewHeight);
 
+        if (dirtyRectPaint) {
+            clipDirtyRegion(g, x, y);
+        }
+
+        // the clip in the LayerManager's coordinate system
+        int paintX = g.getClipX();
+        int paintY = g.getClipY();
+        int paintRight = paintX + g.getClipWidth();
+        int paintBottom = paintY + g.getClipHeight();
+
+        paintedLayers = 0;
+        culledLayers = 0;
+
 	// draw last to first
 	for (int i = nlayers; --i >= 0; ) {
             Layer comp = component[i];
 	    if (comp.visible) {
-                // IMPL NOTE: do this if outside Graphics clip region don't paint
-		// (comp.contains(x - comp.x, y - comp.y)) &&
-	        // paint will happen only in clipped region of view window
-	        comp.paint(g);
+                // paint will happen only in clipped region of view window,
+                // skip the layers entirely outside of it
+                if (comp.x < paintRight && comp.x + comp.width > paintX &&
+                        comp.y < paintBottom &&
+                        comp.y + comp.height > paintY) {
+                    comp.paint(g);
+                    paintedLayers++;
+                } else {
+                    culledLayers++;
+                }
 	    }
 	}
 
@@ -289,6 +310,150 @@ public class LayerManager {
         viewY = y;
         viewWidth = width;
         viewHeight = height;
+
+        repaintAll = true;
+    }
+
+    /**
+     * Limits the clip of the Graphics object to the region of the view
+     * window that changed since the last paint. The whole view window is
+     * repainted when the Graphics object, its location or the view window
+     * changed. A region which is not painted completely because it lies
+     * partly outside of the clip is kept for the next paint.
+     *
+     * @param g the graphics instance, already translated and clipped to
+     *     the view window
+     * @param x the horizontal location at which the view window is rendered
+     * @param y the vertical location at which the view window is rendered
+     */
+    private void clipDirtyRegion(Graphics g, int x, int y) {
+        if (g != lastGraphics || x != lastX || y != lastY) {
+            lastGraphics = g;
+            lastX = x;
+            lastY = y;
+            repaintAll = true;
+        }
+
+        for (int i = 0; i < nlayers; i++) {
+            Layer l = component[i];
+            int width = l.visible ? l.width : 0;
+            int height = l.visible ? l.height : 0;
+            int b = i * 4;
+
+            if (paintedChanges[i] != l.changeCount ||
+                    paintedBounds[b] != l.x || paintedBounds[b + 1] != l.y ||
+                    paintedBounds[b + 2] != width ||
+                    paintedBounds[b + 3] != height) {
+                // both the old and the new bounds have to be repainted
+                addDirtyRect(paintedBounds[b], paintedBounds[b + 1],
+                             paintedBounds[b + 2], paintedBounds[b + 3]);
+                addDirtyRect(l.x, l.y, width, height);
+                setPaintedState(i);
+            }
+        }
+
+        int clipX = g.getClipX();
+        int clipY = g.getClipY();
+        int clipRight = clipX + g.getClipWidth();
+        int clipBottom = clipY + g.getClipHeight();
+
+        if (repaintAll) {
+            // the clip is already limited to the view window
+            repaintAll = clipX > viewX || clipY > viewY ||
+                clipRight - viewX < viewWidth ||
+                clipBottom - viewY < viewHeight;
+            if (!repaintAll) {
+                dirtyX1 = dirtyY1 = dirtyX2 = dirtyY2 = 0;
+            }
+            return;
+        }
+
+        g.clipRect(dirtyX1, dirtyY1, dirtyX2 - dirtyX1, dirtyY2 - dirtyY1);
+
+        if (clipX <= dirtyX1 && clipY <= dirtyY1 &&
+                clipRight >= dirtyX2 && clipBottom >= dirtyY2) {
+            dirtyX1 = dirtyY1 = dirtyX2 = dirtyY2 = 0;
+        }
+    }
+
+    /**
+     * Adds a rectangle to the region to repaint.
+     *
+     * @param x the horizontal location of the rectangle
+     * @param y the vertical location of the rectangle
+     * @param width the width of the rectangle
+     * @param height the height of the rectangle
+     */
+    private void addDirtyRect(int x, int y, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+
+        if (dirtyX1 >= dirtyX2 || dirtyY1 >= dirtyY2) {
+            dirtyX1 = x;
+            dirtyY1 = y;
+            dirtyX2 = x + width;
+            dirtyY2 = y + height;
+            return;
+        }
+
+        if (x < dirtyX1) {
+            dirtyX1 = x;
+        }
+        if (y < dirtyY1) {
+            dirtyY1 = y;
+        }
+        if (x + width > dirtyX2) {
+            dirtyX2 = x + width;
+        }
+        if (y + height > dirtyY2) {
+            dirtyY2 = y + height;
+        }
+    }
+
+    /**
+     * Records the bounds and content of a layer as painted.
+     *
+     * @param index the index of the layer
+     */
+    private void setPaintedState(int index) {
+        Layer l = component[index];
+        int b = index * 4;
+
+        paintedChanges[index] = l.changeCount;
+        paintedBounds[b] = l.x;
+        paintedBounds[b + 1] = l.y;
+        paintedBounds[b + 2] = l.visible ? l.width : 0;
+        paintedBounds[b + 3] = l.visible ? l.height : 0;
+    }
+
+    /**
+     * Enables or disables repainting of the changed regions only.
+     *
+     * @param enable true to repaint only the changed regions
+     */
+    void setDirtyRectPaint(boolean enable) {
+        dirtyRectPaint = enable;
+        repaintAll = true;
+    }
+
+    /**
+     * Gets the number of visible layers rendered by the last paint.
+     *
+     * @return the number of layers painted
+     */
+    int getPaintedLayerCount() {
+        return paintedLayers;
+    }
+
+    /**
+     * Gets the number of visible layers skipped by the last paint
+     * because they were outside of the region to paint.
+     *
+     * @return the number of layers culled
+     */
+    int getCulledLayerCount() {
+        return culledLayers;
     }
 
     /**
@@ -306,13 +471,32 @@ public class LayerManager {
             System.arraycopy(component, index, newcomponents,
                              index + 1, nlayers - index);
 	    component = newcomponents;
+
+            int newChanges[] = new int[nlayers + 4];
+            System.arraycopy(paintedChanges, 0, newChanges, 0, nlayers);
+            paintedChanges = newChanges;
+
+            int newBounds[] = new int[(nlayers + 4) * 4];
+            System.arraycopy(paintedBounds, 0, newBounds, 0, nlayers * 4);
+            paintedBounds = newBounds;
 	} else {
 	    System.arraycopy(component, index, component,
 				 index + 1, nlayers - index);
 	}
 
+        System.arraycopy(paintedChanges, index, paintedChanges,
+                         index + 1, nlayers - index);
+        System.arraycopy(paintedBounds, index * 4, paintedBounds,
+                         (index + 1) * 4, (nlayers - index) * 4);
+
 	component[index] = layer;
 	nlayers++;
+
+        // the new layer has to be painted
+        setPaintedState(index);
+        addDirtyRect(paintedBounds[index * 4], paintedBounds[index * 4 + 1],
+                     paintedBounds[index * 4 + 2],
+                     paintedBounds[index * 4 + 3]);
     }
 
     /**
@@ -359,9 +543,21 @@ public class LayerManager {
      * @param     index    the position at which to insert the layer,
      */
     private void remove(int index) {
+            // the area of the removed layer has to be painted
+            addDirtyRect(paintedBounds[index * 4],
+                         paintedBounds[index * 4 + 1],
+                         paintedBounds[index * 4 + 2],
+                         paintedBounds[index * 4 + 3]);
+
 	    System.arraycopy(component, index + 1,
 			     component, index,
 			     nlayers - index - 1);
+            System.arraycopy(paintedChanges, index + 1,
+                             paintedChanges, index,
+                             nlayers - index - 1);
+            System.arraycopy(paintedBounds, (index + 1) * 4,
+                             paintedBounds, index * 4,
+                             (nlayers - index - 1) * 4);
 	    component[--nlayers] = null;
     }
 
@@ -382,6 +578,64 @@ public class LayerManager {
      */
     private int viewX, viewY, viewWidth, viewHeight; // = 0;
 
+    /**
+     * True to repaint only the regions of the view window that changed
+     * since the last paint. The application must then keep the previous
+     * contents of the destination, i.e. not clear it between frames, and
+     * the Layers must cover the view window. Changes to the pixels of a
+     * mutable Image used by a Layer are not detected.
+     */
+    private boolean dirtyRectPaint = Configuration.getIntProperty(
+        "com.sun.midp.lcdui.game.dirtyRectPaint", 0) != 0;
+
+    /**
+     * True if the whole view window has to be repainted.
+     */
+    private boolean repaintAll = true;
+
+    /**
+     * The region of the view window to repaint, x2 and y2 are exclusive.
+     * The region is empty if x1 is not less than x2.
+     */
+    private int dirtyX1, dirtyY1, dirtyX2, dirtyY2; // = 0;
+
+    /**
+     * The Graphics object used by the last paint.
+     */
+    private Graphics lastGraphics; // = null;
+
+    /**
+     * The horizontal location used by the last paint.
+     */
+    private int lastX; // = 0;
+
+    /**
+     * The vertical location used by the last paint.
+     */
+    private int lastY; // = 0;
+
+    /**
+     * Change counts of the layers when they were last painted,
+     * in the same order as the layers.
+     */
+    private int paintedChanges[] = new int[4];
+
+    /**
+     * Bounds of the layers when they were last painted, x, y, width
+     * and height for each layer. Invisible layers have empty bounds.
+     */
+    private int paintedBounds[] = new int[4 * 4];
+
+    /**
+     * The number of visible layers rendered by the last paint.
+     */
+    private int paintedLayers; // = 0;
+
+    /**
+     * The number of visible layers skipped by the last paint.
+     */
+    private int culledLayers; // = 0;
+
 }
 
 
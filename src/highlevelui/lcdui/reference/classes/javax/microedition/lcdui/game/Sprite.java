@@ -486,6 +486,7 @@ public class Sprite extends Layer
             throw new IndexOutOfBoundsException();
         }
         sequenceIndex = inp_sequenceIndex;
+        changeCount++;
     }
 
     /**
@@ -539,6 +540,7 @@ public class Sprite extends Layer
      */
     public void nextFrame() {
         sequenceIndex = (sequenceIndex + 1) % frameSequence.length;
+        changeCount++;
     }
 
     /**
@@ -557,6 +559,8 @@ public class Sprite extends Layer
         } else {
             sequenceIndex--;
         }
+
+        changeCount++;
     }
 
     /**
@@ -646,6 +650,7 @@ public class Sprite extends Layer
             {
                 frameSequence[i] = i;
             }
+            changeCount++;
             return;
         }
 
@@ -663,6 +668,7 @@ public class Sprite extends Layer
         frameSequence = new int[sequence.length];
         System.arraycopy(sequence, 0, frameSequence, 0, sequence.length);
         sequenceIndex = 0;
+        changeCount++;
     }
     
     /**
@@ -864,6 +870,7 @@ public class Sprite extends Layer
      */
     public void setTransform(int transform) {
         setTransformImpl(transform);
+        changeCount++;
     }
 
     /**
@@ -980,39 +987,19 @@ public class Sprite extends Layer
                 int intersectWidth  = Math.abs(intersectRight - intersectLeft);
                 int intersectHeight = Math.abs(intersectBottom - intersectTop);
 
-                // have the coordinates in painter space,
-                // need coordinates of top left and width, height
-                // in source image of Sprite.
-                
-                int thisImageXOffset = getImageTopLeftX(intersectLeft, 
-                                                        intersectTop,
-                                                        intersectRight,
-                                                        intersectBottom);
-                
-                int thisImageYOffset = getImageTopLeftY(intersectLeft, 
-                                                        intersectTop,
-                                                        intersectRight,
-                                                        intersectBottom);
-
-                int otherImageXOffset = s.getImageTopLeftX(intersectLeft, 
-                                                           intersectTop,
-                                                           intersectRight,
-                                                           intersectBottom);
-                
-                int otherImageYOffset = s.getImageTopLeftY(intersectLeft, 
-                                                           intersectTop,
-                                                           intersectRight,
-                                                           intersectBottom);
+                // have the coordinates in painter space, the masks
+                // of the current frames are in painter orientation
+                // with their top left pixel at the Sprite position.
 
                 // check if opaque pixels intersect.
-
-                return doPixelCollision(thisImageXOffset, thisImageYOffset,
-                                        otherImageXOffset, otherImageYOffset,
-                                        this.sourceImage,
-                                        this.t_currentTransformation,
-                                        s.sourceImage, 
-                                        s.t_currentTransformation,
-                                        intersectWidth, intersectHeight);
+                return CollisionMask.collide(getFrameMask(),
+                                             intersectLeft - this.x,
+                                             intersectTop - this.y,
+                                             s.getFrameMask(),
+                                             intersectLeft - s.x,
+                                             intersectTop - s.y,
+                                             intersectWidth,
+                                             intersectHeight);
 
             } else {
                 // collides!
@@ -1148,6 +1135,9 @@ public class Sprite extends Layer
             // we have an intersection between the Sprite and 
             // one or more cells of the tiledlayer
 
+            CollisionMask frameMask = getFrameMask();
+            CollisionMask tileSetMask = t.getTileSetMask();
+
             // note sx1 < sx2, tLx1 < tLx2, sx2 > tLx1  from intersectRect()
             // use <= for comparison as this saves us some
             // computation - the result will be 0
@@ -1209,30 +1199,27 @@ public class Sprite extends Layer
                         int intersectWidth  = intersectRight  - intersectLeft;
                         int intersectHeight = intersectBottom - intersectTop;
 
-                        int image1XOffset = getImageTopLeftX(intersectLeft, 
-                                                             intersectTop,
-                                                             intersectRight,
-                                                             intersectBottom);
+                        if (tileIndex < 0) {
+                            tileIndex = t.getAnimatedTile(tileIndex);
 
-                        int image1YOffset = getImageTopLeftY(intersectLeft, 
-                                                             intersectTop,
-                                                             intersectRight,
-                                                             intersectBottom);
+                            if (tileIndex == 0) {
+                                continue;
+                            }
+                        }
 
                         int image2XOffset = t.tileSetX[tileIndex] +
                                             (intersectLeft - cellLeft);
                         int image2YOffset = t.tileSetY[tileIndex] +
                                             (intersectTop - cellTop);
 
-                        if (doPixelCollision(image1XOffset,
-                                             image1YOffset,
-                                             image2XOffset,
-                                             image2YOffset,
-                                             this.sourceImage, 
-                                             this.t_currentTransformation,
-                                             t.sourceImage,
-                                             TRANS_NONE,
-                                             intersectWidth, intersectHeight)) {
+                        if (CollisionMask.collide(frameMask,
+                                                  intersectLeft - this.x,
+                                                  intersectTop - this.y,
+                                                  tileSetMask,
+                                                  image2XOffset,
+                                                  image2YOffset,
+                                                  intersectWidth,
+                                                  intersectHeight)) {
                             // intersection found with this tile
                             return true;
                         }
@@ -1348,31 +1335,23 @@ public class Sprite extends Layer
                 int intersectWidth  = Math.abs(intersectRight - intersectLeft);
                 int intersectHeight = Math.abs(intersectBottom - intersectTop);
 
-                // have the coordinates in painter space,
-                // need coordinates of top left and width, height
-                // in source image of Sprite.
-                
-                int thisImageXOffset = getImageTopLeftX(intersectLeft, 
-                                                        intersectTop,
-                                                        intersectRight,
-                                                        intersectBottom);
-                
-                int thisImageYOffset = getImageTopLeftY(intersectLeft, 
-                                                        intersectTop,
-                                                        intersectRight,
-                                                        intersectBottom);
-
-                int otherImageXOffset = intersectLeft - inp_x;
-                int otherImageYOffset = intersectTop  - inp_y;
+                // the mask of an Image is kept until another Image
+                // is checked, so repeated checks against the same
+                // background do not read its pixels again
+                if (image != lastImage) {
+                    lastImageMask = CollisionMask.create(image);
+                    lastImage = image;
+                }
 
                 // check if opaque pixels intersect.
-                return doPixelCollision(thisImageXOffset, thisImageYOffset,
-                                        otherImageXOffset, otherImageYOffset,
-                                        this.sourceImage,
-                                        this.t_currentTransformation,
-                                        image, 
-                                        Sprite.TRANS_NONE,
-                                        intersectWidth, intersectHeight);
+                return CollisionMask.collide(getFrameMask(),
+                                             intersectLeft - this.x,
+                                             intersectTop - this.y,
+                                             lastImageMask,
+                                             intersectLeft - inp_x,
+                                             intersectTop - inp_y,
+                                             intersectWidth,
+                                             intersectHeight);
 
             } else {
                 // collides!
@@ -1406,6 +1385,9 @@ public class Sprite extends Layer
         int numVerticalFrames   = imageH / fHeight;
 
         sourceImage = image;
+        imageMask = null;
+        frameMasks = null;
+        changeCount++;
 
         srcFrameWidth = fWidth;
           srcFrameHeight = fHeight;
@@ -1440,6 +1422,37 @@ public class Sprite extends Layer
         }
     }
 
+    /**
+     * Gets the opacity mask of the current frame as it is painted with
+     * the current transform. The masks are created on first use and
+     * kept until the image of the Sprite is changed.
+     *
+     * @return mask of the current frame in painter orientation
+     */
+    private CollisionMask getFrameMask() {
+        if (imageMask == null) {
+            imageMask = CollisionMask.create(sourceImage);
+        }
+
+        if (frameMasks == null) {
+            // one mask per raw frame for each of the 8 transforms
+            frameMasks = new CollisionMask[8 * numberFrames];
+        }
+
+        int rawFrame = frameSequence[sequenceIndex];
+        int index = t_currentTransformation * numberFrames + rawFrame;
+
+        if (frameMasks[index] == null) {
+            frameMasks[index] = imageMask.getRegion(frameCoordsX[rawFrame],
+                                                    frameCoordsY[rawFrame],
+                                                    srcFrameWidth,
+                                                    srcFrameHeight,
+                                                    t_currentTransformation);
+        }
+
+        return frameMasks[index];
+    }
+
     /**
      * initialize the collision rectangle
      */
@@ -1477,301 +1490,6 @@ public class Sprite extends Layer
         }
     }
 
-    /**
-     * Detect opaque pixel intersection between regions of two images
-     * 
-     * @param image1XOffset left coordinate in the first image
-     * @param image1YOffset top coordinate in the first image
-     * @param image2XOffset left coordinate in the second image
-     * @param image2YOffset top coordinate in the second image
-     * @param image1 first source image
-     * @param transform1 The transform for the first image
-     * @param image2 second source image
-     * @param transform2 transform set on the second image
-     * @param width width of overlapping region, when transformed
-     * @param height height of overlapping region, when transformed
-     * 
-     * Clarification required on parameters:
-     * XOffset and YOffset are the offsets from the top left
-     * hand corner of the image.
-     * width, height is the dimensions of the intersecting regions
-     * in the two transformed images.
-     * there fore appropriate conversions have to be made on these
-     * dimensions when using the values, according to the transformation
-     * that has been set.
-     * 
-     * @return True if there is a pixel level collision
-     */
-    private static boolean doPixelCollision(int image1XOffset,
-                                            int image1YOffset,
-                                            int image2XOffset,
-                                            int image2YOffset,
-                                            Image image1, int transform1, 
-                                            Image image2, int transform2,
-                                            int width, int height) {
-
-        // starting point of comparison
-        int startY1;
-        // x and y increments
-        int xIncr1, yIncr1;
-
-        // .. for image 2
-        int startY2;
-        int xIncr2, yIncr2;
-
-        int numPixels = height * width;
-
-        int[] argbData1 = new int[numPixels];
-        int[] argbData2 = new int[numPixels];
-
-        if (0x0 != (transform1 & INVERTED_AXES)) {
-            // inverted axes
-
-            // scanlength = height
-
-            if (0x0 != (transform1 & Y_FLIP)) {
-                xIncr1 = -(height); // - scanlength
-
-                startY1 = numPixels - height; // numPixels - scanlength
-            } else {
-                xIncr1 = height; // + scanlength
-                
-                startY1 = 0;
-            }
-
-            if (0x0 != (transform1 &  X_FLIP)) {
-                yIncr1 = -1;
-
-                startY1 += (height - 1);
-            } else {
-                yIncr1 = +1;
-            }
-
-            image1.getRGB(argbData1, 0, height, // scanlength = height
-                          image1XOffset, image1YOffset, height, width);
-
-        } else {
-
-            // scanlength = width
-
-            if (0x0 != (transform1 & Y_FLIP)) {
-
-                startY1 = numPixels - width; // numPixels - scanlength
-
-                yIncr1  = -(width); // - scanlength
-            } else {
-                startY1 = 0;
-
-                yIncr1  = width; // + scanlength
-            }
-
-            if (0x0 != (transform1 &  X_FLIP)) {
-                xIncr1  = -1;
-
-                startY1 += (width - 1);
-            } else {
-                xIncr1  = +1;
-            }
-
-            image1.getRGB(argbData1, 0, width, // scanlength = width
-                          image1XOffset, image1YOffset, width, height);
-
-        }
-
-
-        if (0x0 != (transform2 & INVERTED_AXES)) {
-            // inverted axes
-
-            if (0x0 != (transform2 & Y_FLIP)) {
-                xIncr2 = -(height);
-
-                startY2 = numPixels - height;
-            } else {
-                xIncr2 = height;
-
-                startY2 = 0;
-            }
-
-            if (0x0 != (transform2 &  X_FLIP)) {
-                yIncr2 = -1;
-                
-                startY2 += height - 1;
-            } else {
-                yIncr2 = +1;
-            }
-
-            image2.getRGB(argbData2, 0, height,
-                          image2XOffset, image2YOffset, height, width);
-
-        } else {
-
-            if (0x0 != (transform2 & Y_FLIP)) {
-                startY2 = numPixels - width;
-
-                yIncr2  = -(width);
-            } else {
-                startY2 = 0;
-
-                yIncr2  = +width;
-            }
-
-            if (0x0 != (transform2 &  X_FLIP)) {
-                xIncr2  = -1;
-
-                startY2 += (width - 1);
-            } else {
-                xIncr2  = +1;
-            }
-
-            image2.getRGB(argbData2, 0, width,
-                          image2XOffset, image2YOffset, width, height);
-
-        }
-
-
-        int x1, x2;
-        int xLocalBegin1, xLocalBegin2;
-
-        // the loop counters
-        int numIterRows;
-        int numIterColumns;
-
-        for (numIterRows = 0, xLocalBegin1 = startY1, xLocalBegin2 = startY2;
-            numIterRows < height;
-            xLocalBegin1 += yIncr1, xLocalBegin2 += yIncr2, numIterRows++) {
-
-            for (numIterColumns = 0, x1 = xLocalBegin1, x2 = xLocalBegin2;
-                 numIterColumns < width;
-                 x1 += xIncr1, x2 += xIncr2, numIterColumns++) {
-
-                if (((argbData1[x1] & ALPHA_BITMASK) == FULLY_OPAQUE_ALPHA) && 
-                    ((argbData2[x2] & ALPHA_BITMASK) == FULLY_OPAQUE_ALPHA)) {
-
-                    return true;
-                }
-                
-            } // end for x        
-            
-        } // end for y
-        
-        // worst case!  couldn't find a single colliding pixel!
-        return false;
-    }
-
-    /**
-     * Given a rectangle that lies within the sprite 
-     * in the painter's coordinates,
-     * find the X coordinate of the top left corner 
-     * in the source image of the sprite
-     *
-     * @param x1 the x coordinate of the top left of the rectangle
-     * @param y1 the y coordinate of the top left of the rectangle
-     * @param x2 the x coordinate of the bottom right of the rectangle
-     * @param y2 the y coordinate of the bottom right of the rectangle
-     * 
-     * @return the X coordinate in the source image
-     * 
-     */
-    private int getImageTopLeftX(int x1, int y1, int x2, int y2) {
-        int retX = 0;
-
-        // left = this.x
-        // right = this.x + this.width
-        // top = this.y
-        // bottom = this.y + this.height
-
-        switch (this.t_currentTransformation) {
-
-        case TRANS_NONE:
-        case TRANS_MIRROR_ROT180:
-            retX = x1 - this.x;
-            break;
-
-        case TRANS_MIRROR:
-        case TRANS_ROT180:
-            retX = (this.x + this.width) - x2;
-            break;
-
-        case TRANS_ROT90:
-        case TRANS_MIRROR_ROT270:
-            retX = y1 - this.y;
-            break;
-
-        case TRANS_ROT270:
-        case TRANS_MIRROR_ROT90:
-            retX = (this.y + this.height) - y2;
-            break;
-
-          default:
-            // for safety/completeness.
-            Logging.report(Logging.ERROR, LogChannels.LC_HIGHUI,
-                           "Sprite: t_currentTransformation=" + 
-                           t_currentTransformation);
-            return retX;
-        }
-
-        retX += frameCoordsX[frameSequence[sequenceIndex]];
-
-        return retX;
-    }
-
-    /**
-     * Given a rectangle that lies within the sprite 
-     * in the painter's coordinates,
-     * find the Y coordinate of the top left corner 
-     * in the source image of the sprite
-     *
-     * @param x1 the x coordinate of the top left of the rectangle
-     * @param y1 the y coordinate of the top left of the rectangle
-     * @param x2 the x coordinate of the bottom right of the rectangle
-     * @param y2 the y coordinate of the bottom right of the rectangle
-     * 
-     * @return the Y coordinate in the source image
-     * 
-     */
-    private int getImageTopLeftY(int x1, int y1, int x2, int y2) {
-        int retY = 0;
-
-        // left = this.x
-        // right = this.x + this.width
-        // top = this.y
-        // bottom = this.y + this.height
-
-        switch (this.t_currentTransformation) {
-
-        case TRANS_NONE:
-        case TRANS_MIRROR:
-            retY = y1 - this.y;
-            break;
-
-        case TRANS_ROT180:
-        case TRANS_MIRROR_ROT180:
-            retY = (this.y + this.height) - y2;
-            break;
-
-        case TRANS_ROT270:
-        case TRANS_MIRROR_ROT270:
-            retY = x1 - this.x;
-            break;
-
-        case TRANS_ROT90:
-        case TRANS_MIRROR_ROT90:
-            retY = (this.x + this.width) - x2;
-            break;
-
-        default:
-            // for safety/completeness.
-            Logging.report(Logging.ERROR, LogChannels.LC_HIGHUI,
-                           "Sprite: t_currentTransformation=" + 
-                           this.t_currentTransformation);
-            return retY;
-        }
-
-        retY += frameCoordsY[frameSequence[sequenceIndex]];
-
-        return retY;
-    }
-
     /**
      * Sets the transform for this Sprite
      *
@@ -2110,29 +1828,19 @@ public class Sprite extends Layer
      * If this bit is set, it denotes that the transform causes the
      * axes to be interchanged
      */
-    private static final int INVERTED_AXES = 0x4;
+    static final int INVERTED_AXES = 0x4;
 
     /**
      * If this bit is set, it denotes that the transform causes the
      * x axis to be flipped.
      */
-    private static final int X_FLIP = 0x2;
+    static final int X_FLIP = 0x2;
 
     /**
      * If this bit is set, it denotes that the transform causes the
      * y axis to be flipped.
      */
-    private static final int Y_FLIP = 0x1;
-
-    /**
-     * Bit mask for channel value in ARGB pixel.
-     */
-    private static final int ALPHA_BITMASK = 0xff000000;
-
-    /**
-     * Alpha channel value for full opacity.
-     */
-    private static final int FULLY_OPAQUE_ALPHA = 0xff000000;
+    static final int Y_FLIP = 0x1;
 
     /**
      * Source image
@@ -2168,6 +1876,28 @@ public class Sprite extends Layer
      */
     int[] frameSequence;
 
+    /**
+     * Opacity mask of the source image, created on the first pixel
+     * level collision check
+     */
+    private CollisionMask imageMask; // = null;
+
+    /**
+     * Opacity masks of the raw frames as painted with each transform,
+     * indexed by transform * numberFrames + raw frame
+     */
+    private CollisionMask[] frameMasks; // = null;
+
+    /**
+     * Image last checked for collision with this Sprite
+     */
+    private Image lastImage; // = null;
+
+    /**
+     * Opacity mask of the image last checked for collision
+     */
+    private CollisionMask lastImageMask; // = null;
+
     /**
      * The sequence index
      */
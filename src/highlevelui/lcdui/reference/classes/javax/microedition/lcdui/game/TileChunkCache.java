@@ -0,0 +1,229 @@
+/*
+ *   
+ *
+ * Copyright  1990-2007 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package javax.microedition.lcdui.game;
+
+import javax.microedition.lcdui.Image;
+
+import com.sun.midp.main.Configuration;
+
+/**
+ * Pre-rendered chunks of the cells of a TiledLayer. The cell matrix is
+ * split into chunks of about CHUNK_SIZE x CHUNK_SIZE pixels, a chunk
+ * is painted with one draw call instead of one per cell.
+ * <p>
+ * The memory used by the chunks of a layer is limited, by default to
+ * the value of the com.sun.midp.lcdui.game.tileCacheSize property, in
+ * bytes of ARGB data. The least recently used chunks are dropped when a
+ * new chunk does not fit. Caching is off if the limit is 0.</p>
+ */
+final class TileChunkCache {
+    /**
+     * Preferred width and height of a chunk in pixels.
+     */
+    static final int CHUNK_SIZE = 64;
+
+    /**
+     * Default maximum number of bytes of the chunks of one TiledLayer.
+     */
+    static final int DEFAULT_MAX_BYTES =
+        Configuration.getNonNegativeIntProperty(
+            "com.sun.midp.lcdui.game.tileCacheSize", 0);
+
+    /** Maximum number of bytes of the chunks. */
+    final int maxBytes;
+
+    /** Number of cell columns in a chunk. */
+    final int chunkColumns;
+
+    /** Number of cell rows in a chunk. */
+    final int chunkRows;
+
+    /** Number of chunks in a row of chunks. */
+    final int numberOfColumns;
+
+    /** The cached chunks, null if not cached. */
+    private Image[] chunks;
+
+    /** True for the chunks showing animated tiles. */
+    private boolean[] animated;
+
+    /** Value of useCount when a chunk was used last. */
+    private int[] lastUse;
+
+    /** Incremented each time a chunk is used. */
+    private int useCount; // = 0;
+
+    /** Number of bytes of the cached chunks. */
+    private int cachedBytes; // = 0;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param columns number of columns of the cell matrix
+     * @param rows number of rows of the cell matrix
+     * @param cellWidth width of a cell in pixels
+     * @param cellHeight height of a cell in pixels
+     * @param maxBytes maximum number of bytes of the chunks
+     */
+    TileChunkCache(int columns, int rows, int cellWidth, int cellHeight,
+                   int maxBytes) {
+        this.maxBytes = maxBytes;
+        chunkColumns = cellWidth < CHUNK_SIZE ? CHUNK_SIZE / cellWidth : 1;
+        chunkRows = cellHeight < CHUNK_SIZE ? CHUNK_SIZE / cellHeight : 1;
+        numberOfColumns = (columns + chunkColumns - 1) / chunkColumns;
+
+        int numberOfChunks =
+            numberOfColumns * ((rows + chunkRows - 1) / chunkRows);
+
+        chunks = new Image[numberOfChunks];
+        animated = new boolean[numberOfChunks];
+        lastUse = new int[numberOfChunks];
+    }
+
+    /**
+     * Gets a cached chunk.
+     *
+     * @param chunk index of the chunk
+     *
+     * @return the chunk or null if it is not cached
+     */
+    Image get(int chunk) {
+        Image image = chunks[chunk];
+
+        if (image != null) {
+            lastUse[chunk] = ++useCount;
+        }
+
+        return image;
+    }
+
+    /**
+     * Checks if a chunk can be cached at all.
+     *
+     * @param width width of the chunk in pixels
+     * @param height height of the chunk in pixels
+     *
+     * @return true if the chunk is not larger than the limit
+     */
+    boolean fits(int width, int height) {
+        return width * height * 4 <= maxBytes;
+    }
+
+    /**
+     * Adds a chunk, the least recently used chunks are dropped until
+     * it fits.
+     *
+     * @param chunk index of the chunk
+     * @param image the pre-rendered chunk
+     * @param hasAnimatedTiles true if the chunk shows animated tiles
+     */
+    void put(int chunk, Image image, boolean hasAnimatedTiles) {
+        int bytes = image.getWidth() * image.getHeight() * 4;
+
+        invalidate(chunk);
+
+        while (cachedBytes + bytes > maxBytes) {
+            int oldest = -1;
+
+            for (int i = 0; i < chunks.length; i++) {
+                if (chunks[i] != null &&
+                        (oldest < 0 || lastUse[i] - lastUse[oldest] < 0)) {
+                    oldest = i;
+                }
+            }
+
+            if (oldest < 0) {
+                return;
+            }
+
+            invalidate(oldest);
+        }
+
+        chunks[chunk] = image;
+        animated[chunk] = hasAnimatedTiles;
+        lastUse[chunk] = ++useCount;
+        cachedBytes += bytes;
+    }
+
+    /**
+     * Gets the number of bytes of the cached chunks.
+     *
+     * @return the number of bytes
+     */
+    int getCachedBytes() {
+        return cachedBytes;
+    }
+
+    /**
+     * Drops the chunks showing any of the given cells.
+     *
+     * @param column first column of the cells
+     * @param row first row of the cells
+     * @param numCols number of columns
+     * @param numRows number of rows
+     */
+    void invalidateCells(int column, int row, int numCols, int numRows) {
+        if (numCols <= 0 || numRows <= 0) {
+            return;
+        }
+
+        int endColumn = (column + numCols - 1) / chunkColumns;
+        int endRow = (row + numRows - 1) / chunkRows;
+
+        for (int r = row / chunkRows; r <= endRow; r++) {
+            for (int c = column / chunkColumns; c <= endColumn; c++) {
+                invalidate(r * numberOfColumns + c);
+            }
+        }
+    }
+
+    /**
+     * Drops the chunks showing animated tiles.
+     */
+    void invalidateAnimated() {
+        for (int i = 0; i < chunks.length; i++) {
+            if (animated[i]) {
+                invalidate(i);
+            }
+        }
+    }
+
+    /**
+     * Drops a chunk.
+     *
+     * @param chunk index of the chunk
+     */
+    private void invalidate(int chunk) {
+        Image image = chunks[chunk];
+
+        if (image != null) {
+            cachedBytes -= image.getWidth() * image.getHeight() * 4;
+            chunks[chunk] = null;
+            animated[chunk] = false;
+        }
+    }
+}
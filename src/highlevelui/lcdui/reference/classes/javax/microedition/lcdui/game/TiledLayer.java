@@ -273,7 +273,14 @@ public class TiledLayer extends Layer {
 	    throw new IndexOutOfBoundsException();
         }
 
-        anim_to_static[animatedTileIndex] = staticTileIndex;
+        if (anim_to_static[animatedTileIndex] != staticTileIndex) {
+            anim_to_static[animatedTileIndex] = staticTileIndex;
+            changeCount++;
+
+            if (chunkCache != null) {
+                chunkCache.invalidateAnimated();
+            }
+        }
 
     }
 
@@ -335,7 +342,11 @@ public class TiledLayer extends Layer {
 	}
 
         cellMatrix[row][col] = tileIndex;
- 
+        changeCount++;
+
+        if (chunkCache != null) {
+            chunkCache.invalidateCells(col, row, 1, 1);
+        }
     }
 
     /**
@@ -415,6 +426,12 @@ public class TiledLayer extends Layer {
                 cellMatrix[rowCount][columnCount] = tileIndex;
             }
         }
+
+        changeCount++;
+
+        if (chunkCache != null) {
+            chunkCache.invalidateCells(col, row, numCols, numRows);
+        }
     }
 
 
@@ -570,44 +587,207 @@ public class TiledLayer extends Layer {
 		endRow -= number;
 	    }
 
-	    // paint all visible cells
-	    int tileIndex = 0;
+	    if (chunkCache != null && !sourceImage.isMutable()) {
+		paintChunks(g, startColumn, endColumn, startRow, endRow);
+	    } else {
+		paintCells(g, startColumn, endColumn, startRow, endRow);
+	    }
+	}
+    }
 
-	    // y-coordinate
-	    int ty        = this.y + (startRow * cellHeight);
-            for (int row = startRow; 
-		 row < endRow; row++, ty += cellHeight) {
+    // private implementation
+
+    /**
+     * Drops the pre-rendered chunks and sets the memory limit for them.
+     *
+     * @param maxBytes maximum number of bytes of ARGB data of the
+     *     chunks, 0 to turn chunk caching off
+     */
+    void setChunkCacheSize(int maxBytes) {
+        chunkCacheSize = maxBytes;
+
+        if (maxBytes > 0) {
+            chunkCache = new TileChunkCache(columns, rows,
+                                            cellWidth, cellHeight, maxBytes);
+        } else {
+            chunkCache = null;
+        }
+    }
+
+    /**
+     * Gets the pre-rendered chunks.
+     *
+     * @return the chunks, null if chunk caching is off
+     */
+    TileChunkCache getChunkCache() {
+        return chunkCache;
+    }
 
-	        // reset the x-coordinate at the beginning of every row
-                // x-coordinate to draw tile into
-	        int tx = this.x + (startColumn * cellWidth);
-                for (int column = startColumn; column < endColumn; 
-		    column++, tx += cellWidth) {
+    /**
+     * Draws a range of cells, one tile at a time.
+     *
+     * @param g the graphics object to draw the cells
+     * @param startColumn first column to draw
+     * @param endColumn column after the last column to draw
+     * @param startRow first row to draw
+     * @param endRow row after the last row to draw
+     */
+    private void paintCells(Graphics g, int startColumn, int endColumn,
+                            int startRow, int endRow) {
+	// paint all visible cells
+	int tileIndex = 0;
+
+	// y-coordinate
+	int ty        = this.y + (startRow * cellHeight);
+        for (int row = startRow; 
+	     row < endRow; row++, ty += cellHeight) {
+
+	    // reset the x-coordinate at the beginning of every row
+            // x-coordinate to draw tile into
+	    int tx = this.x + (startColumn * cellWidth);
+            for (int column = startColumn; column < endColumn; 
+		column++, tx += cellWidth) {
 		
-                    tileIndex = cellMatrix[row][column];
-	            // check the indices 
-		    // if animated get the corresponding 
-		    // static index from anim_to_static table
-		    if (tileIndex == 0) { // transparent tile
-			continue;
-                    } else if (tileIndex < 0) {
-                        tileIndex = getAnimatedTile(tileIndex);
-		    }
-
-		    g.drawRegion(sourceImage, 
-				 tileSetX[tileIndex], 
-				 tileSetY[tileIndex], 
-				 cellWidth, cellHeight,
-				 Sprite.TRANS_NONE,
-				 tx, ty,
-				 Graphics.TOP | Graphics.LEFT);
+                tileIndex = cellMatrix[row][column];
+	        // check the indices 
+		// if animated get the corresponding 
+		// static index from anim_to_static table
+		if (tileIndex == 0) { // transparent tile
+		    continue;
+                } else if (tileIndex < 0) {
+                    tileIndex = getAnimatedTile(tileIndex);
+		}
+
+		g.drawRegion(sourceImage, 
+			     tileSetX[tileIndex], 
+			     tileSetY[tileIndex], 
+			     cellWidth, cellHeight,
+			     Sprite.TRANS_NONE,
+			     tx, ty,
+			     Graphics.TOP | Graphics.LEFT);
 
+            }
+        }
+    }
+
+    /**
+     * Draws a range of cells using the pre-rendered chunks. The chunks
+     * that are not cached yet are rendered and cached. The cells of a
+     * chunk that cannot be cached are drawn one tile at a time.
+     *
+     * @param g the graphics object to draw the cells
+     * @param startColumn first column to draw
+     * @param endColumn column after the last column to draw
+     * @param startRow first row to draw
+     * @param endRow row after the last row to draw
+     */
+    private void paintChunks(Graphics g, int startColumn, int endColumn,
+                             int startRow, int endRow) {
+        int chunkColumns = chunkCache.chunkColumns;
+        int chunkRows = chunkCache.chunkRows;
+
+        for (int firstRow = startRow - startRow % chunkRows;
+                 firstRow < endRow; firstRow += chunkRows) {
+            int lastRow = Math.min(firstRow + chunkRows, this.rows);
+
+            for (int firstColumn = startColumn - startColumn % chunkColumns;
+                     firstColumn < endColumn; firstColumn += chunkColumns) {
+                int lastColumn = Math.min(firstColumn + chunkColumns,
+                                          this.columns);
+                int chunk = (firstRow / chunkRows) *
+                    chunkCache.numberOfColumns + firstColumn / chunkColumns;
+                Image chunkImage = chunkCache.get(chunk);
+
+                if (chunkImage == null) {
+                    chunkImage = renderChunk(chunk, firstColumn, lastColumn,
+                                             firstRow, lastRow);
+                }
+
+                if (chunkImage != null) {
+                    g.drawImage(chunkImage,
+                                this.x + firstColumn * cellWidth,
+                                this.y + firstRow * cellHeight,
+                                Graphics.TOP | Graphics.LEFT);
+                } else {
+                    paintCells(g, Math.max(firstColumn, startColumn),
+                               Math.min(lastColumn, endColumn),
+                               Math.max(firstRow, startRow),
+                               Math.min(lastRow, endRow));
                 }
             }
-	}
+        }
+    }
+
+    /**
+     * Renders the tiles of a chunk into an image and caches it.
+     *
+     * @param chunk index of the chunk
+     * @param firstColumn first column of the chunk
+     * @param lastColumn column after the last column of the chunk
+     * @param firstRow first row of the chunk
+     * @param lastRow row after the last row of the chunk
+     *
+     * @return the chunk or null if the chunk is empty or too large
+     */
+    private Image renderChunk(int chunk, int firstColumn, int lastColumn,
+                              int firstRow, int lastRow) {
+        int chunkWidth = (lastColumn - firstColumn) * cellWidth;
+        int chunkHeight = (lastRow - firstRow) * cellHeight;
+        boolean empty = true;
+        boolean hasAnimatedTiles = false;
+
+        if (!chunkCache.fits(chunkWidth, chunkHeight)) {
+            return null;
+        }
+
+        for (int row = firstRow; row < lastRow; row++) {
+            for (int column = firstColumn; column < lastColumn; column++) {
+                int tileIndex = cellMatrix[row][column];
+
+                if (tileIndex != 0) {
+                    empty = false;
+                }
+
+                if (tileIndex < 0) {
+                    hasAnimatedTiles = true;
+                }
+            }
+        }
+
+        if (empty) {
+            // nothing to draw, do not waste memory
+            return null;
+        }
+
+        // cells without a tile stay transparent
+        int[] argb = new int[chunkWidth * chunkHeight];
+
+        for (int row = firstRow; row < lastRow; row++) {
+            int offset = (row - firstRow) * cellHeight * chunkWidth;
+
+            for (int column = firstColumn; column < lastColumn;
+                     column++, offset += cellWidth) {
+                int tileIndex = cellMatrix[row][column];
+
+                if (tileIndex == 0) {
+                    continue;
+                } else if (tileIndex < 0) {
+                    tileIndex = getAnimatedTile(tileIndex);
+                }
+
+                sourceImage.getRGB(argb, offset, chunkWidth,
+                                   tileSetX[tileIndex], tileSetY[tileIndex],
+                                   cellWidth, cellHeight);
+            }
+        }
+
+        Image chunkImage =
+            Image.createRGBImage(argb, chunkWidth, chunkHeight, true);
+
+        chunkCache.put(chunk, chunkImage, hasAnimatedTiles);
+        return chunkImage;
     }
 
-    // private implementation
 
     /**
      * create the Image Array.
@@ -629,6 +809,8 @@ public class TiledLayer extends Layer {
 	int imageH = image.getHeight();
 
 	sourceImage = image;
+	tileSetMask = null;
+        changeCount++;
 
 	numberOfTiles = noOfFrames;
 	tileSetX = new int[numberOfTiles];
@@ -646,6 +828,9 @@ public class TiledLayer extends Layer {
 	    anim_to_static = null;
 	} 
 
+        // the chunks of the old tiles are no longer valid
+        setChunkCacheSize(chunkCacheSize);
+
         int currentTile = 1;
 
         for (int locY = 0; locY < imageH; locY += tileHeight) {
@@ -659,6 +844,22 @@ public class TiledLayer extends Layer {
         }
     }
 
+    /**
+     * Gets the opacity mask of the source image, it is created on the
+     * first pixel level collision check with a Sprite.
+     *
+     * @return mask of the source image
+     */
+    // package access as it is used by Pixel level Collision
+    // detection with a Sprite
+    CollisionMask getTileSetMask() {
+        if (tileSetMask == null) {
+            tileSetMask = CollisionMask.create(sourceImage);
+        }
+
+        return tileSetMask;
+    }
+
     /** 
      * the overall height of the TiledLayer grid
      */
@@ -710,6 +911,21 @@ public class TiledLayer extends Layer {
     // package access as it is used by Pixel level Collision
     // detection with a Sprite
     int[] tileSetY;
+
+    /**
+     * Opacity mask of the source image for tiles
+     */
+    private CollisionMask tileSetMask; // = null;
+
+    /**
+     * Pre-rendered chunks of the cells, null if chunk caching is off
+     */
+    private TileChunkCache chunkCache; // = null;
+
+    /**
+     * Maximum number of bytes of the pre-rendered chunks
+     */
+    private int chunkCacheSize = TileChunkCache.DEFAULT_MAX_BYTES;
     
     /** 
      * Table to map from animated Index to static Index
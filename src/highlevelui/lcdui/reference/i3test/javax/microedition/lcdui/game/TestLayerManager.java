@@ -0,0 +1,250 @@
+/*
+ *   
+ *
+ * Copyright  1990-2007 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package javax.microedition.lcdui.game;
+
+import com.sun.midp.i3test.*;
+import javax.microedition.lcdui.*;
+
+/**
+ * Tests culling and dirty region painting of the LayerManager.
+ */
+public class TestLayerManager extends TestCase {
+    /** Size of the view window. */
+    static final int VIEW_SIZE = 50;
+
+    public void runTests() {
+        declare("testCulling");
+        testCulling();
+
+        declare("testDirtyRectCounters");
+        testDirtyRectCounters();
+
+        declare("testDirtyRectPixels");
+        testDirtyRectPixels();
+    }
+
+    /**
+     * Checks that layers outside of the view window or the clip are
+     * not painted.
+     */
+    public void testCulling() {
+        LayerManager manager = new LayerManager();
+        Graphics g = Image.createImage(VIEW_SIZE, VIEW_SIZE).getGraphics();
+        Sprite inside = createSprite(0xff0000ff);
+        Sprite outside = createSprite(0xff00ff00);
+        Sprite partly = createSprite(0xffff0000);
+        Sprite invisible = createSprite(0xff000000);
+
+        manager.append(inside);
+        manager.append(outside);
+        manager.append(partly);
+        manager.append(invisible);
+        manager.setViewWindow(20, 20, VIEW_SIZE, VIEW_SIZE);
+
+        inside.setPosition(30, 30);
+        outside.setPosition(5, 5);
+        partly.setPosition(65, 15);
+        invisible.setPosition(30, 30);
+        invisible.setVisible(false);
+
+        manager.paint(g, 0, 0);
+        assertEquals("painted", 2, manager.getPaintedLayerCount());
+        assertEquals("culled", 1, manager.getCulledLayerCount());
+
+        // only the lower right quarter of the view window is visible
+        g.setClip(VIEW_SIZE / 2, VIEW_SIZE / 2, VIEW_SIZE, VIEW_SIZE);
+        manager.paint(g, 0, 0);
+        assertEquals("painted in clip", 0, manager.getPaintedLayerCount());
+        assertEquals("culled by clip", 3, manager.getCulledLayerCount());
+
+        // the view window is rendered at another location
+        g.setClip(0, 0, VIEW_SIZE, VIEW_SIZE);
+        manager.paint(g, 10, 10);
+        assertEquals("painted at 10", 1, manager.getPaintedLayerCount());
+        assertEquals("culled at 10", 2, manager.getCulledLayerCount());
+    }
+
+    /**
+     * Checks that only the changed layers and the layers overlapping
+     * them are painted in dirty region mode.
+     */
+    public void testDirtyRectCounters() {
+        LayerManager manager = new LayerManager();
+        Graphics g = Image.createImage(VIEW_SIZE, VIEW_SIZE).getGraphics();
+        Sprite s1 = createSprite(0xff0000ff);
+        Sprite s2 = createSprite(0xff00ff00);
+        Sprite s3 = createSprite(0xffff0000);
+
+        manager.setDirtyRectPaint(true);
+        manager.setViewWindow(0, 0, VIEW_SIZE, VIEW_SIZE);
+        manager.append(s1);
+        manager.append(s2);
+        manager.append(s3);
+        s1.setPosition(0, 0);
+        s2.setPosition(5, 5);
+        s3.setPosition(30, 30);
+
+        manager.paint(g, 0, 0);
+        assertEquals("first paint", 3, manager.getPaintedLayerCount());
+
+        manager.paint(g, 0, 0);
+        assertEquals("no changes", 0, manager.getPaintedLayerCount());
+        assertEquals("no changes culled", 3, manager.getCulledLayerCount());
+
+        s3.move(1, 1);
+        manager.paint(g, 0, 0);
+        assertEquals("moved", 1, manager.getPaintedLayerCount());
+
+        s2.nextFrame();
+        manager.paint(g, 0, 0);
+        assertEquals("new frame", 2, manager.getPaintedLayerCount());
+
+        s1.setVisible(false);
+        manager.paint(g, 0, 0);
+        assertEquals("hidden", 1, manager.getPaintedLayerCount());
+
+        manager.remove(s3);
+        manager.paint(g, 0, 0);
+        assertEquals("removed", 0, manager.getPaintedLayerCount());
+        assertEquals("removed culled", 1, manager.getCulledLayerCount());
+
+        manager.paint(Image.createImage(VIEW_SIZE, VIEW_SIZE).getGraphics(),
+                      0, 0);
+        assertEquals("new graphics", 1, manager.getPaintedLayerCount());
+    }
+
+    /**
+     * Checks that painting the changed regions only gives the same
+     * result as painting everything.
+     */
+    public void testDirtyRectPixels() {
+        Image dirtyImage = Image.createImage(VIEW_SIZE, VIEW_SIZE);
+        Image fullImage = Image.createImage(VIEW_SIZE, VIEW_SIZE);
+        Graphics dirtyG = dirtyImage.getGraphics();
+        Graphics fullG = fullImage.getGraphics();
+        LayerManager dirty = new LayerManager();
+        LayerManager full = new LayerManager();
+        Sprite s1 = createSprite(0xff0000ff);
+        Sprite s2 = createSprite(0xff00ff00);
+        int[] tiles = new int[20 * 10];
+
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = ((i % 20) < 10) ? 0xff808080 : 0xffffffff;
+        }
+
+        TiledLayer background = new TiledLayer(VIEW_SIZE / 10,
+            VIEW_SIZE / 10, Image.createRGBImage(tiles, 20, 10, false),
+            10, 10);
+
+        background.fillCells(0, 0, VIEW_SIZE / 10, VIEW_SIZE / 10, 1);
+        dirty.setDirtyRectPaint(true);
+
+        LayerManager[] managers = {dirty, full};
+        for (int i = 0; i < managers.length; i++) {
+            managers[i].setViewWindow(0, 0, VIEW_SIZE, VIEW_SIZE);
+            managers[i].append(s1);
+            managers[i].append(s2);
+            managers[i].append(background);
+        }
+
+        for (int step = 0; step < 8; step++) {
+            switch (step) {
+            case 1:
+                s1.setPosition(12, 17);
+                break;
+            case 2:
+                s2.setPosition(15, 20);
+                s2.nextFrame();
+                break;
+            case 3:
+                background.setCell(2, 3, 2);
+                break;
+            case 4:
+                s1.setTransform(Sprite.TRANS_ROT90);
+                break;
+            case 5:
+                s2.setVisible(false);
+                break;
+            case 6:
+                dirty.remove(s1);
+                full.remove(s1);
+                break;
+            case 7:
+                dirty.insert(s1, 0);
+                full.insert(s1, 0);
+                s1.move(-3, 30);
+                break;
+            }
+
+            dirty.paint(dirtyG, 0, 0);
+            full.paint(fullG, 0, 0);
+
+            assertTrue("Step " + step, sameImages(dirtyImage, fullImage));
+        }
+    }
+
+    /**
+     * Creates a Sprite with two opaque 10x12 frames.
+     *
+     * @param color the color of the first frame
+     *
+     * @return the new Sprite
+     */
+    private static Sprite createSprite(int color) {
+        int[] argb = new int[20 * 12];
+
+        for (int i = 0; i < argb.length; i++) {
+            argb[i] = ((i % 20) < 10) ? color : ~color | 0xff000000;
+        }
+
+        return new Sprite(Image.createRGBImage(argb, 20, 12, false), 10, 12);
+    }
+
+    /**
+     * Compares the pixels of two images of the size of the view window.
+     *
+     * @param image1 first image
+     * @param image2 second image
+     *
+     * @return true if all pixels are equal
+     */
+    private static boolean sameImages(Image image1, Image image2) {
+        int[] argb1 = new int[VIEW_SIZE * VIEW_SIZE];
+        int[] argb2 = new int[VIEW_SIZE * VIEW_SIZE];
+
+        image1.getRGB(argb1, 0, VIEW_SIZE, 0, 0, VIEW_SIZE, VIEW_SIZE);
+        image2.getRGB(argb2, 0, VIEW_SIZE, 0, 0, VIEW_SIZE, VIEW_SIZE);
+
+        for (int i = 0; i < argb1.length; i++) {
+            if (argb1[i] != argb2[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -58,6 +58,15 @@ public class TestSprite extends TestCase {
 
         declare("testTransformMirrorRot270");
         testTransformMirrorRot270();
+
+        declare("testPixelCollisionImage");
+        testPixelCollisionImage();
+
+        declare("testPixelCollisionSprite");
+        testPixelCollisionSprite();
+
+        declare("testPixelCollisionTiledLayer");
+        testPixelCollisionTiledLayer();
     }
 
     public void testInitialSize() {
@@ -108,6 +117,105 @@ public class TestSprite extends TestCase {
         testTransform(1, 2, Sprite.TRANS_MIRROR_ROT270, 9, 18, 0, 4, 3, 2);
     }
 
+    public void testPixelCollisionImage() {
+        // the opaque pixel is at (35, 1) of the untransformed frame
+        testPixelCollision(Sprite.TRANS_NONE, 35, 1);
+        testPixelCollision(Sprite.TRANS_ROT90, 0, 35);
+        testPixelCollision(Sprite.TRANS_ROT180, 4, 0);
+        testPixelCollision(Sprite.TRANS_ROT270, 1, 4);
+        testPixelCollision(Sprite.TRANS_MIRROR, 4, 1);
+        testPixelCollision(Sprite.TRANS_MIRROR_ROT90, 0, 4);
+        testPixelCollision(Sprite.TRANS_MIRROR_ROT180, 35, 0);
+        testPixelCollision(Sprite.TRANS_MIRROR_ROT270, 1, 35);
+    }
+
+    public void testPixelCollisionSprite() {
+        Sprite sprite = new Sprite(createFrames(), 40, 2);
+        Sprite pixel = new Sprite(createPixel());
+
+        pixel.setPosition(35, 1);
+        assertTrue("frame 1 collides", sprite.collidesWith(pixel, true));
+        assertTrue("pixel collides", pixel.collidesWith(sprite, true));
+
+        sprite.setFrame(1);
+        assertFalse("frame 2 collides", sprite.collidesWith(pixel, true));
+        assertTrue("bounds collide", sprite.collidesWith(pixel, false));
+
+        pixel.setPosition(2, 0);
+        assertTrue("frame 2 collides", sprite.collidesWith(pixel, true));
+
+        sprite.setFrame(0);
+        assertFalse("frame 1 collides", sprite.collidesWith(pixel, true));
+    }
+
+    public void testPixelCollisionTiledLayer() {
+        TiledLayer layer = new TiledLayer(2, 1, createFrames(), 40, 2);
+        Sprite pixel = new Sprite(createPixel());
+        int animatedTile = layer.createAnimatedTile(1);
+
+        layer.setCell(1, 0, animatedTile);
+        pixel.setPosition(75, 1);
+        assertTrue("tile 1 collides", pixel.collidesWith(layer, true));
+
+        layer.setAnimatedTile(animatedTile, 2);
+        assertFalse("tile 2 collides", pixel.collidesWith(layer, true));
+
+        pixel.setPosition(42, 0);
+        assertTrue("tile 2 collides", pixel.collidesWith(layer, true));
+
+        pixel.setPosition(2, 0);
+        assertFalse("empty cell collides", pixel.collidesWith(layer, true));
+    }
+
+    private void testPixelCollision(int transform, int expectedX,
+                                    int expectedY) {
+        Image frame = createFrames();
+        Image pixel = createPixel();
+        Sprite sprite = new Sprite(frame, 40, 2);
+
+        sprite.setTransform(transform);
+        sprite.setPosition(0, 0);
+
+        for (int y = -1; y <= sprite.getHeight(); y++) {
+            for (int x = -1; x <= sprite.getWidth(); x++) {
+                boolean expected = (x == expectedX && y == expectedY);
+
+                assertTrue("Collision at " + x + ", " + y,
+                           expected == sprite.collidesWith(pixel, x, y, true));
+            }
+        }
+
+        // the masks are cached, check that they are not mixed up
+        sprite.setTransform(Sprite.TRANS_NONE);
+        sprite.setPosition(0, 0);
+        assertTrue(sprite.collidesWith(pixel, 35, 1, true));
+    }
+
+    /**
+     * Creates two 40x2 frames. The first frame has one opaque pixel at
+     * (35, 1), the second one at (2, 0). All other pixels are transparent,
+     * some of them translucent.
+     */
+    private static Image createFrames() {
+        int[] argb = new int[80 * 2];
+
+        for (int i = 0; i < argb.length; i++) {
+            argb[i] = (i % 3 == 0) ? 0xfe00ff00 : 0x00ff0000;
+        }
+
+        argb[80 + 35] = 0xff0000ff;
+        argb[40 + 2] = 0xff0000ff;
+
+        return Image.createRGBImage(argb, 80, 2, true);
+    }
+
+    /**
+     * Creates a single opaque pixel.
+     */
+    private static Image createPixel() {
+        return Image.createRGBImage(new int[] {0xff000000}, 1, 1, true);
+    }
+
     private void testTransform(int refX, int refY, int transform,
             int expectedX, int expectedY, int expColRectX, int expColRectY,
             int expColRectWidth, int expColRectHeight) {
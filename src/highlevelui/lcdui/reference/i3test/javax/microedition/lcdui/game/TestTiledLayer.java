@@ -0,0 +1,226 @@
+/*
+ *   
+ *
+ * Copyright  1990-2007 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package javax.microedition.lcdui.game;
+
+import com.sun.midp.i3test.*;
+import javax.microedition.lcdui.*;
+
+/**
+ * Tests painting a TiledLayer with pre-rendered chunks.
+ */
+public class TestTiledLayer extends TestCase {
+    /** Size of the destination images. */
+    static final int SIZE = 100;
+
+    /** Width and height of a tile. */
+    static final int TILE_SIZE = 8;
+
+    public void runTests() {
+        declare("testChunkPaint");
+        testChunkPaint();
+
+        declare("testChunkInvalidation");
+        testChunkInvalidation();
+
+        declare("testChunkCacheSize");
+        testChunkCacheSize();
+    }
+
+    /**
+     * Checks that painting with chunks gives the same result as painting
+     * one tile at a time, at different positions and clips.
+     */
+    public void testChunkPaint() {
+        TiledLayer cached = createLayer();
+        TiledLayer uncached = createLayer();
+
+        cached.setChunkCacheSize(64 * 1024);
+        uncached.setChunkCacheSize(0);
+        fillCells(cached);
+        fillCells(uncached);
+
+        assertTrue("at 0, 0", samePaint(cached, uncached, 0, 0, 0));
+        assertTrue("at -13, 7", samePaint(cached, uncached, -13, 7, 0));
+        assertTrue("clipped", samePaint(cached, uncached, 5, -21, 17));
+        assertTrue("chunks cached",
+                   cached.getChunkCache().getCachedBytes() > 0);
+    }
+
+    /**
+     * Checks that changes to the cells and animated tiles are painted.
+     */
+    public void testChunkInvalidation() {
+        TiledLayer cached = createLayer();
+        TiledLayer uncached = createLayer();
+
+        cached.setChunkCacheSize(64 * 1024);
+        uncached.setChunkCacheSize(0);
+        fillCells(cached);
+        fillCells(uncached);
+        assertTrue("initial", samePaint(cached, uncached, 0, 0, 0));
+
+        cached.setCell(3, 4, 2);
+        uncached.setCell(3, 4, 2);
+        assertTrue("setCell", samePaint(cached, uncached, 0, 0, 0));
+
+        cached.fillCells(5, 0, 6, 3, 0);
+        uncached.fillCells(5, 0, 6, 3, 0);
+        assertTrue("fillCells", samePaint(cached, uncached, 0, 0, 0));
+
+        cached.setAnimatedTile(-1, 4);
+        uncached.setAnimatedTile(-1, 4);
+        assertTrue("setAnimatedTile", samePaint(cached, uncached, 0, 0, 0));
+
+        Image tiles = createTiles(0x80);
+        cached.setStaticTileSet(tiles, TILE_SIZE, TILE_SIZE);
+        uncached.setStaticTileSet(tiles, TILE_SIZE, TILE_SIZE);
+        assertTrue("setStaticTileSet", samePaint(cached, uncached, 0, 0, 0));
+    }
+
+    /**
+     * Checks that the chunks do not use more memory than allowed.
+     */
+    public void testChunkCacheSize() {
+        TiledLayer cached = createLayer();
+        TiledLayer uncached = createLayer();
+        int chunkBytes = TileChunkCache.CHUNK_SIZE *
+            TileChunkCache.CHUNK_SIZE * 4;
+
+        // room for one and a half chunk
+        cached.setChunkCacheSize(chunkBytes * 3 / 2);
+        uncached.setChunkCacheSize(0);
+        fillCells(cached);
+        fillCells(uncached);
+
+        assertTrue(samePaint(cached, uncached, 0, 0, 0));
+        assertTrue("cache size",
+            cached.getChunkCache().getCachedBytes() <= chunkBytes * 3 / 2);
+
+        // too small for any chunk
+        cached.setChunkCacheSize(chunkBytes / 8);
+        assertTrue(samePaint(cached, uncached, 0, 0, 0));
+        assertEquals("empty cache", 0,
+                     cached.getChunkCache().getCachedBytes());
+    }
+
+    /**
+     * Creates a layer of 20x20 cells with one animated tile.
+     *
+     * @return the new layer
+     */
+    private static TiledLayer createLayer() {
+        TiledLayer layer = new TiledLayer(20, 20, createTiles(0xff),
+                                          TILE_SIZE, TILE_SIZE);
+
+        layer.createAnimatedTile(3);
+        return layer;
+    }
+
+    /**
+     * Creates 4 tiles with transparent, translucent and opaque pixels.
+     *
+     * @param alpha alpha value of the translucent pixels
+     *
+     * @return image of the tiles
+     */
+    private static Image createTiles(int alpha) {
+        int width = 4 * TILE_SIZE;
+        int[] argb = new int[width * TILE_SIZE];
+
+        for (int i = 0; i < argb.length; i++) {
+            int tile = (i % width) / TILE_SIZE;
+
+            switch (i % 3) {
+            case 0:
+                argb[i] = 0;
+                break;
+            case 1:
+                argb[i] = (alpha << 24) | (0x40 * tile);
+                break;
+            default:
+                argb[i] = 0xff000000 | (0x4000 * (tile + 1)) | i;
+            }
+        }
+
+        return Image.createRGBImage(argb, width, TILE_SIZE, true);
+    }
+
+    /**
+     * Fills the cells with static, animated and empty tiles.
+     *
+     * @param layer the layer to fill
+     */
+    private static void fillCells(TiledLayer layer) {
+        for (int row = 0; row < layer.getRows(); row++) {
+            for (int column = 0; column < layer.getColumns(); column++) {
+                int tile = (row * 7 + column * 3) % 6;
+
+                layer.setCell(column, row, tile == 5 ? -1 : tile);
+            }
+        }
+    }
+
+    /**
+     * Paints two layers into new images and compares the pixels.
+     *
+     * @param layer1 first layer
+     * @param layer2 second layer
+     * @param x horizontal position of the layers
+     * @param y vertical position of the layers
+     * @param inset distance of the clip from the edges of the images
+     *
+     * @return true if the images are equal
+     */
+    private static boolean samePaint(TiledLayer layer1, TiledLayer layer2,
+                                     int x, int y, int inset) {
+        Image image1 = Image.createImage(SIZE, SIZE);
+        Image image2 = Image.createImage(SIZE, SIZE);
+        Graphics g1 = image1.getGraphics();
+        Graphics g2 = image2.getGraphics();
+
+        g1.setClip(inset, inset, SIZE - 2 * inset, SIZE - 2 * inset);
+        g2.setClip(inset, inset, SIZE - 2 * inset, SIZE - 2 * inset);
+        layer1.setPosition(x, y);
+        layer2.setPosition(x, y);
+        layer1.paint(g1);
+        layer2.paint(g2);
+
+        int[] argb1 = new int[SIZE * SIZE];
+        int[] argb2 = new int[SIZE * SIZE];
+
+        image1.getRGB(argb1, 0, SIZE, 0, 0, SIZE, SIZE);
+        image2.getRGB(argb2, 0, SIZE, 0, 0, SIZE, SIZE);
+
+        for (int i = 0; i < argb1.length; i++) {
+            if (argb1[i] != argb2[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
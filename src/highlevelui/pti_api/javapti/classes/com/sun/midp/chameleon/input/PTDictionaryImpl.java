@@ -25,18 +25,59 @@
 
 package com.sun.midp.chameleon.input;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import javax.microedition.io.Connector;
+
+import com.sun.midp.configurator.Constants;
+import com.sun.midp.i18n.Resource;
+import com.sun.midp.i18n.ResourceConstants;
+import com.sun.midp.io.j2me.storage.File;
+import com.sun.midp.io.j2me.storage.RandomAccessStream;
+import com.sun.midp.log.Logging;
+import com.sun.midp.log.LogChannels;
+import com.sun.midp.security.ImplicitlyTrustedClass;
+import com.sun.midp.security.SecurityInitializer;
+import com.sun.midp.security.SecurityToken;
+import com.sun.midp.util.ResourceHandler;
 
 /**
  * Machine dependent API to predictive text library
  *
- * This implementation assumes that predictive text library
- * loaded and handled by platfrom. As a result this class
- * serves just as a Iteraror factory
+ * This implementation keeps the words in a key sequence trie. The
+ * words of the language are loaded from the system resource
+ * pti_&lt;language&gt;.dic, a dictionary image that can be romized.
+ * Words added by the user are appended to a file in the internal
+ * storage and learned again each time the dictionary is created.
  */
 public class PTDictionaryImpl implements PTDictionary {
+    /**
+     * Inner class to request security token from SecurityInitializer.
+     * SecurityInitializer should be able to check this inner class name.
+     */
+    static private class SecurityTrusted
+        implements ImplicitlyTrustedClass {};
+
+    /** This class has a different security domain than the MIDlet suite */
+    private static SecurityToken classSecurityToken =
+        SecurityInitializer.requestToken(new SecurityTrusted());
+
+    /** frequency of the words added by the user, before all others */
+    private static final int USER_FREQUENCY = PTTrie.MAX_FREQUENCY;
+
     /** library language */
     private String language;
 
+    /** symbols mapped to the digital keys get from resources */
+    private char[][] keyMap;
+
+    /** words of the dictionary */
+    private PTTrie trie;
+
     /** library iterator */
     private PTIterator iterator;
 
@@ -46,6 +87,10 @@ public class PTDictionaryImpl implements PTDictionary {
      */
     public PTDictionaryImpl(String lang) {
         language = lang;
+        keyMap = PTIteratorImpl.getMapByLine(Resource.getString(
+                     ResourceConstants.LCDUI_TF_ALPHA_KEY_MAP));
+        trie = loadDictionary();
+        loadUserWords();
     }
     
     /**
@@ -55,18 +100,146 @@ public class PTDictionaryImpl implements PTDictionary {
      */
     public PTIterator iterator() {
         if (iterator == null)
-            iterator = new PTIteratorImpl();
+            iterator = new PTIteratorImpl(keyMap, trie);
         return iterator;
     }
 
     /**
-     * Adding words to the predictive text dictionary is not
-     * supported on the platform. Returns false always
+     * Adds a word to the dictionary. The word is offered before the
+     * words of the language from now on and is saved for the next
+     * sessions.
      *
      * @param word new word to add
-     * @return false (not supported on the platform)
+     * @return true if the word has been added, false if it cannot be
+     *         typed with the keys
      */
     public boolean addWord(String word) {
-        return false;
+        if (word == null || word.length() == 0) {
+            return false;
+        }
+
+        word = word.toLowerCase();
+        if (trie.getFrequency(word) == USER_FREQUENCY) {
+            return true;
+        }
+
+        if (!trie.addWord(word, USER_FREQUENCY)) {
+            return false;
+        }
+
+        saveUserWord(word);
+        return true;
+    }
+
+    /**
+     * Loads the words of the language.
+     *
+     * @return the dictionary, empty if there is no dictionary for the
+     *         language
+     */
+    private PTTrie loadDictionary() {
+        byte[] image = ResourceHandler.getSystemResource(classSecurityToken,
+                           "pti_" + language + ".dic");
+
+        if (image != null) {
+            try {
+                return new PTTrie(keyMap, image);
+            } catch (IOException e) {
+                if (Logging.REPORT_LEVEL <= Logging.WARNING) {
+                    Logging.report(Logging.WARNING, LogChannels.LC_HIGHUI,
+                        "Corrupt predictive text dictionary " + language);
+                }
+            }
+        }
+
+        return new PTTrie(keyMap);
+    }
+
+    /**
+     * Gets the name of the file of the words added by the user.
+     *
+     * @return the file name
+     */
+    private String getUserWordsFile() {
+        return File.getStorageRoot(Constants.INTERNAL_STORAGE_ID) +
+            "_pti_" + language + ".usr";
+    }
+
+    /**
+     * Learns the words added by the user in the previous sessions.
+     */
+    private void loadUserWords() {
+        RandomAccessStream storage =
+            new RandomAccessStream(classSecurityToken);
+        byte[] data;
+
+        try {
+            storage.connect(getUserWordsFile(), Connector.READ);
+        } catch (IOException e) {
+            // no words added yet
+            return;
+        }
+
+        try {
+            data = new byte[storage.getSizeOf()];
+            storage.readBytes(data, 0, data.length);
+        } catch (IOException e) {
+            if (Logging.REPORT_LEVEL <= Logging.WARNING) {
+                Logging.report(Logging.WARNING, LogChannels.LC_HIGHUI,
+                    "Could not read the user predictive text words");
+            }
+            return;
+        } finally {
+            try {
+                storage.disconnect();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+
+        DataInputStream in =
+            new DataInputStream(new ByteArrayInputStream(data));
+        try {
+            while (in.available() > 0) {
+                trie.addWord(in.readUTF(), USER_FREQUENCY);
+            }
+        } catch (IOException e) {
+            // keep the words read before a truncated entry
+        }
+    }
+
+    /**
+     * Appends a word to the file of the words added by the user.
+     *
+     * @param word the word
+     */
+    private void saveUserWord(String word) {
+        RandomAccessStream storage =
+            new RandomAccessStream(classSecurityToken);
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(word);
+            out.close();
+
+            byte[] data = bytes.toByteArray();
+
+            storage.connect(getUserWordsFile(), Connector.READ_WRITE);
+            storage.setPosition(storage.getSizeOf());
+            storage.writeBytes(data, 0, data.length);
+            storage.commitWrite();
+        } catch (IOException e) {
+            if (Logging.REPORT_LEVEL <= Logging.WARNING) {
+                Logging.report(Logging.WARNING, LogChannels.LC_HIGHUI,
+                    "Could not save the predictive text word " + word);
+            }
+        } finally {
+            try {
+                storage.disconnect();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
     }
 }
@@ -33,37 +33,71 @@ import com.sun.midp.i18n.ResourceConstants;
 import com.sun.midp.log.Logging;
 import com.sun.midp.log.LogChannels;
 
+import java.util.NoSuchElementException;
 import java.util.Vector;
 
 
 /** 
- * Implements JAVA PTIterator using the simple logic.
- *
+ * Implements JAVA PTIterator on top of the key sequence trie of the
+ * dictionary. The words and stems typed with the keys come first,
+ * followed by the characters of the last key appended to the previous
+ * selection, so words missing in the dictionary can still be typed.
  */
 public class PTIteratorImpl implements PTIterator {
     /** buffer accomulating user input */ 
     private StringBuffer buffer;
 
-    /** selected option from the list */ 
-    private int selected;
-
     /** symbols mapped to the digital keys get from resources */ 
     private char[][] keyMap;
 
-    /** list of matches cached until word is increased/decreased */ 
-    private String[] list;
+    /** words of the dictionary, null if there is no dictionary */
+    private PTTrie trie;
+
+    /**
+     * Key nodes of the trie for the keys typed so far, the root first.
+     * NONE once the keys do not start any word of the dictionary.
+     */
+    private int[] keyNodes = new int[16];
+
+    /** next stem of the current key node to return */
+    private int stem;
+
+    /** index of the next character of the last key to return */
+    private int option;
+
+    /** next match, valid if hasPending is true */
+    private String pending;
+
+    /** true if the next match has been looked up */
+    private boolean hasPending;
+
+    /** last match returned by next(), null if none */
+    private String current;
 
     /** storage accomulating all word states until it's committed by the user */
     private Vector states = new Vector();
 
     /** 
-     * Create a new iterator
+     * Create a new iterator without dictionary, matching the
+     * characters of the keys only.
      */
     public PTIteratorImpl() {
+        this(getMapByLine(Resource.getString(
+                 ResourceConstants.LCDUI_TF_ALPHA_KEY_MAP)), null);
+    }
+
+    /** 
+     * Create a new iterator
+     *
+     * @param keyMap symbols mapped to the digital keys
+     * @param trie words of the dictionary, null if there is none
+     */
+    PTIteratorImpl(char[][] keyMap, PTTrie trie) {
         buffer = new StringBuffer();
-        String lowerInLine = Resource.getString(
-                          ResourceConstants.LCDUI_TF_ALPHA_KEY_MAP);
-        keyMap = getMapByLine(lowerInLine);
+        this.keyMap = keyMap;
+        this.trie = trie;
+        keyNodes[0] = trie == null ? PTTrie.NONE : PTTrie.ROOT;
+        resetNext();
     }
 
 
@@ -74,7 +108,7 @@ public class PTIteratorImpl implements PTIterator {
      * @param line string combines all keys
      * @return map of the keys in char[][] format
      */
-    private char[][] getMapByLine(String line) {
+    static char[][] getMapByLine(String line) {
         char[] chars = line.toCharArray();
         int rows = 1;
         for (int i = chars.length - 1; i >= 0; i--) {
@@ -107,8 +141,7 @@ public class PTIteratorImpl implements PTIterator {
             buffer.delete(0, buffer.length());
         }
         states.removeAllElements();
-        selected = 0;
-        list = null;
+        resetNext();
     }
     
     /** 
@@ -116,13 +149,31 @@ public class PTIteratorImpl implements PTIterator {
      * @param keyCode char in the range '0'-'9', '#', or '*'
      */
     public void nextLevel(int keyCode) {
-        String[] ls = getList();
-        if (ls != null && ls.length > 0) {
-            states.addElement(ls[selected > 0 ? selected - 1 : 0]);
+        if (current == null) {
+            resetNext();
+            current = hasNext() ? pending : null;
+        }
+        if (current != null) {
+            states.addElement(current);
         }
+
+        int level = buffer.length();
+        int keyNode = keyNodes[level];
+        int key = getKeyIndex(keyCode);
+
+        if (keyNode != PTTrie.NONE) {
+            keyNode = key < 0 ? PTTrie.NONE : trie.getChild(keyNode, key);
+        }
+
+        if (level + 1 == keyNodes.length) {
+            int[] newKeyNodes = new int[keyNodes.length * 2];
+            System.arraycopy(keyNodes, 0, newKeyNodes, 0, keyNodes.length);
+            keyNodes = newKeyNodes;
+        }
+        keyNodes[level + 1] = keyNode;
+
         buffer.append((char)keyCode);
-        selected = 0;
-        list = null;
+        resetNext();
     }
     
     /** 
@@ -135,8 +186,7 @@ public class PTIteratorImpl implements PTIterator {
         if (buffer.length() > 0) {
             buffer.deleteCharAt(buffer.length() - 1);
         }
-        selected = 0;
-        list = null;
+        resetNext();
     }
     
     /**
@@ -147,12 +197,11 @@ public class PTIteratorImpl implements PTIterator {
      * @return true if the iterator has more elements.
      */
     public boolean hasNext() {
-        boolean ret = false;
-        String[] ls = getList();
-        if (ls != null && ls.length > 0) {
-            ret = selected < ls.length;
+        if (!hasPending) {
+            pending = getMatch();
+            hasPending = true;
         }
-        return ret;
+        return pending != null;
     }
     
     /** 
@@ -162,7 +211,17 @@ public class PTIteratorImpl implements PTIterator {
      * the 1st completion
      */
     public void resetNext() {
-        selected = 0;
+        int keyNode = keyNodes[buffer.length()];
+
+        if (keyNode != PTTrie.NONE && buffer.length() > 0) {
+            stem = trie.getFirstStem(keyNode);
+        } else {
+            stem = PTTrie.NONE;
+        }
+        option = 0;
+        current = null;
+        pending = null;
+        hasPending = false;
     }
 
     /**
@@ -177,9 +236,13 @@ public class PTIteratorImpl implements PTIterator {
             Logging.report(Logging.INFORMATION, LogChannels.LC_HIGHUI,
                 "[iter.nextCompletionOption] >>");
         }
-        String ret = null;
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
 
-        ret = getList()[selected++];
+        String ret = pending;
+        current = pending;
+        hasPending = false;
 
         if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
             Logging.report(Logging.INFORMATION, LogChannels.LC_HIGHUI,
@@ -189,30 +252,63 @@ public class PTIteratorImpl implements PTIterator {
     }
 
     /**
-     * Get the list of matches. The list is cached until the word is decreased/
-     * increased by the user.
-     * @return the list of matches. Returns null if no matches are found
+     * Finds the match after the last one returned. The stems of the
+     * current key node are returned first, then the characters of the
+     * last key appended to the previous selection unless they are one
+     * of the stems.
+     *
+     * @return the next match or null if there are no more matches
      */
-    private String[] getList() {
-        if (list == null && buffer.length() > 0) {
-            char[] next = getCharOptions(buffer.charAt(buffer.length() - 1));
-            list = new String[next.length];
-
-            String base = new String();
-            if (states.size() > 0) {
-                base = (String)(states.elementAt(states.size() - 1));
-            } 
-            for (int j = 0; j < next.length; j++) {
-                list[j] = base + next[j];
-                if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
-                    Logging.report(Logging.INFORMATION, LogChannels.LC_HIGHUI,
-                        "[getList] next = " + list[j]);
-                }
+    private String getMatch() {
+        int level = buffer.length();
+
+        if (level == 0) {
+            return null;
+        }
+
+        if (stem != PTTrie.NONE) {
+            String match = trie.getStem(stem, level);
+            stem = trie.getNextStem(stem);
+            return match;
+        }
+
+        char[] next = getCharOptions(buffer.charAt(level - 1));
+        if (next == null) {
+            return null;
+        }
+
+        String base = "";
+        if (states.size() > 0) {
+            base = (String)(states.elementAt(states.size() - 1));
+        } 
+
+        int keyNode = keyNodes[level];
+        while (option < next.length) {
+            String match = base + next[option++];
+
+            if (keyNode == PTTrie.NONE ||
+                    trie.findStem(keyNode, match) == PTTrie.NONE) {
+                return match;
             }
         }
-        return list;
+
+        return null;
     }
 
+    /**
+     * Gets the row of the key map of a key.
+     *
+     * @param keyCode the key code
+     *
+     * @return index of the row or -1 if the key has no characters
+     */
+    static int getKeyIndex(int keyCode) {
+        if (keyCode >= Canvas.KEY_NUM0 && keyCode <= Canvas.KEY_NUM9) {
+            return keyCode - Canvas.KEY_NUM0;
+        }
+
+        return keyCode == Canvas.KEY_POUND ? 10 : -1;
+    }
 
     /**
      * Gets the possible matches for the key code
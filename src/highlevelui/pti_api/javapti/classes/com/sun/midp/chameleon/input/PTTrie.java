@@ -0,0 +1,639 @@
+/*
+ *
+ * Copyright  1990-2007 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+
+package com.sun.midp.chameleon.input;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Dictionary of words indexed by key sequence.
+ * <p>
+ * The dictionary is a trie of the prefixes of its words, the stems,
+ * grouped by the keys typed to enter them. A key node stands for a
+ * key sequence and lists the stems of that length typed with it in
+ * the order they are offered to the user: complete words first, more
+ * frequent words before others. Going to the next key is a lookup in
+ * the at most one child per key of a key node, and the candidates are
+ * walked along the list, so both take the same time whatever the size
+ * of the dictionary.</p>
+ * <p>
+ * Nodes are kept in parallel arrays of primitives instead of objects,
+ * which keeps the footprint low and lets a dictionary be saved to and
+ * loaded from a flat image with {@link #toByteArray} and
+ * {@link #PTTrie(char[][], byte[])}; such an image can be romized like
+ * any other system resource.</p>
+ */
+final class PTTrie {
+    /** First int of a dictionary image. */
+    private static final int MAGIC = 0x50544931; // "PTI1"
+
+    /** Greatest word frequency. */
+    static final int MAX_FREQUENCY = 0xffff;
+
+    /** Index of the root of both the stem and key tries. */
+    static final int ROOT = 0;
+
+    /** Index of no node. */
+    static final int NONE = -1;
+
+    /** Key rows of the characters, the row of a key is its index. */
+    private final char[][] keyMap;
+
+    /** Key of the ASCII characters, -1 for the ones without a key. */
+    private final byte[] asciiKeys = new byte[128];
+
+    /** Number of stem nodes. */
+    private int stemCount;
+
+    /** Last character of each stem. */
+    private char[] stemChars;
+
+    /** Stem one character shorter of each stem. */
+    private int[] stemParents;
+
+    /** Next stem of the same key node, in the order of candidates. */
+    private int[] nextStems;
+
+    /** Frequency of the word of each stem, 0 if it is not a word. */
+    private char[] frequencies;
+
+    /** Greatest frequency of the words starting with each stem. */
+    private char[] ranks;
+
+    /** Number of key nodes. */
+    private int keyNodeCount;
+
+    /** Key of each key node, the index of its row in the key map. */
+    private byte[] keys;
+
+    /** First child of each key node. */
+    private int[] firstChildren;
+
+    /** Next key node with the same parent. */
+    private int[] nextSiblings;
+
+    /** First stem of each key node. */
+    private int[] firstStems;
+
+    /**
+     * Creates an empty dictionary.
+     *
+     * @param keyMap characters of each key, a key is entered by the
+     *        index of its row
+     */
+    PTTrie(char[][] keyMap) {
+        this.keyMap = keyMap;
+        initKeys();
+
+        stemChars = new char[64];
+        stemParents = new int[64];
+        nextStems = new int[64];
+        frequencies = new char[64];
+        ranks = new char[64];
+        stemCount = 1;
+        stemParents[ROOT] = NONE;
+        nextStems[ROOT] = NONE;
+
+        keys = new byte[64];
+        firstChildren = new int[64];
+        nextSiblings = new int[64];
+        firstStems = new int[64];
+        keyNodeCount = 1;
+        firstChildren[ROOT] = NONE;
+        nextSiblings[ROOT] = NONE;
+        firstStems[ROOT] = NONE;
+    }
+
+    /**
+     * Creates a dictionary from an image saved by toByteArray.
+     *
+     * @param keyMap characters of each key, the same as the one of the
+     *        saved dictionary
+     * @param image dictionary image
+     *
+     * @exception IOException if the image is not a valid dictionary
+     */
+    PTTrie(char[][] keyMap, byte[] image) throws IOException {
+        this.keyMap = keyMap;
+        initKeys();
+
+        DataInputStream in =
+            new DataInputStream(new ByteArrayInputStream(image));
+
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a dictionary");
+        }
+
+        stemCount = in.readInt();
+        keyNodeCount = in.readInt();
+        if (stemCount < 1 || keyNodeCount < 1) {
+            throw new IOException("Corrupt dictionary");
+        }
+
+        stemChars = new char[stemCount];
+        stemParents = new int[stemCount];
+        nextStems = new int[stemCount];
+        frequencies = new char[stemCount];
+        ranks = new char[stemCount];
+        for (int i = 0; i < stemCount; i++) {
+            stemChars[i] = in.readChar();
+            stemParents[i] = in.readInt();
+            nextStems[i] = in.readInt();
+            frequencies[i] = in.readChar();
+            ranks[i] = in.readChar();
+        }
+
+        keys = new byte[keyNodeCount];
+        firstChildren = new int[keyNodeCount];
+        nextSiblings = new int[keyNodeCount];
+        firstStems = new int[keyNodeCount];
+        for (int i = 0; i < keyNodeCount; i++) {
+            keys[i] = in.readByte();
+            firstChildren[i] = in.readInt();
+            nextSiblings[i] = in.readInt();
+            firstStems[i] = in.readInt();
+        }
+    }
+
+    /**
+     * Fills the table of the keys of the ASCII characters.
+     */
+    private void initKeys() {
+        for (int c = 0; c < asciiKeys.length; c++) {
+            asciiKeys[c] = (byte)findKey((char)c);
+        }
+    }
+
+    /**
+     * Finds the key of a character in the key map.
+     *
+     * @param c lower case character
+     *
+     * @return index of the key or -1 if no key enters the character
+     */
+    private int findKey(char c) {
+        for (int k = 0; k < keyMap.length; k++) {
+            for (int i = 0; i < keyMap[k].length; i++) {
+                if (keyMap[k][i] == c) {
+                    return k;
+                }
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Gets the key that enters a character.
+     *
+     * @param c the character
+     *
+     * @return index of the key or -1 if no key enters the character
+     */
+    int getKey(char c) {
+        c = Character.toLowerCase(c);
+
+        if (c < asciiKeys.length) {
+            return asciiKeys[c];
+        }
+
+        return findKey(c);
+    }
+
+    /**
+     * Gets the key node reached by typing one more key.
+     *
+     * @param keyNode key node of the keys typed so far
+     * @param key index of the key
+     *
+     * @return the key node or NONE if no word starts with the keys
+     */
+    int getChild(int keyNode, int key) {
+        for (int k = firstChildren[keyNode]; k != NONE; k = nextSiblings[k]) {
+            if (keys[k] == key) {
+                return k;
+            }
+        }
+
+        return NONE;
+    }
+
+    /**
+     * Gets the first candidate typed with the keys of a key node.
+     *
+     * @param keyNode the key node
+     *
+     * @return a stem node or NONE
+     */
+    int getFirstStem(int keyNode) {
+        return firstStems[keyNode];
+    }
+
+    /**
+     * Gets the candidate after a stem typed with the same keys.
+     *
+     * @param stem the stem node
+     *
+     * @return a stem node or NONE
+     */
+    int getNextStem(int stem) {
+        return nextStems[stem];
+    }
+
+    /**
+     * Tells if a stem is a word of the dictionary.
+     *
+     * @param stem the stem node
+     *
+     * @return true if the stem is a complete word
+     */
+    boolean isWord(int stem) {
+        return frequencies[stem] != 0;
+    }
+
+    /**
+     * Gets the text of a stem.
+     *
+     * @param stem the stem node
+     * @param length number of characters of the stem, the number of
+     *        keys typed
+     *
+     * @return the stem
+     */
+    String getStem(int stem, int length) {
+        char[] chars = new char[length];
+
+        for (int i = length - 1; i >= 0; i--) {
+            chars[i] = stemChars[stem];
+            stem = stemParents[stem];
+        }
+
+        return new String(chars);
+    }
+
+    /**
+     * Finds a stem typed with the keys of a key node.
+     *
+     * @param keyNode the key node
+     * @param text the stem, as long as the key sequence of the key node
+     *
+     * @return the stem node or NONE if the stem is not in the dictionary
+     */
+    int findStem(int keyNode, String text) {
+        int length = text.length();
+
+        for (int s = firstStems[keyNode]; s != NONE; s = nextStems[s]) {
+            int p = s;
+            int i = length - 1;
+
+            while (i >= 0 && stemChars[p] == text.charAt(i)) {
+                p = stemParents[p];
+                i--;
+            }
+
+            if (i < 0) {
+                return s;
+            }
+        }
+
+        return NONE;
+    }
+
+    /**
+     * Adds a word to the dictionary. If the word is already in the
+     * dictionary it keeps the greater frequency.
+     *
+     * @param word the word, in lower case
+     * @param frequency how often the word is used, 1 to MAX_FREQUENCY
+     *
+     * @return false if a character of the word cannot be typed
+     */
+    boolean addWord(String word, int frequency) {
+        int length = word.length();
+
+        if (length == 0) {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++) {
+            if (getKey(word.charAt(i)) < 0) {
+                return false;
+            }
+        }
+
+        if (frequency > MAX_FREQUENCY) {
+            frequency = MAX_FREQUENCY;
+        } else if (frequency < 1) {
+            frequency = 1;
+        }
+
+        int keyNode = ROOT;
+        int stem = ROOT;
+
+        for (int i = 0; i < length; i++) {
+            char c = word.charAt(i);
+
+            keyNode = getOrAddChild(keyNode, getKey(c));
+            stem = getOrAddStem(keyNode, stem, c);
+
+            boolean last = i == length - 1;
+
+            if (ranks[stem] < frequency ||
+                    (last && frequencies[stem] < frequency)) {
+                if (ranks[stem] < frequency) {
+                    ranks[stem] = (char)frequency;
+                }
+
+                if (last) {
+                    frequencies[stem] = (char)frequency;
+                }
+
+                sortStem(keyNode, stem);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Gets the frequency of a word.
+     *
+     * @param word the word
+     *
+     * @return the frequency or 0 if the word is not in the dictionary
+     */
+    int getFrequency(String word) {
+        int keyNode = ROOT;
+
+        for (int i = 0; i < word.length() && keyNode != NONE; i++) {
+            int key = getKey(word.charAt(i));
+
+            keyNode = key < 0 ? NONE : getChild(keyNode, key);
+        }
+
+        if (keyNode == NONE || word.length() == 0) {
+            return 0;
+        }
+
+        int stem = findStem(keyNode, word.toLowerCase());
+
+        return stem == NONE ? 0 : frequencies[stem];
+    }
+
+    /**
+     * Gets the child of a key node, adding it if needed.
+     *
+     * @param keyNode the parent key node
+     * @param key index of the key
+     *
+     * @return the child key node
+     */
+    private int getOrAddChild(int keyNode, int key) {
+        int child = getChild(keyNode, key);
+
+        if (child != NONE) {
+            return child;
+        }
+
+        if (keyNodeCount == keys.length) {
+            int size = keyNodeCount * 2;
+
+            keys = grow(keys, size);
+            firstChildren = grow(firstChildren, size);
+            nextSiblings = grow(nextSiblings, size);
+            firstStems = grow(firstStems, size);
+        }
+
+        child = keyNodeCount++;
+        keys[child] = (byte)key;
+        firstChildren[child] = NONE;
+        firstStems[child] = NONE;
+        nextSiblings[child] = firstChildren[keyNode];
+        firstChildren[keyNode] = child;
+
+        return child;
+    }
+
+    /**
+     * Gets a stem one character longer than another, adding it at the
+     * end of the candidates of its key node if needed.
+     *
+     * @param keyNode key node of the new stem
+     * @param parent the stem one character shorter
+     * @param c the last character of the stem
+     *
+     * @return the stem node
+     */
+    private int getOrAddStem(int keyNode, int parent, char c) {
+        int last = NONE;
+
+        for (int s = firstStems[keyNode]; s != NONE; s = nextStems[s]) {
+            if (stemParents[s] == parent && stemChars[s] == c) {
+                return s;
+            }
+
+            last = s;
+        }
+
+        if (stemCount == stemChars.length) {
+            int size = stemCount * 2;
+
+            stemChars = grow(stemChars, size);
+            stemParents = grow(stemParents, size);
+            nextStems = grow(nextStems, size);
+            frequencies = grow(frequencies, size);
+            ranks = grow(ranks, size);
+        }
+
+        int stem = stemCount++;
+        stemChars[stem] = c;
+        stemParents[stem] = parent;
+        nextStems[stem] = NONE;
+
+        if (last == NONE) {
+            firstStems[keyNode] = stem;
+        } else {
+            nextStems[last] = stem;
+        }
+
+        return stem;
+    }
+
+    /**
+     * Moves a stem whose frequency grew ahead of the candidates it now
+     * comes before.
+     *
+     * @param keyNode key node of the stem
+     * @param stem the stem node
+     */
+    private void sortStem(int keyNode, int stem) {
+        int previous = NONE;
+        int insertAfter = NONE;
+        boolean found = false;
+
+        for (int s = firstStems[keyNode]; s != stem; s = nextStems[s]) {
+            if (!found && comesBefore(stem, s)) {
+                found = true;
+            } else if (!found) {
+                insertAfter = s;
+            }
+
+            previous = s;
+        }
+
+        if (!found) {
+            return;
+        }
+
+        // unlink the stem
+        nextStems[previous] = nextStems[stem];
+
+        if (insertAfter == NONE) {
+            nextStems[stem] = firstStems[keyNode];
+            firstStems[keyNode] = stem;
+        } else {
+            nextStems[stem] = nextStems[insertAfter];
+            nextStems[insertAfter] = stem;
+        }
+    }
+
+    /**
+     * Tells if a stem is offered before another one: words before
+     * stems of longer words, then the most frequent first.
+     *
+     * @param a a stem node
+     * @param b another stem node
+     *
+     * @return true if a has to be offered before b
+     */
+    private boolean comesBefore(int a, int b) {
+        if ((frequencies[a] != 0) != (frequencies[b] != 0)) {
+            return frequencies[a] != 0;
+        }
+
+        if (frequencies[a] != frequencies[b]) {
+            return frequencies[a] > frequencies[b];
+        }
+
+        return ranks[a] > ranks[b];
+    }
+
+    /**
+     * Gets the number of nodes of the dictionary, for measurements.
+     *
+     * @return stem nodes plus key nodes
+     */
+    int getNodeCount() {
+        return stemCount + keyNodeCount;
+    }
+
+    /**
+     * Saves the dictionary to an image.
+     *
+     * @return the dictionary image
+     */
+    byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+            12 + stemCount * 14 + keyNodeCount * 13);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(stemCount);
+            out.writeInt(keyNodeCount);
+
+            for (int i = 0; i < stemCount; i++) {
+                out.writeChar(stemChars[i]);
+                out.writeInt(stemParents[i]);
+                out.writeInt(nextStems[i]);
+                out.writeChar(frequencies[i]);
+                out.writeChar(ranks[i]);
+            }
+
+            for (int i = 0; i < keyNodeCount; i++) {
+                out.writeByte(keys[i]);
+                out.writeInt(firstChildren[i]);
+                out.writeInt(nextSiblings[i]);
+                out.writeInt(firstStems[i]);
+            }
+
+            out.close();
+        } catch (IOException e) {
+            // a ByteArrayOutputStream does not throw
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Gets a longer copy of an array.
+     *
+     * @param a the array
+     * @param size the new length
+     *
+     * @return the copy
+     */
+    private static int[] grow(int[] a, int size) {
+        int[] b = new int[size];
+
+        System.arraycopy(a, 0, b, 0, a.length);
+        return b;
+    }
+
+    /**
+     * Gets a longer copy of an array.
+     *
+     * @param a the array
+     * @param size the new length
+     *
+     * @return the copy
+     */
+    private static char[] grow(char[] a, int size) {
+        char[] b = new char[size];
+
+        System.arraycopy(a, 0, b, 0, a.length);
+        return b;
+    }
+
+    /**
+     * Gets a longer copy of an array.
+     *
+     * @param a the array
+     * @param size the new length
+     *
+     * @return the copy
+     */
+    private static byte[] grow(byte[] a, int size) {
+        byte[] b = new byte[size];
+
+        System.arraycopy(a, 0, b, 0, a.length);
+        return b;
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ *
+ * Copyright  1990-2007 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+
+package com.sun.midp.chameleon.input;
+
+import java.io.IOException;
+
+import com.sun.midp.configurator.Constants;
+import com.sun.midp.i3test.TestCase;
+import com.sun.midp.io.j2me.storage.File;
+
+/**
+ * Tests the key sequence trie of the Java predictive text dictionary
+ * and measures it with a large dictionary.
+ */
+public class TestPTTrie extends TestCase {
+
+    /** Key map of the tests, the same as the English one. */
+    private static final char[][] KEY_MAP = PTIteratorImpl.getMapByLine(
+        "0$.:/,@1?!*#$abc2$def3$ghi4$jkl5$mno6$pqrs7$tuv8$wxyz9$ ");
+
+    /** Number of words of the large dictionary. */
+    private static final int NUM_WORDS = 50000;
+
+    /** Language of the dictionary whose user words are saved. */
+    private static final String TEST_LANGUAGE = "i3test";
+
+    /**
+     * Overridden from TestCase parent. This method will kick off each
+     * individual test
+     */
+    public void runTests() throws Throwable {
+        declare("testWords");
+        testWords();
+
+        declare("testStems");
+        testStems();
+
+        declare("testPrevLevel");
+        testPrevLevel();
+
+        declare("testUnknownWord");
+        testUnknownWord();
+
+        declare("testImage");
+        testImage();
+
+        declare("testUserWords");
+        testUserWords();
+
+        declare("testLargeDictionary");
+        testLargeDictionary();
+    }
+
+    /**
+     * Creates a small dictionary.
+     *
+     * @return the dictionary
+     */
+    private static PTTrie createTrie() {
+        PTTrie trie = new PTTrie(KEY_MAP);
+
+        trie.addWord("hood", 10);
+        trie.addWord("gone", 50);
+        trie.addWord("home", 80);
+        trie.addWord("good", 100);
+        trie.addWord("go", 150);
+        trie.addWord("in", 200);
+
+        return trie;
+    }
+
+    /**
+     * Types keys and gets the matches.
+     *
+     * @param iter the iterator
+     * @param keys the keys to type
+     *
+     * @return the matches, separated by spaces
+     */
+    private static String type(PTIterator iter, String keys) {
+        for (int i = 0; i < keys.length(); i++) {
+            iter.nextLevel(keys.charAt(i));
+            if (iter.hasNext()) {
+                // select the first match like the input mode does
+                iter.next();
+            }
+        }
+
+        return getMatches(iter);
+    }
+
+    /**
+     * Gets all the matches of the keys typed so far, then selects the
+     * first one again.
+     *
+     * @param iter the iterator
+     *
+     * @return the matches, separated by spaces
+     */
+    private static String getMatches(PTIterator iter) {
+        StringBuffer sb = new StringBuffer();
+
+        iter.resetNext();
+        while (iter.hasNext()) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(iter.next());
+        }
+        iter.resetNext();
+
+        return sb.toString();
+    }
+
+    /**
+     * Words typed with the same keys are offered the most frequent
+     * first, followed by the characters of the last key.
+     */
+    public void testWords() {
+        PTIterator iter = new PTIteratorImpl(KEY_MAP, createTrie());
+
+        assertEquals("good home gone hood gooe goof goo3",
+                     type(iter, "4663"));
+    }
+
+    /**
+     * Stems of longer words come after the words.
+     */
+    public void testStems() {
+        PTIterator iter = new PTIteratorImpl(KEY_MAP, createTrie());
+
+        assertEquals("i g h 4", type(iter, "4"));
+
+        iter.reset();
+        assertEquals("in go ho im io i6", type(iter, "46"));
+    }
+
+    /**
+     * Removing a key goes back to the matches of the shorter sequence.
+     */
+    public void testPrevLevel() {
+        PTIterator iter = new PTIteratorImpl(KEY_MAP, createTrie());
+
+        type(iter, "4663");
+        iter.prevLevel();
+        // the characters of the key follow the selection of "46"
+        assertEquals("goo hom gon hoo inm inn ino in6", getMatches(iter));
+
+        iter.prevLevel();
+        iter.prevLevel();
+        iter.prevLevel();
+        assertFalse("no keys", iter.hasNext());
+    }
+
+    /**
+     * Keys that do not start any word still match the characters of
+     * the keys.
+     */
+    public void testUnknownWord() {
+        PTIterator iter = new PTIteratorImpl(KEY_MAP, createTrie());
+
+        assertEquals("inw inx iny inz in9", type(iter, "469"));
+        assertEquals("inwt inwu inwv inw8", type(iter, "8"));
+
+        iter.prevLevel();
+        iter.prevLevel();
+        assertEquals("in go ho im io i6", getMatches(iter));
+    }
+
+    /**
+     * A dictionary loaded from an image matches like the original.
+     *
+     * @exception Throwable if the image cannot be loaded
+     */
+    public void testImage() throws Throwable {
+        PTTrie trie = createTrie();
+        PTTrie loaded = new PTTrie(KEY_MAP, trie.toByteArray());
+
+        assertEquals(trie.getNodeCount(), loaded.getNodeCount());
+        assertEquals(type(new PTIteratorImpl(KEY_MAP, trie), "4663"),
+                     type(new PTIteratorImpl(KEY_MAP, loaded), "4663"));
+        assertEquals(150, loaded.getFrequency("go"));
+        assertEquals(0, loaded.getFrequency("goo"));
+
+        // the loaded dictionary keeps learning
+        assertTrue(loaded.addWord("hoof", 500));
+        assertEquals("hoof good home gone hood",
+                     type(new PTIteratorImpl(KEY_MAP, loaded),
+                          "4663").substring(0, 24));
+    }
+
+    /**
+     * Words added by the user come first and are saved for the next
+     * dictionaries.
+     *
+     * @exception IOException if the file of the user words cannot be
+     *            deleted
+     */
+    public void testUserWords() throws IOException {
+        File file = new File(getSecurityToken());
+        String name = File.getStorageRoot(Constants.INTERNAL_STORAGE_ID) +
+            "_pti_" + TEST_LANGUAGE + ".usr";
+
+        try {
+            if (file.exists(name)) {
+                file.delete(name);
+            }
+
+            PTDictionaryImpl dict = new PTDictionaryImpl(TEST_LANGUAGE);
+
+            assertTrue(dict.addWord("Hoof"));
+            assertTrue(dict.addWord("hoof"));
+            assertTrue(dict.addWord("ink"));
+            assertFalse("not typed with keys", dict.addWord("\u0001"));
+            assertEquals("hoof", type(dict.iterator(), "4663").
+                         substring(0, 4));
+
+            dict = new PTDictionaryImpl(TEST_LANGUAGE);
+            assertEquals("hoof", type(dict.iterator(), "4663").
+                         substring(0, 4));
+            dict.iterator().reset();
+            assertEquals("ink", type(dict.iterator(), "465").
+                         substring(0, 3));
+        } finally {
+            try {
+                file.delete(name);
+            } catch (IOException e) {
+                // the file may not exist
+            }
+        }
+    }
+
+    /**
+     * Builds a dictionary of 50000 words, checks that every tested word
+     * is offered for its keys and reports the footprint and the time
+     * taken by each key press.
+     *
+     * @exception Throwable if the image cannot be loaded
+     */
+    public void testLargeDictionary() throws Throwable {
+        Runtime rt = Runtime.getRuntime();
+        String[] words = new String[NUM_WORDS];
+        int seed = 12345;
+
+        for (int i = 0; i < NUM_WORDS; i++) {
+            seed = seed * 1103515245 + 12345;
+            int length = 2 + ((seed >>> 16) & 0x7);
+            char[] chars = new char[length];
+
+            for (int c = 0; c < length; c++) {
+                seed = seed * 1103515245 + 12345;
+                chars[c] = (char)('a' + (seed >>> 16) % 26);
+            }
+            words[i] = new String(chars);
+        }
+
+        long start = System.currentTimeMillis();
+
+        PTTrie trie = new PTTrie(KEY_MAP);
+        for (int i = 0; i < NUM_WORDS; i++) {
+            // Zipf-like frequencies
+            trie.addWord(words[i], NUM_WORDS / (i + 1) + 1);
+        }
+
+        long buildTime = System.currentTimeMillis() - start;
+        byte[] image = trie.toByteArray();
+
+        trie = null;
+        System.gc();
+        long before = rt.totalMemory() - rt.freeMemory();
+
+        start = System.currentTimeMillis();
+        trie = new PTTrie(KEY_MAP, image);
+        long loadTime = System.currentTimeMillis() - start;
+
+        System.gc();
+        long footprint = rt.totalMemory() - rt.freeMemory() - before;
+
+        PTIteratorImpl iter = new PTIteratorImpl(KEY_MAP, trie);
+        int keyPresses = 0;
+        start = System.currentTimeMillis();
+
+        for (int i = 0; i < NUM_WORDS; i += 50) {
+            String word = words[i];
+
+            iter.reset();
+            for (int c = 0; c < word.length(); c++) {
+                iter.nextLevel(getKeyCode(trie, word.charAt(c)));
+                iter.next();
+                keyPresses++;
+            }
+        }
+
+        long typeTime = System.currentTimeMillis() - start;
+
+        for (int i = 0; i < NUM_WORDS; i += 997) {
+            String word = words[i];
+            boolean found = false;
+
+            iter.reset();
+            for (int c = 0; c < word.length(); c++) {
+                iter.nextLevel(getKeyCode(trie, word.charAt(c)));
+            }
+            while (iter.hasNext() && !found) {
+                found = word.equals(iter.next());
+            }
+
+            assertTrue("not offered: " + word, found);
+        }
+
+        info("TestPTTrie: " + NUM_WORDS + " words, " +
+             trie.getNodeCount() + " nodes, built in " +
+             buildTime + " ms, image " + image.length +
+             " bytes loaded in " + loadTime + " ms, " +
+             footprint + " bytes of heap, " + keyPresses +
+             " key presses in " + typeTime + " ms");
+    }
+
+    /**
+     * Gets the key code of the key that types a character.
+     *
+     * @param trie the dictionary
+     * @param c the character
+     *
+     * @return the key code
+     */
+    private static int getKeyCode(PTTrie trie, char c) {
+        int key = trie.getKey(c);
+
+        return key == 10 ? '#' : '0' + key;
+    }
+}
@@ -42,6 +42,10 @@ public class Gen_Writer extends StreamWriter {
     private byte[] buf;
     /** Maximum length of characters in local buffer. */
     private int maxByteLen;
+    /** Number of characters converted by one native call. */
+    private static final int CHUNK_SIZE = 128;
+    /** Local buffer for characters copied out of a string. */
+    private char[] chars;
 
     /**
      * Constructor for generic writer.
@@ -105,19 +109,13 @@ public class Gen_Writer extends StreamWriter {
      */
     synchronized public void write(char cbuf[], int off, int len) 
         throws IOException {
-        int maxlen = len * maxByteLen;
-        if (buf.length < maxlen) {
-            buf = new byte[maxlen];
-        }
-
-        len = Conv.charToByte(id, cbuf, off, len, buf, 0, buf.length);
+        int n;
 
-        if (len > 0) {
-            out.write(buf, 0, len);
-        }
-
-        if (buf.length > maxByteLen) {
-            buf = new byte[maxByteLen];
+        while (len > 0) {
+            n = chunkLength(cbuf, off, len);
+            writeChunk(cbuf, off, n);
+            off += n;
+            len -= n;
         }
     }
 
@@ -132,8 +130,69 @@ public class Gen_Writer extends StreamWriter {
      */
     synchronized public void write(String str, int off, int len) 
         throws IOException {
-        for (int i = 0; i < len; i++) {
-            write(str.charAt(off + i));
+        int n;
+
+        if (chars == null) {
+            chars = new char[CHUNK_SIZE];
+        }
+
+        while (len > 0) {
+            n = (len < CHUNK_SIZE) ? len : CHUNK_SIZE;
+            str.getChars(off, off + n, chars, 0);
+            n = chunkLength(chars, 0, len);
+            writeChunk(chars, 0, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Get the number of characters to convert in one native call,
+     * so that a surrogate pair is not split between two calls.
+     *
+     * @param cbuf characters to convert
+     * @param off offset of the first character
+     * @param len number of characters left to convert
+     * @return number of characters for the next call
+     */
+    private static int chunkLength(char cbuf[], int off, int len) {
+        int n;
+        char last;
+
+        if (len <= CHUNK_SIZE) {
+            return len;
+        }
+
+        n = CHUNK_SIZE;
+        last = cbuf[off + n - 1];
+        if (0xd800 <= last && last <= 0xdbff) {
+            n--;
+        }
+
+        return n;
+    }
+
+    /**
+     * Convert a chunk of characters and write the bytes to the output
+     * stream. The byte buffer only ever grows to fit a full chunk.
+     *
+     * @param cbuf characters to convert
+     * @param off offset of the first character
+     * @param len number of characters, no more than CHUNK_SIZE
+     * @exception IOException is thrown if the output stream 
+     * could not be written with the converted bytes
+     */
+    private void writeChunk(char cbuf[], int off, int len)
+        throws IOException {
+        int maxlen = len * maxByteLen;
+        if (buf.length < maxlen) {
+            buf = new byte[maxlen];
+        }
+
+        len = Conv.charToByte(id, cbuf, off, len, buf, 0, buf.length);
+
+        if (len > 0) {
+            out.write(buf, 0, len);
         }
     }
 
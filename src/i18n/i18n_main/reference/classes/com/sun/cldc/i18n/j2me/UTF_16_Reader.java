@@ -62,6 +62,15 @@ public class UTF_16_Reader extends com.sun.cldc.i18n.StreamReader {
      */
     protected static final int BYTES_PER_CHAR = 2;
 
+    /** size of the buffer for bulk reads from the input stream */
+    private static final int BUFFER_SIZE = 512;
+    /**
+     * Buffer for bulk reads from the input stream. A read never takes
+     * more bytes from the stream than the characters it was asked for,
+     * so at most one byte, kept in firstByte, is left over between calls.
+     */
+    private byte[] byteBuffer;
+
     /** Constructs a UTF-16 reader. */
     public UTF_16_Reader() {
         bytesForBOM = 2;
@@ -150,30 +159,85 @@ public class UTF_16_Reader extends com.sun.cldc.i18n.StreamReader {
      */
     public int read(char cbuf[], int off, int len) throws IOException {
         int count = 0;
-        int secondByte;
+        int n;
+        int i;
+        int dst;
+
         if (len == 0) {
             return 0;
         }
 
-        if (firstByte == -1) {
-            firstByte = in.read();
+        if (byteBuffer == null) {
+            byteBuffer = new byte[BUFFER_SIZE];
         }
-        for ( ; count < len; firstByte = in.read()) {
-            if( -1 == firstByte || -1 == (secondByte = in.read())) {
+
+        final byte[] bytes = byteBuffer;
+
+        while (count < len) {
+            n = (len - count) * BYTES_PER_CHAR;
+            if (firstByte != -1) {
+                n--;
+            }
+
+            if (n > BUFFER_SIZE) {
+                n = BUFFER_SIZE;
+            }
+
+            n = in.read(bytes, 0, n);
+            if (n <= 0) {
                 return (0 == count) ? -1 : count;
             }
 
-            if (byteOrder == UNKNOWN_BYTE_ORDER) {
-                // only for the first two bytes: examine BOM
-                final boolean itWasBOM = bomDetect(firstByte,secondByte);
-                if (!itWasBOM) {
-                    cbuf[off + count] = mergeBytes(firstByte,secondByte);
-                    count++;
+            i = 0;
+            dst = off + count;
+
+            if (firstByte != -1 || byteOrder == UNKNOWN_BYTE_ORDER) {
+                // complete the pending char or examine the BOM bytewise
+                int secondByte;
+
+                if (firstByte == -1) {
+                    firstByte = bytes[i++] & 0xFF;
+                }
+
+                if (i == n) {
+                    continue;
+                }
+
+                secondByte = bytes[i++] & 0xFF;
+
+                if (byteOrder == UNKNOWN_BYTE_ORDER) {
+                    // only for the first two bytes: examine BOM
+                    final boolean itWasBOM = bomDetect(firstByte,secondByte);
+                    if (!itWasBOM) {
+                        cbuf[dst++] = mergeBytes(firstByte,secondByte);
+                    }
+                } else {
+                    cbuf[dst++] = mergeBytes(firstByte,secondByte);
+                }
+
+                firstByte = -1;
+            }
+
+            /* the byte order is known: convert whole pairs */
+            final int pairsEnd = n - ((n - i) & 1);
+
+            if (byteOrder == BIG_ENDIAN) {
+                for ( ; i < pairsEnd; i += 2) {
+                    cbuf[dst++] = (char)(((bytes[i] & 0xFF) << 8)
+                                         | (bytes[i + 1] & 0xFF));
                 }
             } else {
-                cbuf[off + count] = mergeBytes(firstByte,secondByte);
-                count++;
+                for ( ; i < pairsEnd; i += 2) {
+                    cbuf[dst++] = (char)(((bytes[i + 1] & 0xFF) << 8)
+                                         | (bytes[i] & 0xFF));
+                }
             }
+
+            if (i < n) {
+                firstByte = bytes[i] & 0xFF;
+            }
+
+            count = dst - off;
         }
         return count;
     }
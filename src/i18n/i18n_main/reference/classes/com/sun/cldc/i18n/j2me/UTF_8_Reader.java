@@ -53,6 +53,20 @@ public class UTF_8_Reader extends StreamReader {
      */
     protected int pendingSurrogate = 0;
 
+    /** size of the buffer for bulk reads from the input stream */
+    private static final int BUFFER_SIZE = 512;
+    /**
+     * Bytes read from the input stream in bulk but not yet decoded.
+     * A read never takes more bytes from the stream than the characters
+     * it was asked for, so the buffer is always empty when read returns
+     * and only readAhead carries bytes between calls.
+     */
+    private byte[] byteBuffer;
+    /** position of the next byte to decode in byteBuffer */
+    private int bufferPos;
+    /** end of the valid bytes in byteBuffer */
+    private int bufferEnd;
+
     /** information saved by mark() and later used by reset() */
     protected class MarkInfo {
         /** a copy of the enclosing instance's readAhead buffer
@@ -78,6 +92,8 @@ public class UTF_8_Reader extends StreamReader {
         throws UnsupportedEncodingException {
         super.open(in, enc);
         markIsSet = false;
+        bufferPos = 0;
+        bufferEnd = 0;
         prepareForNextChar(NO_BYTE);
         return this;
     }
@@ -122,6 +138,38 @@ public class UTF_8_Reader extends StreamReader {
             // must wait for the first character, and
             // other characters are read only if they are available
             final boolean mustBlockTillGetsAChar = (0 == count);
+
+            if (readAhead[0] == NO_BYTE) {
+                if (bufferPos == bufferEnd) {
+                    firstByte = fillBuffer(len - count, mustBlockTillGetsAChar);
+                    if (firstByte < 0) {
+                        if (firstByte == -1 && count == 0) {
+                            // end of stream
+                            return -1;
+                        }
+
+                        return count;
+                    }
+                }
+
+                /* ASCII fast path: one byte per character */
+                int pos = bufferPos;
+                final int end = bufferEnd;
+                final byte[] bytes = byteBuffer;
+                int dst = off + count;
+
+                while (pos < end && bytes[pos] >= 0) {
+                    cbuf[dst++] = (char)bytes[pos++];
+                }
+
+                count = dst - off;
+                bufferPos = pos;
+                if (pos == end) {
+                    continue;
+                }
+            }
+
+            headByte = NO_BYTE;
             firstByte = getByteOfCurrentChar(0, mustBlockTillGetsAChar);
             if (firstByte < 0) {
                 if (firstByte == -1 && count == 0) {
@@ -247,13 +295,67 @@ public class UTF_8_Reader extends StreamReader {
          * Our read method must block until it gets one char so don't call
          * available() for the first character.
          */
-        if (allowBlockingRead || in.available() > 0) {
+        if (bufferPos < bufferEnd) {
+            readAhead[byteOfChar] = byteBuffer[bufferPos++] & 0xFF;
+        } else if (allowBlockingRead || in.available() > 0) {
             readAhead[byteOfChar] = in.read();
         }
 
         return readAhead[byteOfChar];
     }
 
+    /**
+     * Refill the empty byte buffer from the input stream. Only the bytes
+     * the stream reports as available are taken, except that a single
+     * byte is waited for if blocking is allowed and none is available.
+     *
+     * @param maxBytes the most bytes to take, no more than the number of
+     *                 characters still to be read so that every byte taken
+     *                 is decoded before read returns
+     * @param allowBlockingRead  false allows returning NO_BYTE if no byte is
+     *                 available in the input stream; true forces reading.
+     * @return the number of bytes in the buffer, NO_BYTE for no byte
+     *          available or -1 for end of stream
+     *
+     * @exception  IOException   if an I/O error occurs.
+     */
+    private int fillBuffer(int maxBytes, boolean allowBlockingRead)
+            throws IOException {
+        int available = in.available();
+        int n;
+
+        if (byteBuffer == null) {
+            byteBuffer = new byte[BUFFER_SIZE];
+        }
+
+        if (maxBytes > BUFFER_SIZE) {
+            maxBytes = BUFFER_SIZE;
+        }
+
+        bufferPos = 0;
+        bufferEnd = 0;
+
+        if (available > 0) {
+            n = in.read(byteBuffer, 0,
+                        available < maxBytes ? available : maxBytes);
+        } else if (allowBlockingRead) {
+            n = in.read();
+            if (n >= 0) {
+                byteBuffer[0] = (byte)n;
+                n = 1;
+            }
+        } else {
+            return NO_BYTE;
+        }
+
+        if (n <= 0) {
+            return (n == -1) ? -1 : NO_BYTE;
+        }
+
+        bufferEnd = n;
+        return n;
+    }
+
     /**
      * Prepare the reader for the next character by clearing the look
      * ahead buffer.
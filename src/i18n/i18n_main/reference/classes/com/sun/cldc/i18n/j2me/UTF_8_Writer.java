@@ -44,6 +44,14 @@ public class UTF_8_Writer extends com.sun.cldc.i18n.StreamWriter {
     /** This value replaces invalid characters
      * (that is, surrogates code units without a pair) */
     static final private int replacementValue = 0x3f;
+    /** size of the buffer the characters are encoded into */
+    private static final int BUFFER_SIZE = 512;
+    /**
+     * Encoded bytes waiting to be written to the output stream in one
+     * call. Every write empties it before returning.
+     */
+    private byte[] byteBuffer;
+
     /**
      * Write a portion of an array of characters.
      *
@@ -54,12 +62,46 @@ public class UTF_8_Writer extends com.sun.cldc.i18n.StreamWriter {
      * @exception  IOException  If an I/O error occurs
      */
     public void write(char cbuf[], int off, int len) throws IOException {
-        byte[] outputByte = new byte[4];     // Never more than 4 encoded bytes
         int inputChar;
-        int outputSize;
+        int pos = 0;
         int count = 0;
 
+        if (byteBuffer == null) {
+            byteBuffer = new byte[BUFFER_SIZE];
+        }
+
+        final byte[] outputByte = byteBuffer;
+
         while (count < len) {
+            // leave room for a replacement value and a 4 byte character
+            if (pos >= BUFFER_SIZE - 5) {
+                out.write(outputByte, 0, pos);
+                pos = 0;
+            }
+
+            if (0 == pendingSurrogate) {
+                /* ASCII fast path: one byte per character */
+                int end = count + BUFFER_SIZE - 5 - pos;
+
+                if (end > len) {
+                    end = len;
+                }
+
+                while (count < end
+                       && (inputChar = cbuf[off + count]) < 0x80) {
+                    outputByte[pos++] = (byte)inputChar;
+                    count++;
+                }
+
+                if (count == len) {
+                    break;
+                }
+
+                if (count == end) {
+                    continue;
+                }
+            }
+
             inputChar = 0xffff & cbuf[off + count];
             if (0 != pendingSurrogate) {
                 if (0xdc00<=inputChar && inputChar<=0xdfff) {
@@ -70,44 +112,39 @@ public class UTF_8_Writer extends com.sun.cldc.i18n.StreamWriter {
                     inputChar = (highHalf << 10) | lowHalf;
                 } else {
                     // write replacement value instead of unpaired surrogate
-                    outputByte[0] = replacementValue;
-                    outputSize = 1;
-                    out.write(outputByte, 0, outputSize);
+                    outputByte[pos++] = replacementValue;
                 }
                 pendingSurrogate = 0;
             }
             if (inputChar < 0x80) {
-                outputByte[0] = (byte)inputChar;
-                outputSize = 1;
+                outputByte[pos++] = (byte)inputChar;
             } else if (inputChar < 0x800) {
-                outputByte[0] = (byte)(0xc0 | ((inputChar >> 6) & 0x1f));
-                outputByte[1] = (byte)(0x80 | (inputChar & 0x3f));
-                outputSize = 2;
+                outputByte[pos++] = (byte)(0xc0 | ((inputChar >> 6) & 0x1f));
+                outputByte[pos++] = (byte)(0x80 | (inputChar & 0x3f));
             } else if (0xd800<=inputChar && inputChar<=0xdbff) {
                 pendingSurrogate = inputChar;
-                outputSize = 0;
             } else if (0xdc00<=inputChar && inputChar<=0xdfff) {
                 // unpaired surrogate
-                outputByte[0] = replacementValue;
-                outputSize = 1;
+                outputByte[pos++] = replacementValue;
             } else if (inputChar < 0x10000) {
-                outputByte[0] = (byte)(0xe0 | ((inputChar >> 12) & 0x0f));
-                outputByte[1] = (byte)(0x80 | ((inputChar >> 6) & 0x3f));
-                outputByte[2] = (byte)(0x80 | (inputChar & 0x3f));
-                outputSize = 3;
+                outputByte[pos++] = (byte)(0xe0 | ((inputChar >> 12) & 0x0f));
+                outputByte[pos++] = (byte)(0x80 | ((inputChar >> 6) & 0x3f));
+                outputByte[pos++] = (byte)(0x80 | (inputChar & 0x3f));
             } else {
                 /* 21 bits: 1111 0xxx  10xx xxxx  10xx xxxx  10xx xxxx
                  * a aabb  bbbb cccc  ccdd dddd
                 */
-                outputByte[0] = (byte)(0xf0 | ((inputChar >> 18) & 0x07));
-                outputByte[1] = (byte)(0x80 | ((inputChar >> 12) & 0x3f));
-                outputByte[2] = (byte)(0x80 | ((inputChar >> 6) & 0x3f));
-                outputByte[3] = (byte)(0x80 | (inputChar & 0x3f));
-                outputSize = 4;
+                outputByte[pos++] = (byte)(0xf0 | ((inputChar >> 18) & 0x07));
+                outputByte[pos++] = (byte)(0x80 | ((inputChar >> 12) & 0x3f));
+                outputByte[pos++] = (byte)(0x80 | ((inputChar >> 6) & 0x3f));
+                outputByte[pos++] = (byte)(0x80 | (inputChar & 0x3f));
             }
-            out.write(outputByte, 0, outputSize);
             count++;
         }
+
+        if (pos > 0) {
+            out.write(outputByte, 0, pos);
+        }
     }
 
     /**
@@ -0,0 +1,272 @@
+/*
+ *   
+ *
+ * Copyright  1990-2007 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.io;
+
+import java.io.InterruptedIOException;
+
+import java.util.Hashtable;
+import java.util.Vector;
+
+import com.sun.midp.main.Configuration;
+
+/**
+ * A cache of resolved host names shared by the network protocols.
+ * <p>
+ * The resolution itself stays with the protocol, since it is done by
+ * its native code: {@link #lookup} gives a cached address, or tells the
+ * caller to resolve the name, which it then passes to {@link #resolved}.
+ * Only one thread resolves a name at a time, the others looking it up
+ * meanwhile wait for its result.
+ * <p>
+ * Addresses are kept for a time to live, failures for a shorter one.
+ * The cache holds a bounded number of names, the least recently used
+ * name leaves first. A protocol that cannot connect to an address
+ * invalidates it, so the next connection resolves the name again.
+ */
+public class HostCache {
+    /** Returned by lookup for a name known not to resolve. */
+    public static final byte[] UNRESOLVED = new byte[0];
+
+    /** Default number of names cached. */
+    private static final int DEFAULT_SIZE = 32;
+    /** Default time to live of an address, in milliseconds. */
+    private static final int DEFAULT_TTL = 60000;
+    /** Default time to live of a failure, in milliseconds. */
+    private static final int DEFAULT_NEGATIVE_TTL = 10000;
+
+    /** The cache shared by the protocols. */
+    private static HostCache instance;
+
+    /** Entries by name. */
+    private Hashtable entries;
+    /** Names, the least recently used first. */
+    private Vector names;
+    /** Maximum number of names cached, 0 for no caching. */
+    private int maxSize;
+    /** Time to live of an address, in milliseconds. */
+    private long ttl;
+    /** Time to live of a failure, in milliseconds. */
+    private long negativeTtl;
+
+    /** Number of lookups answered from the cache. */
+    private int hits;
+    /** Number of lookups that had a name resolved. */
+    private int misses;
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxSize maximum number of names cached, 0 for no caching
+     * @param ttl time to live of an address, in milliseconds
+     * @param negativeTtl time to live of a failure, in milliseconds
+     */
+    HostCache(int maxSize, long ttl, long negativeTtl) {
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+        this.negativeTtl = negativeTtl;
+        entries = new Hashtable();
+        names = new Vector();
+    }
+
+    /**
+     * Gets the cache shared by the protocols, configured by the
+     * com.sun.midp.io.dns properties.
+     *
+     * @return the shared cache
+     */
+    public static synchronized HostCache getInstance() {
+        if (instance == null) {
+            instance = new HostCache(
+                Configuration.getNonNegativeIntProperty(
+                    "com.sun.midp.io.dns.cacheSize", DEFAULT_SIZE),
+                Configuration.getNonNegativeIntProperty(
+                    "com.sun.midp.io.dns.ttl", DEFAULT_TTL),
+                Configuration.getNonNegativeIntProperty(
+                    "com.sun.midp.io.dns.negativeTtl",
+                    DEFAULT_NEGATIVE_TTL));
+        }
+
+        return instance;
+    }
+
+    /**
+     * Looks up a name. If another thread is resolving the name, waits
+     * for its result. If the name is not cached, the caller has to
+     * resolve it and pass the result to {@link #resolved}.
+     *
+     * @param name the host name
+     *
+     * @return the address, which must not be modified, {@link #UNRESOLVED}
+     *         if the name is known not to resolve, or null if the caller
+     *         has to resolve it
+     *
+     * @exception InterruptedIOException if the thread is interrupted
+     *            while waiting
+     */
+    public synchronized byte[] lookup(String name)
+            throws InterruptedIOException {
+        if (maxSize == 0) {
+            misses++;
+            return null;
+        }
+
+        for (;;) {
+            Entry entry = (Entry)entries.get(name);
+
+            if (entry == null) {
+                entry = new Entry();
+                add(name, entry);
+                misses++;
+                return null;
+            }
+
+            if (entry.resolving) {
+                try {
+                    wait();
+                } catch (InterruptedException ie) {
+                    throw new InterruptedIOException();
+                }
+
+                continue;
+            }
+
+            if (entry.expires <= System.currentTimeMillis()) {
+                entry.resolving = true;
+                misses++;
+                return null;
+            }
+
+            names.removeElement(name);
+            names.addElement(name);
+            hits++;
+
+            if (entry.address == null) {
+                return UNRESOLVED;
+            }
+
+            return entry.address;
+        }
+    }
+
+    /**
+     * Gives the result of the resolution of a name {@link #lookup} asked
+     * for. Has to be called even if the resolution fails with an
+     * exception, with null as the address, so other threads waiting for
+     * the name do not wait forever.
+     *
+     * @param name the host name
+     * @param address the address, or null if the name did not resolve
+     */
+    public synchronized void resolved(String name, byte[] address) {
+        Entry entry = (Entry)entries.get(name);
+
+        if (entry == null) {
+            return;
+        }
+
+        entry.resolving = false;
+
+        if (address == null) {
+            entry.address = null;
+            entry.expires = System.currentTimeMillis() + negativeTtl;
+        } else {
+            entry.address = new byte[address.length];
+            System.arraycopy(address, 0, entry.address, 0, address.length);
+            entry.expires = System.currentTimeMillis() + ttl;
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * Removes the address of a name, when a connection to it failed.
+     * Does nothing while the name is being resolved.
+     *
+     * @param name the host name
+     */
+    public synchronized void invalidate(String name) {
+        Entry entry = (Entry)entries.get(name);
+
+        if (entry != null && !entry.resolving) {
+            entries.remove(name);
+            names.removeElement(name);
+        }
+    }
+
+    /**
+     * Gets the number of lookups answered from the cache.
+     *
+     * @return number of hits
+     */
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of lookups that had a name resolved.
+     *
+     * @return number of misses
+     */
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    /**
+     * Adds an entry, removing the least recently used one that is not
+     * being resolved if the cache is full.
+     *
+     * @param name the host name
+     * @param entry the entry
+     */
+    private void add(String name, Entry entry) {
+        if (names.size() >= maxSize) {
+            for (int i = 0; i < names.size(); i++) {
+                Object oldest = names.elementAt(i);
+
+                if (!((Entry)entries.get(oldest)).resolving) {
+                    entries.remove(oldest);
+                    names.removeElementAt(i);
+                    break;
+                }
+            }
+        }
+
+        entry.resolving = true;
+        entries.put(name, entry);
+        names.addElement(name);
+    }
+
+    /** A name being resolved or its result. */
+    private static class Entry {
+        /** Address, null if the name did not resolve. */
+        byte[] address;
+        /** When the result expires, in milliseconds. */
+        long expires;
+        /** True while a thread resolves the name. */
+        boolean resolving;
+    }
+}
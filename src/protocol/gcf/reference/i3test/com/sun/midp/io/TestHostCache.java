@@ -0,0 +1,194 @@
+/*
+ * Copyright  1990-2007 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+package com.sun.midp.io;
+
+import com.sun.midp.i3test.TestCase;
+
+public class TestHostCache extends TestCase {
+    /** An address. */
+    static final byte[] ADDRESS = {10, 0, 0, 1};
+
+    /**
+     * Runs all the tests.
+     */
+    public void runTests() throws Throwable {
+        declare("testHitAndMiss");
+        testHitAndMiss();
+        declare("testNegative");
+        testNegative();
+        declare("testExpiry");
+        testExpiry();
+        declare("testInvalidate");
+        testInvalidate();
+        declare("testBound");
+        testBound();
+        declare("testCoalescing");
+        testCoalescing();
+    }
+
+    /**
+     * Tests a name is resolved once and then answered from the cache.
+     */
+    void testHitAndMiss() throws Throwable {
+        HostCache cache = new HostCache(4, 60000, 60000);
+        byte[] address = {10, 0, 0, 1};
+
+        assertNull("first lookup", cache.lookup("host"));
+        cache.resolved("host", address);
+        address[3] = 2;
+
+        byte[] cached = cache.lookup("host");
+
+        assertNotNull("second lookup", cached);
+        assertEquals("length", 4, cached.length);
+        assertEquals("copied", 1, cached[3]);
+        assertEquals("hits", 1, cache.getHits());
+        assertEquals("misses", 1, cache.getMisses());
+    }
+
+    /**
+     * Tests a name that does not resolve is remembered for the negative
+     * time to live.
+     */
+    void testNegative() throws Throwable {
+        HostCache cache = new HostCache(4, 60000, 60000);
+
+        assertNull(cache.lookup("nohost"));
+        cache.resolved("nohost", null);
+        assertSame("failure cached", HostCache.UNRESOLVED,
+                   cache.lookup("nohost"));
+
+        cache = new HostCache(4, 60000, 0);
+        assertNull(cache.lookup("nohost"));
+        cache.resolved("nohost", null);
+        assertNull("failure expired", cache.lookup("nohost"));
+    }
+
+    /**
+     * Tests an address is resolved again once it expires.
+     */
+    void testExpiry() throws Throwable {
+        HostCache cache = new HostCache(4, 0, 60000);
+
+        assertNull(cache.lookup("host"));
+        cache.resolved("host", ADDRESS);
+        assertNull("address expired", cache.lookup("host"));
+        cache.resolved("host", ADDRESS);
+        assertEquals("misses", 2, cache.getMisses());
+        assertEquals("hits", 0, cache.getHits());
+    }
+
+    /**
+     * Tests an invalidated name is resolved again.
+     */
+    void testInvalidate() throws Throwable {
+        HostCache cache = new HostCache(4, 60000, 60000);
+
+        assertNull(cache.lookup("host"));
+        cache.resolved("host", ADDRESS);
+        cache.invalidate("host");
+        assertNull("invalidated", cache.lookup("host"));
+    }
+
+    /**
+     * Tests the least recently used name leaves a full cache.
+     */
+    void testBound() throws Throwable {
+        HostCache cache = new HostCache(2, 60000, 60000);
+
+        assertNull(cache.lookup("a"));
+        cache.resolved("a", ADDRESS);
+        assertNull(cache.lookup("b"));
+        cache.resolved("b", ADDRESS);
+        assertNotNull(cache.lookup("a"));
+        assertNull(cache.lookup("c"));
+        cache.resolved("c", ADDRESS);
+
+        assertNotNull("a recently used", cache.lookup("a"));
+        assertNotNull("c added", cache.lookup("c"));
+        assertNull("b removed", cache.lookup("b"));
+        cache.resolved("b", ADDRESS);
+
+        cache = new HostCache(0, 60000, 60000);
+        assertNull(cache.lookup("a"));
+        cache.resolved("a", ADDRESS);
+        assertNull("no caching", cache.lookup("a"));
+    }
+
+    /**
+     * Tests a thread looking up a name being resolved waits for the
+     * result instead of resolving it too.
+     */
+    void testCoalescing() throws Throwable {
+        HostCache cache = new HostCache(4, 60000, 60000);
+        Lookup lookup = new Lookup(cache, "host");
+
+        assertNull(cache.lookup("host"));
+        lookup.start();
+        Thread.sleep(200);
+        assertFalse("waiting", lookup.done);
+
+        cache.resolved("host", ADDRESS);
+        lookup.join();
+
+        assertTrue("done", lookup.done);
+        assertNotNull("address", lookup.address);
+        assertEquals("misses", 1, cache.getMisses());
+        assertEquals("hits", 1, cache.getHits());
+    }
+
+    /** Looks up a name in another thread. */
+    static class Lookup extends Thread {
+        /** The cache. */
+        HostCache cache;
+        /** The name. */
+        String name;
+        /** The address found. */
+        byte[] address;
+        /** True when the lookup returned. */
+        volatile boolean done;
+
+        /**
+         * Creates the thread.
+         *
+         * @param cache the cache
+         * @param name the name
+         */
+        Lookup(HostCache cache, String name) {
+            this.cache = cache;
+            this.name = name;
+        }
+
+        /** Looks up the name. */
+        public void run() {
+            try {
+                address = cache.lookup(name);
+            } catch (Exception e) {
+                // address stays null
+            }
+
+            done = true;
+        }
+    }
+}
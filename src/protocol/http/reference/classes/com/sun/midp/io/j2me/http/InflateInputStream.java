@@ -0,0 +1,920 @@
+/*
+ *   
+ *
+ * Copyright  1990-2007 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.io.j2me.http;
+
+import java.io.InputStream;
+import java.io.IOException;
+
+/**
+ * An input stream that decodes a gzip (RFC 1952) or deflate (RFC 1950,
+ * or RFC 1951 data without the zlib wrapper) encoded HTTP entity body as
+ * it is read.
+ * <p>
+ * Memory use is bounded: the 32K window that deflate back references
+ * can reach, a small input buffer and the Huffman tables of the current
+ * block. Reads return as soon as decoding would block on the underlying
+ * stream with some data decoded.
+ */
+class InflateInputStream extends InputStream {
+    /** Format of "Content-Encoding: gzip". */
+    static final int GZIP = 1;
+    /** Format of "Content-Encoding: deflate", zlib wrapped or not. */
+    static final int DEFLATE = 2;
+
+    /** Size of the window of decoded data, the farthest back reference. */
+    private static final int WINDOW_SIZE = 32768;
+    /** Mask of the window index. */
+    private static final int WINDOW_MASK = WINDOW_SIZE - 1;
+    /** Size of the input buffer. */
+    private static final int INPUT_SIZE = 512;
+    /** Number of bits of the codes decoded with one table look up. */
+    private static final int FAST_BITS = 9;
+    /**
+     * Buffered input enough to decode a length and distance pair. With
+     * less, a read that already has data returns instead of blocking.
+     */
+    private static final int MIN_LOOKAHEAD = 8;
+
+    /** Waiting for the gzip or zlib header. */
+    private static final int HEADER = 0;
+    /** Waiting for the header of a block. */
+    private static final int BLOCK = 1;
+    /** Copying the data of a stored block. */
+    private static final int STORED = 2;
+    /** Decoding the codes of a compressed block. */
+    private static final int CODES = 3;
+    /** Waiting for the gzip or zlib trailer. */
+    private static final int TRAILER = 4;
+    /** All the data is decoded. */
+    private static final int DONE = 5;
+
+    /** Base lengths of the length codes 257 to 285. */
+    static final short[] LENGTH_BASE = {
+        3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+        35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258
+    };
+    /** Extra bits of the length codes 257 to 285. */
+    static final byte[] LENGTH_EXTRA = {
+        0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+        3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0
+    };
+    /** Base distances of the distance codes. */
+    static final short[] DISTANCE_BASE = {
+        1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+        257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145,
+        8193, 12289, 16385, 24577
+    };
+    /** Extra bits of the distance codes. */
+    static final byte[] DISTANCE_EXTRA = {
+        0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+        7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13
+    };
+    /** Order of the code length code lengths of a dynamic block. */
+    private static final byte[] CODE_LENGTH_ORDER = {
+        16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15
+    };
+
+    /** CRC-32 table of gzip, built on first use. */
+    private static int[] crcTable;
+    /** Literal/length code of fixed blocks, built on first use. */
+    private static Huffman fixedLengths;
+    /** Distance code of fixed blocks, built on first use. */
+    private static Huffman fixedDistances;
+
+    /** Encoded data. */
+    private InputStream in;
+    /** GZIP or DEFLATE. */
+    private int format;
+    /** True if the deflate data has the zlib wrapper. */
+    private boolean zlib;
+    /** Input buffer. */
+    private byte[] inbuf = new byte[INPUT_SIZE];
+    /** Position of the next byte in the input buffer. */
+    private int inPos;
+    /** Number of bytes in the input buffer. */
+    private int inLen;
+    /** True once the encoded data ended. */
+    private boolean inEnd;
+    /** Bits read and not used yet, the next one is the lowest. */
+    private int bitBuf;
+    /** Number of bits in bitBuf. */
+    private int bitCount;
+
+    /** Last decoded data. */
+    private byte[] window = new byte[WINDOW_SIZE];
+    /** Position of the next decoded byte in the window. */
+    private int windowPos;
+    /** Number of decoded bytes, modulo 2^32 as the gzip trailer has it. */
+    private int total;
+    /** True once the window is filled with decoded data. */
+    private boolean windowFull;
+    /** Checksum of the decoded bytes, CRC-32 or Adler-32. */
+    private int check;
+
+    /** Current state. */
+    private int state = HEADER;
+    /** True if the current block is the last one. */
+    private boolean lastBlock;
+    /** Bytes of the current stored block left to copy. */
+    private int storedLeft;
+    /** Bytes of the current back reference left to copy. */
+    private int copyLeft;
+    /** Distance of the current back reference. */
+    private int copyDistance;
+
+    /** Literal/length code of the current block. */
+    private Huffman lengths;
+    /** Distance code of the current block. */
+    private Huffman distances;
+    /** Literal/length code of the last dynamic block. */
+    private Huffman dynamicLengths;
+    /** Distance code of the last dynamic block. */
+    private Huffman dynamicDistances;
+    /** Code length code of the last dynamic block. */
+    private Huffman codeLengths;
+    /** Code lengths of a dynamic block. */
+    private byte[] codeLengthBuf;
+
+    /**
+     * Creates a stream decoding encoded data.
+     *
+     * @param in encoded data
+     * @param format GZIP or DEFLATE
+     */
+    InflateInputStream(InputStream in, int format) {
+        this.in = in;
+        this.format = format;
+
+        if (format == GZIP) {
+            check = 0;
+        } else {
+            check = 1;
+        }
+    }
+
+    /**
+     * Reads a decoded byte.
+     *
+     * @return the byte or -1 at the end of the data
+     *
+     * @exception IOException if the encoded data cannot be read or is
+     *            not valid
+     */
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+
+        if (read(b, 0, 1) <= 0) {
+            return -1;
+        }
+
+        return b[0] & 0xff;
+    }
+
+    /**
+     * Reads decoded bytes. Blocks until at least one byte is decoded.
+     *
+     * @param b the buffer into which the data is read
+     * @param off the start offset of the data
+     * @param len the maximum number of bytes read
+     *
+     * @return the number of bytes read, or -1 at the end of the data
+     *
+     * @exception IOException if the encoded data cannot be read or is
+     *            not valid
+     */
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = 0;
+
+        if (len <= 0) {
+            return 0;
+        }
+
+        while (n < len) {
+            if (copyLeft > 0) {
+                n += copy(b, off + n, len - n);
+                continue;
+            }
+
+            if (n > 0 && inLen - inPos < MIN_LOOKAHEAD) {
+                // do not block with data to return
+                break;
+            }
+
+            if (state == CODES) {
+                int symbol = decode(lengths);
+
+                if (symbol < 256) {
+                    window[windowPos] = (byte)symbol;
+                    windowPos = (windowPos + 1) & WINDOW_MASK;
+                    b[off + n] = (byte)symbol;
+                    n++;
+                } else if (symbol == 256) {
+                    state = BLOCK;
+                } else {
+                    readReference(symbol, n);
+                }
+            } else if (state == STORED) {
+                n += copyStored(b, off + n, len - n);
+            } else if (state == BLOCK) {
+                if (lastBlock) {
+                    state = TRAILER;
+                } else {
+                    readBlockHeader();
+                }
+            } else if (state == HEADER) {
+                readHeader();
+                state = BLOCK;
+            } else if (state == TRAILER) {
+                if (n > 0) {
+                    // the checksum has to cover the data returned first
+                    break;
+                }
+
+                readTrailer();
+                state = DONE;
+            } else {
+                break;
+            }
+        }
+
+        if (n == 0) {
+            return -1;
+        }
+
+        updateCheck(b, off, n);
+        total += n;
+        if (total >= WINDOW_SIZE || total < 0) {
+            windowFull = true;
+        }
+
+        return n;
+    }
+
+    /**
+     * Gets the number of decoded bytes that can be read without
+     * blocking.
+     *
+     * @return bytes of the current back reference left to copy
+     */
+    public int available() {
+        return copyLeft;
+    }
+
+    /**
+     * Copies the current back reference.
+     *
+     * @param b the buffer into which the data is read
+     * @param off the start offset of the data
+     * @param len the maximum number of bytes read
+     *
+     * @return the number of bytes copied
+     */
+    private int copy(byte[] b, int off, int len) {
+        int n = copyLeft < len ? copyLeft : len;
+        int from = windowPos - copyDistance;
+
+        for (int i = 0; i < n; i++) {
+            byte v = window[(from + i) & WINDOW_MASK];
+
+            window[windowPos] = v;
+            windowPos = (windowPos + 1) & WINDOW_MASK;
+            b[off + i] = v;
+        }
+
+        copyLeft -= n;
+        return n;
+    }
+
+    /**
+     * Copies data of the current stored block.
+     *
+     * @param b the buffer into which the data is read
+     * @param off the start offset of the data
+     * @param len the maximum number of bytes read
+     *
+     * @return the number of bytes copied
+     *
+     * @exception IOException if the encoded data cannot be read or ends
+     */
+    private int copyStored(byte[] b, int off, int len) throws IOException {
+        int n;
+
+        if (storedLeft == 0) {
+            state = BLOCK;
+            return 0;
+        }
+
+        if (bitCount >= 8) {
+            // whole bytes read ahead with the block header
+            b[off] = (byte)bits(8);
+            n = 1;
+        } else {
+            if (inPos == inLen && !fillInput()) {
+                throw new IOException("Unexpected end of deflate data");
+            }
+
+            n = inLen - inPos;
+            if (n > len) {
+                n = len;
+            }
+
+            if (n > storedLeft) {
+                n = storedLeft;
+            }
+
+            System.arraycopy(inbuf, inPos, b, off, n);
+            inPos += n;
+        }
+
+        for (int i = 0; i < n; i++) {
+            window[windowPos] = b[off + i];
+            windowPos = (windowPos + 1) & WINDOW_MASK;
+        }
+
+        storedLeft -= n;
+        return n;
+    }
+
+    /**
+     * Reads the distance of a back reference after its length code.
+     *
+     * @param symbol the length code
+     * @param decoded number of bytes decoded by the current read
+     *
+     * @exception IOException if the encoded data cannot be read or is
+     *            not valid
+     */
+    private void readReference(int symbol, int decoded) throws IOException {
+        symbol -= 257;
+        if (symbol >= LENGTH_BASE.length) {
+            throw new IOException("Invalid deflate length code");
+        }
+
+        copyLeft = LENGTH_BASE[symbol] + bits(LENGTH_EXTRA[symbol]);
+
+        symbol = decode(distances);
+        if (symbol >= DISTANCE_BASE.length) {
+            throw new IOException("Invalid deflate distance code");
+        }
+
+        copyDistance = DISTANCE_BASE[symbol] + bits(DISTANCE_EXTRA[symbol]);
+
+        if (!windowFull && copyDistance > total + decoded) {
+            throw new IOException("Invalid deflate distance");
+        }
+    }
+
+    /**
+     * Reads the gzip or zlib header.
+     *
+     * @exception IOException if the header cannot be read or is not valid
+     */
+    private void readHeader() throws IOException {
+        if (format == GZIP) {
+            if (bits(8) != 0x1f || bits(8) != 0x8b || bits(8) != 8) {
+                throw new IOException("Not in gzip format");
+            }
+
+            int flags = bits(8);
+
+            // modification time, extra flags and operating system
+            for (int i = 0; i < 6; i++) {
+                bits(8);
+            }
+
+            if ((flags & 4) != 0) {
+                for (int extra = bits(16); extra > 0; extra--) {
+                    bits(8);
+                }
+            }
+
+            if ((flags & 8) != 0) {
+                // file name
+                while (bits(8) != 0) {
+                }
+            }
+
+            if ((flags & 16) != 0) {
+                // comment
+                while (bits(8) != 0) {
+                }
+            }
+
+            if ((flags & 2) != 0) {
+                // header CRC
+                bits(16);
+            }
+
+            return;
+        }
+
+        /*
+         * Some servers send deflate data without the zlib wrapper,
+         * the zlib header is a multiple of 31 with deflate as method.
+         */
+        needBits(16);
+        if (bitCount >= 16) {
+            int cmf = bitBuf & 0xff;
+            int flg = (bitBuf >>> 8) & 0xff;
+
+            if ((cmf & 0x0f) == 8 && (cmf >>> 4) <= 7 &&
+                    ((cmf << 8) | flg) % 31 == 0) {
+                if ((flg & 0x20) != 0) {
+                    throw new IOException("Deflate dictionary not supported");
+                }
+
+                bits(16);
+                zlib = true;
+            }
+        }
+    }
+
+    /**
+     * Reads the gzip or zlib trailer and checks the decoded data.
+     *
+     * @exception IOException if the trailer cannot be read or does not
+     *            match the decoded data
+     */
+    private void readTrailer() throws IOException {
+        // the trailer starts on a byte boundary
+        bits(bitCount & 7);
+
+        if (format == GZIP) {
+            int crc = bits(16) | (bits(16) << 16);
+            int size = bits(16) | (bits(16) << 16);
+
+            if (crc != check || size != total) {
+                throw new IOException("Corrupt gzip data");
+            }
+        } else if (zlib) {
+            int adler = (bits(8) << 24) | (bits(8) << 16) |
+                (bits(8) << 8) | bits(8);
+
+            if (adler != check) {
+                throw new IOException("Corrupt deflate data");
+            }
+        }
+    }
+
+    /**
+     * Reads the header of a block and sets up the decoding of its data.
+     *
+     * @exception IOException if the header cannot be read or is not valid
+     */
+    private void readBlockHeader() throws IOException {
+        lastBlock = bits(1) != 0;
+
+        switch (bits(2)) {
+        case 0:
+            bits(bitCount & 7);
+
+            storedLeft = bits(16);
+            if ((bits(16) ^ 0xffff) != storedLeft) {
+                throw new IOException("Invalid stored block length");
+            }
+
+            state = STORED;
+            return;
+
+        case 1:
+            buildFixedCodes();
+            lengths = fixedLengths;
+            distances = fixedDistances;
+            state = CODES;
+            return;
+
+        case 2:
+            readDynamicCodes();
+            lengths = dynamicLengths;
+            distances = dynamicDistances;
+            state = CODES;
+            return;
+
+        default:
+            throw new IOException("Invalid deflate block type");
+        }
+    }
+
+    /**
+     * Builds the codes of fixed blocks if they are not built yet.
+     *
+     * @exception IOException never, the fixed codes are valid
+     */
+    private static synchronized void buildFixedCodes() throws IOException {
+        if (fixedLengths != null) {
+            return;
+        }
+
+        byte[] codeLengths = new byte[288];
+        int i;
+
+        for (i = 0; i < 144; i++) {
+            codeLengths[i] = 8;
+        }
+
+        for (; i < 256; i++) {
+            codeLengths[i] = 9;
+        }
+
+        for (; i < 280; i++) {
+            codeLengths[i] = 7;
+        }
+
+        for (; i < 288; i++) {
+            codeLengths[i] = 8;
+        }
+
+        Huffman h = new Huffman(288);
+        h.build(codeLengths, 0, 288);
+
+        for (i = 0; i < 30; i++) {
+            codeLengths[i] = 5;
+        }
+
+        fixedDistances = new Huffman(30);
+        fixedDistances.build(codeLengths, 0, 30);
+        fixedLengths = h;
+    }
+
+    /**
+     * Reads the codes of a dynamic block.
+     *
+     * @exception IOException if the codes cannot be read or are not valid
+     */
+    private void readDynamicCodes() throws IOException {
+        if (codeLengths == null) {
+            codeLengths = new Huffman(19);
+            dynamicLengths = new Huffman(288);
+            dynamicDistances = new Huffman(32);
+            codeLengthBuf = new byte[288 + 32];
+        }
+
+        int lengthCount = bits(5) + 257;
+        int distanceCount = bits(5) + 1;
+        int codeCount = bits(4) + 4;
+        int count = lengthCount + distanceCount;
+        byte[] buf = codeLengthBuf;
+        int i;
+
+        if (lengthCount > 286 || distanceCount > 30) {
+            throw new IOException("Invalid deflate code counts");
+        }
+
+        for (i = 0; i < 19; i++) {
+            buf[i] = 0;
+        }
+
+        for (i = 0; i < codeCount; i++) {
+            buf[CODE_LENGTH_ORDER[i]] = (byte)bits(3);
+        }
+
+        codeLengths.build(buf, 0, 19);
+
+        for (i = 0; i < count; ) {
+            int symbol = decode(codeLengths);
+            int repeat;
+            byte value = 0;
+
+            if (symbol < 16) {
+                buf[i++] = (byte)symbol;
+                continue;
+            }
+
+            if (symbol == 16) {
+                if (i == 0) {
+                    throw new IOException("Invalid deflate code lengths");
+                }
+
+                value = buf[i - 1];
+                repeat = 3 + bits(2);
+            } else if (symbol == 17) {
+                repeat = 3 + bits(3);
+            } else {
+                repeat = 11 + bits(7);
+            }
+
+            if (i + repeat > count) {
+                throw new IOException("Invalid deflate code lengths");
+            }
+
+            while (repeat-- > 0) {
+                buf[i++] = value;
+            }
+        }
+
+        if (buf[256] == 0) {
+            throw new IOException("Deflate block without end code");
+        }
+
+        dynamicLengths.build(buf, 0, lengthCount);
+        dynamicDistances.build(buf, lengthCount, distanceCount);
+    }
+
+    /**
+     * Decodes a symbol.
+     *
+     * @param h the code of the symbol
+     *
+     * @return the symbol
+     *
+     * @exception IOException if the encoded data cannot be read or is
+     *            not valid
+     */
+    private int decode(Huffman h) throws IOException {
+        if (bitCount < 15) {
+            needBits(15);
+        }
+
+        int entry = h.fast[bitBuf & ((1 << FAST_BITS) - 1)];
+        int len = entry >> FAST_BITS;
+
+        if (len != 0 && len <= bitCount) {
+            bitBuf >>>= len;
+            bitCount -= len;
+            return entry & ((1 << FAST_BITS) - 1);
+        }
+
+        // codes longer than the table, one bit at a time
+        int code = 0;
+        int first = 0;
+        int index = 0;
+
+        for (len = 1; len < 16 && len <= bitCount; len++) {
+            int count = h.count[len];
+
+            code |= (bitBuf >>> (len - 1)) & 1;
+            if (code - count < first) {
+                bitBuf >>>= len;
+                bitCount -= len;
+                return h.symbol[index + code - first];
+            }
+
+            index += count;
+            first = (first + count) << 1;
+            code <<= 1;
+        }
+
+        if (len < 16) {
+            throw new IOException("Unexpected end of deflate data");
+        }
+
+        throw new IOException("Invalid deflate code");
+    }
+
+    /**
+     * Reads bits, the first one as the lowest.
+     *
+     * @param n number of bits, 16 at most
+     *
+     * @return the bits
+     *
+     * @exception IOException if the encoded data cannot be read or ends
+     */
+    private int bits(int n) throws IOException {
+        if (bitCount < n) {
+            needBits(n);
+
+            if (bitCount < n) {
+                throw new IOException("Unexpected end of deflate data");
+            }
+        }
+
+        int value = bitBuf & ((1 << n) - 1);
+
+        bitBuf >>>= n;
+        bitCount -= n;
+        return value;
+    }
+
+    /**
+     * Reads input until there are enough bits or the input ends.
+     *
+     * @param n number of bits needed, 24 at most
+     *
+     * @exception IOException if the encoded data cannot be read
+     */
+    private void needBits(int n) throws IOException {
+        while (bitCount < n) {
+            if (inPos == inLen && !fillInput()) {
+                return;
+            }
+
+            bitBuf |= (inbuf[inPos++] & 0xff) << bitCount;
+            bitCount += 8;
+        }
+    }
+
+    /**
+     * Reads the next part of the encoded data into the input buffer.
+     *
+     * @return false if the encoded data ended
+     *
+     * @exception IOException if the encoded data cannot be read
+     */
+    private boolean fillInput() throws IOException {
+        while (!inEnd) {
+            int rc = in.read(inbuf, 0, inbuf.length);
+
+            if (rc < 0) {
+                inEnd = true;
+            } else if (rc > 0) {
+                inPos = 0;
+                inLen = rc;
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Adds decoded data to the checksum.
+     *
+     * @param b the buffer of the data
+     * @param off the start offset of the data
+     * @param len the number of bytes
+     */
+    private void updateCheck(byte[] b, int off, int len) {
+        if (format == GZIP) {
+            int[] table = getCrcTable();
+            int c = ~check;
+
+            for (int i = off + len; off < i; off++) {
+                c = table[(c ^ b[off]) & 0xff] ^ (c >>> 8);
+            }
+
+            check = ~c;
+            return;
+        }
+
+        if (!zlib) {
+            return;
+        }
+
+        int s1 = check & 0xffff;
+        int s2 = check >>> 16;
+
+        while (len > 0) {
+            // largest count that cannot overflow s2
+            int n = len < 5552 ? len : 5552;
+
+            len -= n;
+            while (n-- > 0) {
+                s1 += b[off++] & 0xff;
+                s2 += s1;
+            }
+
+            s1 %= 65521;
+            s2 %= 65521;
+        }
+
+        check = (s2 << 16) | s1;
+    }
+
+    /**
+     * Gets the CRC-32 table, building it on first use.
+     *
+     * @return the table
+     */
+    private static synchronized int[] getCrcTable() {
+        if (crcTable == null) {
+            int[] table = new int[256];
+
+            for (int n = 0; n < 256; n++) {
+                int c = n;
+
+                for (int k = 0; k < 8; k++) {
+                    if ((c & 1) != 0) {
+                        c = 0xedb88320 ^ (c >>> 1);
+                    } else {
+                        c >>>= 1;
+                    }
+                }
+
+                table[n] = c;
+            }
+
+            crcTable = table;
+        }
+
+        return crcTable;
+    }
+
+    /**
+     * A canonical Huffman code. The symbols are sorted by code, and a
+     * table gives the symbol and length of the short codes by their
+     * first bits.
+     */
+    private static class Huffman {
+        /** Number of codes of each length. */
+        short[] count = new short[16];
+        /** Symbols by code. */
+        short[] symbol;
+        /**
+         * Length and symbol of the codes of FAST_BITS bits or less, by
+         * the next FAST_BITS bits of the input; 0 for longer codes.
+         */
+        short[] fast = new short[1 << FAST_BITS];
+
+        /**
+         * Creates an empty code.
+         *
+         * @param maxSymbols the number of symbols of the code
+         */
+        Huffman(int maxSymbols) {
+            symbol = new short[maxSymbols];
+        }
+
+        /**
+         * Builds the code from the code lengths of the symbols.
+         *
+         * @param lengths code lengths, 0 for unused symbols
+         * @param off offset of the length of the first symbol
+         * @param n number of symbols
+         *
+         * @exception IOException if the lengths do not make a code
+         */
+        void build(byte[] lengths, int off, int n) throws IOException {
+            short[] offsets = new short[16];
+            int left = 1;
+            int len;
+
+            for (len = 0; len < 16; len++) {
+                count[len] = 0;
+            }
+
+            for (int i = 0; i < n; i++) {
+                count[lengths[off + i]]++;
+            }
+
+            for (len = 1; len < 16; len++) {
+                left = (left << 1) - count[len];
+                if (left < 0) {
+                    throw new IOException("Invalid deflate code");
+                }
+            }
+
+            for (len = 1; len < 15; len++) {
+                offsets[len + 1] = (short)(offsets[len] + count[len]);
+            }
+
+            for (int i = 0; i < n; i++) {
+                if (lengths[off + i] != 0) {
+                    symbol[offsets[lengths[off + i]]++] = (short)i;
+                }
+            }
+
+            for (int i = 0; i < fast.length; i++) {
+                fast[i] = 0;
+            }
+
+            int code = 0;
+            int index = 0;
+
+            for (len = 1; len <= FAST_BITS; len++) {
+                for (int i = 0; i < count[len]; i++) {
+                    int reversed = 0;
+
+                    for (int bit = 0; bit < len; bit++) {
+                        reversed |= ((code >>> bit) & 1) << (len - 1 - bit);
+                    }
+
+                    short entry = (short)((len << FAST_BITS) |
+                                          symbol[index++]);
+
+                    for (int j = reversed; j < fast.length; j += 1 << len) {
+                        fast[j] = entry;
+                    }
+
+                    code++;
+                }
+
+                code <<= 1;
+            }
+        }
+    }
+}
@@ -126,13 +126,26 @@ public class Protocol extends ConnectionBaseAdapter
     /** The flag indicates absolute URL should be used in "GET" requests. */
     private static boolean isUseAbsUrl;
     /** Maximum number of persistent connections. */
-    private static int maxNumberOfPersistentConnections = 4;
+    private static int maxNumberOfPersistentConnections = 8;
+    /** Maximum number of persistent connections to one server. */
+    private static int maxPersistentConnectionsPerHost = 2;
     /** Connection linger time in the pool, default 60 seconds. */
     private static long connectionLingerTime = 60000;
     /** Persistent connection pool. */
     protected static StreamConnectionPool connectionPool; 
     /** True if com.sun.midp.io.http.force_non_persistent = true. */
     private static boolean nonPersistentFlag;
+    /** True if com.sun.midp.io.http.pipelining = true. */
+    private static boolean pipelining;
+    /** Maximum number of requests pipelined on one connection. */
+    private static int maxPipelineDepth = 4;
+    /**
+     * Longest time in milliseconds a pipelined request waits for the
+     * requests ahead of it before it is sent on its own connection.
+     */
+    private static int pipelineTimeout = 5000;
+    /** True if com.sun.midp.io.http.content_decoding = true. */
+    private static boolean contentDecodingFlag;
     /**
      * The methods other than openPrim need to know that the
      * permission occurred. com.sun.midp.io.j2me.https.Protocol
@@ -181,14 +194,39 @@ public class Protocol extends ConnectionBaseAdapter
                 "com.sun.midp.io.http.max_persistent_connections",
                 maxNumberOfPersistentConnections);
 
+        maxPersistentConnectionsPerHost =
+            Configuration.getNonNegativeIntProperty(
+                "com.sun.midp.io.http.max_persistent_connections_per_host",
+                maxPersistentConnectionsPerHost);
+
         // Get how long a "not in use" connection should stay in the pool.
         connectionLingerTime =
             (long)Configuration.getNonNegativeIntProperty(
                 "com.sun.midp.io.http.persistent_connection_linger_time",
                 (int)connectionLingerTime);
 
+        flag = Configuration.getProperty("com.sun.midp.io.http.pipelining");
+        if ((flag != null) && (flag.equals("true"))) {
+            pipelining = true;
+        }
+
+        flag = Configuration.getProperty(
+                   "com.sun.midp.io.http.content_decoding");
+        if ((flag != null) && (flag.equals("true"))) {
+            contentDecodingFlag = true;
+        }
+
+        maxPipelineDepth = Configuration.getPositiveIntProperty(
+                "com.sun.midp.io.http.max_pipeline_depth",
+                maxPipelineDepth);
+
+        pipelineTimeout = Configuration.getPositiveIntProperty(
+                "com.sun.midp.io.http.pipeline_timeout",
+                pipelineTimeout);
+
         connectionPool = new StreamConnectionPool(
                                  maxNumberOfPersistentConnections,
+                                 maxPersistentConnectionsPerHost,
                                  connectionLingerTime);
 
         /*
@@ -296,6 +334,18 @@ public class Protocol extends ConnectionBaseAdapter
      * pool, forcing an IOException on the read thread.
      */
     private boolean readInProgress;
+    /** Connection of the pool the request is queued on, or null. */
+    private StreamConnectionElement pipelineConnection;
+    /** True if the queued request opened its connection. */
+    private boolean pipelineOpened;
+    /** True if a pipelined connection failed, do not pipeline again. */
+    private boolean pipelineFailed;
+    /** True if gzip or deflate encoded responses are to be decoded. */
+    boolean decodeContent;
+    /** True if the request asked for an encoded response. */
+    private boolean acceptEncodingSent;
+    /** Decoder of the response body, null if it is not encoded. */
+    private InflateInputStream inflater;
 
     /**
      * Create a new instance of this class and intialize variables.
@@ -315,6 +365,8 @@ public class Protocol extends ConnectionBaseAdapter
             ConnectionCloseFlag = true;
         }
 
+        decodeContent = contentDecodingFlag;
+
         readbuf = new byte[inputBufferSize];
     }
 
@@ -511,6 +563,43 @@ public class Protocol extends ConnectionBaseAdapter
     protected int readBytes(byte b[], int off, int len)
         throws IOException {
 
+        int rc;
+
+        if (inflater == null) {
+            return readRawBytes(b, off, len);
+        }
+
+        rc = inflater.read(b, off, len);
+        if (rc == -1 && !eof) {
+            /*
+             * Read what follows the encoded data up to the end of the
+             * body, so the connection can be reused.
+             */
+            byte[] rest = new byte[64];
+
+            while (readRawBytes(rest, 0, rest.length) != -1) {
+            }
+        }
+
+        return rc;
+    }
+
+    /**
+     * Reads up to <code>len</code> bytes of the response body as sent by
+     * the server, before decoding.
+     *
+     * @param      b     the buffer into which the data is read.
+     * @param      off   the start offset in array <code>b</code>
+     *                   at which the data is written.
+     * @param      len   the maximum number of bytes to read.
+     * @return     the total number of bytes read into the buffer, or
+     *             <code>-1</code> if there is no more data because the end of
+     *             the stream has been reached.
+     * @exception  IOException  if an I/O error occurs.
+     */
+    private int readRawBytes(byte b[], int off, int len)
+        throws IOException {
+
         int rc;
         
         /*
@@ -641,7 +730,15 @@ public class Protocol extends ConnectionBaseAdapter
          * Only after all the headers have been processed can
          * an accurate available count be provided.
          */
-        if (!requestFinished || eof) {
+        if (!requestFinished) {
+            return 0;
+        }
+
+        if (inflater != null) {
+            return inflater.available();
+        }
+
+        if (eof) {
             return 0;
         }
 
@@ -1548,19 +1645,41 @@ public class Protocol extends ConnectionBaseAdapter
                     finishRequestGetResponseHeader();
                 }
             } catch (IOException ioe) {
-                if (!(streamConnection instanceof StreamConnectionElement)) {
+                if (pipelineConnection != null) {
+                    /*
+                     * The connection failed, so did every request queued
+                     * on it, or the requests ahead took too long. Send
+                     * this one again without pipelining.
+                     */
+                    StreamConnectionElement sce = pipelineConnection;
+
+                    pipelineConnection = null;
+                    pipelineFailed = true;
+
+                    try {
+                        connectionPool.finishPipelined(sce, this, false);
+                    } catch (Exception e) {
+                        // do not over throw the previous exception
+                    }
+
+                    if (pipelineOpened) {
+                        // opened during this transaction, do not recover
+                        throw ioe;
+                    }
+                } else if (!(streamConnection instanceof
+                             StreamConnectionElement)) {
                     /*
                      * This was a connection opened during this transaction.
                      * So do not try to recover.
                      */
                     throw ioe;
-                }
-
-                try {
-                    connectionPool.remove(
-                        (StreamConnectionElement)streamConnection);
-                } catch (Exception e) {
-                    // do not over throw the previous exception
+                } else {
+                    try {
+                        connectionPool.remove(
+                            (StreamConnectionElement)streamConnection);
+                    } catch (Exception e) {
+                        // do not over throw the previous exception
+                    }
                 }
 
                 if (firstChunkSent) {
@@ -1773,6 +1892,16 @@ public class Protocol extends ConnectionBaseAdapter
         
         setRequestField("Host", url.authority);
 
+        /*
+         * Ask for a compressed response only if the application does
+         * not ask itself, it would expect the encoded data.
+         */
+        if (decodeContent && (acceptEncodingSent ||
+                getRequestProperty("Accept-Encoding") == null)) {
+            setRequestField("Accept-Encoding", "gzip, deflate");
+            acceptEncodingSent = true;
+        }
+
         if (chunkedOut) {
             /*
              * Signal the server that the body is chunked
@@ -1818,7 +1947,24 @@ public class Protocol extends ConnectionBaseAdapter
         
         reqLine.append("\r\n");
 
-        streamOutput.write(reqLine.toString().getBytes());
+        if (pipelineConnection == null || !isIdempotent()) {
+            streamOutput.write(reqLine.toString().getBytes());
+            return;
+        }
+
+        /*
+         * Requests are written in the order of the queue, each one
+         * right away so the server can work on it while the responses
+         * of the previous requests are read.
+         */
+        pipelineConnection.waitToWrite(this, pipelineTimeout);
+
+        try {
+            streamOutput.write(reqLine.toString().getBytes());
+            streamOutput.flush();
+        } finally {
+            pipelineConnection.requestWritten();
+        }
     }
 
     /**
@@ -1916,6 +2062,11 @@ public class Protocol extends ConnectionBaseAdapter
 
         streamOutput.flush();
 
+        if (pipelineConnection != null) {
+            // the responses come in the order the requests were sent
+            pipelineConnection.waitForResponse(this, pipelineTimeout);
+        }
+
         readResponseMessage(streamInput);
         
         readHeaders(streamInput);
@@ -1948,11 +2099,23 @@ public class Protocol extends ConnectionBaseAdapter
             throw new SecurityException();
         }
 
-        sc = connectionPool.get(classSecurityToken, protocol,
+        if (pipelining && !pipelineFailed) {
+            sc = connectionPool.getPipelined(classSecurityToken, protocol,
+                     url.host, url.port, this, isIdempotent(),
+                     maxPipelineDepth);
+
+            if (sc != null) {
+                pipelineConnection = (StreamConnectionElement)sc;
+                pipelineOpened = false;
+                return sc;
+            }
+        } else {
+            sc = connectionPool.get(classSecurityToken, protocol,
                                               url.host, url.port);
 
-        if (sc != null) {
-            return sc;
+            if (sc != null) {
+                return sc;
+            }
         }
 
         // When no proxy server is set or proxy server supports CONNECT requests
@@ -1963,7 +2126,25 @@ public class Protocol extends ConnectionBaseAdapter
             /* bypass proxy when trying to connect to the same computer
              * and not using explicit IP or host name */
             conn = createConnection("//" + hostAndPort);
-            return conn;
+
+            if (!pipelining || pipelineFailed) {
+                return conn;
+            }
+
+            // put the connection in the pool now so requests can join it
+            streamOutput = conn.openDataOutputStream();
+            streamInput = conn.openDataInputStream();
+
+            sc = connectionPool.addInUse(protocol, url.host, url.port, conn,
+                     streamOutput, streamInput, this, isIdempotent());
+
+            if (sc == null) {
+                return conn;
+            }
+
+            pipelineConnection = (StreamConnectionElement)sc;
+            pipelineOpened = true;
+            return sc;
         }
 
         // connection through proxy server      
@@ -2003,6 +2184,17 @@ public class Protocol extends ConnectionBaseAdapter
         return conn;
     }
 
+    /**
+     * Tells if the request can be pipelined: a GET or HEAD request
+     * without a body that does not close its connection.
+     *
+     * @return true if the request can be pipelined
+     */
+    private boolean isIdempotent() {
+        return (method.equals(GET) || method.equals(HEAD)) &&
+            bytesToWrite == 0 && !chunkedOut && !ConnectionCloseFlag;
+    }
+
     /**
      * Create the underlying network TCP connection.
      *
@@ -2220,6 +2412,7 @@ public class Protocol extends ConnectionBaseAdapter
         totalbytesread = 0;
         chunkedIn = false;
         eof = false;
+        inflater = null;
 
         
         for (;;) {
@@ -2324,6 +2517,52 @@ public class Protocol extends ConnectionBaseAdapter
         if (chunksize == 0) {
             eof = true;
         }
+
+        if (acceptEncodingSent && !eof) {
+            setUpDecoding();
+        }
+    }
+
+    /**
+     * Sets up the decoding of a gzip or deflate encoded response body.
+     * The body is then read decoded, so the encoding and the length of
+     * the encoded data are removed from the header fields.
+     */
+    private void setUpDecoding() {
+        String encoding = headerFields.getPropertyIgnoreCase(
+            "content-encoding");
+        int format;
+
+        if (encoding == null) {
+            return;
+        }
+
+        encoding = encoding.trim();
+        if (encoding.equalsIgnoreCase("gzip") ||
+                encoding.equalsIgnoreCase("x-gzip")) {
+            format = InflateInputStream.GZIP;
+        } else if (encoding.equalsIgnoreCase("deflate")) {
+            format = InflateInputStream.DEFLATE;
+        } else {
+            return;
+        }
+
+        inflater = new InflateInputStream(new RawInputStream(), format);
+
+        for (int i = 0; i < headerFields.size(); ) {
+            String key = headerFields.getKeyAt(i);
+
+            if (key.equalsIgnoreCase("content-encoding") ||
+                    key.equalsIgnoreCase("content-length")) {
+                // the first field with the key is this one
+                headerFields.removeProperty(key);
+            } else {
+                i++;
+            }
+        }
+
+        // the decoded length is not known before the end of the data
+        contentLength = -1;
     }
 
     /**
@@ -2430,6 +2669,18 @@ public class Protocol extends ConnectionBaseAdapter
             }
         }
 
+        if (pipelineConnection != null) {
+            boolean reusable = requestFinished && eof &&
+                !httpVer.equals("HTTP/1.0") && !ConnectionCloseFlag;
+            StreamConnectionElement sce = pipelineConnection;
+
+            // a subclass may have wrapped the connection, use the element
+            pipelineConnection = null;
+            connectionPool.finishPipelined(sce, this, reusable);
+            connReused = reusable;
+            return;
+        }
+
         if (!requestFinished || !eof || httpVer.equals("HTTP/1.0") ||
                 ConnectionCloseFlag) {
                 
@@ -2498,6 +2749,41 @@ public class Protocol extends ConnectionBaseAdapter
             }
         }
     }
-}
 
+    /**
+     * The response body as sent by the server, read by the decoder.
+     */
+    private class RawInputStream extends InputStream {
+        /**
+         * Reads a byte of the body.
+         *
+         * @return the byte or -1 at the end of the body
+         *
+         * @exception IOException if an I/O error occurs
+         */
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+
+            if (readRawBytes(b, 0, 1) <= 0) {
+                return -1;
+            }
+
+            return b[0] & 0xff;
+        }
 
+        /**
+         * Reads bytes of the body.
+         *
+         * @param b the buffer into which the data is read
+         * @param off the start offset of the data
+         * @param len the maximum number of bytes read
+         *
+         * @return the number of bytes read, or -1 at the end of the body
+         *
+         * @exception IOException if an I/O error occurs
+         */
+        public int read(byte[] b, int off, int len) throws IOException {
+            return readRawBytes(b, off, len);
+        }
+    }
+}
@@ -28,12 +28,14 @@ package com.sun.midp.io.j2me.http;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 
 import java.util.Hashtable;
 import java.util.Enumeration;
+import java.util.Vector;
 
 import javax.microedition.io.StreamConnection;
 import javax.microedition.io.Connector;
@@ -68,8 +70,22 @@ public class StreamConnectionElement
     boolean                   m_in_use;
     /** Start time in milliseconds. */
     long                      m_time;
-    /** Removed from pool flag while in use. (lingered too long) */
-    boolean m_removed;
+    /**
+     * Requests pipelined on the connection in the order they are sent,
+     * the first one reads its response.
+     */
+    private Vector m_requests = new Vector(2);
+    /** Number of queued requests already sent. */
+    private int m_written;
+    /** True if all the queued requests can be pipelined. */
+    private boolean m_pipelinable;
+    /** True if the connection failed with requests queued. */
+    private boolean m_broken;
+    /**
+     * True if a request gave up waiting for its response, the
+     * connection is closed once the requests before it are done.
+     */
+    private boolean m_closing;
     
     /**
      * Create a new instance of this class.
@@ -129,6 +145,224 @@ public class StreamConnectionElement
         }
     }
 
+    /**
+     * Checks that an idle connection can be used for a new request.
+     * The server must not have closed the connection or sent
+     * anything since the last response.
+     *
+     * @return true if the connection can be reused
+     */
+    boolean isUsable() {
+        if (m_stream == null || m_data_input_stream == null) {
+            return false;
+        }
+
+        try {
+            return m_data_input_stream.available() == 0;
+        } catch (IOException ioe) {
+            return false;
+        }
+    }
+
+    /**
+     * Queues a request on the connection. The first request of an
+     * empty queue owns the connection, others are pipelined after it.
+     *
+     * @param request    the request
+     * @param idempotent true if the request can be pipelined
+     */
+    synchronized void enqueue(Object request, boolean idempotent) {
+        if (m_requests.size() == 0) {
+            m_pipelinable = idempotent;
+            m_broken = false;
+            m_closing = false;
+            m_written = 0;
+        } else if (!idempotent) {
+            m_pipelinable = false;
+        }
+
+        m_requests.addElement(request);
+    }
+
+    /**
+     * Tells if another request can be pipelined on the connection.
+     *
+     * @param maxDepth maximum number of requests queued
+     *
+     * @return true if the queued requests can be pipelined and the
+     *         queue is not full
+     */
+    synchronized boolean canPipeline(int maxDepth) {
+        return !m_broken && !m_closing && m_pipelinable &&
+            m_requests.size() > 0 && m_requests.size() < maxDepth;
+    }
+
+    /**
+     * Tells if the connection can be reused once its queue is empty.
+     *
+     * @return false if a request gave up waiting for its response
+     */
+    synchronized boolean isReusable() {
+        return !m_closing;
+    }
+
+    /**
+     * Tells if a request is queued on the connection.
+     *
+     * @param request the request
+     *
+     * @return true if the request is queued
+     */
+    synchronized boolean isQueued(Object request) {
+        return m_requests.indexOf(request) >= 0;
+    }
+
+    /**
+     * Gets the number of requests queued on the connection.
+     *
+     * @return requests sent or waiting to be sent
+     */
+    synchronized int getPipelineDepth() {
+        return m_requests.size();
+    }
+
+    /**
+     * Waits until the requests queued before a request are sent.
+     * If they are not sent in time the request leaves the queue, so it
+     * can be sent on another connection.
+     *
+     * @param request the request
+     * @param timeout longest time to wait in milliseconds
+     *
+     * @exception IOException if the connection failed meanwhile or the
+     *            time is up
+     */
+    synchronized void waitToWrite(Object request, long timeout)
+            throws IOException {
+        long deadline = System.currentTimeMillis() + timeout;
+
+        while (!m_broken && m_requests.indexOf(request) > m_written) {
+            if (!waitForQueue(deadline)) {
+                /*
+                 * Nothing after the request is sent either, so the
+                 * others can keep the connection.
+                 */
+                m_requests.removeElement(request);
+                notifyAll();
+                throw new IOException("Pipelined request timed out");
+            }
+        }
+
+        if (m_broken || m_requests.indexOf(request) < 0) {
+            throw new IOException("Pipelined connection closed");
+        }
+    }
+
+    /**
+     * Lets the next queued request be sent.
+     */
+    synchronized void requestWritten() {
+        m_written++;
+        notifyAll();
+    }
+
+    /**
+     * Waits until the responses of the requests queued before a request
+     * are read. A request ahead may be kept open by the thread waiting,
+     * so if the responses are not read in time the request and the ones
+     * after it leave the queue and can be sent on other connections.
+     * Their responses may already be on the way, so the connection is
+     * closed once the requests before them are done.
+     *
+     * @param request the request
+     * @param timeout longest time to wait in milliseconds
+     *
+     * @exception IOException if the connection failed meanwhile or the
+     *            time is up
+     */
+    synchronized void waitForResponse(Object request, long timeout)
+            throws IOException {
+        long deadline = System.currentTimeMillis() + timeout;
+        int index;
+
+        while (!m_broken && (index = m_requests.indexOf(request)) > 0) {
+            if (!waitForQueue(deadline)) {
+                for (int i = m_requests.size() - 1; i >= index; i--) {
+                    m_requests.removeElementAt(i);
+                }
+
+                if (m_written > index) {
+                    m_written = index;
+                }
+
+                m_closing = true;
+                notifyAll();
+                throw new IOException("Pipelined request timed out");
+            }
+        }
+
+        if (m_broken || m_requests.indexOf(request) < 0) {
+            throw new IOException("Pipelined connection closed");
+        }
+    }
+
+    /**
+     * Waits for a change of the queue.
+     *
+     * @param deadline time to stop waiting at
+     *
+     * @return false if the time is up
+     *
+     * @exception IOException if the thread is interrupted
+     */
+    private boolean waitForQueue(long deadline) throws IOException {
+        long left = deadline - System.currentTimeMillis();
+
+        if (left <= 0) {
+            return false;
+        }
+
+        try {
+            wait(left);
+        } catch (InterruptedException ie) {
+            throw new InterruptedIOException();
+        }
+
+        return true;
+    }
+
+    /**
+     * Removes a request from the queue once its response is read.
+     *
+     * @param request the request
+     *
+     * @return true if other requests are still queued
+     */
+    synchronized boolean dequeue(Object request) {
+        int index = m_requests.indexOf(request);
+
+        if (index >= 0) {
+            if (index < m_written) {
+                m_written--;
+            }
+
+            m_requests.removeElementAt(index);
+            notifyAll();
+        }
+
+        return m_requests.size() > 0;
+    }
+
+    /**
+     * Fails the requests queued on the connection, so they are sent
+     * again on another connection.
+     */
+    synchronized void breakPipeline() {
+        m_broken = true;
+        m_requests.removeAllElements();
+        notifyAll();
+    }
+
     /**
      * Get the stream connection for this element.
      *
@@ -29,20 +29,31 @@ package com.sun.midp.io.j2me.http;
 /**
  * A class representing a persistent connection pool that is used by the http
  * connection class to store persistent connections. Stream Connection 
- * Element are stored in the internal vector located in this class.
+ * Element are indexed by protocol, host and port, so a request only looks
+ * at the connections to its own server.
  * Each stream connection element is marked when either in use or
- * not. As new connections are requested - the current connections in the pool
- * are searched for a match and inactivity.
+ * not. As new connections are requested - the idle connections to the
+ * server are checked for inactivity and validity, the most recently
+ * used one first.
  *
  * <p> There is a maximum number of simultaneous connections that can be
- * in the pool at any one time. If for some reason there are no matching
- * connections available - a new one may be created (as long as it does not
- * exceed the maximum). If there number of connections in the pool exceeds 
- * the maximum - an adjustment is made to delete unused connections. Once
- * that happens (if at all) a new connection is created. If it can not create
- * a new connection an exception is raised. Once a connection is close down
+ * in the pool at any one time and a maximum number of connections to any
+ * one server. If a server or the pool has no room for a new connection
+ * the least recently used idle connection of the server or of the whole
+ * pool is closed to make room. If every connection is in use the new
+ * connection is not pooled. Once a connection is close down
  * a connection must be returned to the pool as inactive for another use.
  *
+ * <p> Idle connections are closed by a background thread once they have
+ * lingered for the linger time. The thread only runs while there are idle
+ * connections in the pool.
+ *
+ * <p> When HTTP pipelining is on, a request that can be pipelined may be
+ * queued on a connection in use by another request to the same server, if
+ * no idle connection is left and the server has as many connections as
+ * it may have. The element orders the requests queued on it, the pool
+ * counts them and the deepest pipeline reached.
+ *
  * <p> Each individual stream connection stream element (or container) 
  * includes a in-use flag. Once a connection has been taken from the pool its
  * in-use flag is set to (true) and once that is closed its set to (false).
@@ -50,17 +61,17 @@ package com.sun.midp.io.j2me.http;
  *
  */
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 
+import java.util.Hashtable;
 import java.util.Vector;
-import java.util.Enumeration;
 
 import javax.microedition.io.StreamConnection;
 
+import com.sun.midp.log.Logging;
+import com.sun.midp.log.LogChannels;
+
 import com.sun.midp.security.Permissions;
 import com.sun.midp.security.SecurityToken;
 
@@ -78,10 +89,31 @@ import com.sun.midp.security.SecurityToken;
 public class StreamConnectionPool {
     /** How long a connection can linger after its last use. */
     private long m_connectionLingerTime;
-    /** internal connection hash table */
-    private Vector m_connections;
+    /** Vectors of the connections to each server, by protocol, host, port. */
+    private Hashtable m_hosts;
+    /** Connections not in use, the least recently used first. */
+    private Vector m_idle;
+    /** Number of connections in the pool, in use or not. */
+    private int m_size;
     /** maximum connections */
     private int m_max_connections;
+    /** maximum connections to one server */
+    private int m_max_host_connections;
+    /** Thread closing the lingering connections, null if not running. */
+    private Thread m_reaper;
+
+    /** Number of requests given a pooled connection. */
+    private int m_hits;
+    /** Number of requests that found no pooled connection. */
+    private int m_misses;
+    /** Number of idle connections closed for room or after lingering. */
+    private int m_evictions;
+    /** Number of idle connections found unusable when requested. */
+    private int m_staleDiscards;
+    /** Number of requests queued on a connection in use. */
+    private int m_pipelinedRequests;
+    /** Largest number of requests queued on one connection. */
+    private int m_maxPipelineDepth;
 
     /**
      * Create a new instance of this class.
@@ -95,16 +127,48 @@ public class StreamConnectionPool {
      */
     StreamConnectionPool(int number_of_connections,
                          long connectionLingerTime) {
+        this(number_of_connections, number_of_connections,
+             connectionLingerTime);
+    }
+
+    /**
+     * Create a new instance of this class.
+     *
+     * @param number_of_connections maximum number of connections in the
+     *       pool
+     * @param host_connections maximum number of connections to one server
+     * @param connectionLingerTime how many milliseconds a connection should
+     *       stay in the pool after its last use
+     */
+    StreamConnectionPool(int number_of_connections, int host_connections,
+                         long connectionLingerTime) {
         this.m_max_connections = number_of_connections;
+        this.m_max_host_connections = host_connections;
         this.m_connectionLingerTime = connectionLingerTime;
-        m_connections = new Vector(m_max_connections);
+        m_hosts = new Hashtable();
+        m_idle = new Vector(m_max_connections);
+    }
+
+    /**
+     * Gets the key of the connections to a server.
+     *
+     * @param p_protocol            The protocol for the connection
+     * @param p_host                The Hostname for the connection
+     * @param p_port                The port number for the connection
+     *
+     * @return key of the server in the host table
+     */
+    private static String getKey(String p_protocol, String p_host,
+                                 int p_port) {
+        return p_protocol + "://" + p_host + ":" + p_port;
     }
     
     /**
      * Tries to add a reuseable connection to the connection pool.
-     * Replace any not in use connections to the same host and port.
-     * Will not add to the same host and port in use. Will replace
-     * oldest not in use element (if any) if the pool is full.
+     * If the server or the pool has no more room the least recently
+     * used connection not in use of the server or the pool is closed.
+     * Will not add the connection if all the connections that would
+     * have to be closed are in use.
      * 
      * @param p_protocol            The protocol for the connection
      * @param p_host                The Hostname for the connection
@@ -121,56 +185,123 @@ public class StreamConnectionPool {
             String p_host, int p_port, StreamConnection sc,
             DataOutputStream dos, DataInputStream dis) {
 
-        StreamConnectionElement oldestNotInUse = null;
+        String key = getKey(p_protocol, p_host, p_port);
 
-        // find the last unused element
-        Enumeration cons = m_connections.elements();
-        while (cons.hasMoreElements()) {
-            StreamConnectionElement sce =
-                (StreamConnectionElement)cons.nextElement();
+        if (!makeRoom(key)) {
+            return false;
+        }
 
-            if (sce.m_in_use) {
-                if (p_host.equals(sce.m_host) && p_port == sce.m_port) {
-                    return false;
-                }
+        StreamConnectionElement sce = new StreamConnectionElement(p_protocol,
+                          p_host, p_port, sc, dos, dis);
 
-                continue;
-            }
+        insert(key, sce);
+        m_idle.addElement(sce);
+        startReaper();
+        return true;
+    }
 
-            // if the connection is a duplicate, delete it
-            if (p_host.equals(sce.m_host) && p_port == sce.m_port) {
-                // no protocol duplicates on host and port
-                sce.close();
-                m_connections.removeElement(sce);
-                break;
-            } else {
-                if (oldestNotInUse == null ||
-                    sce.m_time < oldestNotInUse.m_time) {
-                    // save the oldest not in use, it may be removed later
-                    oldestNotInUse = sce;
+    /**
+     * Tries to add a new connection to the connection pool as in use by
+     * a request, so other requests can be pipelined on it. Room is made
+     * the same way as by {@link #add}.
+     *
+     * @param p_protocol            The protocol for the connection
+     * @param p_host                The Hostname for the connection
+     * @param p_port                The port number for the connection
+     * @param sc                    The base stream connection
+     * @param dos                   The data output stream from the base
+     *                                connection
+     * @param dis                   The data input stream from the base
+     *                                connection
+     * @param request               The request using the connection
+     * @param idempotent            true if the request can be pipelined
+     *
+     * @return the stream connection element of the connection or null
+     *         if it was not added
+     */
+    synchronized StreamConnectionElement addInUse(String p_protocol,
+            String p_host, int p_port, StreamConnection sc,
+            DataOutputStream dos, DataInputStream dis, Object request,
+            boolean idempotent) {
+
+        String key = getKey(p_protocol, p_host, p_port);
+
+        if (!makeRoom(key)) {
+            return null;
+        }
+
+        StreamConnectionElement sce = new StreamConnectionElement(p_protocol,
+                          p_host, p_port, sc, dos, dis);
+
+        sce.m_in_use = true;
+        sce.enqueue(request, idempotent);
+        insert(key, sce);
+        return sce;
+    }
+
+    /**
+     * Closes the least recently used idle connections that keep a new
+     * connection to a server out of the pool.
+     *
+     * @param key                   The key of the server
+     *
+     * @return true if there is room for the connection
+     */
+    private boolean makeRoom(String key) {
+        Vector host = (Vector)m_hosts.get(key);
+
+        if (m_max_connections <= 0 || m_max_host_connections <= 0) {
+            return false;
+        }
+
+        if (host != null && host.size() >= m_max_host_connections) {
+            StreamConnectionElement oldest = null;
+
+            for (int i = 0; i < host.size(); i++) {
+                StreamConnectionElement sce =
+                    (StreamConnectionElement)host.elementAt(i);
+
+                if (!sce.m_in_use &&
+                        (oldest == null || sce.m_time < oldest.m_time)) {
+                    oldest = sce;
                 }
             }
+
+            if (oldest == null) {
+                return false;
+            }
+
+            evict(oldest);
         }
 
-        /*
-         * first check and see if the maximum number of connections
-         * has been reached - if so delete the first one in the list (FIFO)
-         *   or
-         * if this port and host are already in the pool.
-         */
-        if (m_connections.size() >= m_max_connections) {
-            if (oldestNotInUse == null) {
+        if (m_size >= m_max_connections) {
+            if (m_idle.size() == 0) {
                 return false;
             }
 
-            oldestNotInUse.close();
-            m_connections.removeElement(oldestNotInUse);
+            evict((StreamConnectionElement)m_idle.elementAt(0));
         }
-     
-        m_connections.addElement(new StreamConnectionElement(p_protocol,
-                          p_host, p_port, sc, dos, dis));
+
         return true;
     }
+
+    /**
+     * Puts a new element in the index of its server.
+     *
+     * @param key                   The key of the server
+     * @param sce                   The stream connection element to add
+     */
+    private void insert(String key, StreamConnectionElement sce) {
+        Vector host = (Vector)m_hosts.get(key);
+
+        if (host == null) {
+            host = new Vector(m_max_host_connections);
+            m_hosts.put(key, host);
+        }
+
+        host.addElement(sce);
+        m_size++;
+    }
     
     /**
      * Close connection and remove an instance of the stream connection
@@ -179,15 +310,53 @@ public class StreamConnectionPool {
      * @param sce                 The stream connection element to remove
      */
     synchronized void remove(StreamConnectionElement sce) {
-	sce.close();
-        m_connections.removeElement(sce);
+        sce.close();
+        detach(sce);
+    }
+
+    /**
+     * Removes an element from the indexes of the pool without closing
+     * its connection.
+     *
+     * @param sce                 The stream connection element to remove
+     *
+     * @return true if the element was in the pool
+     */
+    private boolean detach(StreamConnectionElement sce) {
+        String key = getKey(sce.m_protocol, sce.m_host, sce.m_port);
+        Vector host = (Vector)m_hosts.get(key);
+
+        if (host == null || !host.removeElement(sce)) {
+            return false;
+        }
+
+        if (host.size() == 0) {
+            m_hosts.remove(key);
+        }
+
+        m_idle.removeElement(sce);
+        m_size--;
+        return true;
+    }
+
+    /**
+     * Closes an idle connection to make room or because it lingered
+     * too long.
+     *
+     * @param sce                 The stream connection element to close
+     */
+    private void evict(StreamConnectionElement sce) {
+        detach(sce);
+        sce.close();
+        m_evictions++;
     }
     
     /**
      * get an available connection and set the boolean flag to 
      * true (unavailable) in the connection pool.
-     * Also removes any stale connections, since this method gets
-     * called more than add or remove.
+     * The most recently used connection to the server is checked first.
+     * Connections that lingered too long or that the server closed
+     * are removed.
      *
      * @param callerSecurityToken   The security token of the caller
      * @param p_protocol            The protocol for the connection
@@ -201,42 +370,183 @@ public class StreamConnectionPool {
             SecurityToken callerSecurityToken,
             String p_protocol, String p_host, int p_port) {
 
-        StreamConnectionElement result = null;
-        long c_time = System.currentTimeMillis();
-        Enumeration cons = m_connections.elements();
+        callerSecurityToken.checkIfPermissionAllowed(Permissions.MIDP);
+
+        StreamConnectionElement result = takeIdle(p_protocol, p_host, p_port);
+
+        if (result == null) {
+            m_misses++;
+        } else {
+            m_hits++;
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets a connection for a request, queuing the request on the
+     * connection. An idle connection to the server is taken first, as
+     * {@link #get} does. If there is none, the server has no room for a
+     * new connection and the request can be pipelined, the request is
+     * queued on the connection in use with the fewest requests that only
+     * has requests that can be pipelined and less than the maximum depth.
+     *
+     * @param callerSecurityToken   The security token of the caller
+     * @param p_protocol            The protocol for the connection
+     * @param p_host                The Hostname for the connection
+     * @param p_port                The port number for the connection
+     * @param request               The request to queue
+     * @param idempotent            true if the request can be pipelined
+     * @param maxDepth              maximum number of requests to queue on
+     *                              one connection
+     *
+     * @return                      A stream connection element or
+     *                              null if not found
+     */
+    synchronized StreamConnectionElement getPipelined(
+            SecurityToken callerSecurityToken,
+            String p_protocol, String p_host, int p_port,
+            Object request, boolean idempotent, int maxDepth) {
 
         callerSecurityToken.checkIfPermissionAllowed(Permissions.MIDP);
 
-        while (cons.hasMoreElements()) {
-            StreamConnectionElement sce =
-                (StreamConnectionElement)cons.nextElement();
-            
-            if ((c_time - sce.m_time) > m_connectionLingerTime) {
-                if (!sce.m_in_use) {
-                    sce.close();
-                } else {
-                    // signal returnToUse() to close
-                    sce.m_removed = true;
+        StreamConnectionElement result = takeIdle(p_protocol, p_host, p_port);
+
+        if (result != null) {
+            m_hits++;
+            result.enqueue(request, idempotent);
+            return result;
+        }
+
+        Vector host = (Vector)m_hosts.get(getKey(p_protocol, p_host,
+                                                 p_port));
+
+        /*
+         * A new connection does not wait for the responses of other
+         * requests, so pipeline only when the server has no more room.
+         */
+        if (idempotent && host != null &&
+                host.size() >= m_max_host_connections) {
+            for (int i = 0; i < host.size(); i++) {
+                StreamConnectionElement sce =
+                    (StreamConnectionElement)host.elementAt(i);
+
+                if (sce.m_in_use && sce.canPipeline(maxDepth) &&
+                        (result == null || sce.getPipelineDepth() <
+                             result.getPipelineDepth())) {
+                    result = sce;
                 }
+            }
+        }
 
-                m_connections.removeElement(sce);
-                continue;
+        if (result == null) {
+            m_misses++;
+            return null;
+        }
+
+        result.enqueue(request, true);
+        m_pipelinedRequests++;
+
+        int depth = result.getPipelineDepth();
+
+        if (depth > m_maxPipelineDepth) {
+            m_maxPipelineDepth = depth;
+        }
+
+        if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
+            Logging.report(Logging.INFORMATION, LogChannels.LC_PROTOCOL,
+                           "Pipelined request " + depth + " on connection to " +
+                           p_host + ":" + p_port);
+        }
+
+        return result;
+    }
+
+    /**
+     * Ends a request got with {@link #getPipelined}. The connection is
+     * returned for reuse once no requests are queued on it, or closed if
+     * a request gave up waiting for its response on it. If the
+     * connection cannot be reused the requests still queued fail, so
+     * they can be sent again on other connections.
+     *
+     * @param sce                 The stream connection element of the
+     *                            request
+     * @param request             The request
+     * @param reusable            true if the connection can be reused
+     */
+    synchronized void finishPipelined(StreamConnectionElement sce,
+                                      Object request, boolean reusable) {
+        if (!reusable) {
+            // a request that left the queue in time is not a failure
+            if (sce.isQueued(request)) {
+                sce.breakPipeline();
+                remove(sce);
             }
 
-            if (p_host.equals(sce.m_host) && p_port == sce.m_port &&
-                    p_protocol.equals(sce.m_protocol) && !sce.m_in_use) {
-                result = sce;
+            return;
+        }
 
-                // do not break out so old connections can be removed
-                continue;
+        if (!sce.dequeue(request)) {
+            if (sce.isReusable()) {
+                returnForReuse(sce);
+            } else {
+                remove(sce);
             }
         }
+    }
 
-        if (result != null) {
+    /**
+     * Takes the most recently used idle connection to the server out of
+     * the idle connections, closing the ones that lingered too long or
+     * that the server closed.
+     *
+     * @param p_protocol            The protocol for the connection
+     * @param p_host                The Hostname for the connection
+     * @param p_port                The port number for the connection
+     *
+     * @return                      A stream connection element or
+     *                              null if not found
+     */
+    private StreamConnectionElement takeIdle(String p_protocol,
+                                             String p_host, int p_port) {
+        long c_time = System.currentTimeMillis();
+        Vector host = (Vector)m_hosts.get(getKey(p_protocol, p_host,
+                                                 p_port));
+
+        while (host != null) {
+            StreamConnectionElement result = null;
+
+            for (int i = 0; i < host.size(); i++) {
+                StreamConnectionElement sce =
+                    (StreamConnectionElement)host.elementAt(i);
+
+                if (!sce.m_in_use &&
+                        (result == null || sce.m_time >= result.m_time)) {
+                    result = sce;
+                }
+            }
+
+            if (result == null) {
+                break;
+            }
+
+            if ((c_time - result.m_time) > m_connectionLingerTime ||
+                    !result.isUsable()) {
+                remove(result);
+                m_staleDiscards++;
+
+                // the host vector is gone with its last element
+                host = (Vector)m_hosts.get(getKey(p_protocol, p_host,
+                                                  p_port));
+                continue;
+            }
+
+            m_idle.removeElement(result);
             result.m_in_use = true;
+            return result;
         }
 
-        return result;
+        return null;
     }
 
     /**
@@ -247,14 +557,166 @@ public class StreamConnectionPool {
      * @param returned            The stream connection element to return
      */
     synchronized void returnForReuse(StreamConnectionElement returned) {
+        Vector host = (Vector)m_hosts.get(getKey(returned.m_protocol,
+                                     returned.m_host, returned.m_port));
+
         returned.m_in_use = false;
 
-        if (returned.m_removed) {
-            // the connection was out too long
+        if (host == null || !host.contains(returned)) {
+            // the connection was removed from the pool while in use
             returned.close();
             return;
         }
 
         returned.m_time = System.currentTimeMillis();
+        m_idle.addElement(returned);
+        startReaper();
+    }
+
+    /**
+     * Starts the thread closing lingering connections if it does not
+     * run, otherwise lets it know that there are new idle connections.
+     * Called with the lock of the pool held.
+     */
+    private void startReaper() {
+        if (m_reaper != null) {
+            notifyAll();
+            return;
+        }
+
+        m_reaper = new Thread(new Reaper());
+        m_reaper.start();
+    }
+
+    /**
+     * Closes the idle connections that lingered too long and computes
+     * how long to wait before the next one does. Called with the lock
+     * of the pool held.
+     *
+     * @return milliseconds to wait, 0 if there are no idle connections
+     */
+    private long closeLingering() {
+        long c_time = System.currentTimeMillis();
+
+        while (m_idle.size() > 0) {
+            StreamConnectionElement oldest =
+                (StreamConnectionElement)m_idle.elementAt(0);
+            long linger = c_time - oldest.m_time;
+
+            if (linger <= m_connectionLingerTime) {
+                return m_connectionLingerTime - linger + 1;
+            }
+
+            if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
+                Logging.report(Logging.INFORMATION, LogChannels.LC_PROTOCOL,
+                               "Closing lingering connection to " +
+                               oldest.m_host + ":" + oldest.m_port);
+            }
+
+            evict(oldest);
+        }
+
+        return 0;
+    }
+
+    /**
+     * Gets the number of connections in the pool.
+     *
+     * @return connections in use and idle
+     */
+    synchronized int size() {
+        return m_size;
+    }
+
+    /**
+     * Gets the number of idle connections in the pool.
+     *
+     * @return connections not in use
+     */
+    synchronized int getIdleCount() {
+        return m_idle.size();
+    }
+
+    /**
+     * Gets the number of requests given a pooled connection.
+     *
+     * @return number of hits
+     */
+    synchronized int getHits() {
+        return m_hits;
+    }
+
+    /**
+     * Gets the number of requests that found no pooled connection.
+     *
+     * @return number of misses
+     */
+    synchronized int getMisses() {
+        return m_misses;
+    }
+
+    /**
+     * Gets the number of idle connections closed to make room for
+     * others or because they lingered too long.
+     *
+     * @return number of evictions
+     */
+    synchronized int getEvictions() {
+        return m_evictions;
+    }
+
+    /**
+     * Gets the number of idle connections found lingering or closed by
+     * the server when requested.
+     *
+     * @return number of stale connections discarded
+     */
+    synchronized int getStaleDiscards() {
+        return m_staleDiscards;
+    }
+
+    /**
+     * Gets the number of requests queued on a connection in use by
+     * another request.
+     *
+     * @return number of pipelined requests
+     */
+    synchronized int getPipelinedRequests() {
+        return m_pipelinedRequests;
+    }
+
+    /**
+     * Gets the largest number of requests queued on one connection.
+     *
+     * @return deepest pipeline reached
+     */
+    synchronized int getMaxPipelineDepth() {
+        return m_maxPipelineDepth;
+    }
+
+    /**
+     * Closes the connections not in use once they lingered for the
+     * linger time. Exits when the pool has no idle connections left.
+     */
+    private class Reaper implements Runnable {
+        /** Closes lingering connections until there are no idle ones. */
+        public void run() {
+            synchronized (StreamConnectionPool.this) {
+                for (;;) {
+                    long timeout = closeLingering();
+
+                    if (timeout == 0) {
+                        m_reaper = null;
+                        return;
+                    }
+
+                    try {
+                        StreamConnectionPool.this.wait(timeout);
+                    } catch (InterruptedException ie) {
+                        // check the connections again
+                    }
+                }
+            }
+        }
     }
 }
@@ -0,0 +1,562 @@
+/*
+ *  
+ *
+ * Copyright  1990-2007 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.io.j2me.http;
+
+import java.io.IOException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+import java.util.Random;
+
+import com.sun.midp.i3test.TestCase;
+
+/**
+ * Tests the decoding of gzip and deflate encoded HTTP responses and
+ * measures its throughput and memory use. Responses come from the
+ * StubHttpProtocol of TestHttpHeaders.
+ */
+public class TestContentDecoding extends TestCase {
+
+    /** The items() text, gzip compressed with dynamic Huffman codes. */
+    static final byte[] GZIP_ITEMS = {
+        0x1f, (byte)0x8b, 0x08, 0x00, 0x00, 0x00, 0x00, 0x00,
+        0x02, 0x03, 0x7d, (byte)0xd1, (byte)0xbb, 0x0e, (byte)0x80, 0x20,
+        0x0c, 0x05, (byte)0xd0, 0x5f, 0x31, 0x77, 0x66, 0x10,
+        0x01, 0x1f, (byte)0xfc, (byte)0x8a, 0x61, (byte)0xc0, 0x48, 0x0c,
+        (byte)0x83, 0x2e, (byte)0xba, 0x19, (byte)0xfe, (byte)0xdd,
+        (byte)0xd7, 0x54, 0x62, (byte)0xd9, (byte)0x9a, (byte)0xf6,
+        (byte)0xa4, 0x49, 0x6f, 0x4f, (byte)0xc4, 0x23, (byte)0xac, 0x3b,
+        (byte)0xec, 0x78, 0x22, (byte)0xce, (byte)0xb0, (byte)0xb5,
+        (byte)0xc0, (byte)0xe6, (byte)0xd7, 0x00, (byte)0xfb, (byte)0xf6,
+        (byte)0xab, 0x1a, 0x02, (byte)0x87, 0x5f, (byte)0x9e, 0x39,
+        (byte)0xfc, 0x5d, 0x4f, 0x70, 0x49, 0x7c, 0x52, 0x52, (byte)0xd9,
+        (byte)0xf1, (byte)0xb2, (byte)0xa1, 0x52, (byte)0xf2, 0x52, 0x51,
+        (byte)0xd9, (byte)0xf3, 0x52, 0x53, (byte)0xd9, (byte)0xf0,
+        (byte)0xd2, 0x50, 0x39, (byte)0xf0, (byte)0xb2, (byte)0xa5, 0x52,
+        (byte)0xf1, (byte)0xb2, (byte)0xcb, 0x2e, 0x2a, (byte)0xc4,
+        (byte)0xd4, 0x53, (byte)0xaa, 0x79, 0x39, 0x64, 0x4b, 0x0b, 0x39,
+        (byte)0xc9, (byte)0xec, 0x4d, (byte)0xa6, 0x40, (byte)0xb3, 0x3f,
+        (byte)0xc9, (byte)0xbf, (byte)0xa8, 0x5c, (byte)0xba, 0x00, 0x5b,
+        0x61, 0x17, 0x08, 0x08, 0x02, 0x00, 0x00
+    };
+
+    /** "stored block" in a zlib wrapped stored block. */
+    static final byte[] ZLIB_STORED = {
+        0x78, 0x01, 0x01, 0x0c, 0x00, (byte)0xf3, (byte)0xff, 0x73,
+        0x74, 0x6f, 0x72, 0x65, 0x64, 0x20, 0x62, 0x6c, 0x6f, 0x63,
+        0x6b, 0x1f, (byte)0x80, 0x04, (byte)0xbd
+    };
+
+    /** Size of the decoded data of the benchmark. */
+    static final int BENCHMARK_SIZE = 256 * 1024;
+
+    /** Number of times the benchmark decodes its data. */
+    static final int BENCHMARK_RUNS = 4;
+
+    /**
+     * Gets the text compressed in GZIP_ITEMS.
+     *
+     * @return a JSON list of items
+     */
+    static String items() {
+        StringBuffer sb = new StringBuffer("{\"items\":[");
+
+        for (int i = 0; i < 12; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+
+            sb.append("{\"id\":").append(i).append(",\"name\":\"item ")
+                .append(i * 7 % 13).append("\",\"tags\":[\"a\",\"b\"]}");
+        }
+
+        return sb.append("]}").toString();
+    }
+
+    /**
+     * Makes JSON like data, with repeated keys and random values.
+     *
+     * @param size size of the data
+     *
+     * @return the data
+     */
+    static byte[] makeRecords(int size) {
+        Random random = new Random(17);
+        StringBuffer sb = new StringBuffer(size + 100);
+
+        while (sb.length() < size) {
+            sb.append("{\"id\":").append(random.nextInt(100000))
+                .append(",\"price\":").append(random.nextInt(1000))
+                .append(",\"state\":\"")
+                .append(random.nextInt(2) == 0 ? "open" : "closed")
+                .append("\"},\n");
+        }
+
+        sb.setLength(size);
+        return sb.toString().getBytes();
+    }
+
+    /**
+     * Compresses data into a single fixed Huffman deflate block, with
+     * greedy matching of the last position of each three bytes.
+     *
+     * @param data the data
+     *
+     * @return raw deflate data
+     */
+    static byte[] deflate(byte[] data) {
+        BitWriter out = new BitWriter();
+        int[] head = new int[4096];
+
+        for (int i = 0; i < head.length; i++) {
+            head[i] = -1;
+        }
+
+        // last block, fixed codes
+        out.write(1, 1);
+        out.write(1, 2);
+
+        for (int i = 0; i < data.length; ) {
+            int length = 0;
+            int distance = 0;
+
+            if (i + 2 < data.length) {
+                int hash = ((data[i] & 0xff) << 4 ^ (data[i + 1] & 0xff) << 2
+                            ^ (data[i + 2] & 0xff)) & 4095;
+                int match = head[hash];
+
+                head[hash] = i;
+                if (match >= 0 && i - match <= 32768) {
+                    while (length < 258 && i + length < data.length &&
+                           data[match + length] == data[i + length]) {
+                        length++;
+                    }
+
+                    distance = i - match;
+                }
+            }
+
+            if (length < 3) {
+                out.writeSymbol(data[i] & 0xff);
+                i++;
+                continue;
+            }
+
+            int code = InflateInputStream.LENGTH_BASE.length - 1;
+            while (InflateInputStream.LENGTH_BASE[code] > length) {
+                code--;
+            }
+
+            out.writeSymbol(257 + code);
+            out.write(length - InflateInputStream.LENGTH_BASE[code],
+                      InflateInputStream.LENGTH_EXTRA[code]);
+
+            code = InflateInputStream.DISTANCE_BASE.length - 1;
+            while (InflateInputStream.DISTANCE_BASE[code] > distance) {
+                code--;
+            }
+
+            out.writeCode(code, 5);
+            out.write(distance - InflateInputStream.DISTANCE_BASE[code],
+                      InflateInputStream.DISTANCE_EXTRA[code]);
+            i += length;
+        }
+
+        out.writeSymbol(256);
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads a stream to its end.
+     *
+     * @param in the stream
+     * @param bufferSize size of each read
+     *
+     * @return the data read
+     *
+     * @exception IOException if the stream cannot be read
+     */
+    static byte[] readAll(InputStream in, int bufferSize)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[bufferSize];
+        int n;
+
+        while ((n = in.read(buf, 0, buf.length)) != -1) {
+            out.write(buf, 0, n);
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Makes a response with an encoded body.
+     *
+     * @param encoding value of the Content-Encoding header
+     * @param body the encoded body
+     * @param chunked true to send the body in chunks, false to send a
+     *        Content-Length header
+     *
+     * @return the response
+     */
+    static byte[] makeResponse(String encoding, byte[] body,
+                               boolean chunked) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        String header = "HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\n" +
+            "Content-Encoding: " + encoding + "\r\n";
+
+        if (!chunked) {
+            header += "Content-Length: " + body.length + "\r\n\r\n";
+            out.write(header.getBytes(), 0, header.length());
+            out.write(body, 0, body.length);
+            return out.toByteArray();
+        }
+
+        header += "Transfer-Encoding: chunked\r\n\r\n";
+        out.write(header.getBytes(), 0, header.length());
+
+        for (int i = 0; i < body.length; i += 1000) {
+            int n = body.length - i < 1000 ? body.length - i : 1000;
+            String size = Integer.toHexString(n) + "\r\n";
+
+            out.write(size.getBytes(), 0, size.length());
+            out.write(body, i, n);
+            out.write('\r');
+            out.write('\n');
+        }
+
+        out.write("0\r\n\r\n".getBytes(), 0, 5);
+        return out.toByteArray();
+    }
+
+    /**
+     * Opens a connection with a stub response.
+     *
+     * @param response the response
+     * @param decode true to have the response decoded
+     *
+     * @return the connection
+     *
+     * @exception IOException if the connection cannot be opened
+     */
+    StubHttpProtocol open(byte[] response, boolean decode)
+            throws IOException {
+        StubHttpProtocol conn = new StubHttpProtocol();
+
+        conn.openPrim(getSecurityToken(),
+                      "http://nonexistent.example.com/data");
+        conn.decodeContent = decode;
+        conn.setInputBuffer(response);
+        return conn;
+    }
+
+    /**
+     * Decodes gzip data with dynamic codes and zlib data with a stored
+     * block.
+     *
+     * @exception IOException if the data cannot be decoded
+     */
+    void testFormats() throws IOException {
+        InputStream in = new InflateInputStream(
+            new ByteArrayInputStream(GZIP_ITEMS), InflateInputStream.GZIP);
+
+        assertEquals("gzip", items(), new String(readAll(in, 100)));
+        assertEquals("end of data", -1, in.read());
+
+        in = new InflateInputStream(new ByteArrayInputStream(ZLIB_STORED),
+                                    InflateInputStream.DEFLATE);
+        assertEquals("zlib", "stored block", new String(readAll(in, 5)));
+    }
+
+    /**
+     * Decodes raw deflate data with back references across reads and
+     * across the window.
+     *
+     * @exception IOException if the data cannot be decoded
+     */
+    void testBackReferences() throws IOException {
+        byte[] data = makeRecords(100000);
+        byte[] encoded = deflate(data);
+        InputStream in = new InflateInputStream(
+            new ByteArrayInputStream(encoded), InflateInputStream.DEFLATE);
+        byte[] decoded = readAll(in, 333);
+
+        assertTrue("compressed", encoded.length < data.length / 2);
+        assertEquals("length", data.length, decoded.length);
+        assertEquals("data", new String(data), new String(decoded));
+    }
+
+    /**
+     * Corrupt or truncated data is an IOException.
+     */
+    void testCorruptData() {
+        byte[] data = new byte[GZIP_ITEMS.length];
+
+        System.arraycopy(GZIP_ITEMS, 0, data, 0, data.length);
+        data[data.length - 6] ^= 1;
+
+        try {
+            readAll(new InflateInputStream(new ByteArrayInputStream(data),
+                InflateInputStream.GZIP), 1000);
+            fail("CRC not checked");
+        } catch (IOException ioe) {
+            // expected
+        }
+
+        try {
+            readAll(new InflateInputStream(new ByteArrayInputStream(
+                GZIP_ITEMS, 0, GZIP_ITEMS.length / 2),
+                InflateInputStream.GZIP), 1000);
+            fail("truncated data decoded");
+        } catch (IOException ioe) {
+            // expected
+        }
+    }
+
+    /**
+     * A response is decoded with content length framing or chunked,
+     * without the encoding and the encoded length in the header fields.
+     *
+     * @exception IOException if the response cannot be read
+     */
+    void testDecodedResponse() throws IOException {
+        StubHttpProtocol conn = open(makeResponse("gzip", GZIP_ITEMS, false),
+                                     true);
+        InputStream in = conn.openInputStream();
+
+        assertTrue("Accept-Encoding", conn.getOutputBuffer().indexOf(
+            "Accept-Encoding: gzip, deflate") >= 0);
+        assertEquals("length", -1, (int)conn.getLength());
+        assertNull("encoding", conn.getEncoding());
+        assertNull("content-length", conn.getHeaderField("content-length"));
+        assertEquals("type", "text/plain", conn.getType());
+        assertEquals("body", items(), new String(readAll(in, 64)));
+
+        byte[] data = makeRecords(20000);
+
+        conn = open(makeResponse("deflate", deflate(data), true), true);
+        in = conn.openInputStream();
+        assertEquals("chunked", new String(data),
+                     new String(readAll(in, 1024)));
+    }
+
+    /**
+     * Responses are not decoded when the application asks for the
+     * encoding itself or when decoding is off.
+     *
+     * @exception IOException if the response cannot be read
+     */
+    void testEncodedResponse() throws IOException {
+        byte[] response = makeResponse("gzip", GZIP_ITEMS, false);
+        StubHttpProtocol conn = open(response, true);
+
+        conn.setRequestProperty("Accept-Encoding", "gzip");
+
+        InputStream in = conn.openInputStream();
+
+        assertEquals("encoding", "gzip", conn.getEncoding());
+        assertEquals("length", GZIP_ITEMS.length, (int)conn.getLength());
+        assertEquals("body", GZIP_ITEMS.length, readAll(in, 64).length);
+
+        conn = open(response, false);
+        in = conn.openInputStream();
+        assertTrue("not asked", conn.getOutputBuffer().indexOf(
+            "Accept-Encoding") < 0);
+        assertEquals("encoding", "gzip", conn.getEncoding());
+    }
+
+    /**
+     * Measures the decoding throughput, alone and through a chunked
+     * response, and the memory the decoder takes.
+     *
+     * @exception IOException if the data cannot be decoded
+     */
+    void testBenchmark() throws IOException {
+        byte[] data = makeRecords(BENCHMARK_SIZE);
+        byte[] encoded = deflate(data);
+        byte[] response = makeResponse("deflate", encoded, true);
+        Runtime runtime = Runtime.getRuntime();
+        long start;
+        long inflateTime;
+        long responseTime;
+        long plainTime;
+        int decoded = 0;
+
+        start = System.currentTimeMillis();
+        for (int i = 0; i < BENCHMARK_RUNS; i++) {
+            decoded += readAll(new InflateInputStream(
+                new ByteArrayInputStream(encoded),
+                InflateInputStream.DEFLATE), 4096).length;
+        }
+
+        inflateTime = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        for (int i = 0; i < BENCHMARK_RUNS; i++) {
+            decoded += readAll(open(response, true).openInputStream(),
+                               4096).length;
+        }
+
+        responseTime = System.currentTimeMillis() - start;
+
+        response = makeResponse("identity", data, true);
+        start = System.currentTimeMillis();
+        for (int i = 0; i < BENCHMARK_RUNS; i++) {
+            readAll(open(response, true).openInputStream(), 4096);
+        }
+
+        plainTime = System.currentTimeMillis() - start;
+
+        assertEquals("decoded", 2 * BENCHMARK_RUNS * data.length, decoded);
+
+        runtime.gc();
+        long free = runtime.freeMemory();
+        InputStream in = new InflateInputStream(
+            new ByteArrayInputStream(encoded), InflateInputStream.DEFLATE);
+
+        in.read(new byte[1], 0, 1);
+        long used = free - runtime.freeMemory();
+
+        info("deflate: " + data.length + " bytes in " + encoded.length);
+        info("inflate: " + rate(BENCHMARK_RUNS * data.length, inflateTime) +
+             " KB/s, response: " +
+             rate(BENCHMARK_RUNS * data.length, responseTime) +
+             " KB/s, plain response: " +
+             rate(BENCHMARK_RUNS * data.length, plainTime) + " KB/s");
+        info("decoder memory: " + used + " bytes");
+    }
+
+    /**
+     * Computes a rate.
+     *
+     * @param bytes number of bytes
+     * @param millis milliseconds
+     *
+     * @return kilobytes a second
+     */
+    static long rate(long bytes, long millis) {
+        return bytes * 1000 / 1024 / (millis > 0 ? millis : 1);
+    }
+
+    /**
+     * Overridden from TestCase parent. This method will kick off each
+     * individual test
+     *
+     * @exception Throwable if a test fails unexpectedly
+     */
+    public void runTests() throws Throwable {
+        declare("testFormats");
+        testFormats();
+
+        declare("testBackReferences");
+        testBackReferences();
+
+        declare("testCorruptData");
+        testCorruptData();
+
+        declare("testDecodedResponse");
+        testDecodedResponse();
+
+        declare("testEncodedResponse");
+        testEncodedResponse();
+
+        declare("testBenchmark");
+        testBenchmark();
+    }
+}
+
+/**
+ * Writes bits the way deflate packs them, first bit as the lowest.
+ */
+class BitWriter {
+    /** Written bytes. */
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    /** Bits not written yet. */
+    int bitBuf;
+    /** Number of bits in bitBuf. */
+    int bitCount;
+
+    /**
+     * Writes a value, its lowest bit first.
+     *
+     * @param value the value
+     * @param n number of bits
+     */
+    void write(int value, int n) {
+        bitBuf |= value << bitCount;
+        bitCount += n;
+
+        while (bitCount >= 8) {
+            out.write(bitBuf & 0xff);
+            bitBuf >>>= 8;
+            bitCount -= 8;
+        }
+    }
+
+    /**
+     * Writes a Huffman code, its highest bit first.
+     *
+     * @param code the code
+     * @param n number of bits of the code
+     */
+    void writeCode(int code, int n) {
+        for (int i = n - 1; i >= 0; i--) {
+            write((code >>> i) & 1, 1);
+        }
+    }
+
+    /**
+     * Writes a literal/length symbol with the fixed code.
+     *
+     * @param symbol the symbol
+     */
+    void writeSymbol(int symbol) {
+        if (symbol < 144) {
+            writeCode(0x30 + symbol, 8);
+        } else if (symbol < 256) {
+            writeCode(0x190 + symbol - 144, 9);
+        } else if (symbol < 280) {
+            writeCode(symbol - 256, 7);
+        } else {
+            writeCode(0xc0 + symbol - 280, 8);
+        }
+    }
+
+    /**
+     * Gets the written bytes, with the last bits padded.
+     *
+     * @return the bytes
+     */
+    byte[] toByteArray() {
+        if (bitCount > 0) {
+            write(0, 8 - bitCount);
+        }
+
+        return out.toByteArray();
+    }
+}
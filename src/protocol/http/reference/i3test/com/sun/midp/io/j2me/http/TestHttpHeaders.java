@@ -138,9 +138,15 @@ class StubHttpProtocol extends Protocol {
 
     StubStreamConnection stream;
     String inbuf;
+    byte[] inbytes;
 
     protected StreamConnection connect() throws IOException {
-        stream = new StubStreamConnection(inbuf);
+        if (inbytes != null) {
+            stream = new StubStreamConnection(inbytes);
+        } else {
+            stream = new StubStreamConnection(inbuf);
+        }
+
         return stream;
     }
 
@@ -152,6 +158,10 @@ class StubHttpProtocol extends Protocol {
         this.inbuf = inbuf;
     }
 
+    void setInputBuffer(byte[] inbytes) {
+        this.inbytes = inbytes;
+    }
+
 }
 
 
@@ -164,14 +174,23 @@ class StubStreamConnection implements StreamConnection {
     ByteArrayOutputStream baos;
     ByteArrayInputStream bais;
     String inbuf;
+    byte[] inbytes;
 
     StubStreamConnection(String inbuf) {
         this.inbuf = inbuf;
     }
 
+    StubStreamConnection(byte[] inbytes) {
+        this.inbytes = inbytes;
+    }
+
     public InputStream openInputStream() throws IOException {
         if (bais == null) {
-            bais = new ByteArrayInputStream(inbuf.getBytes());
+            if (inbytes == null) {
+                inbytes = inbuf.getBytes();
+            }
+
+            bais = new ByteArrayInputStream(inbytes);
         }
         return bais;
     }
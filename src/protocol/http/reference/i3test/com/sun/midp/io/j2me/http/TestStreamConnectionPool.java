@@ -0,0 +1,475 @@
+/*
+ *  
+ *
+ * Copyright  1990-2007 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.io.j2me.http;
+
+import java.io.IOException;
+
+import com.sun.midp.i3test.TestCase;
+
+/**
+ * Tests the per server indexing, the limits, the validation, the
+ * lingering connection thread and the request pipelining of the HTTP
+ * connection pool. Uses the
+ * StubStreamConnection of TestHttpHeaders.
+ */
+public class TestStreamConnectionPool extends TestCase {
+
+    /**
+     * Adds a connection to the pool.
+     *
+     * @param pool the pool
+     * @param host host of the connection
+     * @param input what the server sent after the last response
+     *
+     * @return true if the connection was added
+     *
+     * @exception IOException if the stub connection fails
+     */
+    private static boolean add(StreamConnectionPool pool, String host,
+                               String input) throws IOException {
+        StubStreamConnection sc = new StubStreamConnection(input);
+
+        return pool.add("http", host, 80, sc, sc.openDataOutputStream(),
+                        sc.openDataInputStream());
+    }
+
+    /**
+     * Gets a connection from the pool.
+     *
+     * @param pool the pool
+     * @param host host of the connection
+     *
+     * @return the connection or null
+     */
+    private StreamConnectionElement get(StreamConnectionPool pool,
+                                        String host) {
+        return pool.get(getSecurityToken(), "http", host, 80);
+    }
+
+    /**
+     * Connections are found by protocol, host and port and counted.
+     *
+     * @exception IOException if the stub connection fails
+     */
+    void testHitsAndMisses() throws IOException {
+        StreamConnectionPool pool = new StreamConnectionPool(4, 2, 60000);
+
+        assertNull("empty pool", get(pool, "a"));
+        assertTrue(add(pool, "a", ""));
+        assertNull("other host", get(pool, "b"));
+        assertNull("other port",
+                   pool.get(getSecurityToken(), "http", "a", 8080));
+        assertNull("other protocol",
+                   pool.get(getSecurityToken(), "https", "a", 80));
+
+        StreamConnectionElement sce = get(pool, "a");
+        assertNotNull("pooled connection", sce);
+        assertNull("connection in use", get(pool, "a"));
+
+        pool.returnForReuse(sce);
+        assertSame(sce, get(pool, "a"));
+
+        assertEquals("hits", 2, pool.getHits());
+        assertEquals("misses", 5, pool.getMisses());
+    }
+
+    /**
+     * A server does not get more connections than its limit, the least
+     * recently used idle connection makes room.
+     *
+     * @exception IOException if the stub connection fails
+     */
+    void testHostLimit() throws IOException {
+        StreamConnectionPool pool = new StreamConnectionPool(8, 2, 60000);
+
+        assertTrue(add(pool, "a", ""));
+        assertTrue(add(pool, "a", ""));
+        assertTrue(add(pool, "a", ""));
+        assertEquals("size", 2, pool.size());
+        assertEquals("evictions", 1, pool.getEvictions());
+
+        StreamConnectionElement first = get(pool, "a");
+        StreamConnectionElement second = get(pool, "a");
+        assertNotNull(first);
+        assertNotNull(second);
+        assertNotSame(first, second);
+
+        assertFalse("all in use", add(pool, "a", ""));
+        assertTrue("other host", add(pool, "b", ""));
+        assertEquals("size", 3, pool.size());
+    }
+
+    /**
+     * The pool makes room by closing the least recently used idle
+     * connection of any server.
+     *
+     * @exception IOException if the stub connection fails
+     */
+    void testPoolLimit() throws IOException {
+        StreamConnectionPool pool = new StreamConnectionPool(2, 2, 60000);
+
+        assertTrue(add(pool, "a", ""));
+        assertTrue(add(pool, "b", ""));
+
+        // using a makes b the least recently used
+        pool.returnForReuse(get(pool, "a"));
+
+        assertTrue(add(pool, "c", ""));
+        assertEquals("size", 2, pool.size());
+        assertNull("b evicted", get(pool, "b"));
+        assertNotNull("a kept", get(pool, "a"));
+        assertNotNull("c added", get(pool, "c"));
+
+        assertFalse("all in use", add(pool, "d", ""));
+        assertEquals("evictions", 1, pool.getEvictions());
+    }
+
+    /**
+     * Connections with data from the server are not reused.
+     *
+     * @exception IOException if the stub connection fails
+     */
+    void testValidation() throws IOException {
+        StreamConnectionPool pool = new StreamConnectionPool(4, 2, 60000);
+
+        assertTrue(add(pool, "a", ""));
+        assertTrue(add(pool, "a", "HTTP/1.1 408 Request Timeout\r\n"));
+
+        // the most recently added connection is tried first
+        StreamConnectionElement sce = get(pool, "a");
+        assertNotNull(sce);
+        assertEquals("stale", 1, pool.getStaleDiscards());
+        assertEquals("size", 1, pool.size());
+        assertTrue(sce.isUsable());
+
+        pool.remove(sce);
+        assertNull("removed", sce.getBaseConnection());
+        assertEquals("size", 0, pool.size());
+    }
+
+    /**
+     * Idle connections are closed once they lingered too long, in use
+     * connections are not.
+     *
+     * @exception IOException if the stub connection fails
+     * @exception InterruptedException if the test is interrupted
+     */
+    void testLinger() throws IOException, InterruptedException {
+        StreamConnectionPool pool = new StreamConnectionPool(4, 2, 200);
+
+        assertTrue(add(pool, "a", ""));
+        assertTrue(add(pool, "b", ""));
+
+        StreamConnectionElement inUse = get(pool, "b");
+        Thread.sleep(1000);
+
+        assertEquals("idle", 0, pool.getIdleCount());
+        assertEquals("size", 1, pool.size());
+        assertEquals("evictions", 1, pool.getEvictions());
+        assertNull("lingered", get(pool, "a"));
+
+        pool.returnForReuse(inUse);
+        assertEquals("idle", 1, pool.getIdleCount());
+        assertSame(inUse, get(pool, "b"));
+    }
+
+    /**
+     * Adds a connection in use by a request to the pool.
+     *
+     * @param pool the pool
+     * @param request the request using the connection
+     * @param idempotent true if the request can be pipelined
+     *
+     * @return the connection or null
+     *
+     * @exception IOException if the stub connection fails
+     */
+    private static StreamConnectionElement addInUse(StreamConnectionPool pool,
+            Object request, boolean idempotent) throws IOException {
+        StubStreamConnection sc = new StubStreamConnection("");
+
+        return pool.addInUse("http", "a", 80, sc, sc.openDataOutputStream(),
+                             sc.openDataInputStream(), request, idempotent);
+    }
+
+    /**
+     * Gets a connection for a request that can be pipelined.
+     *
+     * @param pool the pool
+     * @param request the request
+     *
+     * @return the connection or null
+     */
+    private StreamConnectionElement getPipelined(StreamConnectionPool pool,
+                                                 Object request) {
+        return pool.getPipelined(getSecurityToken(), "http", "a", 80,
+                                 request, true, 3);
+    }
+
+    /**
+     * Requests are queued on connections in use up to the maximum depth,
+     * only behind requests that can be pipelined. The connection is
+     * reused once its queue is empty.
+     *
+     * @exception IOException if the stub connection fails
+     */
+    void testPipelineQueue() throws IOException {
+        StreamConnectionPool pool = new StreamConnectionPool(4, 1, 60000);
+        Object first = new Object();
+        Object second = new Object();
+        Object third = new Object();
+
+        StreamConnectionElement sce = addInUse(pool, first, true);
+        assertNotNull(sce);
+        assertEquals("idle", 0, pool.getIdleCount());
+
+        assertSame(sce, getPipelined(pool, second));
+        assertSame(sce, getPipelined(pool, third));
+        assertNull("queue full", getPipelined(pool, new Object()));
+        assertNull("not idempotent", pool.getPipelined(getSecurityToken(),
+            "http", "a", 80, new Object(), false, 3));
+        assertEquals("depth", 3, sce.getPipelineDepth());
+        assertEquals("max depth", 3, pool.getMaxPipelineDepth());
+        assertEquals("pipelined", 2, pool.getPipelinedRequests());
+
+        // requests are written in order
+        sce.waitToWrite(first, 5000);
+        sce.requestWritten();
+        sce.waitToWrite(second, 5000);
+        sce.requestWritten();
+
+        pool.finishPipelined(sce, first, true);
+        sce.waitForResponse(second, 5000);
+        pool.finishPipelined(sce, second, true);
+        assertEquals("in use", 0, pool.getIdleCount());
+        pool.finishPipelined(sce, third, true);
+        assertEquals("reused", 1, pool.getIdleCount());
+
+        // a request that cannot be pipelined keeps the connection
+        assertSame(sce, pool.getPipelined(getSecurityToken(), "http", "a",
+                                          80, first, false, 3));
+        assertNull("owner not idempotent", getPipelined(pool, second));
+        pool.finishPipelined(sce, first, true);
+        assertSame("idle first", sce, getPipelined(pool, second));
+        assertEquals("pipelined", 2, pool.getPipelinedRequests());
+    }
+
+    /**
+     * Requests queued on a connection that cannot be reused fail, so
+     * they can be sent again.
+     *
+     * @exception IOException if the stub connection fails
+     * @exception InterruptedException if the test is interrupted
+     */
+    void testBrokenPipeline() throws IOException, InterruptedException {
+        final StreamConnectionPool pool =
+            new StreamConnectionPool(4, 1, 60000);
+        final Object first = new Object();
+        final Object second = new Object();
+        final StreamConnectionElement sce = addInUse(pool, first, true);
+        final IOException[] failure = new IOException[1];
+
+        assertSame(sce, getPipelined(pool, second));
+
+        Thread waiter = new Thread() {
+            public void run() {
+                try {
+                    sce.waitForResponse(second, 5000);
+                } catch (IOException ioe) {
+                    failure[0] = ioe;
+                }
+            }
+        };
+
+        waiter.start();
+        Thread.sleep(100);
+        assertTrue("waiting", waiter.isAlive());
+
+        pool.finishPipelined(sce, first, false);
+        waiter.join(5000);
+        assertFalse(waiter.isAlive());
+        assertNotNull("queued request failed", failure[0]);
+        assertEquals("size", 0, pool.size());
+        assertNull("closed", sce.getBaseConnection());
+
+        try {
+            sce.waitToWrite(second, 5000);
+            fail("wrote on a broken connection");
+        } catch (IOException ioe) {
+            // expected
+        }
+    }
+
+    /**
+     * Requests are only pipelined when the server has no room for
+     * another connection.
+     *
+     * @exception IOException if the stub connection fails
+     */
+    void testPipelineHostLimit() throws IOException {
+        StreamConnectionPool pool = new StreamConnectionPool(4, 2, 60000);
+        Object first = new Object();
+        Object second = new Object();
+
+        StreamConnectionElement sce = addInUse(pool, first, true);
+        assertNotNull(sce);
+        assertNull("room for a connection", getPipelined(pool, second));
+
+        StreamConnectionElement other = addInUse(pool, second, true);
+        assertNotNull(other);
+        assertNotSame(sce, other);
+
+        StreamConnectionElement queued = getPipelined(pool, new Object());
+        assertTrue("no room left", queued == sce || queued == other);
+        assertEquals("pipelined", 1, pool.getPipelinedRequests());
+    }
+
+    /**
+     * A request kept open does not block the requests pipelined after
+     * it: A is still open with its response headers read while B asks
+     * for its response. B gives up and leaves the queue, the connection
+     * is closed once A is done.
+     *
+     * @exception IOException if the stub connection fails
+     */
+    void testPipelineTimeout() throws IOException {
+        StreamConnectionPool pool = new StreamConnectionPool(4, 1, 60000);
+        Object a = new Object();
+        Object b = new Object();
+        Object c = new Object();
+
+        StreamConnectionElement sce = addInUse(pool, a, true);
+        assertSame(sce, getPipelined(pool, b));
+        assertSame(sce, getPipelined(pool, c));
+
+        sce.waitToWrite(a, 5000);
+        sce.requestWritten();
+        sce.waitForResponse(a, 5000);
+        sce.waitToWrite(b, 5000);
+        sce.requestWritten();
+
+        long start = System.currentTimeMillis();
+
+        try {
+            sce.waitForResponse(b, 200);
+            fail("waited for a request kept open");
+        } catch (IOException ioe) {
+            // expected
+        }
+
+        assertTrue("waited", System.currentTimeMillis() - start >= 200);
+        assertFalse("b left", sce.isQueued(b));
+        assertFalse("c left", sce.isQueued(c));
+        assertTrue("a kept", sce.isQueued(a));
+
+        try {
+            sce.waitToWrite(c, 5000);
+            fail("wrote after a request that gave up");
+        } catch (IOException ioe) {
+            // expected
+        }
+
+        // the requests that gave up do not close the connection of a
+        pool.finishPipelined(sce, b, false);
+        pool.finishPipelined(sce, c, false);
+        assertNotNull("a open", sce.getBaseConnection());
+        assertNull("not pipelined", getPipelined(pool, new Object()));
+
+        pool.finishPipelined(sce, a, true);
+        assertNull("closed", sce.getBaseConnection());
+        assertEquals("size", 0, pool.size());
+        assertEquals("idle", 0, pool.getIdleCount());
+    }
+
+    /**
+     * A request not yet written that waits too long leaves the queue,
+     * the connection is still reused.
+     *
+     * @exception IOException if the stub connection fails
+     */
+    void testPipelineWriteTimeout() throws IOException {
+        StreamConnectionPool pool = new StreamConnectionPool(4, 1, 60000);
+        Object a = new Object();
+        Object b = new Object();
+
+        StreamConnectionElement sce = addInUse(pool, a, true);
+        assertSame(sce, getPipelined(pool, b));
+
+        try {
+            sce.waitToWrite(b, 100);
+            fail("wrote before the request ahead");
+        } catch (IOException ioe) {
+            // expected
+        }
+
+        assertFalse("b left", sce.isQueued(b));
+        assertEquals("depth", 1, sce.getPipelineDepth());
+
+        sce.waitToWrite(a, 5000);
+        sce.requestWritten();
+        pool.finishPipelined(sce, a, true);
+        assertEquals("reused", 1, pool.getIdleCount());
+    }
+
+    /**
+     * Overridden from TestCase parent. This method will kick off each
+     * individual test
+     *
+     * @exception Throwable if a test fails unexpectedly
+     */
+    public void runTests() throws Throwable {
+        declare("testHitsAndMisses");
+        testHitsAndMisses();
+
+        declare("testHostLimit");
+        testHostLimit();
+
+        declare("testPoolLimit");
+        testPoolLimit();
+
+        declare("testValidation");
+        testValidation();
+
+        declare("testLinger");
+        testLinger();
+
+        declare("testPipelineQueue");
+        testPipelineQueue();
+
+        declare("testBrokenPipeline");
+        testBrokenPipeline();
+
+        declare("testPipelineHostLimit");
+        testPipelineHostLimit();
+
+        declare("testPipelineTimeout");
+        testPipelineTimeout();
+
+        declare("testPipelineWriteTimeout");
+        testPipelineWriteTimeout();
+    }
+}
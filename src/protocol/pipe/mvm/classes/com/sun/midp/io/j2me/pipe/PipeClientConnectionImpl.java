@@ -31,6 +31,7 @@ import com.sun.midp.io.pipe.PipeConnection;
 import com.sun.midp.links.ClosedLinkException;
 import com.sun.midp.links.Link;
 import com.sun.midp.links.LinkMessage;
+import com.sun.midp.main.Configuration;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InterruptedIOException;
@@ -43,11 +44,24 @@ import javax.microedition.io.Connector;
  * Implementation of PipeConnection interface. Uses Links as bearer. Uses
  * com.sun.midp.io.j2me.pipe.serviceProtocol.* for organazing messaging over
  * bearer.
+ * <p>
+ * A link message is only sent when the receiving side receives it, so the
+ * receiver stops receiving once the data it holds reaches the receive
+ * window: a writer faster than the reader then blocks in send until the
+ * reader makes room. Small writes are gathered in an output buffer and sent
+ * as one message when it fills, on flush, on close, or before a read of the
+ * same connection has to wait for data.
  */
 class PipeClientConnectionImpl extends ConnectionBaseAdapter implements PipeConnection {
 
     private static final boolean DEBUG = false;
     private static final String CLOSE_OUTPUT_COMMAND = "closeOutputStream";
+    /** Bytes received and not yet read above which receiving stops. */
+    static int receiveWindow = Configuration.getNonNegativeIntProperty(
+            "com.sun.midp.io.pipe.receive_window", 8192);
+    /** Size of the buffer gathering small writes, 0 for no buffering. */
+    static int outputBufferSize = Configuration.getNonNegativeIntProperty(
+            "com.sun.midp.io.pipe.output_buffer_size", 512);
     private PipeServiceProtocol pipe;
     private SecurityToken token;
     private Object suiteId;
@@ -62,6 +76,8 @@ class PipeClientConnectionImpl extends ConnectionBaseAdapter implements PipeConn
     private IOException receiveStatus = new IOException();
     private int receiveQueueByteCount;
     private boolean receivedEOF;
+    private byte[] sendBuffer = new byte[outputBufferSize];
+    private int sendCount;
 
     PipeClientConnectionImpl(SecurityToken token, PipeServiceProtocol pipe) {
         this.pipe = pipe;
@@ -110,6 +126,13 @@ class PipeClientConnectionImpl extends ConnectionBaseAdapter implements PipeConn
             // input was closed by application, not because of receiver failure
             receiveStatus = new IOException();
         }
+
+        if (receiver != null) {
+            synchronized (receiver) {
+                // the receiver may be waiting for room in the window
+                receiver.notifyAll();
+            }
+        }
     }
 
     protected void notifyClosedOutput() {
@@ -136,8 +159,10 @@ class PipeClientConnectionImpl extends ConnectionBaseAdapter implements PipeConn
         if (DEBUG)
             debugPrint("disconnected");
 
-        synchronized (receiver) {
-            receiver.notify();
+        if (receiver != null) {
+            synchronized (receiver) {
+                receiver.notifyAll();
+            }
         }
     }
 
@@ -164,13 +189,19 @@ class PipeClientConnectionImpl extends ConnectionBaseAdapter implements PipeConn
             throw receiveStatus;
         }
 
+        if (receiveQueue.size() == 0) {
+            // the peer may be waiting for what was written before this read
+            sendBuffered();
+        }
+
         int originalOffset = off;
         synchronized (receiver) {
 
             while (len > 0) {
                 if (receiveQueue.size() == 0) {
                     // need more bytes, check if receiver is running
-                    if (receiveStatus == null && !receivedEOF) {
+                    while (receiveQueue.size() == 0 &&
+                            receiveStatus == null && !receivedEOF) {
                         // fine, now wait for data to come
                         if (DEBUG)
                             debugPrint("readBytes: waiting for Receiver");
@@ -188,7 +219,7 @@ class PipeClientConnectionImpl extends ConnectionBaseAdapter implements PipeConn
 
                     // check receiver status once more finish processing if no more
                     // data could be obtained
-                    if (receiveStatus != null || receivedEOF) {
+                    if (receiveQueue.size() == 0) {
                         if (DEBUG)
                             debugPrint("readBytes: Receiver finshed with " + receiveStatus);
                         // we've got receiver stopped and no more data. close input
@@ -226,6 +257,9 @@ class PipeClientConnectionImpl extends ConnectionBaseAdapter implements PipeConn
                 off += chunkSize;
                 receiveQueueByteCount -= chunkSize;
 
+                // there may be room in the window for the receiver now
+                receiver.notifyAll();
+
                 if (receiveQueue.size() == 0) {
                     // check if we've provided requested data
                     // readBytes should block only if no data is available
@@ -259,26 +293,74 @@ class PipeClientConnectionImpl extends ConnectionBaseAdapter implements PipeConn
         if (len == 0)
             return 0;
 
-        LinkMessage lm = LinkMessage.newDataMessage(b, off, len);
-        if (DEBUG)
-            debugPrint("writeBytes: sending message");
-        sendLink.send(lm);
+        synchronized (sendBuffer) {
+            if (len >= sendBuffer.length) {
+                // too large to gather, send it as it is after what is buffered
+                sendBuffered();
+
+                LinkMessage lm = LinkMessage.newDataMessage(b, off, len);
+                if (DEBUG)
+                    debugPrint("writeBytes: sending message");
+                sendLink.send(lm);
+            } else {
+                if (sendCount + len > sendBuffer.length) {
+                    sendBuffered();
+                }
+
+                System.arraycopy(b, off, sendBuffer, sendCount, len);
+                sendCount += len;
+            }
+        }
 
         if (DEBUG)
             debugPrint("writeBytes: wrote " + len + " bytes");
         return len;
     }
 
+    protected void flush() throws IOException {
+        sendBuffered();
+    }
+
+    /**
+     * Sends the bytes gathered in the output buffer as one message.
+     *
+     * @exception IOException if the message cannot be sent
+     */
+    private void sendBuffered() throws IOException {
+        synchronized (sendBuffer) {
+            if (sendCount == 0) {
+                return;
+            }
+
+            LinkMessage lm = LinkMessage.newDataMessage(sendBuffer, 0, sendCount);
+            if (DEBUG)
+                debugPrint("sendBuffered: sending " + sendCount + " bytes");
+
+            /*
+             * The link has received the message once send returns, so the
+             * buffer can be reused.
+             */
+            sendCount = 0;
+            sendLink.send(lm);
+        }
+    }
+
     protected void closeOutputStream() throws IOException {
-        if (sendLink.isOpen()) {
-            try {
-                LinkMessage lm = LinkMessage.newStringMessage(CLOSE_OUTPUT_COMMAND);
-                sendLink.send(lm);
-            } catch (IOException ex) {
-                // ignore
+        try {
+            if (sendLink.isOpen()) {
+                sendBuffered();
             }
+        } finally {
+            if (sendLink.isOpen()) {
+                try {
+                    LinkMessage lm = LinkMessage.newStringMessage(CLOSE_OUTPUT_COMMAND);
+                    sendLink.send(lm);
+                } catch (IOException ex) {
+                    // ignore
+                }
+            }
+            super.closeOutputStream();
         }
-        super.closeOutputStream();
     }
 
     public String getRequestedServerVersion() {
@@ -296,6 +378,24 @@ class PipeClientConnectionImpl extends ConnectionBaseAdapter implements PipeConn
             while (!receivedEOF && receiveStatus == null) {
                 LinkMessage lm;
                 byte[] data = null;
+
+                synchronized (this) {
+                    // hold the sender until the reader makes room
+                    while (receiveQueueByteCount >= receiveWindow &&
+                            !receivedEOF && receiveStatus == null) {
+                        try {
+                            wait();
+                        } catch (InterruptedException ex) {
+                            receiveStatus = new InterruptedIOException(ex.toString());
+                        }
+                    }
+
+                    if (receivedEOF || receiveStatus != null) {
+                        notifyAll();
+                        break;
+                    }
+                }
+
                 try {
                     if (DEBUG)
                         debugPrint("Receiver waiting");
@@ -329,7 +429,7 @@ class PipeClientConnectionImpl extends ConnectionBaseAdapter implements PipeConn
                         receiveQueue.addElement(data);
                         receiveQueueByteCount += data.length;
                     }
-                    notify();
+                    notifyAll();
                 }
             }
             if (DEBUG)
@@ -34,7 +34,9 @@ import com.sun.midp.services.SystemServiceManager;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.util.Vector;
 import javax.microedition.io.Connector;
 
@@ -247,6 +249,139 @@ public class TestPipeConnection extends TestCase {
         manager.shutdown();
     }
 
+    void testFlowControl() throws IOException, InterruptedException {
+        PipeServiceProtocol.registerService(token);
+
+        final int total = PipeClientConnectionImpl.receiveWindow * 8 + 8192;
+        final int[] written = new int[1];
+
+        Thread writerThread = new Thread(new Server() {
+
+            void communicate(PipeConnection dataConn) throws IOException {
+                OutputStream out = dataConn.openOutputStream();
+                byte[] chunk = new byte[1024];
+
+                while (written[0] < total) {
+                    out.write(chunk);
+                    written[0] += chunk.length;
+                }
+                out.close();
+            }
+        });
+        writerThread.start();
+
+        Thread.sleep(100);
+
+        try {
+            PipeConnection clientConn =
+                    (PipeConnection) Connector.open("pipe://*:TestPipeConnection:1.0;");
+
+            // give the writer time to fill the receive window
+            Thread.sleep(300);
+            assertTrue("Writer should have been held by the receive window",
+                    written[0] < total);
+
+            InputStream in = clientConn.openInputStream();
+            byte[] buf = new byte[1000];
+            int count = 0;
+            int n;
+
+            while ((n = in.read(buf)) != -1) {
+                count += n;
+            }
+            assertEquals("invalid number of bytes read", total, count);
+            clientConn.close();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            fail(ex.toString());
+        }
+
+        writerThread.join();
+
+        SystemServiceManager manager = SystemServiceManager.getInstance(token);
+        manager.shutdown();
+    }
+
+    void testTransferRate() throws IOException, InterruptedException {
+        PipeServiceProtocol.registerService(token);
+
+        final int roundTrips = 1000;
+        final int megabytes = 4;
+
+        Thread serverThread = new Thread(new Server() {
+
+            void communicate(PipeConnection dataConn) throws IOException {
+                DataInputStream in = dataConn.openDataInputStream();
+                DataOutputStream out = dataConn.openDataOutputStream();
+
+                for (int i = 0; i < roundTrips; i++) {
+                    out.writeInt(in.readInt() + 1);
+                }
+                out.close();
+
+                byte[] buf = new byte[4096];
+                int count = 0;
+                int n;
+
+                while ((n = in.read(buf)) != -1) {
+                    count += n;
+                }
+                assertEquals("invalid number of bytes read",
+                        megabytes * 1024 * 1024, count);
+            }
+        });
+        serverThread.start();
+
+        Thread.sleep(100);
+
+        try {
+            PipeConnection clientConn =
+                    (PipeConnection) Connector.open("pipe://*:TestPipeConnection:1.0;");
+
+            DataInputStream in = clientConn.openDataInputStream();
+            DataOutputStream out = clientConn.openDataOutputStream();
+
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < roundTrips; i++) {
+                out.writeInt(i);
+                assertEquals("invalid response", i + 1, in.readInt());
+            }
+            long time = System.currentTimeMillis() - start;
+            info(roundTrips + " round trips in " + time + " ms");
+
+            byte[] chunk = new byte[256];
+
+            start = System.currentTimeMillis();
+            for (int i = 0; i < megabytes * 4096; i++) {
+                out.write(chunk);
+            }
+            out.close();
+            serverThread.join();
+            time = System.currentTimeMillis() - start;
+            info(megabytes + " MB in 256 byte writes in " + time + " ms, " +
+                 rate(megabytes * 1024 * 1024, time) + " MB/s");
+
+            clientConn.close();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            fail(ex.toString());
+        }
+
+        SystemServiceManager manager = SystemServiceManager.getInstance(token);
+        manager.shutdown();
+    }
+
+    /**
+     * Formats bytes per milliseconds as MB/s.
+     */
+    static String rate(int bytes, long ms) {
+        if (ms <= 0) {
+            ms = 1;
+        }
+        long kbps = (bytes * 1000L / ms) / 1024;
+        return (kbps / 1024) + "." + ((kbps % 1024) * 10 / 1024);
+    }
+
     public void runTests() throws Throwable {
         declare("testConnectionOpenClose");
         testConnectionOpenClose();
@@ -262,5 +397,11 @@ public class TestPipeConnection extends TestCase {
         
         declare("testLocalTransferDeferredOpen");
         testLocalTransferDeferredOpen();
+
+        declare("testFlowControl");
+        testFlowControl();
+
+        declare("testTransferRate");
+        testTransferRate();
     }
 }
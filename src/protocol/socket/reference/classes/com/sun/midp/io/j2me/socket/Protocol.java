@@ -38,6 +38,7 @@ import com.sun.j2me.security.AccessController;
 import com.sun.j2me.security.InterruptedSecurityException;
 
 import com.sun.midp.io.NetworkConnectionBase;
+import com.sun.midp.io.HostCache;
 import com.sun.midp.io.HttpUrl;
 import com.sun.midp.io.Util;
 
@@ -262,7 +263,7 @@ public class Protocol extends NetworkConnectionBase
             throw new IllegalArgumentException("Missing port number");
         }
 
-        result = getIpNumber0(host, ipBytes);
+        result = getIpNumber(host);
         if (result == -1) {
             throw new
                 ConnectionNotFoundException("Could not resolve hostname");
@@ -280,12 +281,60 @@ public class Protocol extends NetworkConnectionBase
                 "Target port denied to untrusted applications");
         }
 
-        open0(ipBytes, port);
+        try {
+            open0(ipBytes, port);
+        } catch (IOException ioe) {
+            // the server may have moved, resolve the name again next time
+            HostCache.getInstance().invalidate(host);
+            throw ioe;
+        }
 
         NetworkSubsystem.getInstance(classSecurityToken).
                 registerSubsystem(this);
     }
 
+    /**
+     * Gets the address of a host into <code>ipBytes</code>, from the host
+     * cache or by resolving the name.
+     *
+     * @param name the host name
+     *
+     * @return number of bytes of the address or -1 if the name does not
+     *         resolve
+     *
+     * @exception InterruptedIOException if the thread is interrupted
+     *            while another thread resolves the name
+     */
+    private int getIpNumber(String name) throws InterruptedIOException {
+        HostCache cache = HostCache.getInstance();
+        byte[] address = cache.lookup(name);
+        int result = -1;
+
+        if (address == HostCache.UNRESOLVED) {
+            return -1;
+        }
+
+        if (address != null) {
+            System.arraycopy(address, 0, ipBytes, 0, address.length);
+            return address.length;
+        }
+
+        try {
+            result = getIpNumber0(name, ipBytes);
+        } finally {
+            if (result == -1) {
+                cache.resolved(name, null);
+            } else {
+                byte[] resolved = new byte[result];
+
+                System.arraycopy(ipBytes, 0, resolved, 0, result);
+                cache.resolved(name, resolved);
+            }
+        }
+
+        return result;
+    }
+
     /**
      * Create a Java connection object from an open TCP socket.
      * This method is only used by com.sun.midp.io.j2me.serversocket.Socket;
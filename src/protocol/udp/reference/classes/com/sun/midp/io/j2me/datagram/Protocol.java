@@ -40,6 +40,7 @@ import com.sun.j2me.security.AccessController;
 import com.sun.j2me.security.InterruptedSecurityException;
 
 import com.sun.midp.io.NetworkConnectionBase;
+import com.sun.midp.io.HostCache;
 import com.sun.midp.io.HttpUrl;
 import com.sun.midp.io.Util;
 
@@ -382,7 +383,7 @@ public class Protocol implements UDPDatagramConnection,
                     throw new IOException("Missing port");
                 }
 
-                ipNumber = getIpNumber(locHost);
+                ipNumber = getCachedIpNumber(locHost);
 
                 if (ipNumber == -1) {
                     throw new IOException("Invalid host");
@@ -739,6 +740,51 @@ public class Protocol implements UDPDatagramConnection,
      */
     public static native int getIpNumber(String sHost);
 
+    /**
+     * Get a raw IPv4 address for the given hostname through the host
+     * cache shared with the socket protocol. The raw address is in the
+     * byte order of the platform, so the names looked up here are kept
+     * apart from the names of the socket protocol.
+     *
+     * @param sHost the hostname to lookup
+     * @return raw IPv4 address or -1 if there was an error
+     */
+    static int getCachedIpNumber(String sHost) {
+        HostCache cache = HostCache.getInstance();
+        String name = "datagram:" + sHost;
+        byte[] address;
+        int ipn = -1;
+
+        try {
+            address = cache.lookup(name);
+        } catch (InterruptedIOException iioe) {
+            // do not wait for the other thread
+            return getIpNumber(sHost);
+        }
+
+        if (address == HostCache.UNRESOLVED) {
+            return -1;
+        }
+
+        if (address != null) {
+            return ((address[0] & 0xff) << 24) | ((address[1] & 0xff) << 16) |
+                ((address[2] & 0xff) << 8) | (address[3] & 0xff);
+        }
+
+        try {
+            ipn = getIpNumber(sHost);
+        } finally {
+            if (ipn == -1) {
+                cache.resolved(name, null);
+            } else {
+                cache.resolved(name, new byte[] {(byte)(ipn >>> 24),
+                    (byte)(ipn >>> 16), (byte)(ipn >>> 8), (byte)ipn});
+            }
+        }
+
+        return ipn;
+    }
+
     /**
      * Get the maximum length of a datagram.
      *
@@ -84,6 +84,9 @@ class RecordStoreIndex {
     /** specifies record ID to offset mapping */
     private OffsetCache recordIdOffsets;
 
+    /** the free blocks of the record store */
+    private FreeBlockIndex freeBlocks;
+
     /** 
      * Specifies the version of record store for which this index is valid.
      * Index becomes invalid if another MIDlet changes the record store.
@@ -116,6 +119,7 @@ class RecordStoreIndex {
                      String recordStoreName) throws IOException {
         recordStore = rs;
         dbFile = rs.getDbFile();
+        freeBlocks = new FreeBlockIndex(rs, dbFile);
 
         indexVersion = 0;
         try {
@@ -361,59 +365,40 @@ class RecordStoreIndex {
      * @return the offset in the db file of the block added
      */
     int getFreeBlock(byte[] header) throws IOException {
-        int targetSize = RecordStoreUtil.
-            calculateBlockSize(RecordStoreUtil.getInt(header, 4));
-        int currentId = 0;
-        int currentOffset = AbstractRecordStoreImpl.DB_HEADER_SIZE;
-        int currentSize = 0;
-
         if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
             Logging.report(Logging.INFORMATION, LogChannels.LC_RMS,
                            "getFreeBlock recordId = " +
                            RecordStoreUtil.getInt(header, 0) +
-                           " numBytes = " + RecordStoreUtil.getInt(header, 4) +
-                           " targetSize = " + targetSize);
+                           " numBytes = " + RecordStoreUtil.getInt(header, 4));
         }
 
-        // search through the data blocks for a free block that is large enough
-        while (currentOffset < recordStore.getSize()) {
-            // seek to the next offset
-            dbFile.seek(currentOffset);
-
-            // read the block header
-            if (dbFile.read(header) !=
-                AbstractRecordStoreImpl.BLOCK_HEADER_SIZE) {
-                // did not find the recordId
-                throw new IOException();
-            }
-
-            currentId = RecordStoreUtil.getInt(header, 0);
-            currentSize = RecordStoreUtil.
-                calculateBlockSize(RecordStoreUtil.getInt(header, 4));
-
-            if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
-                Logging.report(Logging.INFORMATION, LogChannels.LC_RMS,
-                               "currentId = " + currentId +
-                               " currentSize = " + currentSize);
-            }
-
-            // check for a free block big enough to hold the data
-            if (currentId < 0 && currentSize >= targetSize) {
-                if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
-                    Logging.report(Logging.INFORMATION, LogChannels.LC_RMS,
-                                   "found free block at offset " +
-                                   currentOffset);
-                }
+        int blockOffset = freeBlocks.getFreeBlock(header);
 
-                // a free block
-                return currentOffset;
-            }
-
-            // added the block size to the currentOffset
-            currentOffset += currentSize;
+        if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
+            Logging.report(Logging.INFORMATION, LogChannels.LC_RMS,
+                           "found free block at offset " + blockOffset);
         }
 
-        return 0;
+        return blockOffset;
+    }
+
+    /**
+     * Searches for a free block that ends at the given block.
+     *
+     *  Called from RecordStoreImpl.freeBlock()
+     *  to merge the block with the free block before it.
+     *
+     * @param blockOffset the offset in db file of the block
+     * @param header receives the header of the free block
+     *
+     * @exception IOException if there is an error accessing the db file
+     *
+     * @return the offset in the db file of the free block or 0 if
+     *         the preceding block is not free
+     */
+    int getFreeBlockBefore(int blockOffset, byte[] header)
+        throws IOException {
+        return freeBlocks.getFreeBlockBefore(blockOffset, header);
     }
 
     /**
@@ -440,6 +425,7 @@ class RecordStoreIndex {
         }
 
         ensureIndexValidity();
+        freeBlocks.blockUpdated(blockOffset, header);
 
         int recordId = RecordStoreUtil.getInt(header, 0);
         if (null != recordIdOffsets) {
@@ -468,6 +454,7 @@ class RecordStoreIndex {
         }
 
         ensureIndexValidity();
+        freeBlocks.blockRemoved(blockOffset);
 
         // blocks get moved, LastSeenOffset may point into the middle
         // of a record.
@@ -510,6 +497,16 @@ class RecordStoreIndex {
         indexVersion = newVersion;
     }
 
+    /**
+     * Called when the db file may have been changed by another MIDlet
+     * without changing the record store version, for example when
+     * blocks were moved by compaction.
+     */
+    void recordStoreChanged() {
+        invalidateIndex();
+        freeBlocks.invalidate();
+    }
+
     /**
      * Ensures index validity. Index becomes invalid when another 
      * MIDlet changes the record store.
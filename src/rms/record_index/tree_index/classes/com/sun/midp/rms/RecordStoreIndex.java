@@ -30,12 +30,22 @@ import java.io.IOException;
 
 import javax.microedition.rms.*;
 
+import com.sun.midp.main.Configuration;
 import com.sun.midp.log.Logging;
 import com.sun.midp.log.LogChannels;
 
 /**
  * A class implementing a index of the record store.
  *
+ * The recordIds are kept in a B+tree stored in the index file. Record
+ * block offsets are held in the leaves only and the leaves are linked
+ * in recordId order, so the list of recordIds is read by walking the
+ * leaves. The most recently used tree nodes are cached in memory.
+ *
+ * If the index file is missing or does not match the database file,
+ * the tree is rebuilt from the database file in one sequential pass.
+ * Free blocks are kept in a <code>FreeBlockIndex</code> in memory.
+ *
  *  Methods used by the RecordStoreImpl
  *      close()
  *      deleteIndex()
@@ -45,19 +55,39 @@ import com.sun.midp.log.LogChannels;
  *      updateBlock()
  *      deleteRecordIndex()
  *      removeBlock()
+ *      getFreeBlockBefore()
+ *      recordStoreVersionUpdated()
+ *      recordStoreChanged()
  *
  */
 
 class RecordStoreIndex {
     /*
-     * The layout of the database file is as follows:
+     * The layout of the index file is as follows:
      *
      * Bytes - Usage
      * 00-03 - Size of index file (big endian)
      * 04-07 - Offset to recordId tree root (big endian)
-     * 08-11 - Offset to free block tree root (big endian)
-     * 12-15 - Offset to the list of free tree blocks (big endian)
-     * 16-xx - Tree Blocks
+     * 08-11 - Offset to free block tree root, not used (big endian)
+     * 12-15 - Offset to the list of free tree nodes (big endian)
+     * 16-19 - Offset to the first leaf of the recordId tree (big endian)
+     * 20-23 - Maximum number of keys in a tree node (big endian)
+     * 24-27 - Version of the record store the index matches or -1
+     *         while the index is being changed (big endian)
+     * 28-31 - Index file signature (big endian)
+     * 32-xx - Tree nodes
+     *
+     * The layout of a tree node is as follows:
+     *
+     * Bytes - Usage
+     * 00-03 - Node type, NODE_LEAF or NODE_INNER (big endian)
+     * 04-07 - Number of keys in the node (big endian)
+     * 08-11 - Leaf: offset to the next leaf or 0 (big endian)
+     *         Inner node: offset to the child holding the keys
+     *         less than the first key (big endian)
+     * 12-xx - Leaf: recordId, block offset pairs (big endian)
+     *         Inner node: key, offset to the child holding the keys
+     *         greater than or equal to the key pairs (big endian)
      */
 
     /** IDX_SIZE offset */
@@ -72,14 +102,61 @@ class RecordStoreIndex {
     /** IDX_FREE_NODES offset */
     static final int IDX3_FREE_NODE_HEAD = 12;
 
+    /** IDX_FIRST_LEAF offset */
+    static final int IDX4_FIRST_LEAF = 16;
+
+    /** IDX_NODE_ELEMENTS offset */
+    static final int IDX5_NODE_ELEMENTS = 20;
+
+    /** IDX_VERSION offset */
+    static final int IDX6_VERSION = 24;
+
+    /** IDX_SIGNATURE offset */
+    static final int IDX7_SIGNATURE = 28;
+
     /** Size of the index header */
-    static final int IDX_HEADER_SIZE = 16;
+    static final int IDX_HEADER_SIZE = 32;
+
+    /** Signature of the index file */
+    static final int IDX_SIGNATURE = 0x6D696478;
+
+    /** Type of a leaf node */
+    static final int NODE_LEAF = 1;
+
+    /** Type of an inner node */
+    static final int NODE_INNER = 2;
 
-    /** The maximum number of data elements in each  node */
-    static final int NODE_ELEMENTS = 8;
+    /** Size of the header of a tree node */
+    static final int NODE_HEADER_SIZE = 12;
 
-    /** The size of the tree blocks */
-    static final int NODE_SIZE = 4 + (NODE_ELEMENTS * (4 + 4 + 4));
+    /** The smallest allowed number of keys in a node */
+    static final int MIN_NODE_ELEMENTS = 4;
+
+    /**
+     * The maximum number of keys in each node, set by the
+     * <code>com.sun.midp.rms.indexNodeElements</code> property.
+     * An existing index file with a different node size is rebuilt.
+     */
+    static final int NODE_ELEMENTS = Math.max(MIN_NODE_ELEMENTS,
+        Configuration.getNonNegativeIntProperty(
+            "com.sun.midp.rms.indexNodeElements", 64));
+
+    /** The minimum number of keys in each node except the root */
+    static final int MIN_KEYS = NODE_ELEMENTS / 2;
+
+    /** The size of the tree nodes */
+    static final int NODE_SIZE = NODE_HEADER_SIZE + (NODE_ELEMENTS * (4 + 4));
+
+    /** The smallest allowed number of cached nodes */
+    static final int MIN_CACHE_NODES = 8;
+
+    /**
+     * The number of tree nodes cached in memory, set by the
+     * <code>com.sun.midp.rms.indexCacheSize</code> property.
+     */
+    static final int CACHE_NODES = Math.max(MIN_CACHE_NODES,
+        Configuration.getNonNegativeIntProperty(
+            "com.sun.midp.rms.indexCacheSize", 16));
 
     /** The Record Store that this object indexes */
     private AbstractRecordStoreImpl recordStore;
@@ -93,9 +170,55 @@ class RecordStoreIndex {
     /** The header of the index file */
     private byte[] idxHeader = new byte[IDX_HEADER_SIZE];
 
-    /** The node buffer for initializing nodes */
+    /** The node buffer for reading and writing nodes */
     private byte[] nodeBuf = new byte[NODE_SIZE];
 
+    /**
+     * Specifies the version of record store for which this index is valid.
+     * The cached nodes become invalid if another MIDlet changes the
+     * record store.
+     */
+    private int indexVersion;
+
+    /** True if the index file was changed since its version was written */
+    private boolean indexChanging;
+
+    /** True if the index file may have been changed by another MIDlet */
+    private boolean indexStale;
+
+    /** The free blocks of the record store */
+    private FreeBlockIndex freeBlocks;
+
+    /** The cached tree nodes */
+    private Node[] cache = new Node[CACHE_NODES];
+
+    /** Counter used to find the least recently used node */
+    private int useClock;
+
+    /** Number of node requests served from the cache */
+    private int hits;
+
+    /** Number of node requests that had to read the index file */
+    private int misses;
+
+    /** Node used to read leaves not in the cache during a leaf scan */
+    private Node scanNode = new Node();
+
+    /** Offsets of the nodes on the path from the root to a leaf */
+    private int[] pathOffsets = new int[4];
+
+    /** Indexes of the children taken on the path from the root */
+    private int[] pathIndexes = new int[4];
+
+    /** Number of nodes on the path */
+    private int pathDepth;
+
+    /** Nodes being filled on each tree level during a bulk load */
+    private Node[] bulkNodes;
+
+    /** Number of tree levels during a bulk load */
+    private int bulkHeight;
+
     /**
      * Constructor for creating an index object for the given Record Store.
      *
@@ -108,31 +231,28 @@ class RecordStoreIndex {
     RecordStoreIndex(AbstractRecordStoreImpl rs, int suiteId,
                      String recordStoreName) throws IOException {
         recordStore = rs;
-        if (rs != null) {
-            dbFile = rs.getDbFile();
+        dbFile = rs.getDbFile();
+        freeBlocks = new FreeBlockIndex(rs, dbFile);
+
+        indexVersion = 0;
+        try {
+            indexVersion = rs.getVersion();
+        } catch (Exception e) {
+            // ignore
         }
 
         boolean exist =
-          RecordStoreUtil.exists(suiteId, recordStoreName,
+          RecordStoreUtil.exists(RmsEnvironment.getSecureFilenameBase(suiteId),
+                                 recordStoreName,
                                  AbstractRecordStoreFile.IDX_EXTENSION);
 
         idxFile = rs.createIndexFile(suiteId, recordStoreName);
 
-        if (exist) {
-            // load header
-            if (idxFile.read(idxHeader) != IDX_HEADER_SIZE) {
-               throw new IOException("Index file corrupted");
-            }
-        } else {
-            RecordStoreUtil.putInt(IDX_HEADER_SIZE + NODE_SIZE * 2,
-                                   idxHeader, IDX0_SIZE);
-            RecordStoreUtil.putInt(IDX_HEADER_SIZE, idxHeader, IDX1_ID_ROOT);
-            RecordStoreUtil.putInt(IDX_HEADER_SIZE + NODE_SIZE,
-                                   idxHeader, IDX2_FREE_BLOCK_ROOT);
-            idxFile.write(idxHeader);
-            idxFile.write(nodeBuf);
-            idxFile.write(nodeBuf);
-            idxFile.commitWrite();
+        if (!exist || !loadHeader() ||
+                RecordStoreUtil.getInt(idxHeader, IDX6_VERSION) !=
+                    indexVersion) {
+            // the index is missing, has another format or is out of date
+            rebuildIndex();
         }
     }
 
@@ -142,7 +262,21 @@ class RecordStoreIndex {
      * @exception IOException if there are any file errors
      */
     void close() throws IOException {
-        idxFile.close();
+        if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
+            Logging.report(Logging.INFORMATION, LogChannels.LC_RMS,
+                           "index node cache: hits = " + hits +
+                           " misses = " + misses);
+        }
+
+        try {
+            if (indexChanging) {
+                ensureIndexValidity();
+                writeVersion(indexVersion);
+            }
+        } finally {
+            clearCache();
+            idxFile.close();
+        }
     }
 
     /**
@@ -156,13 +290,15 @@ class RecordStoreIndex {
      *         <code>false</code> otherwise.
      */
     static boolean deleteIndex(int suiteId, String recordStoreName) {
-        return RecordStoreUtil.quietDeleteFile(suiteId,
+        return RecordStoreUtil.quietDeleteFile(
+                                   RmsEnvironment.getSecureFilenameBase(suiteId),
                                    recordStoreName,
                                    AbstractRecordStoreFile.IDX_EXTENSION);
     }
 
     /**
      * Returns all of the recordId's currently in the record store index.
+     * The recordId's are in ascending order.
      *
      * @return an array of the recordId's currently in the index.
      */
@@ -170,7 +306,19 @@ class RecordStoreIndex {
         int count = recordStore.getNumRecords();
 
         int[] recordIdList = new int[count];
-        getRecordIds(recordIdList);
+        int found = getRecordIds(recordIdList);
+
+        if (found < count) {
+            if (Logging.REPORT_LEVEL <= Logging.WARNING) {
+                Logging.report(Logging.WARNING, LogChannels.LC_RMS,
+                               "index has " + found + " of " + count +
+                               " records");
+            }
+
+            int[] temp = new int[found];
+            System.arraycopy(recordIdList, 0, temp, 0, found);
+            recordIdList = temp;
+        }
 
         return recordIdList;
     }
@@ -188,10 +336,26 @@ class RecordStoreIndex {
         int count = 0;
 
         try {
-            Node node = new Node(idxFile);
-            node.load(getRecordIdRootOffset());
+            ensureIndexValidity();
+
+            // walk the linked leaves, without pushing them into the cache
+            int offset = RecordStoreUtil.getInt(idxHeader, IDX4_FIRST_LEAF);
+            while (offset > 0 && count < recordIdList.length) {
+                Node node = findCachedNode(offset);
+                if (node == null) {
+                    node = scanNode;
+                    readNode(offset, node);
+                }
+
+                int n = node.numKeys;
+                if (n > recordIdList.length - count) {
+                    n = recordIdList.length - count;
+                }
 
-            count = walk(node, recordIdList, 0);
+                System.arraycopy(node.key, 0, recordIdList, count, n);
+                count += n;
+                offset = node.next;
+            }
         } catch (IOException e) {
             if (Logging.REPORT_LEVEL <= Logging.ERROR) {
                 Logging.report(Logging.ERROR, LogChannels.LC_RMS,
@@ -221,20 +385,28 @@ class RecordStoreIndex {
             throw new InvalidRecordIDException("error finding record data");
         }
 
-        int loc_offset = getBlockOffsetOfRecord(recordId);
+        ensureIndexValidity();
+
+        int loc_offset = getKeyValue(recordId);
 
         if (loc_offset == 0) {
             // did not find the recordId
             throw new InvalidRecordIDException();
         }
 
-        // read the header
-        dbFile.seek(loc_offset);
-
-        // read the block header
-        if (dbFile.read(header) != AbstractRecordStoreImpl.BLOCK_HEADER_SIZE) {
-            // did not find the recordId
-            throw new InvalidRecordIDException();
+        if (!readRecordHeader(loc_offset, recordId, header)) {
+            /*
+             * The index does not match the db file, another MIDlet
+             * may have moved the blocks without changing the record
+             * store version. Rebuild the index and try again.
+             */
+            rebuildIndex();
+
+            loc_offset = getKeyValue(recordId);
+            if (loc_offset == 0 ||
+                    !readRecordHeader(loc_offset, recordId, header)) {
+                throw new InvalidRecordIDException();
+            }
         }
 
         return loc_offset;
@@ -253,10 +425,9 @@ class RecordStoreIndex {
     int getBlockOffsetOfRecord(int recordId)
         throws IOException, InvalidRecordIDException {
 
-        Node node = new Node(idxFile);
-        node.load(getRecordIdRootOffset());
+        ensureIndexValidity();
 
-        int loc_offset = getKeyValue(node, recordId);
+        int loc_offset = getKeyValue(recordId);
 
         if (loc_offset == 0) {
             // did not find the recordId
@@ -277,6 +448,8 @@ class RecordStoreIndex {
     void updateBlock(int blockOffset, byte[] header) throws IOException {
         int recordId = RecordStoreUtil.getInt(header, 0);
 
+        freeBlocks.blockUpdated(blockOffset, header);
+
         if (recordId > 0) {
             updateRecordId(recordId, blockOffset);
         }
@@ -292,17 +465,10 @@ class RecordStoreIndex {
      * @exception IOException if there is an error accessing the index file
      */
     void updateRecordId(int recordId, int blockOffset) throws IOException {
-        Node node = new Node(idxFile);
-        node.load(getRecordIdRootOffset());
+        ensureIndexValidity();
+        beginChange();
 
-        // update the key
-        int newOffset = updateKey(node, recordId, blockOffset);
-
-        // check if a new root node was added
-        if (newOffset > 0) {
-            // save the new root node offset
-            setRecordIdRootOffset(newOffset);
-        }
+        updateKey(recordId, blockOffset);
     }
 
     /**
@@ -313,21 +479,10 @@ class RecordStoreIndex {
      * @exception IOException if there is an error accessing the db index
      */
     void deleteRecordIndex(int recordId) throws IOException {
-        int rootOffset = getRecordIdRootOffset();
-        Node node = new Node(idxFile);
-        node.load(rootOffset);
-
-        // find the key's node
-        int loc_offset = deleteKey(node, recordId);
+        ensureIndexValidity();
+        beginChange();
 
-        // check if the offset of a new root was returned
-        if (loc_offset > 0) {
-            // new root, free old one
-            freeNode(rootOffset);
-
-            // save the new root
-            setRecordIdRootOffset(loc_offset);
-        }
+        deleteKey(recordId);
     }
 
     /**
@@ -340,49 +495,252 @@ class RecordStoreIndex {
      * @return the offset in the db file of the block added
      */
     int getFreeBlock(byte[] header) throws IOException {
-        int targetSize = RecordStoreUtil.
-            calculateBlockSize(RecordStoreUtil.getInt(header, 4));
-        int currentId = 0;
+        return freeBlocks.getFreeBlock(header);
+    }
+
+    /**
+     * Searches for a free block that ends at the given block.
+     *
+     * @param blockOffset the offset in db file of the block
+     * @param header receives the header of the free block
+     *
+     * @exception IOException if there is an error accessing the db file
+     *
+     * @return the offset in the db file of the free block or 0 if
+     *         the preceding block is not free
+     */
+    int getFreeBlockBefore(int blockOffset, byte[] header)
+        throws IOException {
+        return freeBlocks.getFreeBlockBefore(blockOffset, header);
+    }
+
+    /**
+     * Removes the given block from the list of free blocks.
+     *
+     * @param blockOffset the offset in db file to the block to remove
+     * @param header the header of the block to remove
+     *
+     * @exception IOException if there is an error accessing the db file
+     */
+    void removeBlock(int blockOffset, byte[] header) throws IOException {
+        freeBlocks.blockRemoved(blockOffset);
+    }
+
+    /**
+     * Called when record store version has been updated. Marks the index
+     * file as matching the new version.
+     *
+     * @param newVersion new record store version
+     */
+    void recordStoreVersionUpdated(int newVersion) {
+        indexVersion = newVersion;
+
+        try {
+            writeVersion(newVersion);
+        } catch (IOException ioe) {
+            if (Logging.REPORT_LEVEL <= Logging.ERROR) {
+                Logging.report(Logging.ERROR, LogChannels.LC_RMS,
+                               "Could not update the index version " + ioe);
+            }
+        }
+    }
+
+    /**
+     * Called when the db file may have been changed by another MIDlet
+     * without changing the record store version, for example when
+     * blocks were moved by compaction. The index file is reloaded
+     * before it is used next time.
+     */
+    void recordStoreChanged() {
+        indexStale = true;
+        freeBlocks.invalidate();
+    }
+
+    /**
+     * Ensures index validity. The cached nodes and index header become
+     * invalid when another MIDlet changes the record store.
+     *
+     * @exception IOException if there is an error accessing the index file
+     */
+    void ensureIndexValidity() throws IOException {
+        int storeVersion = indexVersion;
+
+        try {
+            storeVersion = recordStore.getVersion();
+        } catch (Exception e) {
+        }
+
+        if (indexVersion < storeVersion || indexStale) {
+            // out of date, reload the index from the file
+            indexVersion = storeVersion;
+            indexStale = false;
+            clearCache();
+            if (!loadHeader()) {
+                rebuildIndex();
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the index from the db file. The db file is read in one
+     * sequential pass and the tree is written bottom up, with full
+     * leaves, in one sequential pass over the index file. Records not
+     * in recordId order in the db file are inserted afterwards.
+     *
+     * @exception IOException if there is an error accessing the db file
+     *            or the index file
+     */
+    void rebuildIndex() throws IOException {
+        long startTime = System.currentTimeMillis();
+
+        clearCache();
+
+        for (int i = 0; i < IDX_HEADER_SIZE; i++) {
+            idxHeader[i] = 0;
+        }
+        RecordStoreUtil.putInt(IDX_HEADER_SIZE + NODE_SIZE,
+                               idxHeader, IDX0_SIZE);
+        RecordStoreUtil.putInt(NODE_ELEMENTS, idxHeader, IDX5_NODE_ELEMENTS);
+        RecordStoreUtil.putInt(IDX_SIGNATURE, idxHeader, IDX7_SIGNATURE);
+
+        // the index is invalid until it is complete
+        RecordStoreUtil.putInt(-1, idxHeader, IDX6_VERSION);
+        writeHeader();
+        idxFile.truncate(IDX_HEADER_SIZE);
+        indexChanging = true;
+
+        // start the tree with an empty leaf
+        bulkNodes = new Node[4];
+        bulkNodes[0] = new Node();
+        bulkNodes[0].init(IDX_HEADER_SIZE, NODE_LEAF);
+        bulkHeight = 1;
+
+        int[] lateIds = null;
+        int[] lateOffsets = null;
+        int numLate = 0;
+        int lastId = 0;
+        int numRecords = 0;
+
+        byte[] header = new byte[AbstractRecordStoreImpl.BLOCK_HEADER_SIZE];
         int currentOffset = AbstractRecordStoreImpl.DB_HEADER_SIZE;
-        int currentSize = 0;
+        int dataEnd = recordStore.getSize();
 
-        // search through the data blocks for a free block that is large enough
-        while (currentOffset < recordStore.getSize()) {
-            // seek to the next offset
+        while (currentOffset < dataEnd) {
             dbFile.seek(currentOffset);
 
             // read the block header
-            if (dbFile.read(header) != AbstractRecordStoreImpl.BLOCK_HEADER_SIZE) {
-                // did not find the recordId
-                throw new IOException();
+            if (dbFile.read(header) !=
+                    AbstractRecordStoreImpl.BLOCK_HEADER_SIZE) {
+                throw new IOException("Could not read block " +
+                                      currentOffset);
             }
 
-            currentId = RecordStoreUtil.getInt(header, 0);
-            currentSize = RecordStoreUtil.
-                calculateBlockSize(RecordStoreUtil.getInt(header, 4));
+            int currentId = RecordStoreUtil.getInt(header, 0);
+            if (currentId > lastId) {
+                bulkAdd(0, currentId, currentOffset);
+                lastId = currentId;
+                numRecords++;
+            } else if (currentId > 0) {
+                // out of order, insert it when the tree is complete
+                if (lateIds == null || numLate == lateIds.length) {
+                    int[] tempIds = new int[numLate + 16];
+                    int[] tempOffsets = new int[numLate + 16];
+                    if (lateIds != null) {
+                        System.arraycopy(lateIds, 0, tempIds, 0, numLate);
+                        System.arraycopy(lateOffsets, 0, tempOffsets, 0,
+                                         numLate);
+                    }
+                    lateIds = tempIds;
+                    lateOffsets = tempOffsets;
+                }
 
-            // check for a free block big enough to hold the data
-            if (currentId < 0 && currentSize >= targetSize) {
-                // a free block
-                return currentOffset;
+                lateIds[numLate] = currentId;
+                lateOffsets[numLate++] = currentOffset;
             }
 
-            // added the block size to the currentOffset
-            currentOffset += currentSize;
+            currentOffset += RecordStoreUtil.calculateBlockSize(
+                RecordStoreUtil.getInt(header, 4));
         }
 
-        return 0;
+        // write out the last node of each level
+        for (int i = 0; i < bulkHeight; i++) {
+            writeNode(bulkNodes[i]);
+        }
+
+        RecordStoreUtil.putInt(bulkNodes[bulkHeight - 1].offset,
+                               idxHeader, IDX1_ID_ROOT);
+        RecordStoreUtil.putInt(IDX_HEADER_SIZE, idxHeader, IDX4_FIRST_LEAF);
+        writeHeader();
+        bulkNodes = null;
+
+        for (int i = 0; i < numLate; i++) {
+            updateKey(lateIds[i], lateOffsets[i]);
+        }
+
+        writeVersion(indexVersion);
+
+        if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
+            Logging.report(Logging.INFORMATION, LogChannels.LC_RMS,
+                           "rebuilt index of " + (numRecords + numLate) +
+                           " records in " +
+                           (System.currentTimeMillis() - startTime) + " ms");
+        }
     }
 
     /**
-     * Removes the given block from the list of free blocks.
+     * Adds a key and pointer to the node being filled on the given level
+     * during a bulk load. A full node is written out and a new node is
+     * started next to it, which adds a key on the level above.
      *
-     * @param blockOffset the offset in db file to the block to remove
-     * @param header the header of the block to remove
+     * @param level the level of the tree, 0 for the leaves
+     * @param key the key to add
+     * @param ptr the block offset for a leaf, the offset of the
+     *            right child for an inner node
      *
-     * @exception IOException if there is an error accessing the db file
+     * @exception IOException if there is an error accessing the index file
      */
-    void removeBlock(int blockOffset, byte[] header) throws IOException {
+    private void bulkAdd(int level, int key, int ptr) throws IOException {
+        Node node = bulkNodes[level];
+
+        if (node.numKeys < NODE_ELEMENTS) {
+            node.key[node.numKeys] = key;
+            node.ptr[node.leaf ? node.numKeys : node.numKeys + 1] = ptr;
+            node.numKeys++;
+            return;
+        }
+
+        // the node is full, start a new one
+        Node newNode = new Node();
+        newNode.init(allocateNode(), node.leaf ? NODE_LEAF : NODE_INNER);
+
+        if (node.leaf) {
+            node.next = newNode.offset;
+            newNode.key[0] = key;
+            newNode.ptr[0] = ptr;
+            newNode.numKeys = 1;
+        } else {
+            // the key moves up, the child becomes the leftmost one
+            newNode.ptr[0] = ptr;
+        }
+
+        writeNode(node);
+        bulkNodes[level] = newNode;
+
+        if (level + 1 == bulkHeight) {
+            // add a new root above the full node
+            if (bulkHeight == bulkNodes.length) {
+                Node[] temp = new Node[bulkHeight * 2];
+                System.arraycopy(bulkNodes, 0, temp, 0, bulkHeight);
+                bulkNodes = temp;
+            }
+
+            Node root = new Node();
+            root.init(allocateNode(), NODE_INNER);
+            root.ptr[0] = node.offset;
+            bulkNodes[bulkHeight++] = root;
+        }
+
+        bulkAdd(level + 1, key, newNode.offset);
     }
 
 
@@ -410,34 +768,95 @@ class RecordStoreIndex {
      */
     void setRecordIdRootOffset(int newOffset) throws IOException {
         RecordStoreUtil.putInt(newOffset, idxHeader, IDX1_ID_ROOT);
-        idxFile.seek(0);
-        idxFile.write(idxHeader);
-        idxFile.commitWrite();
+        writeHeader();
     }
 
     /**
-     * Gets the offset to the root of the free block tree.
+     * Reads the header of the index file and checks that it is an
+     * index file with the current node size.
      *
      * @exception IOException if there is an error accessing the index file
      *
-     * @return the offset of the free block tree
+     * @return true if the header was loaded, false if the index file
+     *         has to be rebuilt
      */
-    int getFreeBlockRootOffset() throws IOException {
-        return RecordStoreUtil.getInt(idxHeader, IDX2_FREE_BLOCK_ROOT);
+    private boolean loadHeader() throws IOException {
+        idxFile.seek(0);
+        if (idxFile.read(idxHeader) != IDX_HEADER_SIZE) {
+            return false;
+        }
+
+        return RecordStoreUtil.getInt(idxHeader, IDX7_SIGNATURE) ==
+                   IDX_SIGNATURE &&
+               RecordStoreUtil.getInt(idxHeader, IDX5_NODE_ELEMENTS) ==
+                   NODE_ELEMENTS;
     }
 
     /**
-     * Sets the offset to the root of the free block tree.
-     *
-     * @param newOffset the new root offset
+     * Writes the header of the index file.
      *
      * @exception IOException if there is an error accessing the index file
      */
-    void setFreeBlockRootOffset(int newOffset) throws IOException {
-        RecordStoreUtil.putInt(newOffset, idxHeader, IDX2_FREE_BLOCK_ROOT);
+    private void writeHeader() throws IOException {
         idxFile.seek(0);
         idxFile.write(idxHeader);
+    }
+
+    /**
+     * Marks the index file as being changed before the first change
+     * after its version was written. If the change is interrupted the
+     * index is rebuilt when the record store is opened next time.
+     *
+     * @exception IOException if there is an error accessing the index file
+     */
+    private void beginChange() throws IOException {
+        if (!indexChanging) {
+            RecordStoreUtil.putInt(-1, idxHeader, IDX6_VERSION);
+            writeHeader();
+            indexChanging = true;
+        }
+    }
+
+    /**
+     * Writes the record store version the index file matches and
+     * commits the changes to the index file.
+     *
+     * @param version the record store version
+     *
+     * @exception IOException if there is an error accessing the index file
+     */
+    private void writeVersion(int version) throws IOException {
+        RecordStoreUtil.putInt(version, idxHeader, IDX6_VERSION);
+        writeHeader();
         idxFile.commitWrite();
+        indexChanging = false;
+    }
+
+    /**
+     * Checks that the block at the given offset belongs to the given
+     * record and reads its header.
+     *
+     * @param blockOffset the offset of the block in the db file
+     * @param recordId the ID of the record
+     * @param header buffer for the block header
+     *
+     * @exception IOException if there is an error accessing the db file
+     *
+     * @return true if the block holds the record
+     */
+    private boolean readRecordHeader(int blockOffset, int recordId,
+                                     byte[] header) throws IOException {
+        if (blockOffset >= recordStore.getSize()) {
+            return false;
+        }
+
+        // read the header
+        dbFile.seek(blockOffset);
+
+        // read the block header
+        return dbFile.read(header) ==
+                   AbstractRecordStoreImpl.BLOCK_HEADER_SIZE &&
+               RecordStoreUtil.getInt(header, 0) == recordId;
     }
 
     /**
@@ -457,17 +876,22 @@ class RecordStoreIndex {
         int loc_offset = RecordStoreUtil.getInt(idxHeader, IDX3_FREE_NODE_HEAD);
 
         if (loc_offset == 0) {
-            // no free blocks, add one to the end of the index file
+            // no free nodes, add one to the end of the index file
             loc_offset = RecordStoreUtil.getInt(idxHeader, IDX0_SIZE);
             RecordStoreUtil.putInt(loc_offset + NODE_SIZE,
-	                           idxHeader, IDX0_SIZE);
+                                   idxHeader, IDX0_SIZE);
         } else {
             idxFile.seek(loc_offset);
-            idxFile.read(idxHeader, IDX3_FREE_NODE_HEAD, 4);
+            if (idxFile.read(idxHeader, IDX3_FREE_NODE_HEAD, 4) != 4) {
+                throw new IOException("Could not read free node " +
+                                      loc_offset);
+            }
+        }
+
+        if (bulkNodes == null) {
+            // the header is written at the end of a bulk load
+            writeHeader();
         }
-        idxFile.seek(0);
-        idxFile.write(idxHeader);
-        idxFile.commitWrite();
 
         return loc_offset;
     }
@@ -480,472 +904,524 @@ class RecordStoreIndex {
      * @exception IOException if there is an error accessing the index file
      */
     private void freeNode(int inp_offset) throws IOException {
+        for (int i = 0; i < cache.length; i++) {
+            if (cache[i] != null && cache[i].offset == inp_offset) {
+                cache[i] = null;
+            }
+        }
+
         idxFile.seek(inp_offset);
         idxFile.write(idxHeader, IDX3_FREE_NODE_HEAD, 4);
 
         RecordStoreUtil.putInt(inp_offset, idxHeader, IDX3_FREE_NODE_HEAD);
-        idxFile.seek(0);
-        idxFile.write(idxHeader);
-        idxFile.commitWrite();
+        writeHeader();
     }
 
 
     /**
-     *  Tree management
+     *  Node cache
      */
 
     /**
-     * Walks the tree starting at the given node and loads all of the tree's
-     * keys into the given array.
+     * Returns the node at the given offset, reading it from the index
+     * file if it is not cached. The least recently used node is dropped
+     * from the cache to make room for it.
+     *
+     * A node dropped from the cache stays valid for a caller still
+     * holding it. The cache is large enough for the few nodes one tree
+     * operation works on at a time.
      *
-     * @param node the root node of the tree to walk
-     * @param keyList array to fill with the tree's keys
-     * @param count must be 0 for user call, other value for recursive call
+     * @param inp_offset the offset of the node in the index file
      *
      * @exception IOException if there is an error accessing the index file
      *
-     * @return the number of keys placed into the array.
+     * @return the node
      */
-    int walk(Node node, int[] keyList, int count) throws IOException {
-        // number of keys in the key list
-	int i;
-	if (count > keyList.length - 1) { // array is filled
-	    return keyList.length;
-	}
-	for (i = 0; i < NODE_ELEMENTS + 1 &&
-                    count < keyList.length; i++) {
-	    if (node.child[i] > 0) { // subtree
-                // load the node
-	        int parent_offset = node.offset; // save the parent's offset
-                node.load(node.child[i]);
-	        count = walk(node, keyList, count); // walk along subtree
-                node.load(parent_offset);     // the parent node
-	    }
-	    if (node.key[i] > 0 && count < keyList.length) {
-	        // add the current key
-                keyList[count++] = node.key[i];
-	    } else { // no more keys - stop walking
-	        break;
-	    }
-	}
-        return count;
+    private Node getNode(int inp_offset) throws IOException {
+        Node node = findCachedNode(inp_offset);
+
+        if (node != null) {
+            hits++;
+            return node;
+        }
+
+        misses++;
+        node = new Node();
+        readNode(inp_offset, node);
+        cacheNode(node);
+
+        return node;
     }
 
     /**
-     * Searches the tree starting at the given node for the given key and
-     * returns the value associated with the key
+     * Returns the cached node at the given offset.
      *
-     * @param node the root node of the tree to search for the key
-     * @param key the search key
+     * @param inp_offset the offset of the node in the index file
      *
-     * @exception IOException if there is an error accessing the index file
+     * @return the node or null if it is not cached
+     */
+    private Node findCachedNode(int inp_offset) {
+        for (int i = 0; i < cache.length; i++) {
+            Node node = cache[i];
+            if (node != null && node.offset == inp_offset) {
+                node.lastUse = ++useClock;
+                return node;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Adds the node to the cache, replacing the least recently used one.
      *
-     * @return the value for the key or 0 if the key was not found
+     * @param node the node to add
      */
-    int getKeyValue(Node node, int key) throws IOException {
-        // find the node that contains the key
-        int index = findNodeWithKey(node, key);
+    private void cacheNode(Node node) {
+        int victim = 0;
 
-        if (node.key[index] == key) {
-            return node.value[index];
+        for (int i = 0; i < cache.length; i++) {
+            if (cache[i] == null) {
+                victim = i;
+                break;
+            }
+
+            if (cache[i].lastUse < cache[victim].lastUse) {
+                victim = i;
+            }
         }
 
-        return 0;
+        node.lastUse = ++useClock;
+        cache[victim] = node;
+    }
+
+    /**
+     * Drops all the nodes from the cache.
+     */
+    private void clearCache() {
+        for (int i = 0; i < cache.length; i++) {
+            cache[i] = null;
+        }
     }
 
     /**
-     * Updates the tree starting with the given node with the key value pair.
-     * If the key is already in the tree, the value is updated.  If the key
-     * is not in the tree, it is inserted.  If the insertion causes the root
-     * node to be split, the offset to the new root is returned, otherwise 0
-     * is returned.
+     * Reads the node at the given offset in the index file into
+     * the given node object.
      *
-     * @param node the root node of the tree to update the key with
-     * @param key the key to update
-     * @param value the new value
+     * @param inp_offset the offset of the node in the index file
+     * @param node the node object to fill
      *
      * @exception IOException if there is an error accessing the index file
-     *
-     * @return the offset of the new tree root if one was added, 0 otherwise
      */
-    int updateKey(Node node,
-                  int key, int value) throws IOException {
-        // find the node that contains the key
-        int index = findNodeWithKey(node, key);
-
-        if (node.key[index] == key) {
-            // key is already in the tree, update it
-            node.value[index] = value;
-            node.save();
-
-            return 0;
+    private void readNode(int inp_offset, Node node) throws IOException {
+        idxFile.seek(inp_offset);
+        if (idxFile.read(nodeBuf) != NODE_SIZE) {
+            throw new IOException("Could not read node " + inp_offset);
         }
 
-        // add the key to the node
-        Node newNode = new Node(idxFile);
-        int rightChild = 0;
+        int type = RecordStoreUtil.getInt(nodeBuf, 0);
+        int numKeys = RecordStoreUtil.getInt(nodeBuf, 4);
+        if ((type != NODE_LEAF && type != NODE_INNER) ||
+                numKeys < 0 || numKeys > NODE_ELEMENTS) {
+            throw new IOException("Index file corrupted at " + inp_offset);
+        }
 
-        while (key > 0) {
-            // add new triplet at index
-            node.addKey(key, value, rightChild, index);
+        node.init(inp_offset, type);
+        node.numKeys = numKeys;
 
-            // check if node has overflowed
-            if (node.key[NODE_ELEMENTS] == 0) {
-                node.save();
-                break;
+        int pos = NODE_HEADER_SIZE;
+        if (node.leaf) {
+            node.next = RecordStoreUtil.getInt(nodeBuf, 8);
+            for (int i = 0; i < numKeys; i++, pos += 8) {
+                node.key[i] = RecordStoreUtil.getInt(nodeBuf, pos);
+                node.ptr[i] = RecordStoreUtil.getInt(nodeBuf, pos + 4);
+            }
+        } else {
+            node.ptr[0] = RecordStoreUtil.getInt(nodeBuf, 8);
+            for (int i = 0; i < numKeys; i++, pos += 8) {
+                node.key[i] = RecordStoreUtil.getInt(nodeBuf, pos);
+                node.ptr[i + 1] = RecordStoreUtil.getInt(nodeBuf, pos + 4);
             }
+        }
+    }
 
-            // node overflowed, split node
-            newNode.init(allocateNode());
-
-            // save the midpoint value
-            key = node.key[NODE_ELEMENTS/2];
-            value = node.value[NODE_ELEMENTS/2];
-            rightChild = node.child[NODE_ELEMENTS/2 + 1];
-
-            // clear midpoint
-            node.key[NODE_ELEMENTS/2] = 0;
-            node.value[NODE_ELEMENTS/2] = 0;
-            node.child[NODE_ELEMENTS/2 + 1] = 0;
-
-            // copy the top half of original node to new node
-            int j = 0;
-            newNode.child[0] = rightChild;
-            for (int i = NODE_ELEMENTS/2 + 1; i < NODE_ELEMENTS+1; i++, j++) {
-                newNode.key[j] = node.key[i];
-                newNode.value[j] = node.value[i];
-                newNode.child[j + 1] = node.child[i + 1];
-
-                node.key[i] = 0;
-                node.value[i] = 0;
-                node.child[i + 1] = 0;
+    /**
+     * Writes the given node to its offset in the index file.
+     *
+     * @param node the node to write
+     *
+     * @exception IOException if there is an error accessing the index file
+     */
+    private void writeNode(Node node) throws IOException {
+        RecordStoreUtil.putInt(node.leaf ? NODE_LEAF : NODE_INNER,
+                               nodeBuf, 0);
+        RecordStoreUtil.putInt(node.numKeys, nodeBuf, 4);
+
+        int pos = NODE_HEADER_SIZE;
+        if (node.leaf) {
+            RecordStoreUtil.putInt(node.next, nodeBuf, 8);
+            for (int i = 0; i < node.numKeys; i++, pos += 8) {
+                RecordStoreUtil.putInt(node.key[i], nodeBuf, pos);
+                RecordStoreUtil.putInt(node.ptr[i], nodeBuf, pos + 4);
             }
-            node.numKeys = NODE_ELEMENTS/2;
-            newNode.numKeys = j;
-            rightChild = newNode.offset;
-            int leftChild = node.offset;
-
-            // save both nodes
-            node.save();
-            newNode.save();
-
-            // load the parent of the node
-            int parentOffset = node.popParent();
-            if (parentOffset == 0) {
-                // need to add a new root to tree
-                int newRoot = allocateNode();
-
-                node.init(newRoot);
-                node.key[0] = key;
-                node.value[0] = value;
-                node.child[0] = leftChild;
-                node.child[1] = rightChild;
-                node.save();
-
-                // done with split
-                return newRoot;
+        } else {
+            RecordStoreUtil.putInt(node.ptr[0], nodeBuf, 8);
+            for (int i = 0; i < node.numKeys; i++, pos += 8) {
+                RecordStoreUtil.putInt(node.key[i], nodeBuf, pos);
+                RecordStoreUtil.putInt(node.ptr[i + 1], nodeBuf, pos + 4);
             }
+        }
 
-            // load the parent
-            node.load(parentOffset);
-
-            // find position to insert the midpoint of split
-            for (index = 0; index < NODE_ELEMENTS &&
-                 node.child[index] != leftChild; index++);
+        // clear the unused entries
+        for (; pos < NODE_SIZE; pos++) {
+            nodeBuf[pos] = 0;
         }
 
-        return 0;
+        idxFile.seek(node.offset);
+        idxFile.write(nodeBuf);
     }
 
+
+    /**
+     *  Tree management
+     */
+
     /**
-     * Searches the tree starting with the given node for the given key. If
-     * the key is in the tree, the key value pair is deleted.  If the key
-     * is not in the tree, nothing happens.  If the deletion causes the root
-     * node to be merged, the offset to the new root is returned, otherwise 0
-     * is returned.
+     * Searches the tree for the given key and returns the value
+     * associated with the key.
      *
-     * @param node the root node of the tree to remove key from
-     * @param key the key to remove
+     * @param key the search key
      *
      * @exception IOException if there is an error accessing the index file
      *
-     * @return the offset of the new tree root if the old one was removed,
-     *         otherwise 0
+     * @return the value for the key or 0 if the key was not found
      */
-    int deleteKey(Node node, int key) throws IOException {
-        // find the key's node
-        int index = findNodeWithKey(node, key);
+    int getKeyValue(int key) throws IOException {
+        Node node = findLeaf(key);
+        int index = node.find(key);
 
-        // check if key was found
-        if (node.key[index] == key) {
-            return deleteKeyFromNode(node, index);
+        if (index >= 0) {
+            return node.ptr[index];
         }
 
         return 0;
     }
 
     /**
-     * Deleted the key value pair at the given index from the given node. If
-     * the deletion causes the root node to be merged, the offset to the new
-     * root is returned, otherwise 0 is returned.
+     * Updates the tree with the key value pair. If the key is already in
+     * the tree, the value is updated. If the key is not in the tree, it is
+     * inserted and full nodes are split up to the root.
      *
-     * @param node the root node of the tree to remove key from
-     * @param index the index to the key to remove
+     * @param key the key to update
+     * @param value the new value
      *
      * @exception IOException if there is an error accessing the index file
-     *
-     * @return the offset of the new tree root if the old one was removed,
-     *         otherwise 0
      */
-    private int deleteKeyFromNode(Node node,
-                                  int index) throws IOException {
-        // check if this node has right child
-        if (node.child[index+1] > 0) {
-            // find the least key in the subtree
-            Node rootNode = node;
-            node = new Node(idxFile);
-            node.load(rootNode.child[index+1]);
-            node.copyStack(rootNode);
-            node.pushParent(rootNode.offset);
-
-            while (node.child[0] > 0) {
-                node.pushParent(node.offset);
-                node.load(node.child[0]);
+    void updateKey(int key, int value) throws IOException {
+        Node node = findLeaf(key);
+        int index = node.find(key);
+
+        if (index >= 0) {
+            // key is already in the tree, update it
+            if (node.ptr[index] != value) {
+                node.ptr[index] = value;
+                writeNode(node);
             }
 
-            // replace delete key with discovered key
-            rootNode.key[index] = node.key[0];
-            rootNode.value[index] = node.value[0];
-            rootNode.save();
+            return;
+        }
 
-            // now delete discovered key
-            index = 0;
+        index = -(index + 1);
+        node.insertLeafKey(index, key, value);
 
-            // preserve right subtree from deleting
-            node.child[0] = node.child[1];
+        if (node.numKeys <= NODE_ELEMENTS) {
+            writeNode(node);
+            return;
         }
 
-        // the node has no right child for the key, remove the key
-        node.deleteKey(index);
-        node.save();
-
-        // get the parent offset
-        int parentOffset = node.popParent();
-
-        // rebalance tree as needed
-        while (parentOffset > 0) {
-            // check if node needs to be merged with sibling
-            if (node.numKeys >= NODE_ELEMENTS/2) {
-                // this node has at least the minimum number of keys
-                node.load(parentOffset);
-                parentOffset = node.popParent();
-                continue;
+        /*
+         * RecordIds only grow, so most keys are added to the end of the
+         * last leaf. Splitting there leaves the left node full instead
+         * of half empty.
+         */
+        boolean append = node.next == 0 && index == node.numKeys - 1;
+
+        while (true) {
+            int keep = append ? NODE_ELEMENTS : (NODE_ELEMENTS + 1) / 2;
+            int midKey;
+
+            Node newNode = new Node();
+            newNode.init(allocateNode(), node.leaf ? NODE_LEAF : NODE_INNER);
+
+            if (node.leaf) {
+                // copy the top part of the leaf to the new leaf
+                newNode.numKeys = node.numKeys - keep;
+                System.arraycopy(node.key, keep, newNode.key, 0,
+                                 newNode.numKeys);
+                System.arraycopy(node.ptr, keep, newNode.ptr, 0,
+                                 newNode.numKeys);
+                newNode.next = node.next;
+                node.next = newNode.offset;
+                midKey = newNode.key[0];
+            } else {
+                // the key at the split point moves up to the parent
+                newNode.numKeys = node.numKeys - keep - 1;
+                System.arraycopy(node.key, keep + 1, newNode.key, 0,
+                                 newNode.numKeys);
+                System.arraycopy(node.ptr, keep + 1, newNode.ptr, 0,
+                                 newNode.numKeys + 1);
+                midKey = node.key[keep];
+            }
+            node.numKeys = keep;
+
+            writeNode(node);
+            writeNode(newNode);
+            cacheNode(newNode);
+
+            if (pathDepth == 0) {
+                // the root was split, add a new root to the tree
+                Node root = new Node();
+                root.init(allocateNode(), NODE_INNER);
+                root.ptr[0] = node.offset;
+                root.key[0] = midKey;
+                root.ptr[1] = newNode.offset;
+                root.numKeys = 1;
+                writeNode(root);
+                cacheNode(root);
+
+                setRecordIdRootOffset(root.offset);
+                return;
             }
 
-            // load the parent of this node
-            Node parentNode = new Node(idxFile);
-            parentNode.load(parentOffset);
+            // add the new node to the parent
+            pathDepth--;
+            index = pathIndexes[pathDepth];
+            node = getNode(pathOffsets[pathDepth]);
+            node.insertInnerKey(index, midKey, newNode.offset);
 
-            // find the offset of the node in the parent
-            int childIdx = 0;
-            for (; parentNode.child[childIdx] != node.offset &&
-                 childIdx < NODE_ELEMENTS+1; childIdx++);
+            if (node.numKeys <= NODE_ELEMENTS) {
+                writeNode(node);
+                return;
+            }
 
-            int midpointIdx = childIdx;
-            Node siblingNode = null;
+            append = append && index == node.numKeys - 1;
+        }
+    }
 
-            // try loading the left sibling
-            if (childIdx-1 >= 0) {
-                // load the left sibling
-                siblingNode = new Node(idxFile);
-                siblingNode.load(parentNode.child[childIdx-1]);
-                midpointIdx = childIdx-1;
-            }
+    /**
+     * Searches the tree for the given key. If the key is in the tree,
+     * the key value pair is deleted. If the key is not in the tree,
+     * nothing happens. Nodes left with too few keys borrow keys from
+     * or are merged with a sibling.
+     *
+     * @param key the key to remove
+     *
+     * @exception IOException if there is an error accessing the index file
+     */
+    void deleteKey(int key) throws IOException {
+        Node node = findLeaf(key);
+        int index = node.find(key);
 
-            // check if this is a merge candidate
-            if (siblingNode == null ||
-                node.numKeys + siblingNode.numKeys + 1 > NODE_ELEMENTS) {
-                if (siblingNode == null) {
-                    siblingNode = new Node(idxFile);
-                }
+        if (index < 0) {
+            // key is not in the tree
+            return;
+        }
 
-                // not a merge candidate, check the right sibling
-                if (childIdx+1 < NODE_ELEMENTS+1 &&
-                    parentNode.child[childIdx+1] > 0) {
-                    // load the right sibling
-                    siblingNode.load(parentNode.child[childIdx+1]);
-                    midpointIdx = childIdx;
-                }
-            }
+        node.deleteLeafKey(index);
 
-            // check if a merge is needed
-            if (node.numKeys + siblingNode.numKeys + 1 <= NODE_ELEMENTS) {
-                // merge the siblings
-                Node leftNode, rightNode;
-                if (childIdx == midpointIdx) {
-                    leftNode = node;
-                    rightNode = siblingNode;
+        while (true) {
+            if (pathDepth == 0) {
+                if (!node.leaf && node.numKeys == 0) {
+                    // the root has a single child, make it the root
+                    setRecordIdRootOffset(node.ptr[0]);
+                    freeNode(node.offset);
                 } else {
-                    leftNode = siblingNode;
-                    rightNode = node;
-                }
-                leftNode.addKey(parentNode.key[midpointIdx],
-                                parentNode.value[midpointIdx],
-                                rightNode.child[0],
-                                leftNode.numKeys);
-
-                for (int i = 0; i < rightNode.numKeys; i++) {
-                    leftNode.addKey(rightNode.key[i],
-                                    rightNode.value[i],
-                                    rightNode.child[i+1],
-                                    leftNode.numKeys);
+                    writeNode(node);
                 }
 
-                leftNode.save();
-                freeNode(rightNode.offset);
+                return;
+            }
 
-                parentNode.deleteKey(midpointIdx);
-                if (parentNode.numKeys > 0) {
-                    parentNode.save();
-                } else {
-                    // parentNode is empty
-                    parentOffset = node.popParent();
-                    if (parentOffset == 0) {
-                        // the parent node is the root
-                        return leftNode.offset;
-                    } else {
-                        int tempOffset = parentNode.offset;
-                        freeNode(parentNode.offset);
-                        parentNode.load(parentOffset);
-
-                        // find the parentOffset
-                        for (int x = 0; x < NODE_ELEMENTS+1; x++) {
-                             if (parentNode.child[x] == tempOffset) {
-                                 parentNode.child[x] = leftNode.offset;
-                                 break;
-                             }
-                        }
-                    }
-                }
-            } else {
-                // could not merge the siblings
-                // make sure each siblings has a minimum number of nodes
-                if (midpointIdx == childIdx) {
-                    // node is on the left, sibling is on the right
-                    node.addKey(parentNode.key[midpointIdx],
-                                parentNode.value[midpointIdx],
-                                siblingNode.child[0],
-                                node.numKeys);
-
-                    parentNode.key[midpointIdx] = siblingNode.key[0];
-                    parentNode.value[midpointIdx] = siblingNode.value[0];
-
-                    siblingNode.child[0] = siblingNode.child[1];
-                    siblingNode.deleteKey(0);
-                } else {
-                    // sibling is on the left, node is on the right
-                    node.addKey(parentNode.key[midpointIdx],
-                                parentNode.value[midpointIdx],
-                                node.child[0],
-                                0);
-
-                    int tempIdx = siblingNode.numKeys;
-                    node.child[0] = siblingNode.child[tempIdx];
-                    parentNode.key[midpointIdx] = siblingNode.key[tempIdx-1];
-                    parentNode.value[midpointIdx] =
-                        siblingNode.value[tempIdx-1];
-                    siblingNode.deleteKey(tempIdx-1);
-                }
+            if (node.numKeys >= MIN_KEYS) {
+                writeNode(node);
+                return;
+            }
 
-                siblingNode.save();
-                parentNode.save();
-                node.save();
+            // the node has too few keys, look at its siblings
+            pathDepth--;
+            index = pathIndexes[pathDepth];
+            Node parent = getNode(pathOffsets[pathDepth]);
+            Node left = null;
+            Node right = null;
+
+            if (index > 0) {
+                left = getNode(parent.ptr[index - 1]);
+                if (left.numKeys > MIN_KEYS) {
+                    borrowFromLeft(parent, index, left, node);
+                    return;
+                }
+            }
 
-                // check if the sibling lost too many keys
-                if (siblingNode.numKeys < NODE_ELEMENTS/2) {
-                    // make the sibling the merge candidate
-                    siblingNode.copyStack(node);
-                    node = siblingNode;
-                    continue;
+            if (index < parent.numKeys) {
+                right = getNode(parent.ptr[index + 1]);
+                if (right.numKeys > MIN_KEYS) {
+                    borrowFromRight(parent, index, node, right);
+                    return;
                 }
             }
 
-            // done with this node, move up the tree
-            parentNode.copyStack(node);
-            node = parentNode;
-            parentOffset = node.popParent();
+            if (left != null) {
+                mergeNodes(parent, index - 1, left, node);
+            } else if (right != null) {
+                mergeNodes(parent, index, node, right);
+            } else {
+                // the node is the only child, let the parent rebalance
+                writeNode(node);
+            }
+
+            node = parent;
         }
+    }
 
-        return 0;
+    /**
+     * Moves the last key of the left sibling to the given node.
+     *
+     * @param parent the parent of both nodes
+     * @param index the index of the node in the parent
+     * @param left the left sibling of the node
+     * @param node the node with too few keys
+     *
+     * @exception IOException if there is an error accessing the index file
+     */
+    private void borrowFromLeft(Node parent, int index, Node left,
+                                Node node) throws IOException {
+        int last = left.numKeys - 1;
+
+        if (node.leaf) {
+            node.insertLeafKey(0, left.key[last], left.ptr[last]);
+            parent.key[index - 1] = left.key[last];
+        } else {
+            // the separator moves down, the last key of the sibling up
+            System.arraycopy(node.key, 0, node.key, 1, node.numKeys);
+            System.arraycopy(node.ptr, 0, node.ptr, 1, node.numKeys + 1);
+            node.key[0] = parent.key[index - 1];
+            node.ptr[0] = left.ptr[last + 1];
+            node.numKeys++;
+            parent.key[index - 1] = left.key[last];
+        }
+        left.numKeys--;
+
+        writeNode(left);
+        writeNode(node);
+        writeNode(parent);
+    }
+
+    /**
+     * Moves the first key of the right sibling to the given node.
+     *
+     * @param parent the parent of both nodes
+     * @param index the index of the node in the parent
+     * @param node the node with too few keys
+     * @param right the right sibling of the node
+     *
+     * @exception IOException if there is an error accessing the index file
+     */
+    private void borrowFromRight(Node parent, int index, Node node,
+                                 Node right) throws IOException {
+        if (node.leaf) {
+            node.insertLeafKey(node.numKeys, right.key[0], right.ptr[0]);
+            right.deleteLeafKey(0);
+            parent.key[index] = right.key[0];
+        } else {
+            // the separator moves down, the first key of the sibling up
+            node.insertInnerKey(node.numKeys, parent.key[index],
+                                right.ptr[0]);
+            parent.key[index] = right.key[0];
+            right.ptr[0] = right.ptr[1];
+            right.deleteInnerKey(0);
+        }
+
+        writeNode(right);
+        writeNode(node);
+        writeNode(parent);
+    }
+
+    /**
+     * Moves all the keys of the right node to the left node and removes
+     * the right node from the tree. The parent is not written.
+     *
+     * @param parent the parent of both nodes
+     * @param index the index of the key separating the nodes in the parent
+     * @param left the left node
+     * @param right the right node
+     *
+     * @exception IOException if there is an error accessing the index file
+     */
+    private void mergeNodes(Node parent, int index, Node left,
+                            Node right) throws IOException {
+        if (left.leaf) {
+            System.arraycopy(right.key, 0, left.key, left.numKeys,
+                             right.numKeys);
+            System.arraycopy(right.ptr, 0, left.ptr, left.numKeys,
+                             right.numKeys);
+            left.numKeys += right.numKeys;
+            left.next = right.next;
+        } else {
+            // the separator moves down between the keys of both nodes
+            left.key[left.numKeys] = parent.key[index];
+            System.arraycopy(right.key, 0, left.key, left.numKeys + 1,
+                             right.numKeys);
+            System.arraycopy(right.ptr, 0, left.ptr, left.numKeys + 1,
+                             right.numKeys + 1);
+            left.numKeys += right.numKeys + 1;
+        }
+
+        parent.deleteInnerKey(index);
+
+        writeNode(left);
+        freeNode(right.offset);
     }
 
     /**
-     * Searches the tree starting with the given node for the given key.  The
-     * node that contains the key or the node where the key belongs is loaded
-     * into the given node object then the method returns.  If the key is in
-     * the tree, the index of the key is returned.  If the key is not in the
-     * tree, the index where the key should be inserted is returned.
+     * Searches the tree for the leaf where the given key is or belongs.
+     * The path from the root to the leaf is saved for the tree updates.
      *
-     * @param node the root node of the tree to search for the key
      * @param key the key to search for
      *
      * @exception IOException if there is an error accessing the index file
      *
-     * @return the index of the key or where the key belongs in the node
+     * @return the leaf node
      */
-    private int findNodeWithKey(Node node,
-                                int key) throws IOException {
-        // find node with given key
-        int i = 0;
-        while (i < NODE_ELEMENTS+1) {
-            if (node.key[i] <= 0) {
-                // reached end of keys
-                // check if right child of last element exist
-                if (node.child[i] > 0) {
-                    // load the node
-                    node.pushParent(node.offset);
-                    node.load(node.child[i]);
-
-                    // restart the loop for this node
-                    i = 0;
-                } else {
-                    // key is not in tree, but belongs in this node
-                    return i;
-                }
-            } else if (key == node.key[i]) {
-                // found the key
-                return i;
-            } else if (key < node.key[i]) {
-                // check for child tree
-                if (node.child[i] > 0) {
-                    // load the node
-                    node.pushParent(node.offset);
-                    node.load(node.child[i]);
-
-                    // restart the loop for this node
-                    i = 0;
-                } else {
-                    // key is not in tree, but belongs in this node
-                    return i;
-                }
-            } else {
-                i++;
+    private Node findLeaf(int key) throws IOException {
+        Node node = getNode(getRecordIdRootOffset());
+        pathDepth = 0;
+
+        while (!node.leaf) {
+            int index = node.findChild(key);
+
+            if (pathDepth == pathOffsets.length) {
+                int[] temp = new int[pathDepth * 2];
+                System.arraycopy(pathOffsets, 0, temp, 0, pathDepth);
+                pathOffsets = temp;
+                temp = new int[pathDepth * 2];
+                System.arraycopy(pathIndexes, 0, temp, 0, pathDepth);
+                pathIndexes = temp;
             }
+
+            pathOffsets[pathDepth] = node.offset;
+            pathIndexes[pathDepth++] = index;
+            node = getNode(node.ptr[index]);
         }
 
-        // belongs at the end of the current node
-        return i;
+        return node;
     }
 
-    /** Maximum depth of the parent node stack */
-    private int maxStackDepth = 3;
-
     /**
      * Abstraction of a tree node
      */
     class Node {
-        /** file that contains the tree, the index file */
-        AbstractRecordStoreFile treeFile;
+        /** true for a leaf, false for an inner node */
+        boolean leaf;
 
         /** number of keys in this node */
         int numKeys;
@@ -953,211 +1429,131 @@ class RecordStoreIndex {
         /** offset of this node in the tree file */
         int offset;
 
-        /** keys in this node */
-        int[] key = new int[NODE_ELEMENTS+1];
-
-        /** values in this node */
-        int[] value = new int[NODE_ELEMENTS+1];
-
-        /** children in this node */
-        int[] child = new int[NODE_ELEMENTS+2];
+        /** offset of the next leaf, leaves only */
+        int next;
 
-        /** stack of parents of this node */
-        int[] parentStack = new int[maxStackDepth];
+        /** use clock value of the last access to the cached node */
+        int lastUse;
 
-        /** depth of the parent stack */
-        int stackDepth = 0;
+        /** keys in this node, one extra for splitting */
+        int[] key = new int[NODE_ELEMENTS+1];
 
         /**
-         * Constructor for creating a node in the tree.
-         *
-         * @param file the index file that contains this node
+         * values of the keys in a leaf, children of an inner node,
+         * one extra for splitting
          */
-        Node(AbstractRecordStoreFile file) {
-            treeFile = file;
-        }
+        int[] ptr = new int[NODE_ELEMENTS+2];
 
         /**
-         * Adds the given offset to the parent stack. Grows the stack as needed.
+         * Initialize this node with given offset and type.
          *
-         * @param inp_offset the offset value to push on top of the stack
+         * @param inp_offset the offset of the node data this node
+         *                   represents
+         * @param type NODE_LEAF or NODE_INNER
          */
-        void pushParent(int inp_offset) {
-            if (stackDepth == parentStack.length) {
-                maxStackDepth++;
-                int[] newStack = new int[maxStackDepth];
-                // copy old stack
-                for (int i = 0; i < stackDepth; i++) {
-                    newStack[i] = parentStack[i];
-                }
-                parentStack = newStack;
-                newStack = null;
-            }
-
-            parentStack[stackDepth++] = inp_offset;
+        void init(int inp_offset, int type) {
+            offset = inp_offset;
+            leaf = (type == NODE_LEAF);
+            numKeys = 0;
+            next = 0;
+            ptr[0] = 0;
         }
 
         /**
-         * Removes the top value of the stack and returns it.
+         * Searches the node for the given key.
+         *
+         * @param searchKey the key to search for
          *
-         * @return the top value of the stack or 0 if the stack is empty
+         * @return the index of the key, or (-(insertion point) - 1)
+         *         if the key is not in the node
          */
-        int popParent() {
-            if (stackDepth > 0) {
-                return parentStack[--stackDepth];
-            }
+        int find(int searchKey) {
+            int low = 0;
+            int high = numKeys - 1;
 
-            return 0;
-        }
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
 
-        /**
-         * Copies the stack of the given node to this node.
-         *
-         * @param fromNode the node whose stack is to be copied
-         */
-        void copyStack(Node fromNode) {
-            stackDepth = 0;
-            for (int i = 0; i < fromNode.stackDepth; i++) {
-                pushParent(fromNode.parentStack[i]);
+                if (key[mid] < searchKey) {
+                    low = mid + 1;
+                } else if (key[mid] > searchKey) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
             }
+
+            return -(low + 1);
         }
 
         /**
-         * Initialize this node with given offset.  Clear all key, value,
-         * and child values.
+         * Returns the index of the child of this inner node that holds
+         * the given key.
+         *
+         * @param searchKey the key to search for
          *
-         * @param inp_offset the new offset of the node data
-	 * this node represents
+         * @return the index of the child
          */
-        void init(int inp_offset) {
-            offset = inp_offset;
+        int findChild(int searchKey) {
+            int index = find(searchKey);
 
-            // initialize all the node members
-            numKeys = 0;
-            child[0] = 0;
-            for (int i = 0; i < NODE_ELEMENTS+1; i++) {
-                key[i] = 0;
-                value[i] = 0;
-                child[i+1] = 0;
-            }
+            return (index >= 0) ? index + 1 : -(index + 1);
         }
 
         /**
-         * Adds the key, value, child values to the node at the given index.
+         * Adds the key and value to this leaf at the given index.
          *
          * @param newKey the new key to add
          * @param newValue the new value to add
-         * @param rightChild the new right child of the new key
-         * @param index the index at which to add the key, value, child values
+         * @param index the index at which to add the key and value
          */
-        void addKey(int newKey, int newValue, int rightChild, int index) {
-            for (int i = numKeys; i > index; i--) {
-                key[i] = key[i-1];
-                value[i] = value[i-1];
-                child[i+1] = child[i];
-            }
-
-            // add new triplet
+        void insertLeafKey(int index, int newKey, int newValue) {
+            System.arraycopy(key, index, key, index + 1, numKeys - index);
+            System.arraycopy(ptr, index, ptr, index + 1, numKeys - index);
             key[index] = newKey;
-            value[index] = newValue;
-            child[index+1] = rightChild;
-
+            ptr[index] = newValue;
             numKeys++;
         }
 
         /**
-         * Deletes the key, value, right child values from the node
-         * at the given index.
+         * Deletes the key and value at the given index from this leaf.
          *
-         * @param index the index at which to remove the key, value,
-         *              child values
+         * @param index the index of the key to remove
          */
-        void deleteKey(int index) {
-            for (int i = index; i < numKeys; i++) {
-                key[i] = key[i+1];
-                value[i] = value[i+1];
-                child[i+1] = child[i+2];
-            }
-
+        void deleteLeafKey(int index) {
             numKeys--;
+            System.arraycopy(key, index + 1, key, index, numKeys - index);
+            System.arraycopy(ptr, index + 1, ptr, index, numKeys - index);
         }
 
         /**
-         * Loads the node data at the given offset in the tree file into
-         * this node object.
-         *
-         * @param inp_offset the offset to the node data to load
+         * Adds the key and its right child to this inner node at the
+         * given index.
          *
-         * @exception IOException if there is an error accessing the tree file
+         * @param newKey the new key to add
+         * @param rightChild the new right child of the new key
+         * @param index the index at which to add the key
          */
-        void load(int inp_offset) throws IOException {
-            offset = inp_offset;
-            numKeys = 0;
-
-            // seek to the start of the node
-            treeFile.seek(inp_offset);
-
-            byte[] buffer = new byte[12];
-
-            // read the first child
-            if (treeFile.read(buffer, 0, 4) != 4) {
-                throw new IOException("Could not read first child " +
-                                      inp_offset);
-            }
-            child[0] = RecordStoreUtil.getInt(buffer, 0);
-
-            // read the key, value, child triplets
-            int i = 0;
-            for (; i < NODE_ELEMENTS; i++) {
-                if (treeFile.read(buffer) != buffer.length) {
-                    throw new IOException("Could not read entire buffer " +
-                                          inp_offset);
-                }
-
-                int tempKey = RecordStoreUtil.getInt(buffer, 0);
-                if (tempKey <= 0) {
-                    break;
-                }
-
-                numKeys++;
-                key[i] = tempKey;
-                value[i] = RecordStoreUtil.getInt(buffer, 4);
-                child[i+1] = RecordStoreUtil.getInt(buffer, 8);
-            }
-
-            // clear the rest of the entries
-            for (; i < NODE_ELEMENTS+1; i++) {
-                key[i] = 0;
-                value[i] = 0;
-                child[i+1] = 0;
-            }
+        void insertInnerKey(int index, int newKey, int rightChild) {
+            System.arraycopy(key, index, key, index + 1, numKeys - index);
+            System.arraycopy(ptr, index + 1, ptr, index + 2,
+                             numKeys - index);
+            key[index] = newKey;
+            ptr[index + 1] = rightChild;
+            numKeys++;
         }
 
         /**
-         * Saves the node data in this node object to the given offset in the
-         * tree file.
+         * Deletes the key and its right child at the given index from
+         * this inner node.
          *
-         * @exception IOException if there is an error accessing the tree file
+         * @param index the index of the key to remove
          */
-        void save() throws IOException {
-            // seek to the start of the node
-            treeFile.seek(offset);
-
-            byte[] buffer = new byte[12];
-
-            // write the left most child
-            RecordStoreUtil.putInt(child[0], buffer, 0);
-            treeFile.write(buffer, 0, 4);
-
-            // write the key, value, child triplets
-            for (int i = 0; i < NODE_ELEMENTS; i++) {
-                RecordStoreUtil.putInt(key[i], buffer, 0);
-                RecordStoreUtil.putInt(value[i], buffer, 4);
-                RecordStoreUtil.putInt(child[i+1], buffer, 8);
-                treeFile.write(buffer);
-            }
-
-            treeFile.commitWrite();
+        void deleteInnerKey(int index) {
+            numKeys--;
+            System.arraycopy(key, index + 1, key, index, numKeys - index);
+            System.arraycopy(ptr, index + 2, ptr, index + 1,
+                             numKeys - index);
         }
 
         /**
@@ -1166,10 +1562,11 @@ class RecordStoreIndex {
          * @return the string representation of the node
          */
         public String toString() {
-            String temp = "offset=" + offset + "\n" + child[0] + "\n";
-            for (int i = 0; i < NODE_ELEMENTS+1; i++) {
-                temp += i + " " + key[i] + " " +
-                    value[i] + " " + child[i+1] + "\n";
+            String temp = "offset=" + offset + (leaf ? " leaf" : " inner") +
+                " next=" + next + "\n";
+            for (int i = 0; i < numKeys; i++) {
+                temp += i + " " + key[i] + " " + ptr[leaf ? i : i + 1] +
+                    "\n";
             }
 
             return temp;
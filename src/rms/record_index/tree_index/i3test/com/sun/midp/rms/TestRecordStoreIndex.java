@@ -0,0 +1,286 @@
+/*
+ *
+ *
+ * Copyright  1990-2007 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.rms;
+
+import com.sun.midp.i3test.*;
+import com.sun.midp.midlet.MIDletSuite;
+import javax.microedition.rms.InvalidRecordIDException;
+import javax.microedition.rms.RecordStoreException;
+
+/**
+ * Tests the B+tree of the tree index through a record store: inserts
+ * that split nodes on more than two tree levels, deletes that borrow
+ * from and merge nodes, reopening the record store with a saved or a
+ * missing index file and lookups after many deletes.
+ */
+public class TestRecordStoreIndex extends TestCase {
+
+    /** The suite ID used when creating the record store. */
+    static final int SUITE = MIDletSuite.INTERNAL_SUITE_ID;
+
+    /** The name of the record store. */
+    static final String NAME = "TestRecordStoreIndex";
+
+    /** Enough records for a tree of three levels. */
+    static final int COUNT = RecordStoreIndex.NODE_ELEMENTS *
+        (RecordStoreIndex.NODE_ELEMENTS + 1) + 1;
+
+    /** The record store under test. */
+    RecordStoreImpl store;
+
+    /** The recordIds of the records added, by insertion order. */
+    int[] ids = new int[COUNT];
+
+    /** True for the records not deleted, by insertion order. */
+    boolean[] live = new boolean[COUNT];
+
+    /**
+     * Creates the data of a record.
+     *
+     * @param i the insertion order of the record
+     *
+     * @return the record data
+     */
+    static byte[] data(int i) {
+        return new byte[] { (byte)(i >> 8), (byte)i };
+    }
+
+    /**
+     * Opens the record store.
+     *
+     * @exception RecordStoreException if the record store cannot be opened
+     */
+    void open() throws RecordStoreException {
+        store = RecordStoreImpl.openRecordStore(getSecurityToken(), SUITE,
+                                                NAME, true);
+    }
+
+    /**
+     * Deletes a record and remembers it is gone.
+     *
+     * @param i the insertion order of the record
+     *
+     * @exception RecordStoreException if the record cannot be deleted
+     */
+    void delete(int i) throws RecordStoreException {
+        store.deleteRecord(ids[i]);
+        live[i] = false;
+    }
+
+    /**
+     * Checks that the record store has exactly the live records, in
+     * recordId order, and that the deleted records cannot be found.
+     *
+     * @param message the message of the failed assertions
+     *
+     * @exception RecordStoreException if a record cannot be read
+     */
+    void check(String message) throws RecordStoreException {
+        int[] found = store.getRecordIDs();
+        int next = 0;
+
+        for (int i = 0; i < COUNT; i++) {
+            if (!live[i]) {
+                try {
+                    store.getRecord(ids[i]);
+                    fail(message + ": deleted record " + ids[i] + " found");
+                    return;
+                } catch (InvalidRecordIDException iride) {
+                    // expected
+                }
+
+                continue;
+            }
+
+            if (next >= found.length || found[next] != ids[i]) {
+                fail(message + ": record " + ids[i] + " not listed");
+                return;
+            }
+
+            next++;
+
+            byte[] record = store.getRecord(ids[i]);
+            byte[] expected = data(i);
+            if (record == null || record.length != expected.length ||
+                    record[0] != expected[0] || record[1] != expected[1]) {
+                fail(message + ": wrong data of record " + ids[i]);
+                return;
+            }
+        }
+
+        assertEquals(message + ": listed", next, found.length);
+        assertEquals(message + ": count", next, store.getNumRecords());
+    }
+
+    /**
+     * Inserts split leaves and inner nodes.
+     *
+     * @exception RecordStoreException if a record cannot be added
+     */
+    void testInsert() throws RecordStoreException {
+        for (int i = 0; i < COUNT; i++) {
+            byte[] record = data(i);
+            ids[i] = store.addRecord(record, 0, record.length);
+            live[i] = true;
+        }
+
+        check("inserted");
+    }
+
+    /**
+     * Deletes borrow keys from the siblings and merge nodes, from the
+     * middle, the front and the end of the tree.
+     *
+     * @exception RecordStoreException if a record cannot be deleted
+     */
+    void testDelete() throws RecordStoreException {
+        // every other record, each leaf ends at half its size
+        for (int i = 0; i < COUNT; i += 2) {
+            delete(i);
+        }
+
+        check("every other deleted");
+
+        // a run in the middle, whole leaves merge away
+        for (int i = COUNT / 4; i < COUNT / 2; i++) {
+            if (live[i]) {
+                delete(i);
+            }
+        }
+
+        check("middle deleted");
+
+        // from the front and the end, the tree shrinks a level
+        for (int i = 0, j = COUNT - 1; i < j; i++, j--) {
+            if (i % 5 != 0 && live[i]) {
+                delete(i);
+            }
+
+            if (j % 7 != 0 && live[j]) {
+                delete(j);
+            }
+        }
+
+        check("ends deleted");
+    }
+
+    /**
+     * The index is loaded again when the record store is reopened, and
+     * rebuilt if its file is missing.
+     *
+     * @exception RecordStoreException if the record store cannot be used
+     */
+    void testReopen() throws RecordStoreException {
+        store.closeRecordStore();
+        open();
+        check("reopened");
+
+        store.closeRecordStore();
+        assertTrue("index deleted", RecordStoreIndex.deleteIndex(SUITE, NAME));
+        open();
+        check("rebuilt");
+    }
+
+    /**
+     * Records added after many deletes get new recordIds and are found,
+     * the deleted ones are not.
+     *
+     * @exception RecordStoreException if the record store cannot be used
+     */
+    void testLookupAfterDeletes() throws RecordStoreException {
+        int[] oldIds = ids;
+
+        // empty the tree, then fill it again
+        for (int i = 0; i < COUNT; i++) {
+            if (live[i]) {
+                delete(i);
+            }
+        }
+
+        ids = new int[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            byte[] record = data(i);
+            ids[i] = store.addRecord(record, 0, record.length);
+            live[i] = true;
+        }
+
+        assertTrue("new recordIds", ids[0] > oldIds[COUNT - 1]);
+        for (int i = COUNT - 1; i >= 0; i -= 3) {
+            delete(i);
+        }
+
+        check("added after deletes");
+
+        try {
+            store.getRecord(oldIds[0]);
+            fail("old record found");
+        } catch (InvalidRecordIDException iride) {
+            // expected
+        }
+
+        for (int i = 0; i < COUNT; i++) {
+            if (live[i]) {
+                delete(i);
+            }
+        }
+
+        check("all deleted");
+        assertEquals("no records", 0, store.getRecordIDs().length);
+    }
+
+    /**
+     * Run all tests.
+     *
+     * @exception Throwable if a test fails unexpectedly
+     */
+    public void runTests() throws Throwable {
+        try {
+            RecordStoreImpl.deleteRecordStore(getSecurityToken(), SUITE, NAME);
+        } catch (RecordStoreException rse) {
+            // not found
+        }
+
+        open();
+
+        try {
+            declare("testInsert");
+            testInsert();
+
+            declare("testDelete");
+            testDelete();
+
+            declare("testReopen");
+            testReopen();
+
+            declare("testLookupAfterDeletes");
+            testLookupAfterDeletes();
+        } finally {
+            store.closeRecordStore();
+            RecordStoreImpl.deleteRecordStore(getSecurityToken(), SUITE, NAME);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ *
+ *
+ * Copyright  1990-2007 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.rms;
+
+/**
+ * Extracts the key of a record for a key index of a record store.
+ * Keys are compared byte by byte as unsigned values, a shorter key
+ * precedes every longer key it is a prefix of. For example, an integer
+ * field can be stored big endian with the sign bit flipped to be
+ * ordered by value.
+ */
+public interface RecordKeyExtractor {
+    /**
+     * Returns the key of the given record.
+     *
+     * @param record the data of the record
+     *
+     * @return the key of the record or null if the record should
+     *         not be indexed
+     */
+    byte[] getKey(byte[] record);
+}
@@ -35,6 +35,7 @@ import javax.microedition.rms.*;
 
 import com.sun.midp.security.Permissions;
 import com.sun.midp.security.SecurityToken;
+import com.sun.midp.main.Configuration;
 import com.sun.midp.log.Logging;
 import com.sun.midp.log.LogChannels;
 
@@ -46,6 +47,41 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
     /** used to compact the records of the record store */
     private byte[] compactBuffer = new byte[COMPACT_BUFFER_SIZE];
 
+    /**
+     * Maximum number of bytes one incremental compaction step may read
+     * or move before it returns. Zero disables incremental compaction,
+     * the whole file is compacted on close then.
+     */
+    static final int COMPACT_STEP_SIZE =
+        Configuration.getNonNegativeIntProperty(
+            "com.sun.midp.rms.compactStepSize", 8 * COMPACT_BUFFER_SIZE);
+
+    /**
+     * addRecord() makes an incremental compaction step when the free
+     * space exceeds 1/COMPACT_FREE_RATIO of the record store data size.
+     */
+    private static final int COMPACT_FREE_RATIO = 4;
+
+    /**
+     * offset of the block the next incremental compaction step starts at,
+     * reset on lock when another MIDlet has changed the db file
+     */
+    private int compactOffset = DB_HEADER_SIZE;
+
+    /** duration of the last compaction step in milliseconds */
+    private long lastCompactPause;
+
+    /** number of record bytes moved by the last compaction step */
+    private int lastCompactMoved;
+
+    /**
+     * Size in bytes of the page cache over the db file.
+     * Zero disables the cache.
+     */
+    private static final int PAGE_CACHE_SIZE =
+        Configuration.getNonNegativeIntProperty(
+            "com.sun.midp.rms.pageCacheSize", 0);
+
     /**
      * Internal indicator for AUTHMODE_ANY with read only access
      * AUTHMODE_ANY_RO has a value of 2.
@@ -55,6 +91,18 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
     /** unique id for suite that owns this record store */
     int suiteId;
 
+    /** name of this record store */
+    private String recordStoreName;
+
+    /**
+     * Appended to the record store name to get the name of the file
+     * keeping the key indexes. The resulting name is longer than 32
+     * characters, so it never clashes with the files of another
+     * record store.
+     */
+    static final String KEY_INDEX_FILE_SUFFIX =
+        "#keys###########################";
+
     /** 
      * lock used to synchronize this record store between concurrently 
      * running MIDlets 
@@ -68,7 +116,16 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
     private RecordStoreIndex dbIndex;
 
     /** record store data */
-    private RecordStoreFile dbFile;
+    private AbstractRecordStoreFile dbFile;
+
+    /** page cache over the db file, null if the cache is disabled */
+    private RecordStoreFileCache dbCache;
+
+    /**
+     * shared header version the cached pages and the index are valid for,
+     * it changes when another MIDlet updates the record store
+     */
+    private int dbHeaderVersion;
 
     /**
      * Deletes the named record store. MIDlet suites are only allowed
@@ -105,6 +162,11 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
             boolean success = RecordStoreIndex.deleteIndex(
                 suiteId, recordStoreName);
 
+            RecordStoreUtil.quietDeleteFile(
+                    RmsEnvironment.getSecureFilenameBase(suiteId),
+                    recordStoreName + KEY_INDEX_FILE_SUFFIX,
+                    RecordStoreFile.IDX_EXTENSION);
+
             RecordStoreUtil.deleteFile(
                     RmsEnvironment.getSecureFilenameBase(suiteId),
                     recordStoreName, RecordStoreFile.DB_EXTENSION);
@@ -213,6 +275,7 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
                     dbFile.write(dbHeaderData, RS1_AUTHMODE, 4);
                     dbHeader.headerUpdated(dbHeaderData);
                     // dbFile.commitWrite();
+                    flushDbFile();
                 } catch (java.io.IOException ioe) {
                     throw new RecordStoreException("error writing record " +
                             "store attributes");
@@ -249,7 +312,12 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
             lockRecordStore();
 
             try {
-                compactRecords();  // compact before close
+                // compact before close
+                if (COMPACT_STEP_SIZE == 0) {
+                    compactRecords();
+                } else {
+                    compactRecords(COMPACT_STEP_SIZE);
+                }
                 dbFile.close();
                 dbIndex.close();
             } catch (java.io.IOException ioe) {
@@ -258,6 +326,7 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
             } finally {
                 unlockRecordStore();
                 dbFile = null;
+                dbCache = null;
                 dbHeader.recordStoreClosed();
             }
         }
@@ -431,6 +500,11 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
                 int recordId = getNextRecordID();
 
                 try {
+                    // reclaim some free space before allocating a block
+                    if (isCompactionNeeded()) {
+                        compactRecords(COMPACT_STEP_SIZE);
+                    }
+
                     // add a block for this record
                     addBlock(recordId, data, offset, numBytes);
 
@@ -452,6 +526,7 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
                     dbHeader.headerUpdated(dbHeaderData);
                     dbIndex.recordStoreVersionUpdated(newVersion);
                     // dbFile.commitWrite();
+                    flushDbFile();
                 } catch (java.io.IOException ioe) {
                     throw new RecordStoreException("error writing new record "
                             + "data");
@@ -465,6 +540,113 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
         }
     }
 
+    /**
+     * Adds a batch of new records to the record store. The records get
+     * consecutive recordIds in the order they are given. This is a
+     * blocking atomic operation: either all records are added or,
+     * if adding one of them fails, the records already written are
+     * removed again and the record store is left as it was.
+     *
+     * The record store is locked, checked for space and its header
+     * written once for the whole batch, so adding many records this
+     * way is much cheaper than calling <code>addRecord</code> for
+     * each of them.
+     *
+     * @param records the data of the records to add, a
+     *          <code>null</code> element adds a record with no data
+     *
+     * @return the recordIds of the new records
+     *
+     * @exception RecordStoreNotOpenException if the record store is
+     *          not open
+     * @exception RecordStoreException if a different record
+     *          store-related exception occurred
+     * @exception RecordStoreFullException if the operation cannot be
+     *          completed because the record store has no more room
+     * @exception SecurityException if the MIDlet has read-only access
+     *          to the RecordStore
+     */
+    public int[] addRecords(byte[][] records)
+        throws RecordStoreNotOpenException, RecordStoreException,
+            RecordStoreFullException {
+
+        int[] recordIds = new int[records.length];
+        int[] blockOffsets = new int[records.length];
+
+        synchronized (recordStoreLock) {
+            lockRecordStore();
+
+            try {
+                int firstId = getNextRecordID();
+                int numAdded = 0;
+                byte[] dbHeaderData = null;
+                byte[] oldHeaderData = null;
+
+                try {
+                    // reclaim some free space before allocating blocks
+                    if (isCompactionNeeded()) {
+                        compactRecords(COMPACT_STEP_SIZE);
+                    }
+
+                    reserveSpace(records);
+
+                    // keep the header fields the blocks change for a rollback
+                    dbHeaderData = dbHeader.getHeaderData();
+                    oldHeaderData = new byte[DB_HEADER_SIZE - RS2_NEXT_ID];
+                    System.arraycopy(dbHeaderData, RS2_NEXT_ID,
+                                     oldHeaderData, 0, oldHeaderData.length);
+
+                    for (; numAdded < records.length; numAdded++) {
+                        byte[] data = records[numAdded];
+                        int numBytes = (data == null) ? 0 : data.length;
+
+                        recordIds[numAdded] = firstId + numAdded;
+                        blockOffsets[numAdded] = addBlock(firstId + numAdded,
+                            data, 0, numBytes, true);
+                    }
+
+                    // update the db header once for the whole batch
+                    RecordStoreUtil.putInt(firstId + records.length,
+                            dbHeaderData, RS2_NEXT_ID);
+                    RecordStoreUtil.putInt(getNumRecords() + records.length,
+                            dbHeaderData, RS3_NUM_LIVE);
+                    int newVersion = getVersion()+1;
+                    RecordStoreUtil.putInt(newVersion, dbHeaderData,
+                            RS4_VERSION);
+                    RecordStoreUtil.putLong(System.currentTimeMillis(),
+                            dbHeaderData, RS5_LAST_MODIFIED);
+
+                    // write out the changes to the db header
+                    dbFile.seek(RS2_NEXT_ID);
+                    dbFile.write(dbHeaderData, RS2_NEXT_ID, 3*4+8);
+
+                    // the header names the new records, keep them
+                    numAdded = -1;
+
+                    dbHeader.headerUpdated(dbHeaderData);
+                    dbIndex.recordStoreVersionUpdated(newVersion);
+                    // dbFile.commitWrite();
+                    flushDbFile();
+                } catch (java.io.IOException ioe) {
+                    throw new RecordStoreException("error writing new record "
+                            + "data");
+                } finally {
+                    if (numAdded >= 0 && oldHeaderData != null) {
+                        // the batch failed, remove the records written so far
+                        removeBlocks(recordIds, blockOffsets, numAdded,
+                            DB_HEADER_SIZE + RecordStoreUtil.getInt(
+                                oldHeaderData, RS6_DATA_SIZE - RS2_NEXT_ID));
+                        restoreHeader(dbHeaderData, oldHeaderData);
+                    }
+                }
+
+                return recordIds;
+            } finally {
+                unlockRecordStore();
+            }
+        }
+    }
+
     /**
      * The record is deleted from the record store. The recordId for
      * this record is NOT reused.
@@ -512,6 +694,7 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
                 dbHeader.headerUpdated(dbHeaderData);
                 dbIndex.recordStoreVersionUpdated(newVersion);
                 // dbFile.commitWrite();
+                flushDbFile();
 
             } catch (java.io.IOException ioe) {
                 throw new RecordStoreException("error updating file after" +
@@ -712,6 +895,7 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
                 dbHeader.headerUpdated(dbHeaderData);
                 dbIndex.recordStoreVersionUpdated(newVersion);
                 // dbFile.commitWrite();
+                flushDbFile();
             } catch (java.io.IOException ioe) {
                 throw new RecordStoreException("error setting record data");
             } finally {
@@ -746,6 +930,16 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
         return dbFile;
     }
 
+    /**
+     * Replaces the data base file of this record store with a file
+     * accessing the same data, so that tests can make the file fail.
+     *
+     * @param file the new data base file
+     */
+    void setDbFile(AbstractRecordStoreFile file) {
+        dbFile = file;
+    }
+
     /**
      * Creates data base index file associated with this record store
      *
@@ -760,6 +954,202 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
                                    AbstractRecordStoreFile.IDX_EXTENSION);
     }
 
+    /**
+     * Reads the saved key indexes of this record store. A key index
+     * file whose length does not match the data in it is deleted.
+     *
+     * @return the data written by the last call to
+     *         <code>writeKeyIndexes()</code> or null if there is none
+     *
+     * @exception RecordStoreException if the key index file could not
+     *            be read
+     */
+    public byte[] readKeyIndexes() throws RecordStoreException {
+        synchronized (recordStoreLock) {
+            recordStoreLock.obtain();
+
+            try {
+                if (!RecordStoreUtil.exists(
+                        RmsEnvironment.getSecureFilenameBase(suiteId),
+                        recordStoreName + KEY_INDEX_FILE_SUFFIX,
+                        RecordStoreFile.IDX_EXTENSION)) {
+                    return null;
+                }
+
+                RecordStoreFile file = new RecordStoreFile(suiteId,
+                    recordStoreName + KEY_INDEX_FILE_SUFFIX,
+                    RecordStoreFile.IDX_EXTENSION);
+
+                byte[] data = null;
+
+                try {
+                    byte[] size = new byte[4];
+                    if (file.read(size) == size.length) {
+                        data = readKeyIndexData(file,
+                                                RecordStoreUtil.getInt(size, 0));
+                    }
+                } finally {
+                    file.close();
+                }
+
+                if (data == null) {
+                    if (Logging.REPORT_LEVEL <= Logging.WARNING) {
+                        Logging.report(Logging.WARNING, LogChannels.LC_RMS,
+                                       "discarding invalid key index file " +
+                                       "of " + recordStoreName);
+                    }
+
+                    RecordStoreUtil.quietDeleteFile(
+                        RmsEnvironment.getSecureFilenameBase(suiteId),
+                        recordStoreName + KEY_INDEX_FILE_SUFFIX,
+                        RecordStoreFile.IDX_EXTENSION);
+                }
+
+                return data;
+            } catch (java.io.IOException ioe) {
+                throw new RecordStoreException("error reading key " +
+                                               "indexes: " + ioe);
+            } finally {
+                recordStoreLock.release();
+            }
+        }
+    }
+
+    /**
+     * Reads the data of the key index file after its length. The data
+     * is read in pieces, so a broken length does not allocate more than
+     * the file holds.
+     *
+     * @param file the key index file, positioned after the length
+     * @param length the length the file gives for the data
+     *
+     * @return the data or null if the file does not hold exactly
+     *         <code>length</code> bytes of data
+     *
+     * @exception IOException if the file could not be read
+     */
+    private static byte[] readKeyIndexData(RecordStoreFile file, int length)
+            throws IOException {
+        byte[] data = new byte[Math.min(Math.max(length, 0), 4096)];
+        int count = 0;
+
+        if (length < 0) {
+            return null;
+        }
+
+        for (;;) {
+            if (count == data.length) {
+                if (count == length) {
+                    // the data must end the file
+                    byte[] extra = new byte[1];
+                    return (file.read(extra) > 0) ? null : data;
+                }
+
+                byte[] bigger =
+                    new byte[Math.min(length, Math.max(count * 2, 4096))];
+                System.arraycopy(data, 0, bigger, 0, count);
+                data = bigger;
+            }
+
+            int n = file.read(data, count, data.length - count);
+            if (n <= 0) {
+                // the file is shorter than its length says
+                return null;
+            }
+
+            count += n;
+        }
+    }
+
+    /**
+     * Saves the key indexes of this record store. The data is read back
+     * by <code>readKeyIndexes()</code> when the record store is opened
+     * again.
+     *
+     * @param data the key indexes to save
+     *
+     * @exception RecordStoreException if the key index file could not
+     *            be written
+     */
+    public void writeKeyIndexes(byte[] data) throws RecordStoreException {
+        synchronized (recordStoreLock) {
+            recordStoreLock.obtain();
+
+            try {
+                RecordStoreFile file = new RecordStoreFile(suiteId,
+                    recordStoreName + KEY_INDEX_FILE_SUFFIX,
+                    RecordStoreFile.IDX_EXTENSION);
+
+                try {
+                    byte[] size = new byte[4];
+                    RecordStoreUtil.putInt(data.length, size, 0);
+                    file.write(size);
+                    file.write(data);
+                    file.truncate(size.length + data.length);
+                    file.commitWrite();
+                } finally {
+                    file.close();
+                }
+            } catch (java.io.IOException ioe) {
+                throw new RecordStoreException("error writing key " +
+                                               "indexes: " + ioe);
+            } finally {
+                recordStoreLock.release();
+            }
+        }
+    }
+
+    /**
+     * Makes one bounded step of incremental compaction. Every step
+     * continues where the previous one stopped, reads or moves at most
+     * <code>com.sun.midp.rms.compactStepSize</code> bytes and leaves
+     * the record store consistent, so the record store lock is held
+     * only for a short time.
+     *
+     * @return <code>true</code> if there are no free blocks left
+     *         to compact, <code>false</code> otherwise
+     *
+     * @exception RecordStoreException if an error occurs during record
+     *            store compaction
+     */
+    public boolean compactRecordsStep() throws RecordStoreException {
+        synchronized (recordStoreLock) {
+            lockRecordStore();
+
+            try {
+                boolean done = compactRecords((COMPACT_STEP_SIZE == 0) ?
+                    Integer.MAX_VALUE : COMPACT_STEP_SIZE);
+                flushDbFile();
+                return done;
+            } catch (java.io.IOException ioe) {
+                throw new RecordStoreException("error compacting record " +
+                                               "store");
+            } finally {
+                unlockRecordStore();
+            }
+        }
+    }
+
+    /**
+     * Returns the time the record store was locked by the last
+     * compaction step.
+     *
+     * @return duration of the last compaction step in milliseconds
+     */
+    public long getLastCompactionPause() {
+        return lastCompactPause;
+    }
+
+    /**
+     * Returns the number of record bytes moved by the last
+     * compaction step.
+     *
+     * @return number of bytes moved
+     */
+    public int getLastCompactionBytesMoved() {
+        return lastCompactMoved;
+    }
+
     /**
      * Remove free blocks from the record store and compact records
      * with data into as small a space in <code>dbFile</code> as
@@ -774,29 +1164,65 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
      * Warning: it is assumed that this method is only called while being
      * protected by record store lock.
      *
-     * @exception RecordStoreNotOpenException if this record store
-     *            is closed
-     * @exception RecordStoreException if an error occurs during record
+     * @exception IOException if an error occurs during record
      *            store compaction
      */
     private void compactRecords()
         throws IOException {
 
+        compactOffset = DB_HEADER_SIZE;
+        compactRecords(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Makes one step of compaction starting from <code>compactOffset</code>.
+     * Free blocks met on the way are collected in a gap the following
+     * records are moved up into. When the step budget is exhausted
+     * the gap is written out as a single free block and the next step
+     * starts from it; a gap that reaches the end of the file is
+     * truncated. RS6_DATA_SIZE, RS7_FREE_SIZE and the index are valid
+     * after every step.
+     *
+     * Warning: it is assumed that this method is only called while being
+     * protected by record store lock.
+     *
+     * @param maxBytes maximum number of bytes to read or move in this step
+     *
+     * @return <code>true</code> if there are no free blocks left
+     *         to compact, <code>false</code> otherwise
+     *
+     * @exception IOException if an error occurs during record
+     *            store compaction
+     */
+    private boolean compactRecords(int maxBytes)
+        throws IOException {
+
         // check if the db can be compacted
         byte[] dbHeaderData = dbHeader.getHeaderData();
         if (RecordStoreUtil.getInt(dbHeaderData, RS7_FREE_SIZE) == 0) {
             // no free space to compact
-            return;
+            compactOffset = DB_HEADER_SIZE;
+            return true;
+        }
+
+        long startTime = System.currentTimeMillis();
+        int dataEnd = getSize();
+
+        if (compactOffset >= dataEnd) {
+            compactOffset = DB_HEADER_SIZE;
         }
 
         byte[] header = new byte[BLOCK_HEADER_SIZE];
         int currentId = 0;
-        int currentOffset = RecordStoreImpl.DB_HEADER_SIZE;
+        int currentOffset = compactOffset;
+        boolean fromStart = (currentOffset == DB_HEADER_SIZE);
         int currentSize = 0;
         int moveUpNumBytes = 0;
+        int numBytes = 0;
+        int numMovedTotal = 0;
 
         // search through the data blocks for a free block that is large enough
-        while (currentOffset < getSize()) {
+        while (currentOffset < dataEnd && numBytes < maxBytes) {
             // seek to the next offset
             dbFile.seek(currentOffset);
 
@@ -805,6 +1231,7 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
                 // could not read the block
                 throw new IOException();
             }
+            numBytes += BLOCK_HEADER_SIZE;
 
             currentId = RecordStoreUtil.getInt(header, 0);
             currentSize =
@@ -842,7 +1269,7 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
 
                     if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
                         Logging.report(Logging.INFORMATION, LogChannels.LC_RMS,
-                                       "moveUpNumBytes = " + currentOffset);
+                                       "moveUpNumBytes = " + moveUpNumBytes);
                     }
 
                     int numMoved = 0;
@@ -865,6 +1292,8 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
                     }
 
                     dbIndex.updateBlock(currentOffset - moveUpNumBytes, header);
+                    numBytes += currentSize;
+                    numMovedTotal += currentSize;
                 }
             }
 
@@ -872,18 +1301,48 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
             currentOffset += currentSize;
         }
 
-        // check if the db file can be truncated
-        if (moveUpNumBytes > 0) {
+        if (moveUpNumBytes == 0) {
+            // nothing collected, continue from here next time
+            compactOffset = (currentOffset < dataEnd) ?
+                currentOffset : DB_HEADER_SIZE;
+
+            if (fromStart && currentOffset >= dataEnd) {
+                // a whole pass found no free blocks
+                putFreeSize(dbHeaderData, 0);
+            }
+        } else if (currentOffset < dataEnd) {
+            // keep the collected space as one free block for the next step
+            compactOffset = currentOffset - moveUpNumBytes;
+            RecordStoreUtil.putInt(-1, header, 0);
+            RecordStoreUtil.putInt(moveUpNumBytes - BLOCK_HEADER_SIZE,
+                                   header, 4);
+            writeBlock(compactOffset, header, null, 0, 0);
+
+            /*
+             * The record store version stays the same, but the blocks
+             * were moved: bump the shared header version so that other
+             * MIDlets drop their cached pages, index and compaction offset.
+             */
+            dbHeader.headerUpdated(dbHeaderData);
+        } else {
+            // the collected space is at the end, the db file can be truncated
             RecordStoreUtil.putInt(
                 RecordStoreUtil.getInt(dbHeaderData, RS6_DATA_SIZE) -
                     moveUpNumBytes, dbHeaderData, RS6_DATA_SIZE);
-            RecordStoreUtil.putInt(0, dbHeaderData, RS7_FREE_SIZE);
+            /*
+             * After a whole pass the collected space was all the free
+             * space, whatever the header said.
+             */
+            RecordStoreUtil.putInt(fromStart ? 0 :
+                RecordStoreUtil.getInt(dbHeaderData, RS7_FREE_SIZE) -
+                    moveUpNumBytes, dbHeaderData, RS7_FREE_SIZE);
             dbFile.seek(RS6_DATA_SIZE);
             dbFile.write(dbHeaderData, RS6_DATA_SIZE, 4+4);
             dbHeader.headerUpdated(dbHeaderData);
             // dbFile.commitWrite();
 
             dbFile.truncate(getSize());
+            compactOffset = DB_HEADER_SIZE;
 
             if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
                 Logging.report(Logging.INFORMATION, LogChannels.LC_RMS,
@@ -891,6 +1350,60 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
                                getSize());
             }
         }
+
+        lastCompactMoved = numMovedTotal;
+        lastCompactPause = System.currentTimeMillis() - startTime;
+
+        if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
+            Logging.report(Logging.INFORMATION, LogChannels.LC_RMS,
+                           "compactRecords step: moved " + lastCompactMoved +
+                           " bytes in " + lastCompactPause + " ms");
+        }
+
+        return RecordStoreUtil.getInt(dbHeaderData, RS7_FREE_SIZE) == 0;
+    }
+
+    /**
+     * Sets the free size of the db header if it is different, in memory
+     * and in the file.
+     *
+     * Warning: it is assumed that this method is only called while being
+     * protected by record store lock.
+     *
+     * @param dbHeaderData the db header data
+     * @param freeSize the new free size
+     *
+     * @exception IOException if there is an error accessing the db file
+     */
+    private void putFreeSize(byte[] dbHeaderData, int freeSize)
+        throws IOException {
+
+        if (RecordStoreUtil.getInt(dbHeaderData, RS7_FREE_SIZE) == freeSize) {
+            return;
+        }
+
+        RecordStoreUtil.putInt(freeSize, dbHeaderData, RS7_FREE_SIZE);
+        dbFile.seek(RS7_FREE_SIZE);
+        dbFile.write(dbHeaderData, RS7_FREE_SIZE, 4);
+        dbHeader.headerUpdated(dbHeaderData);
+    }
+
+    /**
+     * Checks if the free space in the record store is large enough
+     * to make an incremental compaction step.
+     *
+     * @return <code>true</code> if a compaction step should be made
+     */
+    private boolean isCompactionNeeded() {
+        if (COMPACT_STEP_SIZE == 0) {
+            return false;
+        }
+
+        byte[] dbHeaderData = dbHeader.getHeaderData();
+        int freeSize = RecordStoreUtil.getInt(dbHeaderData, RS7_FREE_SIZE);
+
+        return freeSize > 0 && freeSize * COMPACT_FREE_RATIO >=
+            RecordStoreUtil.getInt(dbHeaderData, RS6_DATA_SIZE);
     }
 
     /**
@@ -941,6 +1454,122 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
         }
     }
 
+    /**
+     * Makes sure there is room for all the given records in the record
+     * store, compacting it if the records fit only into the free blocks.
+     * 
+     * Warning: it is assumed that this method is only called while being
+     * protected by record store lock.
+     *
+     * @param records the data of the records to add
+     *
+     * @exception RecordStoreFullException if the records do not fit
+     *          into the record store
+     * @exception IOException if there is an error accessing the db file
+     */
+    private void reserveSpace(byte[][] records)
+        throws IOException, RecordStoreFullException {
+
+        int totalSize = 0;
+        for (int i = 0; i < records.length; i++) {
+            totalSize += RecordStoreUtil.calculateBlockSize(
+                (records[i] == null) ? 0 : records[i].length);
+        }
+
+        int spaceAvailable = getSizeAvailable();
+        if (spaceAvailable < totalSize) {
+            byte[] dbHeaderData = dbHeader.getHeaderData();
+            if (spaceAvailable + RecordStoreUtil.getInt(dbHeaderData,
+                    RS7_FREE_SIZE) < totalSize) {
+                throw new RecordStoreFullException();
+            }
+
+            // move all the free space to the end of the file
+            compactRecords();
+        }
+    }
+
+    /**
+     * Puts back the header fields a failed batch changed, in memory and
+     * in the file, and cuts the blocks the batch appended off the file.
+     * Errors are logged, not thrown, so that the original failure is
+     * reported to the caller.
+     * 
+     * Warning: it is assumed that this method is only called while being
+     * protected by record store lock.
+     *
+     * @param dbHeaderData the header data changed by the batch
+     * @param oldHeaderData the fields from next ID to free size
+     *          before the batch
+     */
+    private void restoreHeader(byte[] dbHeaderData, byte[] oldHeaderData) {
+        System.arraycopy(oldHeaderData, 0, dbHeaderData, RS2_NEXT_ID,
+                         oldHeaderData.length);
+
+        try {
+            // the failed write may have changed a part of the file
+            dbFile.seek(RS2_NEXT_ID);
+            dbFile.write(dbHeaderData, RS2_NEXT_ID, oldHeaderData.length);
+            dbHeader.headerUpdated(dbHeaderData);
+
+            // drop the appended blocks, also a partly written one
+            dbFile.truncate(getSize());
+            flushDbFile();
+        } catch (java.io.IOException ioe) {
+            if (Logging.REPORT_LEVEL <= Logging.ERROR) {
+                Logging.report(Logging.ERROR, LogChannels.LC_RMS,
+                               "error restoring the header of a failed " +
+                               "batch: " + ioe);
+            }
+        }
+    }
+
+    /**
+     * Removes the records added by a failed batch from the index and
+     * frees their blocks which reused free blocks. The blocks appended
+     * to the file are left for <code>restoreHeader</code> to cut off.
+     * Errors are logged, not thrown, so that the original failure is
+     * reported to the caller.
+     * 
+     * Warning: it is assumed that this method is only called while being
+     * protected by record store lock.
+     *
+     * @param recordIds IDs of the added records
+     * @param blockOffsets offsets of the blocks of the added records
+     * @param count number of records to remove
+     * @param oldSize size of the db file before the batch
+     */
+    private void removeBlocks(int[] recordIds, int[] blockOffsets,
+                              int count, int oldSize) {
+        byte[] header = new byte[BLOCK_HEADER_SIZE];
+
+        try {
+            for (int i = count - 1; i >= 0; i--) {
+                if (blockOffsets[i] >= oldSize) {
+                    // appended, the file is truncated
+                    dbIndex.deleteRecordIndex(recordIds[i]);
+                    continue;
+                }
+
+                dbFile.seek(blockOffsets[i]);
+                if (dbFile.read(header) != BLOCK_HEADER_SIZE) {
+                    throw new IOException();
+                }
+
+                freeBlock(blockOffsets[i], header);
+                dbIndex.deleteRecordIndex(recordIds[i]);
+            }
+
+            flushDbFile();
+        } catch (java.io.IOException ioe) {
+            if (Logging.REPORT_LEVEL <= Logging.ERROR) {
+                Logging.report(Logging.ERROR, LogChannels.LC_RMS,
+                               "error removing records of a failed batch: " +
+                               ioe);
+            }
+        }
+    }
+
     /**
      * Adds a block for the record and data or sets an existing block to
      * the data.  Splits an exiting block if needed.
@@ -966,6 +1595,35 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
     private int addBlock(int recordId, byte[] data, int offset, int numBytes)
         throws IOException, RecordStoreFullException, RecordStoreException {
 
+        return addBlock(recordId, data, offset, numBytes, false);
+    }
+
+    /**
+     * Adds a block for the record and data or sets an existing block to
+     * the data.  Splits an exiting block if needed.
+     * 
+     * Warning: it is assumed that this method is only called while being
+     * protected by record store lock.
+     *
+     * @param recordId the ID of the record to use in this operation
+     * @param data the new data to store in the record
+     * @param offset the index into the data buffer of the first
+     *          relevant byte for this record
+     * @param numBytes the number of bytes of the data buffer to use
+     *          for this record
+     *
+     * @exception RecordStoreFullException if the operation cannot be
+     *          completed because the record store has no more room
+     * @exception IOException if there is an error accessing the db file
+     * @exception RecordStoreException if the new consumption is gong to
+     *            exceed the resource limit
+     *
+     * @return the offset in the db file of the block added
+     */
+    private int addBlock(int recordId, byte[] data, int offset, int numBytes,
+                         boolean spaceReserved)
+        throws IOException, RecordStoreFullException, RecordStoreException {
+
         if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
             Logging.report(Logging.INFORMATION, LogChannels.LC_RMS,
                            "addBlock("+recordId+") numBytes="+numBytes);
@@ -1000,28 +1658,35 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
         RecordStoreUtil.putInt(recordId, header, 0);
 
         if (blockOffset > 0) {
-            // search found a block, use it
+            // search found a block, use it; the unused part is freed again
+            putFreeSize(dbHeaderData, freeBlocksSize -
+                RecordStoreUtil.calculateBlockSize(
+                    RecordStoreUtil.getInt(header, 4)));
             splitBlock(blockOffset, header, data, offset, numBytes);
         } else {
             // search failed, add a new block to the end of the db file
-            int spaceAvailable = getSizeAvailable();
-            /**
-             * spaceAvailable returns the smaller number of total space
-             * available and the storage limit per suite. If it is less than
-             * the block size to be added, RecordStoreFullException is thrown
-             */
-            if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
-                Logging.report(Logging.INFORMATION, LogChannels.LC_RMS,
-                               "spaceAvailable = "+spaceAvailable);
-            }
+            if (!spaceReserved) {
+                int spaceAvailable = getSizeAvailable();
+                /**
+                 * spaceAvailable returns the smaller number of total space
+                 * available and the storage limit per suite. If it is less
+                 * than the block size to be added, RecordStoreFullException
+                 * is thrown
+                 */
+                if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
+                    Logging.report(Logging.INFORMATION, LogChannels.LC_RMS,
+                                   "spaceAvailable = "+spaceAvailable);
+                }
 
-            // Is there room to grow the file?
-            if (spaceAvailable < blockSize) {
-                 // Is there enough room totally: in storage and free blocks?
-                 if (spaceAvailable + freeBlocksSize < blockSize) {
-                     throw new RecordStoreFullException();
-                 }
-                 compactRecords();
+                // Is there room to grow the file?
+                if (spaceAvailable < blockSize) {
+                    // Is there enough room totally: in storage and free
+                    // blocks?
+                    if (spaceAvailable + freeBlocksSize < blockSize) {
+                        throw new RecordStoreFullException();
+                    }
+                    compactRecords();
+                }
             }
 
             blockOffset = getSize();
@@ -1049,10 +1714,12 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
     }
 
     /**
-     * Mark the block at the given offset in db file as free.
+     * Mark the block at the given offset in db file as free. The block
+     * is merged with the free blocks right before and after it.
      *
      * @param blockOffset the offset in db file to the block to free
-     * @param header the header of the block to free
+     * @param header the header of the block to free, it is set to the
+     *               header of the resulting free block
      *
      * @exception IOException if there is an error accessing the db file
      */
@@ -1068,12 +1735,67 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
                            blockSize);
         }
 
-        // mark the block as free
+        int freeOffset = blockOffset;
+        int freeSize = blockSize;
+        byte[] neighbor = new byte[BLOCK_HEADER_SIZE];
+
+        /*
+         * Mark the block as free before looking for its neighbors, the
+         * lookup may scan the db file and the block may be a part of a
+         * split block that has no header yet. This also keeps the headers
+         * inside a merged block valid, so a scan started at any of them
+         * finds the following blocks.
+         */
         RecordStoreUtil.putInt(-1, header, 0);
         RecordStoreUtil.putInt(blockSize - BLOCK_HEADER_SIZE, header, 4);
+        dbFile.seek(blockOffset);
+        dbFile.write(header);
+
+        /*
+         * Merge with the preceding block if it is free. This is done
+         * first, the lookup brings the free block index up to date, so
+         * the merged blocks below are removed from it for sure.
+         */
+        int prevOffset = dbIndex.getFreeBlockBefore(blockOffset, neighbor);
+        if (prevOffset > 0) {
+            dbIndex.removeBlock(prevOffset, neighbor);
+            freeSize += blockOffset - prevOffset;
+            freeOffset = prevOffset;
+        }
+
+        // merge with the following block if it is free
+        int nextOffset = blockOffset + blockSize;
+        if (nextOffset < getSize()) {
+            dbFile.seek(nextOffset);
+            if (dbFile.read(neighbor) == BLOCK_HEADER_SIZE &&
+                    RecordStoreUtil.getInt(neighbor, 0) < 0) {
+                dbIndex.removeBlock(nextOffset, neighbor);
+                freeSize += RecordStoreUtil.calculateBlockSize(
+                    RecordStoreUtil.getInt(neighbor, 4));
+            }
+        }
+
+        if (Logging.REPORT_LEVEL <= Logging.INFORMATION &&
+                freeSize != blockSize) {
+            Logging.report(Logging.INFORMATION, LogChannels.LC_RMS,
+                           "merged into free block at " + freeOffset +
+                           " size = " + freeSize);
+        }
+
+        if (freeOffset != blockOffset) {
+            // the block may have been indexed while scanning the db file
+            dbIndex.removeBlock(blockOffset, header);
+        }
+
+        if (compactOffset > freeOffset &&
+                compactOffset < freeOffset + freeSize) {
+            // compaction must not continue inside the merged block
+            compactOffset = freeOffset;
+        }
 
         // save the updated block header
-        writeBlock(blockOffset, header, null, 0, 0);
+        RecordStoreUtil.putInt(freeSize - BLOCK_HEADER_SIZE, header, 4);
+        writeBlock(freeOffset, header, null, 0, 0);
 
         // add to the db free size
         byte[] dbHeaderData = dbHeader.getHeaderData();
@@ -1120,18 +1842,58 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
         dbIndex.updateBlock(blockOffset, header);
     }
 
+    /**
+     * Writes the data kept in the page cache to the db file.
+     *
+     * @exception IOException if there is an error accessing the db file
+     */
+    private void flushDbFile() throws IOException {
+        if (dbCache != null) {
+            dbCache.flush();
+        }
+    }
+
     /**
      * Locks this record store.
      */
     private void lockRecordStore() {
         recordStoreLock.obtain();
         dbHeader.recordStoreLocked();
+
+        if (dbHeaderVersion != dbHeader.getHeaderVersion()) {
+            // the db file was changed by another MIDlet
+            if (dbCache != null) {
+                dbCache.invalidate();
+            }
+
+            dbIndex.recordStoreChanged();
+
+            // blocks may have been moved, the saved offset may point
+            // inside a block now
+            compactOffset = DB_HEADER_SIZE;
+        }
     }
 
     /**
      * Unlocks this record store.
      */
     private void unlockRecordStore() {
+        if (dbCache != null) {
+            if (dbCache.isDirty()) {
+                // an operation failed before it flushed the cache
+                try {
+                    dbCache.flush();
+                } catch (java.io.IOException ioe) {
+                    if (Logging.REPORT_LEVEL <= Logging.ERROR) {
+                        Logging.report(Logging.ERROR, LogChannels.LC_RMS,
+                                       "error flushing page cache: " + ioe);
+                    }
+                }
+            }
+        }
+
+        dbHeaderVersion = dbHeader.getHeaderVersion();
+
         dbHeader.recordStoreAboutToBeUnlocked();
         recordStoreLock.release();        
     }
@@ -1156,6 +1918,7 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
         throws RecordStoreException, RecordStoreNotFoundException {
 
         this.suiteId = suiteId;
+        this.recordStoreName = recordStoreName;
         recordStoreLock = RecordStoreLockFactory.getLockInstance(
                 token, suiteId, recordStoreName);
 
@@ -1192,8 +1955,9 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
 
             // Create a RecordStoreFile for storing the record store.
             try {
-                dbFile = new RecordStoreFile(suiteId, recordStoreName,
-                        RecordStoreFile.DB_EXTENSION);
+                RecordStoreFile file = new RecordStoreFile(suiteId,
+                        recordStoreName, RecordStoreFile.DB_EXTENSION);
+                dbFile = file;
 
                 // allocate a new header
                 byte[] dbHeaderData = new byte[DB_HEADER_SIZE];
@@ -1231,6 +1995,13 @@ public class RecordStoreImpl implements AbstractRecordStoreImpl {
                 dbHeader = new RecordStoreSharedDBHeader(suiteId, 
                         recordStoreName, dbHeaderData);                
 
+                dbHeaderVersion = dbHeader.getHeaderVersion();
+
+                if (PAGE_CACHE_SIZE > 0) {
+                    dbCache = new RecordStoreFileCache(file, PAGE_CACHE_SIZE);
+                    dbFile = dbCache;
+                }
+
                 // create the index object
                 dbIndex = new RecordStoreIndex(this, suiteId, recordStoreName);
 
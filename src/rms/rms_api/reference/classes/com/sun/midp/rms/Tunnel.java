@@ -26,6 +26,8 @@
 
 package com.sun.midp.rms;
 
+import javax.microedition.rms.RecordEnumeration;
+import javax.microedition.rms.RecordFilter;
 import javax.microedition.rms.RecordStore;
 import javax.microedition.rms.RecordStoreException;
 
@@ -37,4 +39,18 @@ public abstract class Tunnel {
 
 	public abstract void deleteRecordStore(int suiteID, String storeName) 
 									throws RecordStoreException;
+
+	public abstract int[] addRecords(RecordStore store, byte[][] records)
+									throws RecordStoreException;
+
+	public abstract void createIndex(RecordStore store, String indexName,
+			RecordKeyExtractor extractor) throws RecordStoreException;
+
+	public abstract void dropIndex(RecordStore store, String indexName)
+									throws RecordStoreException;
+
+	public abstract RecordEnumeration enumerateRecords(RecordStore store,
+			String indexName, byte[] lowKey, byte[] highKey,
+			RecordFilter filter, boolean keepUpdated)
+									throws RecordStoreException;
 }
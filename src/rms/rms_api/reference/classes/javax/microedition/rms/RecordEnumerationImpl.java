@@ -47,15 +47,30 @@ class RecordEnumerationImpl implements RecordEnumeration, RecordListener {
     /** The record comparator this enumeration should use, or null if none */
     private RecordComparator comparator;
 
+    /** The key index giving the order of the records, or null if none */
+    private RecordKeyIndex keyIndex;
+
+    /** The lowest key to include, or null for no lower bound */
+    private byte[] lowKey;
+
+    /** The highest key to include, or null for no upper bound */
+    private byte[] highKey;
+
     /** True if this should listen to <code>recordStore</code> for changes */
     private boolean keepEnumUpdated;  // false by default
 
     /** Current pos within the enumeration */
     private int index;  // NO_SUCH_RECORD by default
 
-    /** Array of recordId's of records included in the enumeration */
+    /**
+     * Array of recordId's of records included in the enumeration,
+     * it may have room for more records than it holds
+     */
     private int[] records;
 
+    /** Number of records in <code>records</code> */
+    private int recordCount;
+
     /**
      * A constant recordId indicating the splice point between the
      * last and first records in the enumeration. Returned by
@@ -108,6 +123,47 @@ class RecordEnumerationImpl implements RecordEnumeration, RecordListener {
     }
 
 
+    /**
+     * Builds an enumeration to traverse the records with keys in
+     * the given range of a key index in key order.<p>
+     *
+     * The filter, if non-null, will be used to determine what
+     * subset of the records in the range will be used. The records
+     * are read only to apply the filter.
+     *
+     * @param inp_recordStore the RecordStore to enumerate.
+     * @param inp_keyIndex the key index giving the order of the records.
+     * @param inp_lowKey the lowest key to include or null for no lower
+     *        bound.
+     * @param inp_highKey the highest key to include or null for no upper
+     *        bound.
+     * @param inp_filter if non-null, will be used to determine what
+     *        subset of the records in the range will be used.
+     * @param keepUpdated if true, the enumerator will keep its enumeration
+     *        current with any changes in the records of the record store.
+     *
+     * @see #rebuild
+     */
+    RecordEnumerationImpl(RecordStore inp_recordStore,
+                          RecordKeyIndex inp_keyIndex,
+                          byte[] inp_lowKey, byte[] inp_highKey,
+                          RecordFilter inp_filter,
+                          boolean keepUpdated) {
+	recordStore = inp_recordStore;
+	keyIndex = inp_keyIndex;
+	lowKey = inp_lowKey;
+	highKey = inp_highKey;
+	filter = inp_filter;
+	keepEnumUpdated = keepUpdated;
+
+	if (keepUpdated) {
+	    inp_recordStore.addRecordListener(this);
+	}
+
+	rebuild();
+    }
+
+
     /**
      * Returns the number of records available in this enumeration's
      * set. That is, the number of records that have matched the
@@ -123,7 +179,7 @@ class RecordEnumerationImpl implements RecordEnumeration, RecordListener {
     public synchronized int numRecords() {
 	checkDestroyed();
 
-	return records.length;
+	return recordCount;
     }
 
 
@@ -160,7 +216,7 @@ class RecordEnumerationImpl implements RecordEnumeration, RecordListener {
     public synchronized int nextRecordId()
 	throws InvalidRecordIDException {
 	checkDestroyed();
-	if (index == records.length - 1) {
+	if (index == recordCount - 1) {
 	    throw new InvalidRecordIDException();
 	}
 	if (index == NO_SUCH_RECORD) {
@@ -208,11 +264,11 @@ class RecordEnumerationImpl implements RecordEnumeration, RecordListener {
     public synchronized int previousRecordId()
 	throws InvalidRecordIDException {
 	checkDestroyed();
-	if (index == 0 || records.length == 0) {
+	if (index == 0 || recordCount == 0) {
 	    throw new InvalidRecordIDException();
 	}
 	if (index == NO_SUCH_RECORD) {
-	    index = records.length - 1;
+	    index = recordCount - 1;
 	} else {
 	    index--;
 	}
@@ -227,10 +283,10 @@ class RecordEnumerationImpl implements RecordEnumeration, RecordListener {
      */
     public boolean hasNextElement() {
 	checkDestroyed();
-	if (records.length == 0 || !recordStore.isOpen()) {
+	if (recordCount == 0 || !recordStore.isOpen()) {
 	    return false;
 	}
-	return (index != records.length - 1);
+	return (index != recordCount - 1);
     }
 
 
@@ -241,7 +297,7 @@ class RecordEnumerationImpl implements RecordEnumeration, RecordListener {
      */
     public boolean hasPreviousElement() {
 	checkDestroyed();
-	if (records.length == 0 || !recordStore.isOpen()) {
+	if (recordCount == 0 || !recordStore.isOpen()) {
 	    return false;  // no records in the enumeration
 	}
 	return (index != 0);
@@ -268,7 +324,13 @@ class RecordEnumerationImpl implements RecordEnumeration, RecordListener {
     public void rebuild() {
 	checkDestroyed();
 
-	int[] tmp = recordStore.getRecordIDs();
+	int[] tmp;
+	if (keyIndex != null) {
+	    // the index gives the records in the key range in order
+	    tmp = keyIndex.getRecordIDs(lowKey, highKey);
+	} else {
+	    tmp = recordStore.getRecordIDs();
+	}
 	reFilterSort(tmp);
     }
 
@@ -328,6 +390,10 @@ class RecordEnumerationImpl implements RecordEnumeration, RecordListener {
      */
     public synchronized void recordAdded(RecordStore inp_recordStore, 
 					 int recordId) {
+	if (isIndexDropped()) {
+	    return;
+	}
+
 	checkDestroyed();
         filterAdd(recordId);
     }
@@ -342,14 +408,47 @@ class RecordEnumerationImpl implements RecordEnumeration, RecordListener {
      */
     public synchronized void recordChanged(RecordStore inp_recordStore, 
 					       int recordId) {
+	if (isIndexDropped()) {
+	    return;
+	}
+
 	checkDestroyed();
 	
 	int recIndex = findIndexOfRecord(recordId);
-	if (recIndex >= 0) {
+	if (recIndex < 0) {
+	    // record not previously in the enumeration
+	    filterAdd(recordId);
+	    return;
+	}
+
+	/*
+	 * Only the changed record is checked against the filter. It
+	 * stays where it is if it is still in order with its neighbours,
+	 * otherwise it is moved to its new place.
+	 */
+	byte[] data;
+	try {
+	    if (!isInKeyRange(recordId)) {
+		removeRecordAtIndex(recIndex);
+		return;
+	    }
+
+	    data = readRecord(recordId);
+	    if (filter != null && !filter.matches(data)) {
+		removeRecordAtIndex(recIndex);
+		return;
+	    }
+
+	    if (isInOrder(recIndex, data)) {
+		return;
+	    }
+	} catch (RecordStoreException rse) {
 	    removeRecordAtIndex(recIndex);
-	} // else record not previously in the enumeration
-	
-        filterAdd(recordId);
+	    return;  // recordId does not exist
+	}
+
+	removeRecordAtIndex(recIndex);
+	insertRecord(recordId, data);
     }
     
 
@@ -362,6 +461,10 @@ class RecordEnumerationImpl implements RecordEnumeration, RecordListener {
      */
     public synchronized void recordDeleted(RecordStore inp_recordStore, 
 					   int recordId) {
+	if (isIndexDropped()) {
+	    return;
+	}
+
 	checkDestroyed();
 
 	/*
@@ -386,31 +489,48 @@ class RecordEnumerationImpl implements RecordEnumeration, RecordListener {
      * its resources may be collected.
      */ 
     public synchronized void destroy() {
-	checkDestroyed();
+	// an enumeration over a dropped index can still be destroyed
+	if (recordStore == null) {
+	    throw new IllegalStateException();
+	}
+
 	if (keepEnumUpdated) {
 	    recordStore.removeRecordListener(this);
 	}
 
 	filter = null;
 	comparator = null;
+	keyIndex = null;
 	records = null;
+	recordCount = 0;
 	recordStore = null; // a signal that this is destroyed!
     }
 
 
     /**
      * Helper method that checks if this enumeration can be used.
-     * If this enumeration has been destroyed, an exception is thrown.
+     * If this enumeration has been destroyed or its key index has been
+     * dropped, an exception is thrown.
      *
      * @exception IllegalStateException if RecordEnumeration has been 
      *            destroyed.
      */
     private void checkDestroyed() {
-	if (recordStore == null) {
+	if (recordStore == null || isIndexDropped()) {
 	    throw new IllegalStateException();
 	}
     }
 
+    /**
+     * Tells if the key index of this enumeration has been dropped
+     * from the record store.
+     *
+     * @return true if the enumeration is over a dropped key index
+     */
+    private boolean isIndexDropped() {
+	return keyIndex != null && keyIndex.isDropped();
+    }
+
     /**
      * Used to add a record to an already filtered and sorted
      * <code>records</code> array.  More efficient than 
@@ -418,12 +538,9 @@ class RecordEnumerationImpl implements RecordEnumeration, RecordListener {
      * <code>records</code> being in sorted order.
      *
      * First ensures that record <code>recordId</code> 
-     * meets this enumeration's filter criteria.
-     * If it does it is added to records as array element
-     * 0.  If a comparator is defined for this enumeration,
-     * the helper method <code>sortAdd</code> is called to 
-     * properly position <code>recordId</code> within the ordered
-     * <code>records</code> array.
+     * meets this enumeration's key range and filter criteria.
+     * If it does it is inserted into records by the helper method
+     * <code>insertRecord</code>.
      *
      * Should be called from within a 
      * synchronized (recordStore.rsLock) block.
@@ -431,30 +548,48 @@ class RecordEnumerationImpl implements RecordEnumeration, RecordListener {
      * @param recordId the record to add to this enumeration
      */
     private void filterAdd(int recordId) {
-	int insertPoint = -1;
-	if (filter != null) {
-	    try {
-		if (!filter.matches(recordStore.getRecord(recordId))) {
-		    if (Logging.REPORT_LEVEL <= Logging.WARNING) {
-			Logging.report(Logging.WARNING, LogChannels.LC_RMS,
-				       "Unexpected case in filterAdd: " + 
-				       "recordId filtered out");
-		    }
-		    return;  // recordId filtered out
-		}
-	    } catch (RecordStoreException rse) {
-		return;  // recordId does not exist
+	if (!isInKeyRange(recordId)) {
+	    return;  // recordId is not in the key range
+	}
+
+	// the record is read at most once for the filter and the comparator
+	byte[] data;
+	try {
+	    data = readRecord(recordId);
+	} catch (RecordStoreException rse) {
+	    return;  // recordId does not exist
+	}
+
+	if (filter != null && !filter.matches(data)) {
+	    if (Logging.REPORT_LEVEL <= Logging.WARNING) {
+		Logging.report(Logging.WARNING, LogChannels.LC_RMS,
+			       "Unexpected case in filterAdd: " + 
+			       "recordId filtered out");
 	    }
+	    return;  // recordId filtered out
 	}
 
 	// the new record has been accepted by the filter
-	int[] newrecs = new int[records.length + 1];
-	newrecs[0] = recordId;  // insert new record at front of list
-	System.arraycopy(records, 0, newrecs, 1, records.length);
-	records = newrecs;
-	if (comparator != null) {  // move the new record into place
+	insertRecord(recordId, data);
+    }
+
+
+    /**
+     * Helper method called by <code>filterAdd</code> and
+     * <code>recordChanged</code>. Inserts a record accepted by the
+     * filter into the <code>records</code> array. Without a comparator
+     * or a key index the record is put at the front, otherwise
+     * <code>sortInsert</code> finds its place.
+     *
+     * @param recordId the record to insert
+     * @param data the data of the record if it is needed by the
+     *        comparator
+     */
+    private void insertRecord(int recordId, byte[] data) {
+	int insertPoint = 0;
+	if (comparator != null || keyIndex != null) {
 	    try {
-		insertPoint = sortInsert();
+		insertPoint = sortInsert(recordId, data);
 	    } catch (RecordStoreException rse) {
 		// NOTE: - should never be here
 		// throw a RSE?  destroy record enumeration?
@@ -464,6 +599,19 @@ class RecordEnumerationImpl implements RecordEnumeration, RecordListener {
 		}
 	    }
 	}
+
+	if (recordCount == records.length) {
+	    // grow by half, so a series of additions copies little
+	    int[] newrecs = new int[recordCount + (recordCount >> 1) + 4];
+	    System.arraycopy(records, 0, newrecs, 0, recordCount);
+	    records = newrecs;
+	}
+
+	System.arraycopy(records, insertPoint, records, insertPoint + 1,
+			 recordCount - insertPoint);
+	records[insertPoint] = recordId;
+	recordCount++;
+
 	// keep index up to date as well
 	if (index != NO_SUCH_RECORD && insertPoint <= index) {
 	    index++;
@@ -472,33 +620,156 @@ class RecordEnumerationImpl implements RecordEnumeration, RecordListener {
 
 
     /**
-     * Helper method called by <code>filterAdd</code>.
-     * Moves the possibly unsorted element zero in the
-     * <code>records</code> array to its sorted position
-     * within the array.
+     * Checks if a record has a key in the key range of this
+     * enumeration. The key index has already been updated by the
+     * record store when this enumeration is notified.
+     *
+     * @param recordId the record to check
      *
-     * @return index of inserted element.
+     * @return true if there is no key index or the key of the record
+     *         is in the range
+     */
+    private boolean isInKeyRange(int recordId) {
+	if (keyIndex == null) {
+	    return true;
+	}
+
+	byte[] key = keyIndex.getKey(recordId);
+	return key != null && RecordKeyIndex.isInRange(key, lowKey, highKey);
+    }
+
+
+    /**
+     * Reads a record if the filter or the comparator needs its data.
+     *
+     * @param recordId the record to read
+     *
+     * @return the data of the record or null if it is not needed
+     *
+     * @exception RecordStoreException if the record cannot be read
+     */
+    private byte[] readRecord(int recordId) throws RecordStoreException {
+	if (filter == null && comparator == null) {
+	    return null;
+	}
+
+	return recordStore.getRecord(recordId);
+    }
+
+
+    /**
+     * Checks if a changed record is still in order with the records
+     * next to it.
+     *
+     * @param recIndex the index of the record in <code>records</code>
+     * @param data the data of the record if it is needed by the
+     *        comparator
+     *
+     * @return true if the record can stay where it is
+     *
+     * @exception RecordStoreException if a record cannot be read
+     */
+    private boolean isInOrder(int recIndex, byte[] data)
+	throws RecordStoreException {
+
+	int recordId = records[recIndex];
+	int prev = recIndex - 1;
+	int next = recIndex + 1;
+
+	if (keyIndex != null) {
+	    byte[] key = keyIndex.getKey(recordId);
+	    if (prev >= 0 && !precedes(keyIndex.getKey(records[prev]),
+		    records[prev], key, recordId)) {
+		return false;
+	    }
+	    return next >= recordCount || precedes(key, recordId,
+		keyIndex.getKey(records[next]), records[next]);
+	}
+
+	if (comparator != null) {
+	    if (prev >= 0 && comparator.compare(
+		    recordStore.getRecord(records[prev]), data) ==
+		    RecordComparator.FOLLOWS) {
+		return false;
+	    }
+	    return next >= recordCount || comparator.compare(data,
+		recordStore.getRecord(records[next])) !=
+		RecordComparator.FOLLOWS;
+	}
+
+	return true;  // the records are in no particular order
+    }
+
+
+    /**
+     * Compares two entries of the key index.
+     *
+     * @param key1 the key of the first entry, may be null
+     * @param id1 the record ID of the first entry
+     * @param key2 the key of the second entry, may be null
+     * @param id2 the record ID of the second entry
+     *
+     * @return true if both keys are known and the first entry precedes
+     *         the second one
+     */
+    private static boolean precedes(byte[] key1, int id1,
+				    byte[] key2, int id2) {
+	return key1 != null && key2 != null &&
+	    RecordKeyIndex.compareEntries(key1, id1, key2, id2) < 0;
+    }
+
+
+    /**
+     * Helper method called by <code>insertRecord</code>.
+     * Finds the sorted position of a new record within the
+     * <code>records</code> array.
+     *
+     * The position is found with a binary search, so only a
+     * logarithmic number of records are compared. With a key index
+     * the keys kept by the index are compared and no record is read.
+     *
+     * @param recordId the record to insert
+     * @param data the data of the record if a comparator is used
+     *
+     * @return index to insert the element at.
      * @exception RecordStoreException if an error occurs
      *            in the comparator function.
      */
-    private int sortInsert() throws RecordStoreException {
-	// bubble sort the first record in records into place
-	int tmp;
-	int i;
-	int j;
-	for (i = 0, j = 1; i < records.length - 1; i++, j++) {
-	    if (comparator.compare(recordStore.getRecord(records[i]),
-				   recordStore.getRecord(records[j])) ==
-		RecordComparator.FOLLOWS) {
-		// if i follows j swap them in records
-		tmp = records[i];
-		records[i] = records[j];
-		records[j] = tmp;
+    private int sortInsert(int recordId, byte[] data)
+	throws RecordStoreException {
+
+	byte[] key = null;
+	int low = 0;
+	int high = recordCount;
+
+	if (keyIndex != null) {
+	    key = keyIndex.getKey(recordId);
+	}
+
+	// find the first element the new record precedes
+	while (low < high) {
+	    int mid = (low + high) >>> 1;
+	    boolean follows;
+
+	    if (keyIndex != null) {
+		byte[] midKey = keyIndex.getKey(records[mid]);
+		follows = midKey == null ||
+		    RecordKeyIndex.compareEntries(key, recordId,
+			midKey, records[mid]) > 0;
+	    } else {
+		follows = comparator.compare(data,
+		    recordStore.getRecord(records[mid])) ==
+		    RecordComparator.FOLLOWS;
+	    }
+
+	    if (follows) {
+		low = mid + 1;
 	    } else {
-		break;  // done sorting if compare returns EQUALS or PRECEDES 
+		high = mid;
 	    }
 	}
-	return i; // final index of new record in records
+
+	return low; // final index of new record in records
     }
     
     
@@ -512,7 +783,7 @@ class RecordEnumerationImpl implements RecordEnumeration, RecordListener {
     private int findIndexOfRecord(int recordId) {
 	int idx;
 	int recIndex = -1;
-	for (idx = records.length - 1; idx >= 0; idx--) {
+	for (idx = recordCount - 1; idx >= 0; idx--) {
 	    if (records[idx] == recordId) {
 		recIndex = idx;
 		break;
@@ -532,11 +803,9 @@ class RecordEnumerationImpl implements RecordEnumeration, RecordListener {
      * @param recIndex the array element to remove.
      */
     private void removeRecordAtIndex(int recIndex) {
-	int[] tmp = new int[records.length - 1];
-	System.arraycopy(records, 0, tmp, 0, recIndex);
-	System.arraycopy(records, recIndex + 1, tmp, 
-			 recIndex, (records.length - recIndex) - 1);
-	records = tmp;
+	System.arraycopy(records, recIndex + 1, records, 
+			 recIndex, (recordCount - recIndex) - 1);
+	recordCount--;
 	
 	/* 
 	 * If a record prior to current index was deleted
@@ -544,7 +813,7 @@ class RecordEnumerationImpl implements RecordEnumeration, RecordListener {
 	 */
 	if (index != NO_SUCH_RECORD && recIndex <= index) {
 	    index --;
-	} else if (index == records.length) {
+	} else if (index == recordCount) {
 	    // last element in records removed
 	    index --;
 	}
@@ -568,6 +837,7 @@ class RecordEnumerationImpl implements RecordEnumeration, RecordListener {
 	     * used as they are.
 	     */
 	    records = filtered;
+	    recordCount = filtered.length;
 	} else {
 	    /*
 	     * If a filter has been specified, filter the recordStore
@@ -590,8 +860,8 @@ class RecordEnumerationImpl implements RecordEnumeration, RecordListener {
 		}
 	    }
 	    
-	    records = new int[filteredIndex];
-	    System.arraycopy(filtered, 0, records, 0, filteredIndex);
+	    records = filtered;
+	    recordCount = filteredIndex;
 	}
 	/*
 	 * If a comparator has been specified, sort the remaining
@@ -600,7 +870,7 @@ class RecordEnumerationImpl implements RecordEnumeration, RecordListener {
 	 */
 	if (comparator != null) {
 	    try {
-		QuickSort(records, 0, records.length - 1, comparator);
+		QuickSort(records, 0, recordCount - 1, comparator);
 	    }
 	    catch (RecordStoreException rse) {
 		// NOTE: - should never be here
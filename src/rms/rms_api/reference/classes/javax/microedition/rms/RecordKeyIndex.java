@@ -0,0 +1,416 @@
+/*
+ *
+ *
+ * Copyright  1990-2007 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package javax.microedition.rms;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Hashtable;
+
+import com.sun.midp.rms.RecordKeyExtractor;
+
+import com.sun.midp.log.Logging;
+import com.sun.midp.log.LogChannels;
+
+/**
+ * A key index of a record store. The index keeps the IDs of the records
+ * ordered by the keys a <code>RecordKeyExtractor</code> returns for them,
+ * records with equal keys are ordered by ID. Enumerations use the index
+ * to select a range of keys and to traverse the records in key order
+ * without reading the records.
+ *
+ * The index listens to the record store and updates one entry for every
+ * added, changed or deleted record. Its entries are saved when the record
+ * store is closed and loaded back if the record store has not been changed
+ * in the meantime, otherwise the index is rebuilt.
+ */
+class RecordKeyIndex implements RecordListener {
+
+    /** initial number of entries the arrays of the index have room for */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** the record store this index is for */
+    private RecordStore recordStore;
+
+    /** the name of the index */
+    private String name;
+
+    /** extracts the keys of the records */
+    private RecordKeyExtractor extractor;
+
+    /** keys of the entries in sorted order */
+    private byte[][] keys;
+
+    /** record IDs of the entries, parallel to <code>keys</code> */
+    private int[] ids;
+
+    /** number of entries in the index */
+    private int size;
+
+    /** the keys of the indexed records by record ID */
+    private Hashtable keysById;
+
+    /** true once the index has been dropped from its record store */
+    private boolean dropped;
+
+    /**
+     * Creates an empty key index.
+     *
+     * @param inp_recordStore the record store to index
+     * @param inp_name the name of the index
+     * @param inp_extractor extracts the keys of the records
+     */
+    RecordKeyIndex(RecordStore inp_recordStore, String inp_name,
+                   RecordKeyExtractor inp_extractor) {
+        recordStore = inp_recordStore;
+        name = inp_name;
+        extractor = inp_extractor;
+        clear(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Returns the name of this index.
+     *
+     * @return the name of the index
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the name of the class of the key extractor of this index.
+     * It is saved with the entries, so that entries made by another
+     * extractor are not loaded.
+     *
+     * @return the class name of the extractor
+     */
+    String getExtractorName() {
+        return extractor.getClass().getName();
+    }
+
+    /**
+     * Marks the index as dropped from its record store. The
+     * enumerations over the index can no longer be used.
+     */
+    synchronized void drop() {
+        dropped = true;
+    }
+
+    /**
+     * Tells if the index has been dropped from its record store.
+     *
+     * @return true if the index was dropped
+     */
+    synchronized boolean isDropped() {
+        return dropped;
+    }
+
+    /**
+     * Builds the index by reading all the records of the record store.
+     */
+    void build() {
+        int[] recordIds = recordStore.getRecordIDs();
+
+        clear(Math.max(recordIds.length, INITIAL_CAPACITY));
+        for (int i = 0; i < recordIds.length; i++) {
+            add(recordIds[i]);
+        }
+
+        if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
+            Logging.report(Logging.INFORMATION, LogChannels.LC_RMS,
+                           "key index " + name + " built, " + size +
+                           " of " + recordIds.length + " records");
+        }
+    }
+
+    /**
+     * Reads the entries of the index saved by <code>write()</code>.
+     * The name, the extractor and the record store version have already
+     * been read.
+     *
+     * @param in the stream to read from
+     *
+     * @exception IOException if the entries cannot be read
+     */
+    void read(DataInputStream in) throws IOException {
+        int count = in.readInt();
+
+        // every entry takes at least 6 bytes
+        if (count < 0 || count > in.available() / 6) {
+            throw new IOException("invalid number of entries " + count);
+        }
+
+        clear(Math.max(count, INITIAL_CAPACITY));
+        for (int i = 0; i < count; i++) {
+            int recordId = in.readInt();
+            byte[] key = new byte[in.readUnsignedShort()];
+            in.readFully(key);
+
+            // the entries were saved in order
+            keys[i] = key;
+            ids[i] = recordId;
+            keysById.put(new Integer(recordId), key);
+        }
+        size = count;
+    }
+
+    /**
+     * Writes the entries of the index.
+     *
+     * @param out the stream to write to
+     *
+     * @exception IOException if the entries cannot be written
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeInt(ids[i]);
+            out.writeShort(keys[i].length);
+            out.write(keys[i]);
+        }
+    }
+
+    /**
+     * Returns the IDs of the records with keys in the given range
+     * in key order.
+     *
+     * @param lowKey the lowest key to include or null for no lower bound
+     * @param highKey the highest key to include or null for no upper bound
+     *
+     * @return the record IDs
+     */
+    synchronized int[] getRecordIDs(byte[] lowKey, byte[] highKey) {
+        int first = (lowKey == null) ? 0 : find(lowKey, Integer.MIN_VALUE);
+        int last = (highKey == null) ? size : find(highKey, Integer.MAX_VALUE);
+        int[] recordIds = new int[Math.max(last - first, 0)];
+
+        System.arraycopy(ids, first, recordIds, 0, recordIds.length);
+        return recordIds;
+    }
+
+    /**
+     * Returns the key of an indexed record.
+     *
+     * @param recordId the ID of the record
+     *
+     * @return the key of the record or null if the record is not indexed
+     */
+    synchronized byte[] getKey(int recordId) {
+        return (byte[])keysById.get(new Integer(recordId));
+    }
+
+    /**
+     * Checks if a key is in the given range.
+     *
+     * @param key the key to check
+     * @param lowKey the lowest key of the range or null for no lower bound
+     * @param highKey the highest key of the range or null for no upper
+     *        bound
+     *
+     * @return true if the key is in the range
+     */
+    static boolean isInRange(byte[] key, byte[] lowKey, byte[] highKey) {
+        return (lowKey == null || compareKeys(key, lowKey) >= 0) &&
+            (highKey == null || compareKeys(key, highKey) <= 0);
+    }
+
+    /**
+     * Compares two index entries, entries are ordered by key first
+     * and by record ID second.
+     *
+     * @param key1 the key of the first entry
+     * @param id1 the record ID of the first entry
+     * @param key2 the key of the second entry
+     * @param id2 the record ID of the second entry
+     *
+     * @return a negative number, zero or a positive number if the first
+     *         entry precedes, equals or follows the second one
+     */
+    static int compareEntries(byte[] key1, int id1, byte[] key2, int id2) {
+        int result = compareKeys(key1, key2);
+
+        if (result != 0) {
+            return result;
+        }
+
+        return (id1 < id2) ? -1 : ((id1 == id2) ? 0 : 1);
+    }
+
+    /**
+     * Compares two keys byte by byte as unsigned values.
+     *
+     * @param key1 the first key
+     * @param key2 the second key
+     *
+     * @return a negative number, zero or a positive number if the first
+     *         key precedes, equals or follows the second one
+     */
+    static int compareKeys(byte[] key1, byte[] key2) {
+        int length = Math.min(key1.length, key2.length);
+
+        for (int i = 0; i < length; i++) {
+            int diff = (key1[i] & 0xff) - (key2[i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+
+        return key1.length - key2.length;
+    }
+
+    /**
+     * From the RecordListener interface. Adds the entry of the new
+     * record.
+     *
+     * @param inp_recordStore the record store to which a record was added
+     * @param recordId the record ID of the new record
+     */
+    public synchronized void recordAdded(RecordStore inp_recordStore,
+                                         int recordId) {
+        add(recordId);
+    }
+
+    /**
+     * From the RecordListener interface. Replaces the entry of the
+     * modified record.
+     *
+     * @param inp_recordStore the record store in which a record was modified
+     * @param recordId the record ID of the modified record
+     */
+    public synchronized void recordChanged(RecordStore inp_recordStore,
+                                           int recordId) {
+        remove(recordId);
+        add(recordId);
+    }
+
+    /**
+     * From the RecordListener interface. Removes the entry of the
+     * deleted record.
+     *
+     * @param inp_recordStore the record store from which a record was
+     *        deleted
+     * @param recordId the record ID of the deleted record
+     */
+    public synchronized void recordDeleted(RecordStore inp_recordStore,
+                                           int recordId) {
+        remove(recordId);
+    }
+
+    /**
+     * Removes all entries from the index.
+     *
+     * @param capacity the number of entries to make room for
+     */
+    private void clear(int capacity) {
+        keys = new byte[capacity][];
+        ids = new int[capacity];
+        size = 0;
+        keysById = new Hashtable(capacity);
+    }
+
+    /**
+     * Reads a record and adds its entry to the index.
+     *
+     * @param recordId the ID of the record to add
+     */
+    private void add(int recordId) {
+        byte[] key;
+
+        try {
+            key = extractor.getKey(recordStore.getRecord(recordId));
+        } catch (RecordStoreException rse) {
+            return;  // the record does not exist any more
+        }
+
+        if (key == null || keysById.containsKey(new Integer(recordId))) {
+            return;
+        }
+
+        if (size == ids.length) {
+            byte[][] newKeys = new byte[size * 2][];
+            int[] newIds = new int[size * 2];
+            System.arraycopy(keys, 0, newKeys, 0, size);
+            System.arraycopy(ids, 0, newIds, 0, size);
+            keys = newKeys;
+            ids = newIds;
+        }
+
+        int pos = find(key, recordId);
+        System.arraycopy(keys, pos, keys, pos + 1, size - pos);
+        System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+        keys[pos] = key;
+        ids[pos] = recordId;
+        size++;
+
+        keysById.put(new Integer(recordId), key);
+    }
+
+    /**
+     * Removes the entry of a record from the index.
+     *
+     * @param recordId the ID of the record to remove
+     */
+    private void remove(int recordId) {
+        byte[] key = (byte[])keysById.remove(new Integer(recordId));
+
+        if (key == null) {
+            return;  // the record is not indexed
+        }
+
+        int pos = find(key, recordId);
+        size--;
+        System.arraycopy(keys, pos + 1, keys, pos, size - pos);
+        System.arraycopy(ids, pos + 1, ids, pos, size - pos);
+        keys[size] = null;
+    }
+
+    /**
+     * Finds the position of an entry with a binary search.
+     *
+     * @param key the key of the entry
+     * @param recordId the record ID of the entry
+     *
+     * @return the position of the entry if it is in the index, otherwise
+     *         the position of the first entry following it
+     */
+    private int find(byte[] key, int recordId) {
+        int low = 0;
+        int high = size;
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+
+            if (compareEntries(keys[mid], ids[mid], key, recordId) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+}
@@ -26,6 +26,7 @@
 
 package javax.microedition.rms;
 
+import com.sun.midp.rms.RecordKeyExtractor;
 import com.sun.midp.rms.RecordStoreImpl;
 import com.sun.midp.rms.RecordStoreEventConsumer;
 import com.sun.midp.rms.RecordStoreRegistry;
@@ -138,6 +139,9 @@ public class RecordStore {
     /** recordListeners of this record store */
     private java.util.Vector recordListeners;
 
+    /** key indexes of this record store */
+    private java.util.Vector keyIndexes;
+
     /**
      * Inner class to request security token from SecurityInitializer.
      * SecurityInitializer should be able to check this inner class name.
@@ -174,6 +178,7 @@ public class RecordStore {
         this.suiteId = suiteId;
         this.recordStoreName = recordStoreName;
         recordListeners = new java.util.Vector(3);
+        keyIndexes = new java.util.Vector(1);
     }
 
     /**
@@ -547,6 +552,7 @@ public class RecordStore {
 
                 stopRecordStoreListening();
                 openRecordStores.removeElement(this);
+                saveKeyIndexes();
                 peer.closeRecordStore();
 
                 // mark this RecordStore as closed
@@ -857,6 +863,52 @@ public class RecordStore {
         return recordId;
     }
 
+    /**
+     * Adds a batch of new records to the record store. The new records
+     * get consecutive recordIds in the order they are given. Either all
+     * the records are added or, if an error occurs, none of them is.
+     * The record listeners are notified of each new record after the
+     * whole batch has been written.
+     *
+     * @param records the data to be stored in the new records. An
+     *          element may be null if the record is to have no data.
+     *
+     * @return the recordIds for the new records
+     *
+     * @exception RecordStoreNotOpenException if the record store is
+     *          not open
+     * @exception RecordStoreException if a different record
+     *          store-related exception occurred
+     * @exception RecordStoreFullException if the operation cannot be
+     *          completed because the record store has no more room
+     * @exception SecurityException if the MIDlet has read-only access
+     *          to the RecordStore
+     * @exception NullPointerException if <code>records</code> is null
+     */
+    int[] addRecords(byte[][] records)
+            throws RecordStoreNotOpenException, RecordStoreException,
+                RecordStoreFullException {
+
+        checkOpen();
+        checkWritable();
+
+        if (records == null) {
+            throw new NullPointerException();
+        }
+
+        if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
+            Logging.report(Logging.INFORMATION, LogChannels.LC_RMS,
+                "addRecords(count=" + records.length + ")");
+        }
+
+        int[] recordIds = peer.addRecords(records);
+
+        for (int i = 0; i < recordIds.length; i++) {
+            notifyAllRecordListeners(RECORD_ADDED, recordIds[i]);
+        }
+        return recordIds;
+    }
+
     /**
      * The record is deleted from the record store. The recordId for
      * this record is NOT reused.
@@ -1078,6 +1130,259 @@ public class RecordStore {
           comparator, keepUpdated);
     }
 
+    /**
+     * Creates a key index of this record store. The index is loaded from
+     * the saved key indexes if the record store has not been changed
+     * since they were saved, otherwise it is built by reading all the
+     * records. The index is kept up to date while the record store is
+     * open. Only the indexes created since the record store was opened
+     * are saved when it is closed.
+     *
+     * @param indexName the name of the index
+     * @param extractor extracts the keys of the records
+     *
+     * @exception RecordStoreNotOpenException if the record store is
+     *          not open
+     * @exception IllegalArgumentException if there already is an index
+     *          with the given name
+     */
+    void createIndex(String indexName, RecordKeyExtractor extractor)
+        throws RecordStoreNotOpenException {
+
+        checkOpen();
+        synchronized (keyIndexes) {
+            if (findKeyIndex(indexName) != null) {
+                throw new IllegalArgumentException("duplicate key index " +
+                                                   indexName);
+            }
+
+            RecordKeyIndex keyIndex =
+                new RecordKeyIndex(this, indexName, extractor);
+
+            /*
+             * Listen to the changes before reading the records, so no
+             * change is lost. The index applies them after it is built.
+             */
+            addRecordListener(keyIndex);
+            synchronized (keyIndex) {
+                if (!loadKeyIndex(keyIndex)) {
+                    keyIndex.build();
+                }
+            }
+
+            keyIndexes.addElement(keyIndex);
+        }
+    }
+
+    /**
+     * Removes a key index of this record store. The enumerations over
+     * the index throw <code>IllegalStateException</code> afterwards, as
+     * if they were destroyed, even if an index with the same name is
+     * created again.
+     *
+     * @param indexName the name of the index
+     *
+     * @exception RecordStoreNotOpenException if the record store is
+     *          not open
+     * @exception IllegalArgumentException if there is no index with
+     *          the given name
+     */
+    void dropIndex(String indexName) throws RecordStoreNotOpenException {
+        checkOpen();
+        synchronized (keyIndexes) {
+            RecordKeyIndex keyIndex = getKeyIndex(indexName);
+
+            keyIndexes.removeElement(keyIndex);
+            removeRecordListener(keyIndex);
+            keyIndex.drop();
+        }
+    }
+
+    /**
+     * Returns an enumeration traversing the records with keys in the
+     * given range of a key index in key order. Only the records in the
+     * range are read, and only if there is a filter.
+     *
+     * @param indexName the name of the index
+     * @param lowKey the lowest key to include or null for no lower bound
+     * @param highKey the highest key to include or null for no upper bound
+     * @param filter if non-null, will be used to determine what
+     *          subset of the records in the range will be used
+     * @param keepUpdated if true, the enumerator will keep its enumeration
+     *          current with any changes in the records of the record
+     *          store
+     *
+     * @exception RecordStoreNotOpenException if the record store is
+     *          not open
+     * @exception IllegalArgumentException if there is no index with
+     *          the given name
+     *
+     * @return an enumeration of the records in the key range
+     */
+    RecordEnumeration enumerateRecords(String indexName, byte[] lowKey,
+                                       byte[] highKey, RecordFilter filter,
+                                       boolean keepUpdated)
+        throws RecordStoreNotOpenException {
+
+        checkOpen();
+        RecordKeyIndex keyIndex;
+        synchronized (keyIndexes) {
+            keyIndex = getKeyIndex(indexName);
+        }
+
+        return new RecordEnumerationImpl(this, keyIndex, lowKey, highKey,
+                                         filter, keepUpdated);
+    }
+
+    /**
+     * Looks up a key index of this record store by name.
+     *
+     * @param indexName the name of the index
+     *
+     * @return the index or null if there is no index with the given name
+     */
+    private RecordKeyIndex findKeyIndex(String indexName) {
+        for (int i = keyIndexes.size() - 1; i >= 0; i--) {
+            RecordKeyIndex keyIndex = (RecordKeyIndex)keyIndexes.elementAt(i);
+            if (keyIndex.getName().equals(indexName)) {
+                return keyIndex;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Looks up a key index of this record store by name.
+     *
+     * @param indexName the name of the index
+     *
+     * @exception IllegalArgumentException if there is no index with
+     *          the given name
+     *
+     * @return the index
+     */
+    private RecordKeyIndex getKeyIndex(String indexName) {
+        RecordKeyIndex keyIndex = findKeyIndex(indexName);
+
+        if (keyIndex == null) {
+            throw new IllegalArgumentException("no key index " + indexName);
+        }
+
+        return keyIndex;
+    }
+
+    /**
+     * Loads the saved entries of a key index if they are up to date and
+     * were made by an extractor of the same class.
+     *
+     * @param keyIndex the index to load
+     *
+     * @return true if the index was loaded, false if it must be built
+     */
+    private boolean loadKeyIndex(RecordKeyIndex keyIndex) {
+        try {
+            byte[] data = peer.readKeyIndexes();
+            if (data == null) {
+                return false;
+            }
+
+            java.io.DataInputStream in = new java.io.DataInputStream(
+                new java.io.ByteArrayInputStream(data));
+
+            for (int count = in.readInt(); count > 0; count--) {
+                String indexName = in.readUTF();
+                String extractorName = in.readUTF();
+                int version = in.readInt();
+                int length = in.readInt();
+
+                if (indexName.equals(keyIndex.getName())) {
+                    if (version != peer.getVersion()) {
+                        // the record store was changed after saving
+                        return false;
+                    }
+
+                    if (!extractorName.equals(keyIndex.getExtractorName())) {
+                        // the keys were made by another extractor
+                        return false;
+                    }
+
+                    keyIndex.read(in);
+                    return true;
+                }
+
+                in.skipBytes(length);
+            }
+        } catch (java.io.IOException ioe) {
+            if (Logging.REPORT_LEVEL <= Logging.WARNING) {
+                Logging.report(Logging.WARNING, LogChannels.LC_RMS,
+                               "invalid saved key indexes: " + ioe);
+            }
+        } catch (RecordStoreException rse) {
+            if (Logging.REPORT_LEVEL <= Logging.WARNING) {
+                Logging.report(Logging.WARNING, LogChannels.LC_RMS,
+                               "cannot load key indexes: " + rse);
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Saves the entries of the key indexes, so they can be loaded
+     * without reading the records when the record store is opened
+     * again. Called when the record store is closed.
+     */
+    private void saveKeyIndexes() {
+        synchronized (keyIndexes) {
+            int count = keyIndexes.size();
+            if (count == 0) {
+                return;
+            }
+
+            try {
+                java.io.ByteArrayOutputStream data =
+                    new java.io.ByteArrayOutputStream();
+                java.io.DataOutputStream out =
+                    new java.io.DataOutputStream(data);
+                int version = peer.getVersion();
+
+                out.writeInt(count);
+                for (int i = 0; i < count; i++) {
+                    RecordKeyIndex keyIndex =
+                        (RecordKeyIndex)keyIndexes.elementAt(i);
+                    java.io.ByteArrayOutputStream entries =
+                        new java.io.ByteArrayOutputStream();
+
+                    synchronized (keyIndex) {
+                        keyIndex.write(new java.io.DataOutputStream(entries));
+                    }
+
+                    out.writeUTF(keyIndex.getName());
+                    out.writeUTF(keyIndex.getExtractorName());
+                    out.writeInt(version);
+                    out.writeInt(entries.size());
+                    out.write(entries.toByteArray());
+                }
+                out.close();
+
+                peer.writeKeyIndexes(data.toByteArray());
+            } catch (java.io.IOException ioe) {
+                if (Logging.REPORT_LEVEL <= Logging.WARNING) {
+                    Logging.report(Logging.WARNING, LogChannels.LC_RMS,
+                                   "cannot save key indexes: " + ioe);
+                }
+            } catch (RecordStoreException rse) {
+                if (Logging.REPORT_LEVEL <= Logging.WARNING) {
+                    Logging.report(Logging.WARNING, LogChannels.LC_RMS,
+                                   "cannot save key indexes: " + rse);
+                }
+            }
+
+            keyIndexes.removeAllElements();
+        }
+    }
+
     /**
      * Get the open status of this record store.  (Package accessible
      * for use by record enumeration objects.)
@@ -30,6 +30,8 @@
 
 package javax.microedition.rms;
 
+import com.sun.midp.rms.RecordKeyExtractor;
+
 class Tunnel extends com.sun.midp.rms.Tunnel {
 	Tunnel() {
 		com.sun.midp.rms.Tunnel.inst = this;
@@ -46,4 +48,27 @@ class Tunnel extends com.sun.midp.rms.Tunnel {
 		RecordStore.deleteRecordStore(storeName, suiteID);
 	}
 
+	public int[] addRecords(RecordStore store, byte[][] records)
+									throws RecordStoreException {
+		return store.addRecords(records);
+	}
+
+	public void createIndex(RecordStore store, String indexName,
+			RecordKeyExtractor extractor) throws RecordStoreException {
+		store.createIndex(indexName, extractor);
+	}
+
+	public void dropIndex(RecordStore store, String indexName)
+									throws RecordStoreException {
+		store.dropIndex(indexName);
+	}
+
+	public RecordEnumeration enumerateRecords(RecordStore store,
+			String indexName, byte[] lowKey, byte[] highKey,
+			RecordFilter filter, boolean keepUpdated)
+									throws RecordStoreException {
+		return store.enumerateRecords(indexName, lowKey, highKey, filter,
+				keepUpdated);
+	}
+
 }
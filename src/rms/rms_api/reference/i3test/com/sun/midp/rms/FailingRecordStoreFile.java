@@ -0,0 +1,129 @@
+/*
+ *
+ *
+ * Copyright  1990-2007 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+
+package com.sun.midp.rms;
+
+import java.io.IOException;
+
+/**
+ * A record store file that passes a given number of writes to the
+ * db file of a record store and fails the next one after writing half
+ * of its data, like a file system running out of space would. The
+ * writes after the failed one are passed again. Used by
+ * tests of the rollback of failed record store operations.
+ */
+public class FailingRecordStoreFile implements AbstractRecordStoreFile {
+
+    /** The file the data is accessed through. */
+    private AbstractRecordStoreFile file;
+
+    /** Number of writes passed before one fails, -1 after the failure. */
+    private int writesLeft;
+
+    /**
+     * Constructs a failing file.
+     *
+     * @param file the file the data is accessed through
+     * @param numWrites number of writes passed before one fails
+     */
+    private FailingRecordStoreFile(AbstractRecordStoreFile file,
+                                   int numWrites) {
+        this.file = file;
+        writesLeft = numWrites;
+    }
+
+    /**
+     * Makes the db file of a record store fail a write.
+     *
+     * @param rs the record store
+     * @param numWrites number of writes passed before one fails
+     */
+    public static void failWrites(RecordStoreImpl rs, int numWrites) {
+        rs.setDbFile(new FailingRecordStoreFile(rs.getDbFile(), numWrites));
+    }
+
+    /**
+     * Gives a record store its db file back.
+     *
+     * @param rs the record store
+     */
+    public static void restore(RecordStoreImpl rs) {
+        AbstractRecordStoreFile current = rs.getDbFile();
+
+        if (current instanceof FailingRecordStoreFile) {
+            rs.setDbFile(((FailingRecordStoreFile)current).file);
+        }
+    }
+
+    public int spaceAvailable(int suiteId) {
+        return file.spaceAvailable(suiteId);
+    }
+
+    public void seek(int pos) throws IOException {
+        file.seek(pos);
+    }
+
+    public void write(byte[] buf) throws IOException {
+        write(buf, 0, buf.length);
+    }
+
+    public void write(byte[] buf, int offset, int numBytes)
+            throws IOException {
+        if (writesLeft == 0) {
+            // only one write fails, so the failure can be rolled back
+            writesLeft = -1;
+            file.write(buf, offset, numBytes / 2);
+            throw new IOException("write failed");
+        }
+
+        if (writesLeft > 0) {
+            writesLeft--;
+        }
+
+        file.write(buf, offset, numBytes);
+    }
+
+    public void commitWrite() throws IOException {
+        file.commitWrite();
+    }
+
+    public int read(byte[] buf) throws IOException {
+        return file.read(buf);
+    }
+
+    public int read(byte[] buf, int offset, int numBytes) throws IOException {
+        return file.read(buf, offset, numBytes);
+    }
+
+    public void close() throws IOException {
+        file.close();
+    }
+
+    public void truncate(int size) throws IOException {
+        file.truncate(size);
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ *
+ *
+ * Copyright  1990-2007 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.rms;
+
+import com.sun.midp.i3test.*;
+import com.sun.midp.midlet.MIDletSuite;
+import javax.microedition.rms.InvalidRecordIDException;
+import javax.microedition.rms.RecordStoreException;
+
+/**
+ * Tests incremental compaction of a record store: every step keeps the
+ * records readable, moves a bounded number of bytes and the record
+ * store ends at its minimal size. Also checks that another instance of
+ * the same record store does not use offsets cached before a
+ * compaction step moved the blocks.
+ */
+public class TestCompaction extends TestCase {
+
+    /** The suite ID used when creating the record store. */
+    static final int SUITE = MIDletSuite.INTERNAL_SUITE_ID;
+
+    /** The name of the record store. */
+    static final String NAME = "TestCompaction";
+
+    /** Number of records added. */
+    static final int COUNT = 120;
+
+    /** Size of the largest record. */
+    static final int MAX_SIZE = 400;
+
+    /** Upper limit of the steps needed to compact the record store. */
+    static final int MAX_STEPS = 100;
+
+    /** The record store under test. */
+    RecordStoreImpl store;
+
+    /** The recordIds of the records added, by insertion order. */
+    int[] ids = new int[COUNT];
+
+    /** True for the records not deleted, by insertion order. */
+    boolean[] live = new boolean[COUNT];
+
+    /**
+     * Creates the data of a record, records have different sizes.
+     *
+     * @param i the insertion order of the record
+     *
+     * @return the record data
+     */
+    static byte[] data(int i) {
+        byte[] data = new byte[1 + (i * 37) % MAX_SIZE];
+
+        for (int j = 0; j < data.length; j++) {
+            data[j] = (byte)(i + j);
+        }
+
+        return data;
+    }
+
+    /**
+     * Opens the record store.
+     *
+     * @return the record store
+     *
+     * @exception RecordStoreException if the record store cannot be opened
+     */
+    RecordStoreImpl open() throws RecordStoreException {
+        return RecordStoreImpl.openRecordStore(getSecurityToken(), SUITE,
+                                               NAME, true);
+    }
+
+    /**
+     * Creates an empty record store and fills it with the records.
+     *
+     * @exception RecordStoreException if the record store cannot be filled
+     */
+    void fill() throws RecordStoreException {
+        try {
+            RecordStoreImpl.deleteRecordStore(getSecurityToken(), SUITE, NAME);
+        } catch (RecordStoreException rse) {
+            // not found
+        }
+
+        store = open();
+
+        for (int i = 0; i < COUNT; i++) {
+            byte[] record = data(i);
+            ids[i] = store.addRecord(record, 0, record.length);
+            live[i] = true;
+        }
+    }
+
+    /**
+     * Deletes every third record and a run of records in the middle,
+     * so that there are single free blocks and a large free area.
+     *
+     * @exception RecordStoreException if a record cannot be deleted
+     */
+    void deleteSome() throws RecordStoreException {
+        for (int i = 0; i < COUNT; i++) {
+            if (i % 3 == 1 || (i >= COUNT / 3 && i < COUNT / 2)) {
+                store.deleteRecord(ids[i]);
+                live[i] = false;
+            }
+        }
+    }
+
+    /**
+     * Returns the size of the record store without free blocks.
+     *
+     * @return the size in bytes
+     */
+    int compactedSize() {
+        int size = AbstractRecordStoreImpl.DB_HEADER_SIZE;
+
+        for (int i = 0; i < COUNT; i++) {
+            if (live[i]) {
+                size += RecordStoreUtil.calculateBlockSize(data(i).length);
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * Checks that the record store has exactly the live records with
+     * their data and that the deleted records cannot be found.
+     *
+     * @param rs the record store to check
+     * @param message the message of the failed assertions
+     *
+     * @exception RecordStoreException if a record cannot be read
+     */
+    void check(RecordStoreImpl rs, String message)
+            throws RecordStoreException {
+        int numLive = 0;
+
+        for (int i = 0; i < COUNT; i++) {
+            if (!live[i]) {
+                try {
+                    rs.getRecord(ids[i]);
+                    fail(message + ": deleted record " + ids[i] + " found");
+                    return;
+                } catch (InvalidRecordIDException iride) {
+                    // expected
+                }
+
+                continue;
+            }
+
+            numLive++;
+
+            byte[] record = rs.getRecord(ids[i]);
+            byte[] expected = data(i);
+            if (record == null || record.length != expected.length) {
+                fail(message + ": wrong size of record " + ids[i]);
+                return;
+            }
+
+            for (int j = 0; j < record.length; j++) {
+                if (record[j] != expected[j]) {
+                    fail(message + ": wrong data of record " + ids[i]);
+                    return;
+                }
+            }
+        }
+
+        assertEquals(message + ": count", numLive, rs.getNumRecords());
+    }
+
+    /**
+     * Compaction is done in bounded steps, the records are intact
+     * after every step and the free space is gone at the end.
+     *
+     * @exception RecordStoreException if the record store cannot be used
+     */
+    void testSteps() throws RecordStoreException {
+        fill();
+
+        try {
+            deleteSome();
+            check(store, "deleted");
+
+            int sizeBefore = store.getSize();
+            int expectedSize = compactedSize();
+            assertTrue("free space", sizeBefore > expectedSize);
+
+            int maxMoved = RecordStoreImpl.COMPACT_STEP_SIZE +
+                RecordStoreUtil.calculateBlockSize(MAX_SIZE);
+            int steps = 1;
+            while (!store.compactRecordsStep()) {
+                check(store, "step " + steps);
+                if (RecordStoreImpl.COMPACT_STEP_SIZE > 0) {
+                    assertTrue("step " + steps + " bounded",
+                               store.getLastCompactionBytesMoved() <
+                               maxMoved);
+                }
+
+                if (++steps > MAX_STEPS) {
+                    fail("compaction does not end");
+                    break;
+                }
+            }
+
+            check(store, "compacted");
+            assertEquals("compacted size", expectedSize, store.getSize());
+
+            if (RecordStoreImpl.COMPACT_STEP_SIZE > 0 &&
+                    RecordStoreImpl.COMPACT_STEP_SIZE < sizeBefore / 2) {
+                assertTrue("more than one step", steps > 1);
+            }
+
+            // nothing left to do
+            assertTrue("done", store.compactRecordsStep());
+            assertEquals("size kept", expectedSize, store.getSize());
+
+            // the compacted record store is read back
+            store.closeRecordStore();
+            store = open();
+            check(store, "reopened");
+        } finally {
+            store.closeRecordStore();
+        }
+    }
+
+    /**
+     * Blocks moved by a compaction step through one instance of the
+     * record store are found at their new offsets through another
+     * instance which has read them before.
+     *
+     * @exception RecordStoreException if the record store cannot be used
+     */
+    void testOtherInstance() throws RecordStoreException {
+        fill();
+
+        RecordStoreImpl other = open();
+
+        try {
+            deleteSome();
+
+            // let the other instance cache the index and the data
+            check(other, "other before");
+
+            int steps = 0;
+            boolean done = false;
+            while (!done && steps < MAX_STEPS) {
+                // alternate the instances making the steps
+                RecordStoreImpl compacting = (steps % 2 == 0) ? other : store;
+                RecordStoreImpl reading = (steps % 2 == 0) ? store : other;
+
+                done = compacting.compactRecordsStep();
+                steps++;
+
+                check(reading, "step " + steps + " seen by the other");
+                check(compacting, "step " + steps);
+            }
+
+            assertTrue("done", done);
+            assertEquals("compacted size", compactedSize(), store.getSize());
+            assertEquals("same size", store.getSize(), other.getSize());
+            assertTrue("other done", other.compactRecordsStep());
+            assertTrue("store done", store.compactRecordsStep());
+
+            // the other instance can still add records
+            byte[] record = data(0);
+            int id = other.addRecord(record, 0, record.length);
+            assertEquals("added size", record.length,
+                         store.getRecordSize(id));
+        } finally {
+            other.closeRecordStore();
+            store.closeRecordStore();
+        }
+    }
+
+    /**
+     * Returns the free size kept in the db header of the record store.
+     *
+     * @return the free size in bytes
+     */
+    int freeSize() {
+        return RecordStoreUtil.getInt(store.dbHeader.getHeaderData(),
+                                      AbstractRecordStoreImpl.RS7_FREE_SIZE);
+    }
+
+    /**
+     * A free block reused by a new record no longer counts as free
+     * space, only the part of it the record does not use does. Once
+     * that part is compacted away there is nothing left to compact.
+     *
+     * @exception RecordStoreException if the record store cannot be used
+     */
+    void testFreeSize() throws RecordStoreException {
+        fill();
+
+        try {
+            assertEquals("no free space", 0, freeSize());
+
+            // the same record fits exactly into the block it had
+            store.deleteRecord(ids[10]);
+            byte[] record = data(10);
+            assertEquals("freed", RecordStoreUtil.calculateBlockSize(
+                record.length), freeSize());
+            int size = store.getSize();
+            ids[10] = store.addRecord(record, 0, record.length);
+            assertEquals("block reused", size, store.getSize());
+            assertEquals("reused exactly", 0, freeSize());
+            assertTrue("nothing to compact", store.compactRecordsStep());
+
+            // a smaller record leaves the rest of the block free
+            store.deleteRecord(ids[20]);
+            record = data(0);
+            ids[20] = store.addRecord(record, 0, record.length);
+            assertEquals("rest free", RecordStoreUtil.calculateBlockSize(
+                data(20).length) - RecordStoreUtil.calculateBlockSize(
+                record.length), freeSize());
+
+            int steps = 1;
+            while (!store.compactRecordsStep() && steps < MAX_STEPS) {
+                steps++;
+            }
+
+            assertEquals("compacted", 0, freeSize());
+            assertTrue("done", store.compactRecordsStep());
+
+            assertEquals("count", COUNT, store.getNumRecords());
+            assertEquals("reused size", data(10).length,
+                         store.getRecordSize(ids[10]));
+            assertEquals("added size", record.length,
+                         store.getRecordSize(ids[20]));
+        } finally {
+            store.closeRecordStore();
+        }
+    }
+
+    /**
+     * Run all tests.
+     *
+     * @exception Throwable if a test fails unexpectedly
+     */
+    public void runTests() throws Throwable {
+        try {
+            declare("testSteps");
+            testSteps();
+
+            declare("testOtherInstance");
+            testOtherInstance();
+
+            declare("testFreeSize");
+            testFreeSize();
+        } finally {
+            RecordStoreImpl.deleteRecordStore(getSecurityToken(), SUITE, NAME);
+        }
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ *
+ *
+ * Copyright  1990-2007 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.rms;
+
+import com.sun.midp.i3test.*;
+import com.sun.midp.midlet.MIDletSuite;
+import javax.microedition.rms.InvalidRecordIDException;
+import javax.microedition.rms.RecordStoreException;
+
+/**
+ * Tests that a freed block is merged with the free blocks right before
+ * and after it, so a record of the merged size fits into the space of
+ * the deleted records without growing the record store. Only a few
+ * records are deleted, so that adding a record does not start
+ * compaction.
+ */
+public class TestFreeBlocks extends TestCase {
+
+    /** The suite ID used when creating the record store. */
+    static final int SUITE = MIDletSuite.INTERNAL_SUITE_ID;
+
+    /** The name of the record store. */
+    static final String NAME = "TestFreeBlocks";
+
+    /** Number of records added. */
+    static final int COUNT = 40;
+
+    /** Size of the records added, a multiple of the block alignment. */
+    static final int SIZE = 56;
+
+    /** Size of the blocks of the records added. */
+    static final int BLOCK = RecordStoreUtil.calculateBlockSize(SIZE);
+
+    /** The record store under test. */
+    RecordStoreImpl store;
+
+    /** The recordIds of the records added, by insertion order. */
+    int[] ids = new int[COUNT];
+
+    /** True for the records not deleted, by insertion order. */
+    boolean[] live = new boolean[COUNT];
+
+    /**
+     * Creates the data of a record.
+     *
+     * @param size the size of the record
+     * @param seed the value of the first byte
+     *
+     * @return the record data
+     */
+    static byte[] data(int size, int seed) {
+        byte[] data = new byte[size];
+
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte)(seed + i);
+        }
+
+        return data;
+    }
+
+    /**
+     * Opens the record store.
+     *
+     * @exception RecordStoreException if the record store cannot be opened
+     */
+    void open() throws RecordStoreException {
+        store = RecordStoreImpl.openRecordStore(getSecurityToken(), SUITE,
+                                                NAME, true);
+    }
+
+    /**
+     * Creates an empty record store and fills it with the records.
+     *
+     * @exception RecordStoreException if the record store cannot be filled
+     */
+    void fill() throws RecordStoreException {
+        try {
+            RecordStoreImpl.deleteRecordStore(getSecurityToken(), SUITE, NAME);
+        } catch (RecordStoreException rse) {
+            // not found
+        }
+
+        open();
+
+        for (int i = 0; i < COUNT; i++) {
+            byte[] record = data(SIZE, i);
+            ids[i] = store.addRecord(record, 0, record.length);
+            live[i] = true;
+        }
+    }
+
+    /**
+     * Deletes a record and remembers it is gone.
+     *
+     * @param i the insertion order of the record
+     *
+     * @exception RecordStoreException if the record cannot be deleted
+     */
+    void delete(int i) throws RecordStoreException {
+        store.deleteRecord(ids[i]);
+        live[i] = false;
+    }
+
+    /**
+     * Adds a record that fits exactly into the given number of blocks
+     * and checks that the record store did not grow.
+     *
+     * @param message the message of the failed assertions
+     * @param numBlocks the number of merged blocks
+     *
+     * @return the recordId of the record
+     *
+     * @exception RecordStoreException if the record cannot be added
+     */
+    int addMerged(String message, int numBlocks) throws RecordStoreException {
+        int size = store.getSize();
+        byte[] record = data(numBlocks * BLOCK -
+                             AbstractRecordStoreImpl.BLOCK_HEADER_SIZE, 99);
+
+        int id = store.addRecord(record, 0, record.length);
+
+        assertEquals(message + ": size", size, store.getSize());
+        assertData(message + ": data", record, store.getRecord(id));
+        return id;
+    }
+
+    /**
+     * Checks the data of a record.
+     *
+     * @param message the message of the failed assertion
+     * @param expected the expected data
+     * @param record the data read
+     */
+    void assertData(String message, byte[] expected, byte[] record) {
+        if (record == null || record.length != expected.length) {
+            fail(message + ": wrong size");
+            return;
+        }
+
+        for (int i = 0; i < expected.length; i++) {
+            if (record[i] != expected[i]) {
+                fail(message + ": differs at " + i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Checks that the records not deleted are intact and the deleted
+     * ones cannot be found.
+     *
+     * @param message the message of the failed assertions
+     *
+     * @exception RecordStoreException if a record cannot be read
+     */
+    void check(String message) throws RecordStoreException {
+        for (int i = 0; i < COUNT; i++) {
+            if (live[i]) {
+                assertData(message + ": record " + ids[i], data(SIZE, i),
+                           store.getRecord(ids[i]));
+                continue;
+            }
+
+            try {
+                store.getRecord(ids[i]);
+                fail(message + ": deleted record " + ids[i] + " found");
+            } catch (InvalidRecordIDException iride) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * A block freed after the block before it is merged with it,
+     * and so is a block freed before the block after it.
+     *
+     * @exception RecordStoreException if the record store cannot be used
+     */
+    void testMergeNeighbor() throws RecordStoreException {
+        fill();
+
+        try {
+            delete(10);
+            delete(11);
+            check("preceding deleted");
+            addMerged("preceding", 2);
+
+            delete(21);
+            delete(20);
+            check("following deleted");
+            addMerged("following", 2);
+
+            check("added");
+        } finally {
+            store.closeRecordStore();
+        }
+    }
+
+    /**
+     * A block freed between two free blocks joins both of them.
+     *
+     * @exception RecordStoreException if the record store cannot be used
+     */
+    void testMergeBoth() throws RecordStoreException {
+        fill();
+
+        try {
+            delete(10);
+            delete(12);
+            delete(11);
+            check("deleted");
+
+            // the record fits only into the three blocks together
+            addMerged("merged", 3);
+            check("added");
+        } finally {
+            store.closeRecordStore();
+        }
+    }
+
+    /**
+     * The part of a merged block not used by a new record stays free,
+     * so does the tail of a record made smaller, which is merged with
+     * the free block after it.
+     *
+     * @exception RecordStoreException if the record store cannot be used
+     */
+    void testSplit() throws RecordStoreException {
+        fill();
+
+        try {
+            delete(10);
+            delete(11);
+            delete(12);
+
+            // takes the front of the merged block
+            byte[] record = data(SIZE, 10);
+            ids[10] = store.addRecord(record, 0, record.length);
+            live[10] = true;
+            addMerged("rest of merged", 2);
+
+            // the tail of record 20 merges with the block of record 21
+            delete(21);
+            record = data(AbstractRecordStoreImpl.BLOCK_HEADER_SIZE, 77);
+            store.setRecord(ids[20], record, 0, record.length);
+            assertData("shrunk", record, store.getRecord(ids[20]));
+
+            int size = store.getSize();
+            record = data(2 * BLOCK - 3 *
+                          AbstractRecordStoreImpl.BLOCK_HEADER_SIZE, 88);
+            int id = store.addRecord(record, 0, record.length);
+            assertEquals("tail merged: size", size, store.getSize());
+            assertData("tail merged: data", record, store.getRecord(id));
+
+            // the other records are not touched
+            delete(20);
+            check("split");
+        } finally {
+            store.closeRecordStore();
+        }
+    }
+
+    /**
+     * Free blocks are found and merged by another instance of the
+     * record store, which builds its free block index from the db file.
+     * Closing the record store would compact it, so it is kept open.
+     *
+     * @exception RecordStoreException if the record store cannot be used
+     */
+    void testOtherInstance() throws RecordStoreException {
+        fill();
+
+        RecordStoreImpl first = store;
+
+        try {
+            delete(30);
+            delete(32);
+
+            open();
+            delete(31);
+            check("other instance");
+            addMerged("other instance", 3);
+        } finally {
+            store.closeRecordStore();
+            first.closeRecordStore();
+        }
+    }
+
+    /**
+     * Run all tests.
+     *
+     * @exception Throwable if a test fails unexpectedly
+     */
+    public void runTests() throws Throwable {
+        try {
+            declare("testMergeNeighbor");
+            testMergeNeighbor();
+
+            declare("testMergeBoth");
+            testMergeBoth();
+
+            declare("testSplit");
+            testSplit();
+
+            declare("testOtherInstance");
+            testOtherInstance();
+        } finally {
+            RecordStoreImpl.deleteRecordStore(getSecurityToken(), SUITE, NAME);
+        }
+    }
+}
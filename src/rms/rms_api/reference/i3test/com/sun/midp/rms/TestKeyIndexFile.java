@@ -0,0 +1,167 @@
+/*
+ *
+ *
+ * Copyright  1990-2007 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.rms;
+
+import com.sun.midp.i3test.*;
+import com.sun.midp.midlet.MIDletSuite;
+import java.io.IOException;
+import javax.microedition.rms.RecordStoreException;
+
+/**
+ * Tests that a saved key index file is only read back when its length
+ * matches the data in it. RecordStoreFile is a private class inside
+ * com.sun.midp.rms, so that's why this test resides in that package.
+ */
+public class TestKeyIndexFile extends TestCase {
+
+    /** The suite ID used when creating the record store. */
+    static final int SUITE = MIDletSuite.INTERNAL_SUITE_ID;
+
+    /** The name of the record store. */
+    static final String NAME = "TestKeyIndexFile";
+
+    /** The record store the key indexes are saved for. */
+    RecordStoreImpl store;
+
+    /**
+     * Writes a key index file with the given length and data.
+     *
+     * @param length the length written in front of the data
+     * @param data the data to write after the length
+     *
+     * @exception IOException if the file cannot be written
+     */
+    void writeFile(int length, byte[] data) throws IOException {
+        RecordStoreFile file = new RecordStoreFile(SUITE,
+            NAME + RecordStoreImpl.KEY_INDEX_FILE_SUFFIX,
+            RecordStoreFile.IDX_EXTENSION);
+
+        try {
+            byte[] size = new byte[4];
+            RecordStoreUtil.putInt(length, size, 0);
+            file.write(size);
+            file.write(data);
+            file.truncate(size.length + data.length);
+            file.commitWrite();
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Tells if the key index file of the record store exists.
+     *
+     * @return true if the file exists
+     */
+    boolean fileExists() {
+        return RecordStoreUtil.exists(
+            RmsEnvironment.getSecureFilenameBase(SUITE),
+            NAME + RecordStoreImpl.KEY_INDEX_FILE_SUFFIX,
+            RecordStoreFile.IDX_EXTENSION);
+    }
+
+    /**
+     * Saved data is read back.
+     *
+     * @exception RecordStoreException if the file cannot be used
+     */
+    void testReadBack() throws RecordStoreException {
+        byte[] data = new byte[10000];
+
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)i;
+        }
+
+        store.writeKeyIndexes(data);
+
+        byte[] read = store.readKeyIndexes();
+        assertNotNull("read", read);
+        assertEquals("length", data.length, read.length);
+        for (int i = 0; i < data.length; i++) {
+            if (read[i] != data[i]) {
+                fail("data differs at " + i);
+                break;
+            }
+        }
+
+        store.writeKeyIndexes(new byte[0]);
+        read = store.readKeyIndexes();
+        assertNotNull("empty", read);
+        assertEquals("empty length", 0, read.length);
+    }
+
+    /**
+     * A file whose length does not match its data is discarded.
+     *
+     * @exception IOException if the file cannot be written
+     * @exception RecordStoreException if the file cannot be used
+     */
+    void testBadLength() throws IOException, RecordStoreException {
+        byte[] data = new byte[] { 1, 2, 3 };
+
+        writeFile(Integer.MAX_VALUE, data);
+        assertNull("too long", store.readKeyIndexes());
+        assertFalse("too long discarded", fileExists());
+
+        writeFile(-1, data);
+        assertNull("negative", store.readKeyIndexes());
+        assertFalse("negative discarded", fileExists());
+
+        writeFile(2, data);
+        assertNull("trailing data", store.readKeyIndexes());
+        assertFalse("trailing data discarded", fileExists());
+
+        writeFile(4, data);
+        assertNull("short", store.readKeyIndexes());
+        assertFalse("short discarded", fileExists());
+
+        writeFile(3, data);
+        assertNotNull("valid", store.readKeyIndexes());
+        assertTrue("valid kept", fileExists());
+    }
+
+    /**
+     * Run all tests.
+     *
+     * @exception Throwable if a test fails unexpectedly
+     */
+    public void runTests() throws Throwable {
+        store = RecordStoreImpl.openRecordStore(getSecurityToken(), SUITE,
+                                                NAME, true);
+
+        try {
+            declare("testReadBack");
+            testReadBack();
+
+            declare("testBadLength");
+            testBadLength();
+        } finally {
+            store.closeRecordStore();
+            RecordStoreImpl.deleteRecordStore(getSecurityToken(), SUITE, NAME);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ *
+ *
+ * Copyright  1990-2007 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+package javax.microedition.rms;
+
+import com.sun.midp.i3test.*;
+
+import java.util.Random;
+
+/**
+ * Measures the cost of record store changes while an enumeration
+ * with a filter and a comparator is kept updated, and checks that
+ * the enumeration stays filtered and sorted.
+ */
+public class TestEnumerationUpdate extends TestCase {
+    /** Name of the record store used by the test. */
+    static final String RECORD_STORE_NAME = "testenumupdate";
+
+    /** Number of records added before the enumeration is created. */
+    static final int INITIAL_RECORDS = 200;
+
+    /** Number of changes made while the enumeration is live. */
+    static final int CHANGES = 600;
+
+    /** Accepts records with an even first byte. */
+    static final RecordFilter EVEN = new RecordFilter() {
+        public boolean matches(byte[] candidate) {
+            return (candidate[0] & 1) == 0;
+        }
+    };
+
+    /** Orders records by their first two bytes. */
+    static final RecordComparator BY_VALUE = new RecordComparator() {
+        public int compare(byte[] rec1, byte[] rec2) {
+            int diff = value(rec1) - value(rec2);
+            if (diff < 0) {
+                return PRECEDES;
+            }
+
+            return diff > 0 ? FOLLOWS : EQUIVALENT;
+        }
+    };
+
+    /** Random record contents. */
+    Random random = new Random(7);
+
+    /**
+     * Gets the value records are ordered by.
+     *
+     * @param rec record data
+     *
+     * @return first two bytes of the record as an unsigned number
+     */
+    static int value(byte[] rec) {
+        return ((rec[0] & 0xff) << 8) | (rec[1] & 0xff);
+    }
+
+    /**
+     * Makes a new record.
+     *
+     * @return record data
+     */
+    byte[] newRecord() {
+        byte[] rec = new byte[16];
+        random.nextBytes(rec);
+        return rec;
+    }
+
+    /**
+     * Adds, changes and deletes records with a live enumeration
+     * and reports the time taken per change.
+     */
+    void testLiveEnumeration() throws RecordStoreException {
+        declare("Live enumeration update");
+
+        RecordStore store =
+            RecordStore.openRecordStore(RECORD_STORE_NAME, true);
+        int[] ids = new int[INITIAL_RECORDS + CHANGES];
+        int count = 0;
+        byte[] rec;
+
+        try {
+            for (; count < INITIAL_RECORDS; count++) {
+                rec = newRecord();
+                ids[count] = store.addRecord(rec, 0, rec.length);
+            }
+
+            RecordEnumeration enumeration =
+                store.enumerateRecords(EVEN, BY_VALUE, true);
+
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < CHANGES; i++) {
+                switch (i % 3) {
+                case 0:
+                    rec = newRecord();
+                    ids[count++] = store.addRecord(rec, 0, rec.length);
+                    break;
+
+                case 1:
+                    rec = newRecord();
+                    store.setRecord(ids[random.nextInt(count)],
+                                    rec, 0, rec.length);
+                    break;
+
+                default:
+                    int n = random.nextInt(count);
+                    store.deleteRecord(ids[n]);
+                    ids[n] = ids[--count];
+                    break;
+                }
+            }
+            long time = System.currentTimeMillis() - start;
+
+            info("Live enumeration update: " + CHANGES +
+                " changes in " + time + " ms, " +
+                (time * 1000 / CHANGES) + " us per change");
+
+            int matching = 0;
+            for (int i = 0; i < count; i++) {
+                if (EVEN.matches(store.getRecord(ids[i]))) {
+                    matching++;
+                }
+            }
+            assertEquals("number of records", matching,
+                         enumeration.numRecords());
+
+            int previous = -1;
+            boolean sorted = true;
+            while (enumeration.hasNextElement()) {
+                rec = enumeration.nextRecord();
+                sorted &= EVEN.matches(rec) && value(rec) >= previous;
+                previous = value(rec);
+            }
+            assertTrue("filtered and sorted", sorted);
+
+            enumeration.destroy();
+        } finally {
+            store.closeRecordStore();
+        }
+    }
+
+    /**
+     * Removes the record store used by the test.
+     */
+    void cleanup() {
+        try {
+            RecordStore.deleteRecordStore(RECORD_STORE_NAME);
+        } catch (RecordStoreException rse) {
+        }
+    }
+
+    /**
+     * Runs all tests.
+     */
+    public void runTests() throws Throwable {
+        cleanup();
+
+        try {
+            testLiveEnumeration();
+        } finally {
+            cleanup();
+        }
+    }
+}
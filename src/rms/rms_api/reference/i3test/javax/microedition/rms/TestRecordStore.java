@@ -26,6 +26,9 @@
 package javax.microedition.rms;
 
 import com.sun.midp.i3test.*;
+import com.sun.midp.rms.FailingRecordStoreFile;
+import com.sun.midp.rms.RecordStoreImpl;
+import com.sun.midp.rms.RmsEnvironment;
 
 import java.util.Random;
 
@@ -151,6 +154,251 @@ public class TestRecordStore extends TestCase {
         store.closeRecordStore();
     }
 
+    private void testAddRecords() throws RecordStoreException {
+
+        declare("testAddRecords");
+        RecordStore store = RecordStore.openRecordStore(RECORD_STORE_NAME, false);
+        int numRecords = store.getNumRecords();
+        int nextId = store.getNextRecordID();
+
+        byte[][] records = new byte[][] { smallData, null, largeData };
+        int[] ids = store.addRecords(records);
+
+        assertTrue("ids", ids.length == 3 && ids[0] == nextId &&
+                   ids[1] == nextId + 1 && ids[2] == nextId + 2);
+        assertTrue("getNumRecords", store.getNumRecords() == numRecords + 3);
+        assertTrue("empty record", store.getRecordSize(ids[1]) == 0);
+
+        byte record[] = store.getRecord(ids[2]);
+        int i;
+
+        for (i = 0; i < record.length; i++)
+            if (record[i] != largeData[i])
+                break;
+        assertTrue("large", record.length == largeData.length && i == record.length);
+
+        declare("testAddRecords rollback");
+
+        // a batch far larger than the storage limit must not change anything
+        records = new byte[1024][];
+        for (i = 0; i < records.length; i++) {
+            records[i] = largeData;
+        }
+
+        nextId = store.getNextRecordID();
+        numRecords = store.getNumRecords();
+        boolean exceptionThrown = false;
+
+        try {
+            store.addRecords(records);
+        } catch (RecordStoreFullException e) {
+            exceptionThrown = true;
+        }
+
+        assertTrue("exception", exceptionThrown);
+        assertTrue("getNumRecords", store.getNumRecords() == numRecords);
+        assertTrue("getNextRecordID", store.getNextRecordID() == nextId);
+
+        declare("testAddRecords write failure");
+
+        /*
+         * A write failing in the middle of a batch must not change
+         * anything either. The failure is made through an instance
+         * of the record store whose db file can be replaced.
+         */
+        RecordStoreImpl impl = RecordStoreImpl.openRecordStore(
+            getSecurityToken(), RmsEnvironment.getCallersSuiteId(),
+            RECORD_STORE_NAME, false);
+        // larger than the free blocks left by the other tests
+        byte[] hugeData = new byte[2 * largeData.length];
+        records = new byte[][] { hugeData, smallData, hugeData };
+        int size = impl.getSize();
+        exceptionThrown = false;
+
+        // the first record is written, the second one fails
+        FailingRecordStoreFile.failWrites(impl, 4);
+        try {
+            impl.addRecords(records);
+        } catch (RecordStoreException e) {
+            exceptionThrown = true;
+        } finally {
+            FailingRecordStoreFile.restore(impl);
+        }
+
+        assertTrue("write exception", exceptionThrown);
+        assertTrue("data size", impl.getSize() == size);
+        assertTrue("getNumRecords", impl.getNumRecords() == numRecords);
+        assertTrue("getNextRecordID", impl.getNextRecordID() == nextId);
+
+        // the next batch gets the same recordIds
+        int[] retryIds = impl.addRecords(records);
+        assertTrue("ids after failure", retryIds[0] == nextId);
+        assertTrue("record after failure",
+                   impl.getRecordSize(retryIds[2]) == hugeData.length);
+        for (i = 0; i < retryIds.length; i++) {
+            impl.deleteRecord(retryIds[i]);
+        }
+
+        impl.closeRecordStore();
+
+        for (i = 0; i < ids.length; i++) {
+            store.deleteRecord(ids[i]);
+        }
+
+        store.closeRecordStore();
+    }
+
+    /**
+     * Creates a record indexed by the test key index.
+     * @param key the key of the record
+     * @return the record
+     */
+    private byte[] keyRecord(int key) {
+        return new byte[] { (byte)'k', (byte)key, 0 };
+    }
+
+    /**
+     * Checks that an enumeration returns the given records in order.
+     * @param e the enumeration to check
+     * @param ids the expected record IDs
+     * @return true if the enumeration returns exactly the given records
+     */
+    private boolean enumerates(RecordEnumeration e, int[] ids)
+            throws RecordStoreException {
+        if (e.numRecords() != ids.length) {
+            return false;
+        }
+
+        e.reset();
+        for (int i = 0; i < ids.length; i++) {
+            if (e.nextRecordId() != ids[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void testKeyIndex() throws RecordStoreException {
+
+        declare("testKeyIndex");
+        RecordStore store = RecordStore.openRecordStore(RECORD_STORE_NAME, false);
+        com.sun.midp.rms.RecordKeyExtractor extractor =
+            new com.sun.midp.rms.RecordKeyExtractor() {
+                public byte[] getKey(byte[] record) {
+                    if (record.length != 3 || record[0] != 'k') {
+                        return null;
+                    }
+                    return new byte[] { record[1] };
+                }
+            };
+
+        int[] ids = new int[4];
+        int[] keys = new int[] { 5, 1, 3, 200 };
+        for (int i = 0; i < keys.length; i++) {
+            byte[] record = keyRecord(keys[i]);
+            ids[i] = store.addRecord(record, 0, record.length);
+        }
+
+        store.createIndex("key", extractor);
+
+        RecordEnumeration e = store.enumerateRecords("key",
+            new byte[] { 1 }, new byte[] { 5 }, null, true);
+        assertTrue("range", enumerates(e, new int[] { ids[1], ids[2], ids[0] }));
+
+        RecordEnumeration all = store.enumerateRecords("key",
+            null, null, null, false);
+        assertTrue("unsigned order",
+                   enumerates(all, new int[] { ids[1], ids[2], ids[0], ids[3] }));
+
+        declare("testKeyIndex updates");
+        byte[] record = keyRecord(2);
+        int newId = store.addRecord(record, 0, record.length);
+        assertTrue("added", enumerates(e,
+            new int[] { ids[1], newId, ids[2], ids[0] }));
+
+        store.deleteRecord(ids[1]);
+        assertTrue("deleted", enumerates(e, new int[] { newId, ids[2], ids[0] }));
+
+        record = keyRecord(9);
+        store.setRecord(ids[2], record, 0, record.length);
+        assertTrue("changed", enumerates(e, new int[] { newId, ids[0] }));
+
+        e.destroy();
+        all.destroy();
+        store.closeRecordStore();
+
+        declare("testKeyIndex saved");
+        store = RecordStore.openRecordStore(RECORD_STORE_NAME, false);
+        store.createIndex("key", extractor);
+        e = store.enumerateRecords("key", null, null, null, false);
+        assertTrue("reopened",
+                   enumerates(e, new int[] { newId, ids[0], ids[2], ids[3] }));
+
+        store.dropIndex("key");
+        boolean exceptionThrown = false;
+        try {
+            store.enumerateRecords("key", null, null, null, false);
+        } catch (IllegalArgumentException iae) {
+            exceptionThrown = true;
+        }
+        assertTrue("dropped", exceptionThrown);
+
+        declare("testKeyIndex dropped enumeration");
+        RecordEnumeration kept = store.enumerateRecords(null, null, false);
+        store.createIndex("key", extractor);
+        exceptionThrown = false;
+        try {
+            e.numRecords();
+        } catch (IllegalStateException ise) {
+            exceptionThrown = true;
+        }
+        assertTrue("enumeration of dropped index", exceptionThrown);
+        assertEquals("other enumeration", store.getNumRecords(),
+                     kept.numRecords());
+        e.destroy();
+        kept.destroy();
+
+        e = store.enumerateRecords("key", null, null, null, true);
+        store.dropIndex("key");
+        record = keyRecord(7);
+        int droppedId = store.addRecord(record, 0, record.length);
+        exceptionThrown = false;
+        try {
+            e.hasNextElement();
+        } catch (IllegalStateException ise) {
+            exceptionThrown = true;
+        }
+        assertTrue("updated enumeration of dropped index", exceptionThrown);
+        e.destroy();
+        store.deleteRecord(droppedId);
+        store.createIndex("key", extractor);
+        store.closeRecordStore();
+
+        declare("testKeyIndex other extractor");
+        store = RecordStore.openRecordStore(RECORD_STORE_NAME, false);
+        com.sun.midp.rms.RecordKeyExtractor reversed =
+            new com.sun.midp.rms.RecordKeyExtractor() {
+                public byte[] getKey(byte[] record) {
+                    if (record.length != 3 || record[0] != 'k') {
+                        return null;
+                    }
+                    return new byte[] { (byte)(255 - (record[1] & 0xff)) };
+                }
+            };
+        store.createIndex("key", reversed);
+        e = store.enumerateRecords("key", null, null, null, false);
+        assertTrue("rebuilt",
+                   enumerates(e, new int[] { ids[3], ids[2], ids[0], newId }));
+
+        e.destroy();
+        store.deleteRecord(newId);
+        store.deleteRecord(ids[0]);
+        store.deleteRecord(ids[2]);
+        store.deleteRecord(ids[3]);
+        store.closeRecordStore();
+    }
+
     /**
      * Creates a pseudo random record which is actually a fragment of
      * largeData array.
@@ -255,6 +503,8 @@ public class TestRecordStore extends TestCase {
         try {
             testSequentialRMS();
             testEnumeration();
+            testAddRecords();
+            testKeyIndex();
             testCompactRecords();
             cleanup();
             testSizeLimit();
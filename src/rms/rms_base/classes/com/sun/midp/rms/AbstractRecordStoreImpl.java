@@ -280,6 +280,30 @@ interface AbstractRecordStoreImpl {
         throws RecordStoreNotOpenException, RecordStoreException,
                RecordStoreFullException;
 
+    /**
+     * Adds a batch of new records to the record store. The new records
+     * get consecutive recordIds in the order they are given. This is a
+     * blocking atomic operation: either all the records are written to
+     * persistent storage before the method returns or none of them is.
+     *
+     * @param records the data to be stored in the new records. An
+     *          element may be null if the record is to have no data.
+     *
+     * @return the recordIds for the new records
+     *
+     * @exception RecordStoreNotOpenException if the record store is
+     *          not open
+     * @exception RecordStoreException if a different record
+     *          store-related exception occurred
+     * @exception RecordStoreFullException if the operation cannot be
+     *          completed because the record store has no more room
+     * @exception SecurityException if the MIDlet has read-only access
+     *          to the RecordStore
+     */
+    int[] addRecords(byte[][] records)
+        throws RecordStoreNotOpenException, RecordStoreException,
+               RecordStoreFullException;
+
     /**
      * The record is deleted from the record store. The recordId for
      * this record is NOT reused.
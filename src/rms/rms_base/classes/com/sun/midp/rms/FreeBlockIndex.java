@@ -0,0 +1,557 @@
+/*
+ *
+ *
+ * Copyright  1990-2007 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.rms;
+
+import java.io.IOException;
+
+import com.sun.midp.log.Logging;
+import com.sun.midp.log.LogChannels;
+
+/**
+ * An in-memory index of the free blocks of a record store db file.
+ *
+ * Free blocks are kept in size class lists: one list for each block
+ * size up to <code>EXACT_CLASSES</code> * 8 bytes and one list for each
+ * power of two above that. A bit mask of the non-empty lists finds the
+ * smallest class with a large enough block without looking at the
+ * lists of smaller blocks. The blocks are also hashed by the offsets
+ * where they start and end, so the free neighbours of a block being
+ * freed can be found and merged with it.
+ *
+ * The index is built by one sequential pass over the db file when it is
+ * first needed or after it was invalidated. Every block it returns is
+ * checked against its header in the db file, a block that does not
+ * match causes the index to be built again.
+ */
+class FreeBlockIndex {
+
+    /** Number of size classes holding blocks of a single size */
+    private static final int EXACT_CLASSES = 8;
+
+    /** Number of size classes, one bit of the class mask each */
+    private static final int NUM_CLASSES = 32;
+
+    /** Marks the end of a list */
+    private static final int NONE = -1;
+
+    /** Initial number of entries and hash buckets */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** The Record Store whose free blocks are indexed */
+    private AbstractRecordStoreImpl recordStore;
+
+    /** The Record Store database file */
+    private AbstractRecordStoreFile dbFile;
+
+    /** True if the index matches the db file */
+    private boolean valid;
+
+    /** Offsets of the free blocks */
+    private int[] entryOffset;
+
+    /** Sizes of the free blocks, including the block header */
+    private int[] entrySize;
+
+    /** Next entry in the same size class or in the list of unused entries */
+    private int[] classNext;
+
+    /** Previous entry in the same size class */
+    private int[] classPrev;
+
+    /** Next entry in the same start offset hash bucket */
+    private int[] startNext;
+
+    /** Next entry in the same end offset hash bucket */
+    private int[] endNext;
+
+    /** First entry of each size class */
+    private int[] classHead = new int[NUM_CLASSES];
+
+    /** Bit mask of the non-empty size classes */
+    private int classMask;
+
+    /** First entry of each start offset hash bucket */
+    private int[] startHead;
+
+    /** First entry of each end offset hash bucket */
+    private int[] endHead;
+
+    /** First entry of the list of unused entries */
+    private int unusedHead;
+
+    /** Number of free blocks in the index */
+    private int count;
+
+    /**
+     * Constructs a free block index for the given record store.
+     *
+     * @param rs record store whose free blocks are indexed
+     * @param file the db file of the record store
+     */
+    FreeBlockIndex(AbstractRecordStoreImpl rs, AbstractRecordStoreFile file) {
+        recordStore = rs;
+        dbFile = file;
+    }
+
+    /**
+     * Drops the index, it is built again when it is needed next time.
+     * Called when the db file may have been changed by somebody else.
+     */
+    void invalidate() {
+        valid = false;
+    }
+
+    /**
+     * Updates the index after a block header was written.
+     *
+     * @param blockOffset the offset in db file of the block
+     * @param header the header of the block
+     */
+    void blockUpdated(int blockOffset, byte[] header) {
+        if (!valid) {
+            return;
+        }
+
+        removeEntry(blockOffset);
+
+        if (RecordStoreUtil.getInt(header, 0) < 0) {
+            addEntry(blockOffset, RecordStoreUtil.calculateBlockSize(
+                RecordStoreUtil.getInt(header, 4)));
+        }
+    }
+
+    /**
+     * Removes the free block at the given offset from the index.
+     *
+     * @param blockOffset the offset in db file of the block
+     */
+    void blockRemoved(int blockOffset) {
+        if (valid) {
+            removeEntry(blockOffset);
+        }
+    }
+
+    /**
+     * Finds a free block large enough for the record. The smallest size
+     * class holding such a block is used.
+     *
+     * @param header a block header with the size set to the record data
+     *               size, the header of the free block is read into it
+     *
+     * @exception IOException if there is an error accessing the db file
+     *
+     * @return the offset in the db file of the free block or 0 if
+     *         there is no large enough free block
+     */
+    int getFreeBlock(byte[] header) throws IOException {
+        int targetSize = RecordStoreUtil.
+            calculateBlockSize(RecordStoreUtil.getInt(header, 4));
+
+        for (int attempt = 0; attempt < 2; attempt++) {
+            ensureValid();
+
+            int entry = findEntry(targetSize);
+            if (entry == NONE) {
+                return 0;
+            }
+
+            if (readFreeHeader(entryOffset[entry], entrySize[entry],
+                               header)) {
+                return entryOffset[entry];
+            }
+
+            valid = false;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Finds the free block that ends where the given block starts.
+     *
+     * @param blockOffset the offset in db file of the block
+     * @param header the header of the free block is read into it
+     *
+     * @exception IOException if there is an error accessing the db file
+     *
+     * @return the offset in the db file of the free block or 0 if
+     *         the preceding block is not free
+     */
+    int getFreeBlockBefore(int blockOffset, byte[] header)
+        throws IOException {
+
+        for (int attempt = 0; attempt < 2; attempt++) {
+            ensureValid();
+
+            int entry = endHead[hash(blockOffset, endHead.length)];
+            while (entry != NONE &&
+                   entryOffset[entry] + entrySize[entry] != blockOffset) {
+                entry = endNext[entry];
+            }
+
+            if (entry == NONE) {
+                return 0;
+            }
+
+            if (readFreeHeader(entryOffset[entry], entrySize[entry],
+                               header)) {
+                return entryOffset[entry];
+            }
+
+            valid = false;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Returns the entry of a free block of at least the given size.
+     *
+     * @param targetSize the block size needed
+     *
+     * @return the entry or <code>NONE</code>
+     */
+    private int findEntry(int targetSize) {
+        int sizeClass = getSizeClass(targetSize);
+
+        if (sizeClass >= EXACT_CLASSES) {
+            // the blocks of this class can be smaller than needed
+            for (int entry = classHead[sizeClass]; entry != NONE;
+                     entry = classNext[entry]) {
+                if (entrySize[entry] >= targetSize) {
+                    return entry;
+                }
+            }
+
+            sizeClass++;
+        }
+
+        if (sizeClass >= NUM_CLASSES) {
+            return NONE;
+        }
+
+        // every block of the following classes is large enough
+        int mask = classMask & (-1 << sizeClass);
+        if (mask == 0) {
+            return NONE;
+        }
+
+        while ((mask & (1 << sizeClass)) == 0) {
+            sizeClass++;
+        }
+
+        return classHead[sizeClass];
+    }
+
+    /**
+     * Returns the size class of the given block size.
+     *
+     * @param size block size, a non-zero multiple of the block header size
+     *
+     * @return the size class
+     */
+    private static int getSizeClass(int size) {
+        int units = size / AbstractRecordStoreImpl.BLOCK_HEADER_SIZE;
+
+        if (units <= EXACT_CLASSES) {
+            return units - 1;
+        }
+
+        // classes of EXACT_CLASSES + 1 units and above double in size
+        int sizeClass = EXACT_CLASSES - 3;
+        for (; units > 1; units >>= 1) {
+            sizeClass++;
+        }
+
+        return (sizeClass < NUM_CLASSES) ? sizeClass : NUM_CLASSES - 1;
+    }
+
+    /**
+     * Reads the header of a block and checks that it is a free block
+     * of the given size.
+     *
+     * @param blockOffset the offset in db file of the block
+     * @param blockSize the expected size of the block
+     * @param header buffer for the block header
+     *
+     * @exception IOException if there is an error accessing the db file
+     *
+     * @return true if the block is free and has the given size
+     */
+    private boolean readFreeHeader(int blockOffset, int blockSize,
+                                   byte[] header) throws IOException {
+        if (blockOffset + blockSize > recordStore.getSize()) {
+            return false;
+        }
+
+        dbFile.seek(blockOffset);
+
+        if (dbFile.read(header) != AbstractRecordStoreImpl.BLOCK_HEADER_SIZE ||
+                RecordStoreUtil.getInt(header, 0) >= 0 ||
+                RecordStoreUtil.calculateBlockSize(
+                    RecordStoreUtil.getInt(header, 4)) != blockSize) {
+            if (Logging.REPORT_LEVEL <= Logging.WARNING) {
+                Logging.report(Logging.WARNING, LogChannels.LC_RMS,
+                               "free block index out of date at " +
+                               blockOffset);
+            }
+
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Builds the index by reading all the block headers of the db file
+     * if it is not valid.
+     *
+     * @exception IOException if there is an error accessing the db file
+     */
+    private void ensureValid() throws IOException {
+        if (valid) {
+            return;
+        }
+
+        entryOffset = new int[INITIAL_CAPACITY];
+        entrySize = new int[INITIAL_CAPACITY];
+        classNext = new int[INITIAL_CAPACITY];
+        classPrev = new int[INITIAL_CAPACITY];
+        startNext = new int[INITIAL_CAPACITY];
+        endNext = new int[INITIAL_CAPACITY];
+        startHead = new int[INITIAL_CAPACITY];
+        endHead = new int[INITIAL_CAPACITY];
+
+        for (int i = 0; i < INITIAL_CAPACITY; i++) {
+            classNext[i] = i + 1;
+            startHead[i] = NONE;
+            endHead[i] = NONE;
+        }
+        classNext[INITIAL_CAPACITY - 1] = NONE;
+        unusedHead = 0;
+
+        for (int i = 0; i < NUM_CLASSES; i++) {
+            classHead[i] = NONE;
+        }
+        classMask = 0;
+        count = 0;
+
+        byte[] header = new byte[AbstractRecordStoreImpl.BLOCK_HEADER_SIZE];
+        int currentOffset = AbstractRecordStoreImpl.DB_HEADER_SIZE;
+        int dataEnd = recordStore.getSize();
+
+        while (currentOffset < dataEnd) {
+            dbFile.seek(currentOffset);
+
+            // read the block header
+            if (dbFile.read(header) !=
+                    AbstractRecordStoreImpl.BLOCK_HEADER_SIZE) {
+                throw new IOException("Could not read block " +
+                                      currentOffset);
+            }
+
+            int currentSize = RecordStoreUtil.
+                calculateBlockSize(RecordStoreUtil.getInt(header, 4));
+
+            if (RecordStoreUtil.getInt(header, 0) < 0) {
+                addEntry(currentOffset, currentSize);
+            }
+
+            currentOffset += currentSize;
+        }
+
+        valid = true;
+
+        if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
+            Logging.report(Logging.INFORMATION, LogChannels.LC_RMS,
+                           "free block index built, " + count + " blocks");
+        }
+    }
+
+    /**
+     * Adds a free block to the index.
+     *
+     * @param blockOffset the offset in db file of the block
+     * @param blockSize the size of the block
+     */
+    private void addEntry(int blockOffset, int blockSize) {
+        if (unusedHead == NONE) {
+            grow();
+        }
+
+        int entry = unusedHead;
+        unusedHead = classNext[entry];
+
+        entryOffset[entry] = blockOffset;
+        entrySize[entry] = blockSize;
+
+        // add to the front of the size class list
+        int sizeClass = getSizeClass(blockSize);
+        classPrev[entry] = NONE;
+        classNext[entry] = classHead[sizeClass];
+        if (classHead[sizeClass] != NONE) {
+            classPrev[classHead[sizeClass]] = entry;
+        }
+        classHead[sizeClass] = entry;
+        classMask |= 1 << sizeClass;
+
+        int bucket = hash(blockOffset, startHead.length);
+        startNext[entry] = startHead[bucket];
+        startHead[bucket] = entry;
+
+        bucket = hash(blockOffset + blockSize, endHead.length);
+        endNext[entry] = endHead[bucket];
+        endHead[bucket] = entry;
+
+        count++;
+    }
+
+    /**
+     * Removes the free block at the given offset from the index
+     * if it is there.
+     *
+     * @param blockOffset the offset in db file of the block
+     */
+    private void removeEntry(int blockOffset) {
+        int bucket = hash(blockOffset, startHead.length);
+        int entry = startHead[bucket];
+        int prev = NONE;
+
+        while (entry != NONE && entryOffset[entry] != blockOffset) {
+            prev = entry;
+            entry = startNext[entry];
+        }
+
+        if (entry == NONE) {
+            return;
+        }
+
+        if (prev == NONE) {
+            startHead[bucket] = startNext[entry];
+        } else {
+            startNext[prev] = startNext[entry];
+        }
+
+        // unlink from the end offset hash bucket
+        bucket = hash(blockOffset + entrySize[entry], endHead.length);
+        if (endHead[bucket] == entry) {
+            endHead[bucket] = endNext[entry];
+        } else {
+            prev = endHead[bucket];
+            while (endNext[prev] != entry) {
+                prev = endNext[prev];
+            }
+            endNext[prev] = endNext[entry];
+        }
+
+        // unlink from the size class list
+        int sizeClass = getSizeClass(entrySize[entry]);
+        if (classPrev[entry] == NONE) {
+            classHead[sizeClass] = classNext[entry];
+            if (classHead[sizeClass] == NONE) {
+                classMask &= ~(1 << sizeClass);
+            }
+        } else {
+            classNext[classPrev[entry]] = classNext[entry];
+        }
+        if (classNext[entry] != NONE) {
+            classPrev[classNext[entry]] = classPrev[entry];
+        }
+
+        classNext[entry] = unusedHead;
+        unusedHead = entry;
+        count--;
+    }
+
+    /**
+     * Doubles the number of entries and hash buckets.
+     */
+    private void grow() {
+        int oldCapacity = entryOffset.length;
+        int newCapacity = oldCapacity * 2;
+
+        entryOffset = growArray(entryOffset, newCapacity);
+        entrySize = growArray(entrySize, newCapacity);
+        classNext = growArray(classNext, newCapacity);
+        classPrev = growArray(classPrev, newCapacity);
+        startNext = new int[newCapacity];
+        endNext = new int[newCapacity];
+        startHead = new int[newCapacity];
+        endHead = new int[newCapacity];
+
+        for (int i = 0; i < newCapacity; i++) {
+            startHead[i] = NONE;
+            endHead[i] = NONE;
+        }
+
+        // all the old entries are in use, rehash them
+        for (int entry = 0; entry < oldCapacity; entry++) {
+            int bucket = hash(entryOffset[entry], newCapacity);
+            startNext[entry] = startHead[bucket];
+            startHead[bucket] = entry;
+
+            bucket = hash(entryOffset[entry] + entrySize[entry], newCapacity);
+            endNext[entry] = endHead[bucket];
+            endHead[bucket] = entry;
+        }
+
+        // the new entries are unused
+        for (int entry = oldCapacity; entry < newCapacity - 1; entry++) {
+            classNext[entry] = entry + 1;
+        }
+        classNext[newCapacity - 1] = NONE;
+        unusedHead = oldCapacity;
+    }
+
+    /**
+     * Returns a copy of the array with the given length.
+     *
+     * @param array the array to copy
+     * @param length the length of the new array
+     *
+     * @return the new array
+     */
+    private static int[] growArray(int[] array, int length) {
+        int[] newArray = new int[length];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+
+    /**
+     * Returns the hash bucket of a block offset.
+     *
+     * @param blockOffset the block offset, a multiple of the block
+     *                    header size
+     * @param numBuckets the number of buckets, a power of two
+     *
+     * @return the bucket index
+     */
+    private static int hash(int blockOffset, int numBuckets) {
+        return (blockOffset / AbstractRecordStoreImpl.BLOCK_HEADER_SIZE) &
+            (numBuckets - 1);
+    }
+}
@@ -0,0 +1,611 @@
+/*
+ *
+ *
+ * Copyright  1990-2007 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.rms;
+
+import java.io.IOException;
+
+import com.sun.midp.log.Logging;
+import com.sun.midp.log.LogChannels;
+
+/**
+ * A write-back page cache layered over another record store file.
+ *
+ * The file is divided into pages of <code>PAGE_SIZE</code> bytes, which
+ * is a multiple of the record block alignment. Reads are served from
+ * cached pages, writes only modify the cached pages and remember the
+ * dirty range of each page. Dirty pages are written to the underlying
+ * file in file offset order by <code>flush()</code> and
+ * <code>commitWrite()</code>, or when they are evicted, so any number
+ * of small header and record writes to a page costs one native write.
+ * Adjacent dirty pages whose dirty ranges meet are flushed together
+ * with one native write.
+ *
+ * The least recently used page is evicted when the cache is full.
+ * The number of pages is small, so pages are looked up by a linear scan.
+ *
+ * The cache does not know about other users of the same file. Its owner
+ * must flush it before releasing the record store lock and invalidate
+ * it when somebody else could have changed the file.
+ */
+class RecordStoreFileCache implements AbstractRecordStoreFile {
+
+    /** Size of a cache page, a multiple of the block header size */
+    static final int PAGE_SIZE = 512;
+
+    /** The file whose data is cached */
+    private AbstractRecordStoreFile file;
+
+    /** Cached pages, the array has a fixed length */
+    private Page[] pages;
+
+    /** Current position in the file */
+    private int position;
+
+    /** Value of the LRU clock, increases on every page access */
+    private int useClock;
+
+    /** Number of page lookups served from the cache */
+    private int hits;
+
+    /** Number of page lookups that had to read the file */
+    private int misses;
+
+    /** Number of bytes written to the cache by callers */
+    private int bytesRequested;
+
+    /** Number of bytes written from the cache to the file */
+    private int bytesWritten;
+
+    /** Buffer a run of adjacent dirty pages is copied to, grows as needed */
+    private byte[] runBuffer;
+
+    /**
+     * Constructs a page cache for the given file.
+     *
+     * @param file file to cache the data of
+     * @param cacheSize size of the cache in bytes, at least one page
+     *                  is always cached
+     */
+    RecordStoreFileCache(AbstractRecordStoreFile file, int cacheSize) {
+        int numPages = cacheSize / PAGE_SIZE;
+
+        this.file = file;
+        pages = new Page[(numPages > 0) ? numPages : 1];
+    }
+
+    /**
+     * Approximation of remaining space in storage.
+     *
+     * @param suiteId ID of the MIDlet suite that owns the record store
+     *        can be null
+     *
+     * @return the approximate space available to grow the
+     *         record store in bytes.
+     */
+    public int spaceAvailable(int suiteId) {
+        return file.spaceAvailable(suiteId);
+    }
+
+    /**
+     * Sets the current position in the file. The file is not accessed
+     * until the data is read or written.
+     *
+     * @param pos position within the file to move the current_pos
+     *        pointer to.
+     *
+     * @exception IOException if there is a problem with the seek.
+     */
+    public void seek(int pos) throws IOException {
+        if (pos < 0) {
+            throw new IOException("negative seek position");
+        }
+
+        position = pos;
+    }
+
+    /**
+     * Write all of <code>buf</code> to the cache.
+     *
+     * @param buf buffer to read out of.
+     *
+     * @exception IOException if a write error occurs.
+     */
+    public void write(byte[] buf) throws IOException {
+        write(buf, 0, buf.length);
+    }
+
+    /**
+     * Write <code>buf</code> to the cache, starting
+     * at <code>offset</code> and continuing for <code>numBytes</code>
+     * bytes.
+     *
+     * @param buf buffer to read out of.
+     * @param offset starting point write offset, from beginning of buffer.
+     * @param numBytes the number of bytes to write.
+     *
+     * @exception IOException if a write error occurs.
+     */
+    public void write(byte[] buf, int offset, int numBytes)
+            throws IOException {
+        if (offset < 0 || numBytes < 0 || offset + numBytes > buf.length) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+
+        bytesRequested += numBytes;
+
+        while (numBytes > 0) {
+            Page page = getPage(position / PAGE_SIZE);
+            int pageOffset = position - page.start;
+            int count = PAGE_SIZE - pageOffset;
+            if (count > numBytes) {
+                count = numBytes;
+            }
+
+            System.arraycopy(buf, offset, page.data, pageOffset, count);
+            page.markDirty(pageOffset, pageOffset + count);
+
+            position += count;
+            offset += count;
+            numBytes -= count;
+        }
+    }
+
+    /**
+     * Writes the dirty pages to the file and commits them.
+     *
+     * @exception IOException if an error occurs while flushing
+     *            the file.
+     */
+    public void commitWrite() throws IOException {
+        flush();
+        file.commitWrite();
+    }
+
+    /**
+     * Read up to <code>buf.length</code> into <code>buf</code>.
+     *
+     * @param buf buffer to read in to.
+     *
+     * @return the number of bytes read.
+     *
+     * @exception IOException if a read error occurs.
+     */
+    public int read(byte[] buf) throws IOException {
+        return read(buf, 0, buf.length);
+    }
+
+    /**
+     * Read up to <code>numBytes</code> bytes into <code>buf</code>
+     * starting at offset <code>offset</code>.
+     *
+     * @param buf buffer to read in to.
+     * @param offset starting point read offset, from beginning of buffer.
+     * @param numBytes the number of bytes to read.
+     *
+     * @return the number of bytes read, -1 if the position is at
+     *         the end of the file
+     *
+     * @exception IOException if a read error occurs.
+     */
+    public int read(byte[] buf, int offset, int numBytes) throws IOException {
+        if (offset < 0 || numBytes < 0 || offset + numBytes > buf.length) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+
+        if (numBytes == 0) {
+            return 0;
+        }
+
+        int numRead = 0;
+        while (numRead < numBytes) {
+            Page page = getPage(position / PAGE_SIZE);
+            int pageOffset = position - page.start;
+            int count = page.length - pageOffset;
+            if (count <= 0) {
+                // end of file
+                break;
+            }
+
+            if (count > numBytes - numRead) {
+                count = numBytes - numRead;
+            }
+
+            System.arraycopy(page.data, pageOffset, buf, offset + numRead,
+                             count);
+            position += count;
+            numRead += count;
+
+            if (page.length < PAGE_SIZE) {
+                // last page of the file
+                break;
+            }
+        }
+
+        return (numRead == 0) ? -1 : numRead;
+    }
+
+    /**
+     * Writes the dirty pages to the file and closes it.
+     * May be called more than once without error.
+     *
+     * @exception IOException if an error occurs closing the file.
+     */
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
+                Logging.report(Logging.INFORMATION, LogChannels.LC_RMS,
+                               "page cache: hits = " + hits +
+                               " misses = " + misses +
+                               " bytes requested = " + bytesRequested +
+                               " bytes written = " + bytesWritten);
+            }
+
+            invalidate();
+            file.close();
+        }
+    }
+
+    /**
+     * Sets the length of the file to <code>size</code> bytes.
+     * Cached data beyond the new end of the file is dropped.
+     *
+     * @param size new size for this file.
+     *
+     * @exception IOException if an error occurs, or if
+     * <code>size</code> is less than zero.
+     */
+    public void truncate(int size) throws IOException {
+        for (int i = 0; i < pages.length; i++) {
+            Page page = pages[i];
+            if (page == null || page.start + page.length <= size) {
+                continue;
+            }
+
+            if (page.start >= size) {
+                pages[i] = null;
+            } else {
+                page.truncate(size - page.start);
+            }
+        }
+
+        file.truncate(size);
+    }
+
+    /**
+     * Writes the dirty pages to the file in file offset order.
+     * A page dirty up to its end and the dirty page following it
+     * are written as one run. Does not commit the file.
+     *
+     * @exception IOException if a write error occurs.
+     */
+    void flush() throws IOException {
+        for (;;) {
+            // find the dirty page with the lowest offset
+            Page first = null;
+            for (int i = 0; i < pages.length; i++) {
+                Page page = pages[i];
+                if (page != null && page.isDirty() &&
+                        (first == null || page.start < first.start)) {
+                    first = page;
+                }
+            }
+
+            if (first == null) {
+                return;
+            }
+
+            // extend the run while the dirty data continues on the next page
+            Page last = first;
+            int runLength = first.dirtyEnd - first.dirtyStart;
+            while (last.dirtyEnd == PAGE_SIZE) {
+                Page next = getDirtyPage(last.start + PAGE_SIZE);
+                if (next == null) {
+                    break;
+                }
+
+                runLength += next.dirtyEnd;
+                last = next;
+            }
+
+            if (last == first) {
+                writePage(first);
+            } else {
+                writeRun(first, last, runLength);
+            }
+        }
+    }
+
+    /**
+     * Checks if the cache holds data not yet written to the file.
+     *
+     * @return <code>true</code> if there are dirty pages
+     */
+    boolean isDirty() {
+        for (int i = 0; i < pages.length; i++) {
+            if (pages[i] != null && pages[i].isDirty()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Drops all cached pages. Dirty pages must be flushed first.
+     * Called when the file could have been changed by somebody else.
+     */
+    void invalidate() {
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = null;
+        }
+    }
+
+    /**
+     * Returns the number of page lookups served from the cache.
+     *
+     * @return number of cache hits
+     */
+    int getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of page lookups that had to read the file.
+     *
+     * @return number of cache misses
+     */
+    int getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of bytes written to the cache by its user.
+     *
+     * @return number of bytes requested to be written
+     */
+    int getBytesRequested() {
+        return bytesRequested;
+    }
+
+    /**
+     * Returns the number of bytes written from the cache to the file.
+     * Together with <code>getBytesRequested()</code> it gives the write
+     * amplification caused by page granular writes.
+     *
+     * @return number of bytes written to the file
+     */
+    int getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Returns the cached page with the given number, reading it from
+     * the file if needed. The least recently used page is evicted
+     * if there is no room for a new page.
+     *
+     * @param pageNumber number of the page in the file
+     *
+     * @return the page
+     *
+     * @exception IOException if an error occurs accessing the file
+     */
+    private Page getPage(int pageNumber) throws IOException {
+        int start = pageNumber * PAGE_SIZE;
+        int victim = 0;
+
+        for (int i = 0; i < pages.length; i++) {
+            Page page = pages[i];
+            if (page == null) {
+                victim = i;
+                continue;
+            }
+
+            if (page.start == start) {
+                hits++;
+                page.lastUse = ++useClock;
+                return page;
+            }
+
+            if (pages[victim] != null && page.lastUse < pages[victim].lastUse) {
+                victim = i;
+            }
+        }
+
+        misses++;
+
+        Page page = pages[victim];
+        if (page == null) {
+            page = new Page();
+        } else {
+            // prevent the page from being used if the write fails
+            pages[victim] = null;
+            if (page.isDirty()) {
+                writePage(page);
+            }
+        }
+
+        page.start = start;
+        page.lastUse = ++useClock;
+
+        file.seek(start);
+        int length = file.read(page.data, 0, PAGE_SIZE);
+        page.length = (length > 0) ? length : 0;
+        for (int i = page.length; i < PAGE_SIZE; i++) {
+            page.data[i] = 0;
+        }
+
+        pages[victim] = page;
+        return page;
+    }
+
+    /**
+     * Writes the dirty range of the page to the file.
+     *
+     * @param page the page to write
+     *
+     * @exception IOException if a write error occurs.
+     */
+    private void writePage(Page page) throws IOException {
+        int count = page.dirtyEnd - page.dirtyStart;
+
+        file.seek(page.start + page.dirtyStart);
+        file.write(page.data, page.dirtyStart, count);
+        bytesWritten += count;
+
+        page.dirtyStart = PAGE_SIZE;
+        page.dirtyEnd = 0;
+    }
+
+    /**
+     * Returns the cached dirty page starting at the given offset.
+     *
+     * @param start offset of the page in the file
+     *
+     * @return the page or null if it is not cached or not dirty
+     */
+    private Page getDirtyPage(int start) {
+        for (int i = 0; i < pages.length; i++) {
+            Page page = pages[i];
+            if (page != null && page.start == start && page.isDirty()) {
+                return page;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Writes a run of adjacent dirty pages to the file with one write.
+     * The data is gathered from the dirty range of the first page to
+     * the end of the dirty range of the last page. Every page but the
+     * last is dirty up to its end, every page but the first is written
+     * from its start.
+     *
+     * @param first the first page of the run
+     * @param last the last page of the run
+     * @param runLength number of bytes in the run
+     *
+     * @exception IOException if a write error occurs.
+     */
+    private void writeRun(Page first, Page last, int runLength)
+            throws IOException {
+        if (runBuffer == null || runBuffer.length < runLength) {
+            runBuffer = new byte[runLength];
+        }
+
+        int count = PAGE_SIZE - first.dirtyStart;
+        System.arraycopy(first.data, first.dirtyStart, runBuffer, 0, count);
+        for (int start = first.start + PAGE_SIZE; start <= last.start;
+                start += PAGE_SIZE) {
+            Page page = getDirtyPage(start);
+            System.arraycopy(page.data, 0, runBuffer, count, page.dirtyEnd);
+            count += page.dirtyEnd;
+        }
+
+        file.seek(first.start + first.dirtyStart);
+        file.write(runBuffer, 0, runLength);
+        bytesWritten += runLength;
+
+        for (int start = first.start; start <= last.start;
+                start += PAGE_SIZE) {
+            Page page = getDirtyPage(start);
+            page.dirtyStart = PAGE_SIZE;
+            page.dirtyEnd = 0;
+        }
+    }
+
+    /**
+     * A page of the file held in the cache.
+     */
+    private static class Page {
+        /** page data */
+        byte[] data = new byte[PAGE_SIZE];
+
+        /** offset of the page in the file */
+        int start;
+
+        /** number of valid bytes in the page */
+        int length;
+
+        /** offset in the page of the first modified byte */
+        int dirtyStart = PAGE_SIZE;
+
+        /** offset in the page after the last modified byte */
+        int dirtyEnd;
+
+        /** LRU clock value of the last access */
+        int lastUse;
+
+        /**
+         * Checks if the page has data not yet written to the file.
+         *
+         * @return <code>true</code> if the page is modified
+         */
+        boolean isDirty() {
+            return dirtyEnd > dirtyStart;
+        }
+
+        /**
+         * Adds the range to the modified range of the page.
+         *
+         * @param from offset of the first modified byte in the page
+         * @param to offset after the last modified byte in the page
+         */
+        void markDirty(int from, int to) {
+            if (from < dirtyStart) {
+                dirtyStart = from;
+            }
+
+            if (to > dirtyEnd) {
+                dirtyEnd = to;
+            }
+
+            if (to > length) {
+                length = to;
+            }
+        }
+
+        /**
+         * Cuts the page at the given length.
+         *
+         * @param newLength new number of valid bytes in the page
+         */
+        void truncate(int newLength) {
+            for (int i = newLength; i < length; i++) {
+                data[i] = 0;
+            }
+
+            length = newLength;
+
+            if (dirtyEnd > newLength) {
+                dirtyEnd = newLength;
+            }
+        }
+    }
+}
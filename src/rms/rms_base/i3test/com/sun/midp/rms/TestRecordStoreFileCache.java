@@ -0,0 +1,420 @@
+/*
+ *
+ *
+ * Copyright  1990-2007 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.rms;
+
+import com.sun.midp.i3test.*;
+import java.io.IOException;
+
+/**
+ * Tests the write-back page cache over a record store file: data is
+ * read back from the cache, dirty pages are written once and in file
+ * offset order, adjacent dirty pages are written together, the least recently used page is evicted, and truncate
+ * and invalidate drop the pages they should. The cache is tested over
+ * an in-memory file which records the writes reaching it.
+ */
+public class TestRecordStoreFileCache extends TestCase {
+
+    /** Size of a cache page. */
+    static final int PAGE = RecordStoreFileCache.PAGE_SIZE;
+
+    /** The file under the cache. */
+    MemoryFile file;
+
+    /** The cache under test. */
+    RecordStoreFileCache cache;
+
+    /**
+     * Creates a cache of the given number of pages over a new file.
+     *
+     * @param numPages number of cache pages
+     */
+    void create(int numPages) {
+        file = new MemoryFile();
+        cache = new RecordStoreFileCache(file, numPages * PAGE);
+    }
+
+    /**
+     * Creates test data.
+     *
+     * @param length the length of the data
+     * @param seed the value of the first byte
+     *
+     * @return the data
+     */
+    static byte[] data(int length, int seed) {
+        byte[] data = new byte[length];
+
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte)(seed + i);
+        }
+
+        return data;
+    }
+
+    /**
+     * Checks that the data is found at the given offset of the array.
+     *
+     * @param message the message of the failed assertion
+     * @param expected the expected data
+     * @param array the array to look in
+     * @param offset the offset of the data in the array
+     */
+    void assertData(String message, byte[] expected, byte[] array,
+                    int offset) {
+        for (int i = 0; i < expected.length; i++) {
+            if (array[offset + i] != expected[i]) {
+                fail(message + ": differs at " + (offset + i));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Written data is read back from the cache before it is flushed,
+     * the file sees it only after the flush.
+     *
+     * @exception IOException if the cache fails
+     */
+    void testReadWrite() throws IOException {
+        create(4);
+
+        // spans three pages
+        byte[] data = data(2 * PAGE + 100, 1);
+        cache.seek(PAGE / 2);
+        cache.write(data);
+
+        assertTrue("dirty", cache.isDirty());
+        assertEquals("file not written", 0, file.numWrites);
+
+        byte[] read = new byte[data.length];
+        cache.seek(PAGE / 2);
+        assertEquals("read length", data.length, cache.read(read));
+        assertData("read from cache", data, read, 0);
+
+        cache.flush();
+        assertFalse("clean", cache.isDirty());
+        assertEquals("file length", PAGE / 2 + data.length, file.length);
+        assertData("file data", data, file.data, PAGE / 2);
+
+        // end of file
+        cache.seek(PAGE / 2 + data.length);
+        assertEquals("end of file", -1, cache.read(read));
+        cache.seek(PAGE / 2 + data.length - 10);
+        assertEquals("last bytes", 10, cache.read(read));
+    }
+
+    /**
+     * Small writes to a page are written to the file as one range,
+     * dirty pages are written in file offset order.
+     *
+     * @exception IOException if the cache fails
+     */
+    void testWriteBack() throws IOException {
+        create(4);
+
+        // pages 2, 0 and 1 in this order, many writes to each
+        int[] pageOrder = { 2, 0, 1 };
+        for (int p = 0; p < pageOrder.length; p++) {
+            for (int i = 0; i < 8; i++) {
+                cache.seek(pageOrder[p] * PAGE + 16 + i * 8);
+                cache.write(data(8, i));
+            }
+        }
+
+        assertEquals("requested", 3 * 8 * 8, cache.getBytesRequested());
+        assertEquals("file not written", 0, file.numWrites);
+
+        cache.commitWrite();
+        assertEquals("one write per page", 3, file.numWrites);
+        assertEquals("committed", 1, file.numCommits);
+        assertEquals("written", 3 * 8 * 8, cache.getBytesWritten());
+
+        for (int i = 0; i < file.numWrites; i++) {
+            assertEquals("write " + i + " offset", i * PAGE + 16,
+                         file.writeOffsets[i]);
+        }
+
+        // nothing left to write
+        cache.flush();
+        assertEquals("no more writes", 3, file.numWrites);
+    }
+
+    /**
+     * Two adjacent pages whose dirty ranges meet at the page boundary
+     * are written with one write, a page not adjacent to them with
+     * another.
+     *
+     * @exception IOException if the cache fails
+     */
+    void testCoalesce() throws IOException {
+        create(4);
+
+        // the end of page 0 and the start of page 1, written separately
+        cache.seek(PAGE - 24);
+        cache.write(data(24, 1));
+        cache.seek(PAGE);
+        cache.write(data(40, 25));
+
+        // page 3 stands alone
+        cache.seek(3 * PAGE + 8);
+        cache.write(data(8, 9));
+
+        cache.flush();
+        assertEquals("one write per run", 2, file.numWrites);
+        assertEquals("run offset", PAGE - 24, file.writeOffsets[0]);
+        assertEquals("single page offset", 3 * PAGE + 8,
+                     file.writeOffsets[1]);
+        assertEquals("written", 24 + 40 + 8, cache.getBytesWritten());
+        assertData("run data", data(64, 1), file.data, PAGE - 24);
+        assertData("single page data", data(8, 9), file.data, 3 * PAGE + 8);
+        assertFalse("clean", cache.isDirty());
+
+        // a page not dirty to its end is written on its own
+        cache.seek(16);
+        cache.write(data(8, 3));
+        cache.seek(PAGE);
+        cache.write(data(8, 4));
+        cache.flush();
+        assertEquals("not adjacent", 4, file.numWrites);
+    }
+
+    /**
+     * The least recently used page is evicted, a dirty page is written
+     * when it is evicted.
+     *
+     * @exception IOException if the cache fails
+     */
+    void testEviction() throws IOException {
+        create(2);
+        file.setLength(4 * PAGE);
+
+        byte[] buf = new byte[8];
+
+        // page 0 is read, page 1 is modified, page 0 is used again
+        cache.seek(0);
+        cache.read(buf);
+        cache.seek(PAGE);
+        cache.write(data(8, 5));
+        cache.seek(8);
+        cache.read(buf);
+        assertEquals("misses", 2, cache.getMisses());
+        assertEquals("hits", 1, cache.getHits());
+
+        // page 2 replaces page 1, which is written out
+        cache.seek(2 * PAGE);
+        cache.read(buf);
+        assertEquals("evicted page written", 1, file.numWrites);
+        assertEquals("evicted page offset", PAGE, file.writeOffsets[0]);
+        assertData("evicted data", data(8, 5), file.data, PAGE);
+        assertFalse("clean", cache.isDirty());
+
+        // page 0 is still cached, page 1 is not
+        cache.seek(0);
+        cache.read(buf);
+        assertEquals("page 0 hit", 2, cache.getHits());
+        cache.seek(PAGE);
+        cache.read(buf);
+        assertEquals("page 1 miss", 4, cache.getMisses());
+        assertData("page 1 read back", data(8, 5), buf, 0);
+    }
+
+    /**
+     * Truncate drops the cached data beyond the new end of the file.
+     *
+     * @exception IOException if the cache fails
+     */
+    void testTruncate() throws IOException {
+        create(4);
+
+        byte[] data = data(3 * PAGE, 7);
+        cache.write(data);
+        cache.truncate(PAGE + 10);
+        cache.flush();
+
+        assertEquals("file length", PAGE + 10, file.length);
+        assertData("kept data", data(PAGE + 10, 7), file.data, 0);
+
+        byte[] read = new byte[data.length];
+        cache.seek(0);
+        assertEquals("read length", PAGE + 10, cache.read(read));
+
+        // growing the file again does not bring the old data back
+        cache.seek(PAGE + 20);
+        cache.write(data(1, 0));
+        cache.seek(PAGE + 10);
+        assertEquals("gap length", 11, cache.read(read));
+        for (int i = 0; i < 10; i++) {
+            assertEquals("gap " + i, 0, read[i]);
+        }
+    }
+
+    /**
+     * Invalidate makes the cache read the file again.
+     *
+     * @exception IOException if the cache fails
+     */
+    void testInvalidate() throws IOException {
+        create(4);
+
+        cache.write(data(100, 1));
+        cache.flush();
+
+        // somebody else changes the file
+        byte[] changed = data(100, 50);
+        System.arraycopy(changed, 0, file.data, 0, changed.length);
+
+        byte[] read = new byte[100];
+        cache.seek(0);
+        cache.read(read);
+        assertData("stale", data(100, 1), read, 0);
+
+        cache.invalidate();
+        cache.seek(0);
+        cache.read(read);
+        assertData("read again", changed, read, 0);
+    }
+
+    /**
+     * Run all tests.
+     *
+     * @exception Throwable if a test fails unexpectedly
+     */
+    public void runTests() throws Throwable {
+        declare("testReadWrite");
+        testReadWrite();
+
+        declare("testWriteBack");
+        testWriteBack();
+
+        declare("testCoalesce");
+        testCoalesce();
+
+        declare("testEviction");
+        testEviction();
+
+        declare("testTruncate");
+        testTruncate();
+
+        declare("testInvalidate");
+        testInvalidate();
+    }
+
+    /**
+     * A record store file kept in memory which records the writes.
+     */
+    static class MemoryFile implements AbstractRecordStoreFile {
+        /** The file data. */
+        byte[] data = new byte[16 * PAGE];
+
+        /** The length of the file. */
+        int length;
+
+        /** The current position. */
+        int position;
+
+        /** The number of writes. */
+        int numWrites;
+
+        /** The offsets of the first writes. */
+        int[] writeOffsets = new int[16];
+
+        /** The number of commits. */
+        int numCommits;
+
+        /**
+         * Sets the length of the file, the data is zero.
+         *
+         * @param newLength the new length
+         */
+        void setLength(int newLength) {
+            length = newLength;
+        }
+
+        public int spaceAvailable(int suiteId) {
+            return data.length - length;
+        }
+
+        public void seek(int pos) throws IOException {
+            position = pos;
+        }
+
+        public void write(byte[] buf) throws IOException {
+            write(buf, 0, buf.length);
+        }
+
+        public void write(byte[] buf, int offset, int numBytes)
+                throws IOException {
+            if (numWrites < writeOffsets.length) {
+                writeOffsets[numWrites] = position;
+            }
+
+            numWrites++;
+
+            System.arraycopy(buf, offset, data, position, numBytes);
+            position += numBytes;
+            if (position > length) {
+                length = position;
+            }
+        }
+
+        public void commitWrite() throws IOException {
+            numCommits++;
+        }
+
+        public int read(byte[] buf) throws IOException {
+            return read(buf, 0, buf.length);
+        }
+
+        public int read(byte[] buf, int offset, int numBytes)
+                throws IOException {
+            int count = length - position;
+
+            if (count <= 0) {
+                return -1;
+            }
+
+            if (count > numBytes) {
+                count = numBytes;
+            }
+
+            System.arraycopy(data, position, buf, offset, count);
+            position += count;
+            return count;
+        }
+
+        public void close() throws IOException {
+        }
+
+        public void truncate(int size) throws IOException {
+            for (int i = size; i < length; i++) {
+                data[i] = 0;
+            }
+
+            length = size;
+        }
+    }
+}
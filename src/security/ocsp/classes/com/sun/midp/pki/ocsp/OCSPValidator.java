@@ -45,4 +45,19 @@ public interface OCSPValidator {
      */
     public int checkCertStatus(Certificate cert, Certificate issuerCert)
             throws OCSPException;
+
+    /**
+     * Returns the number of status checks answered from cached responses.
+     *
+     * @return number of cache hits
+     */
+    public int getCacheHits();
+
+    /**
+     * Returns the number of status checks cached responses could not
+     * answer.
+     *
+     * @return number of cache misses
+     */
+    public int getCacheMisses();
 }
@@ -85,7 +85,10 @@ public class OCSPRequest {
     /** Issuer's certificate (for computing certId hash values) */
     private X509Certificate issuerCert;
 
-    /** CertId of the certificate to be checked */
+    /**
+     * CertId of the certificate to be checked, computed when the request
+     * is encoded if it was not given to the constructor
+     */
     private CertId certId = null;
 
     /** Extensions of this request (currently only nonce is supported) */
@@ -118,6 +121,32 @@ public class OCSPRequest {
                     "Certificate's Serial Number is not known.");
         }
 
+        logRequest();
+    }
+
+    /**
+     * Constructs an OCSPRequest for a single user cert whose CertId
+     * is already known, so the hashes are not computed again.
+     *
+     * @param certId CertId of the certificate to check
+     * @param requestExtensions array of request extensions (currently only
+     *                          nonce is supported); can be NULL
+     */
+    OCSPRequest(CertId certId, final Extension[] requestExtensions) {
+        if (certId == null) {
+            throw new IllegalArgumentException("Null CertId");
+        }
+
+        this.certId = certId;
+        extensions = requestExtensions;
+
+        logRequest();
+    }
+
+    /**
+     * Logs the first bytes of this request.
+     */
+    private void logRequest() {
         if (Logging.REPORT_LEVEL <= Logging.INFORMATION) {
             try {
                 byte[] data = getRequestAsByteArray();
@@ -141,15 +170,16 @@ public class OCSPRequest {
         // encode tbsRequest
         DerOutputStream tmp = new DerOutputStream();
         DerOutputStream derSingleReqList  = new DerOutputStream();
-        SingleRequest singleRequest = null;
 
-        try {
-            singleRequest = new SingleRequest(issuerCert, serialNumber);
-        } catch (Exception e) {
-            throw new IOException("Error encoding OCSP request");
+        if (certId == null) {
+            try {
+                certId = new CertId(issuerCert, serialNumber);
+            } catch (Exception e) {
+                throw new IOException("Error encoding OCSP request");
+            }
         }
 
-        certId = singleRequest.getCertId();
+        SingleRequest singleRequest = new SingleRequest(certId);
         singleRequest.encode(derSingleReqList);
         tmp.write(DerValue.tag_Sequence, derSingleReqList);
 
@@ -205,9 +235,8 @@ public class OCSPRequest {
 
         // No extensions are set
 
-        private SingleRequest(X509Certificate cert,
-                              SerialNumber serialNo) throws Exception {
-            certId = new CertId(cert, serialNo);
+        private SingleRequest(CertId certId) {
+            this.certId = certId;
         }
 
         private void encode(DerOutputStream out) throws IOException {
@@ -594,6 +594,24 @@ class OCSPResponse {
         return singleResponse.getCertId();
     }
 
+    /*
+     * Return the time the status was known to be correct at, in
+     * milliseconds, or 0 if the response does not tell.
+     */
+    // used by OCSPValidatorImpl
+    long getThisUpdate() {
+        return singleResponse.getThisUpdate();
+    }
+
+    /*
+     * Return the time newer information will be available at, in
+     * milliseconds, or 0 if the response does not tell.
+     */
+    // used by OCSPValidatorImpl
+    long getNextUpdate() {
+        return singleResponse.getNextUpdate();
+    }
+
     /*
      * Map a certificate's revocation status code to a string.
      */
@@ -704,6 +722,14 @@ class OCSPResponse {
             return certId;
         }
 
+        private long getThisUpdate() {
+            return thisUpdate == null ? 0 : thisUpdate.getTime();
+        }
+
+        private long getNextUpdate() {
+            return nextUpdate == null ? 0 : nextUpdate.getTime();
+        }
+
         /**
          * Construct a string representation of a single OCSP response.
          */
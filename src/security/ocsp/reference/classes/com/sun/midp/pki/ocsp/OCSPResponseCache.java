@@ -0,0 +1,167 @@
+/*
+ *
+ *
+ * Copyright  1990-2007 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.pki.ocsp;
+
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * A bounded cache of certificate statuses received from OCSP responders,
+ * keyed by the certificate ID. A status is used from the thisUpdate time
+ * of its response until its nextUpdate time; responses without nextUpdate
+ * are not cached, since the responder may have newer information at any
+ * time, nor are responses whose thisUpdate time has not come yet.
+ */
+class OCSPResponseCache {
+    /** Statuses by certificate ID. */
+    private Hashtable entries = new Hashtable();
+
+    /** Certificate IDs, the least recently used first. */
+    private Vector ids = new Vector();
+
+    /** Maximum number of statuses cached, 0 for no caching. */
+    private int maxSize;
+
+    /** Number of lookups answered from the cache. */
+    private int hits;
+
+    /** Number of lookups not answered from the cache while it is on. */
+    private int misses;
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxSize maximum number of statuses cached, 0 for no caching
+     */
+    OCSPResponseCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Gets the cached status of a certificate.
+     *
+     * @param certId ID of the certificate
+     * @param now current time in milliseconds
+     *
+     * @return status of the certificate or -1 if it is not cached or
+     *         <code>now</code> is outside of the validity interval of
+     *         its response
+     */
+    synchronized int get(CertId certId, long now) {
+        if (maxSize == 0) {
+            // caching is off, there is nothing to count
+            return -1;
+        }
+
+        Entry entry = (Entry)entries.get(certId);
+
+        if (entry == null) {
+            misses++;
+            return -1;
+        }
+
+        if (now > entry.nextUpdate) {
+            entries.remove(certId);
+            ids.removeElement(certId);
+            misses++;
+            return -1;
+        }
+
+        if (now < entry.thisUpdate) {
+            // the clock went back, the status may become valid again
+            misses++;
+            return -1;
+        }
+
+        ids.removeElement(certId);
+        ids.addElement(certId);
+        hits++;
+        return entry.status;
+    }
+
+    /**
+     * Caches the status of a certificate, removing the least recently
+     * used status if the cache is full.
+     *
+     * @param certId ID of the certificate
+     * @param status status of the certificate
+     * @param thisUpdate time the status was known to be correct at,
+     *                   in milliseconds
+     * @param nextUpdate time the responder gives newer information at,
+     *                   in milliseconds, 0 if not known
+     * @param now current time in milliseconds
+     */
+    synchronized void put(CertId certId, int status, long thisUpdate,
+                          long nextUpdate, long now) {
+        if (maxSize == 0 || nextUpdate == 0 || thisUpdate > now) {
+            return;
+        }
+
+        if (entries.remove(certId) != null) {
+            ids.removeElement(certId);
+        } else if (ids.size() >= maxSize) {
+            entries.remove(ids.elementAt(0));
+            ids.removeElementAt(0);
+        }
+
+        Entry entry = new Entry();
+        entry.status = status;
+        entry.thisUpdate = thisUpdate;
+        entry.nextUpdate = nextUpdate;
+        entries.put(certId, entry);
+        ids.addElement(certId);
+    }
+
+    /**
+     * Gets the number of lookups answered from the cache.
+     *
+     * @return number of hits
+     */
+    synchronized int getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of lookups not answered from the cache. Lookups
+     * made while caching is off are not counted.
+     *
+     * @return number of misses
+     */
+    synchronized int getMisses() {
+        return misses;
+    }
+
+    /** A cached status. */
+    private static class Entry {
+        /** Status of the certificate. */
+        int status;
+        /** When the status was known to be correct, in milliseconds. */
+        long thisUpdate;
+        /** When the response expires, in milliseconds. */
+        long nextUpdate;
+    }
+}
@@ -29,7 +29,9 @@ package com.sun.midp.pki.ocsp;
 import com.sun.midp.io.Base64;
 import com.sun.midp.main.Configuration;
 
+import com.sun.midp.pki.BigInteger;
 import com.sun.midp.pki.ObjectIdentifier;
+import com.sun.midp.pki.SerialNumber;
 import com.sun.midp.pki.X509Certificate;
 import com.sun.midp.pki.DerOutputStream;
 import com.sun.midp.pki.DerValue;
@@ -89,6 +91,20 @@ public class OCSPValidatorImpl implements OCSPValidator {
         OCSP_NONCE_OID = ObjectIdentifier.newInternal(OCSP_NONCE_DATA);
     }
 
+    /** Certificate statuses received from the responders. */
+    private static OCSPResponseCache responseCache = new OCSPResponseCache(
+        Configuration.getNonNegativeIntProperty(
+            "com.sun.midp.pki.ocsp.cacheSize", 16));
+
+    /** Certificates of the enabled trusted CAs, built once. */
+    private static Vector trustedCACerts;
+
+    /** Key store the trusted CA certificates were built from. */
+    private static WebPublicKeyStore trustedCAKeyStore;
+
+    /** Change count of the key store when the set was built. */
+    private static int trustedCAChangeCount;
+
     /**
      * Retrieves the status of the given certificate.
      *
@@ -101,6 +117,17 @@ public class OCSPValidatorImpl implements OCSPValidator {
     public int checkCertStatus(Certificate cert, Certificate issuerCert)
             throws OCSPException {
         try {
+            CertId cachedCertId = getCertId((X509Certificate)cert,
+                                            (X509Certificate)issuerCert);
+
+            if (cachedCertId != null) {
+                int status = responseCache.get(cachedCertId,
+                                               System.currentTimeMillis());
+                if (status != -1) {
+                    return status;
+                }
+            }
+
             Vector authInfoAccess =
                     ((X509Certificate)cert).getAuthorityInfoAccess(
                             AuthorityInfoAccessEntry.ACCESS_METHOD_OCSP);
@@ -132,9 +159,14 @@ public class OCSPValidatorImpl implements OCSPValidator {
             requestExtensions[0] =
                 new Extension(OCSP_NONCE_OID, false, tmp.toByteArray());
 
-            OCSPRequest request =
-                    new OCSPRequest((X509Certificate)cert,
+            OCSPRequest request;
+            if (cachedCertId != null) {
+                // the hashes of the issuer are already computed
+                request = new OCSPRequest(cachedCertId, requestExtensions);
+            } else {
+                request = new OCSPRequest((X509Certificate)cert,
                             (X509Certificate)issuerCert, requestExtensions);
+            }
 
             sendRequest(request);
             // certId field becomes valid only after the request is sent
@@ -142,16 +174,11 @@ public class OCSPValidatorImpl implements OCSPValidator {
             CertId certId = request.getCertId();
 
             // preparing a vector of all trusted CAs 
-            WebPublicKeyStore keyStore = WebPublicKeyStore.getTrustedKeyStore();
-            Vector keys = keyStore.getKeys();
-
-            Vector caCerts = new Vector();
+            Vector trusted = getTrustedCACerts();
+            Vector caCerts = new Vector(trusted.size() + 1);
             caCerts.addElement(issuerCert);
-            for (int i = 0; i < keys.size(); i++) {
-                PublicKeyInfo ki = (PublicKeyInfo)keys.elementAt(i);
-                if (ki.isEnabled() && Permissions.isTrusted(ki.getDomain())) {
-                    caCerts.addElement(WebPublicKeyStore.createCertificate(ki));
-                }
+            for (int i = 0; i < trusted.size(); i++) {
+                caCerts.addElement(trusted.elementAt(i));
             }
 
             OCSPResponse response = receiveResponse(caCerts, certId,
@@ -164,6 +191,11 @@ public class OCSPValidatorImpl implements OCSPValidator {
                     "certificate supplied in the OCSP request.");
             }
 
+            responseCache.put(certId, response.getCertStatus(),
+                              response.getThisUpdate(),
+                              response.getNextUpdate(),
+                              System.currentTimeMillis());
+
             return response.getCertStatus();
         } catch (OCSPException e) {
             // e.printStackTrace();
@@ -176,6 +208,82 @@ public class OCSPValidatorImpl implements OCSPValidator {
         }
     }
 
+    /**
+     * Returns the number of status checks answered from the cache of
+     * responses shared by the validators.
+     *
+     * @return number of cache hits
+     */
+    public int getCacheHits() {
+        return responseCache.getHits();
+    }
+
+    /**
+     * Returns the number of status checks the cache of responses shared
+     * by the validators could not answer.
+     *
+     * @return number of cache misses
+     */
+    public int getCacheMisses() {
+        return responseCache.getMisses();
+    }
+
+    /**
+     * Computes the ID of a certificate, as used in requests and to look up
+     * cached responses.
+     *
+     * @param cert X.509 certificate to identify
+     * @param issuerCert certificate of the authority issued cert
+     * @return ID of the certificate or null if it cannot be computed
+     */
+    private static CertId getCertId(X509Certificate cert,
+                                    X509Certificate issuerCert) {
+        byte[] sn = cert.getRawSerialNumber();
+
+        if (sn == null || issuerCert == null) {
+            return null;
+        }
+
+        try {
+            return new CertId(issuerCert,
+                              new SerialNumber(new BigInteger(sn)));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the certificates of the enabled trusted CAs. The set is
+     * built once and rebuilt only when the trusted key store changes.
+     *
+     * @return vector of X.509 certificates that must not be modified
+     */
+    private static synchronized Vector getTrustedCACerts() {
+        WebPublicKeyStore keyStore = WebPublicKeyStore.getTrustedKeyStore();
+        int changeCount = WebPublicKeyStore.getChangeCount();
+
+        if (trustedCACerts != null && keyStore == trustedCAKeyStore &&
+                changeCount == trustedCAChangeCount) {
+            return trustedCACerts;
+        }
+
+        Vector keys = keyStore.getKeys();
+        Vector certs = new Vector(keys.size());
+
+        for (int i = 0; i < keys.size(); i++) {
+            PublicKeyInfo ki = (PublicKeyInfo)keys.elementAt(i);
+            if (ki.isEnabled() && Permissions.isTrusted(ki.getDomain())) {
+                certs.addElement(WebPublicKeyStore.createCertificate(ki));
+            }
+        }
+
+        trustedCACerts = certs;
+        trustedCAKeyStore = keyStore;
+        trustedCAChangeCount = changeCount;
+
+        return trustedCACerts;
+    }
+
     /**
      * Opens a connection to the OCSP server.
      *
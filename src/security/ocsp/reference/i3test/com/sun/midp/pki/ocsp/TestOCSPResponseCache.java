@@ -0,0 +1,195 @@
+/*
+ *
+ *
+ * Copyright  1990-2007 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.pki.ocsp;
+
+import com.sun.midp.i3test.*;
+import com.sun.midp.pki.AlgorithmId;
+import com.sun.midp.pki.BigInteger;
+import com.sun.midp.pki.DerInputStream;
+import com.sun.midp.pki.DerOutputStream;
+import com.sun.midp.pki.SerialNumber;
+
+/**
+ * Tests the cache of OCSP certificate statuses: hits and misses,
+ * the validity interval of a response, eviction of the least recently used
+ * status and a disabled cache. OCSPResponseCache is a package private
+ * class, so that's why this test resides in that package.
+ */
+public class TestOCSPResponseCache extends TestCase {
+
+    /** Time the tests start at, in milliseconds. */
+    static final long NOW = 1000000L;
+
+    /**
+     * Creates the ID of a certificate from its DER encoding, as the
+     * response parser does.
+     *
+     * @param serial serial number of the certificate
+     *
+     * @return the certificate ID
+     *
+     * @exception Exception if the ID cannot be encoded
+     */
+    static CertId certId(int serial) throws Exception {
+        byte[] nameHash = new byte[20];
+        byte[] keyHash = new byte[20];
+
+        for (int i = 0; i < nameHash.length; i++) {
+            nameHash[i] = (byte)i;
+            keyHash[i] = (byte)(i * 3);
+        }
+
+        DerOutputStream out = new DerOutputStream();
+        AlgorithmId.get("SHA-1").encode(out);
+        out.putOctetString(nameHash);
+        out.putOctetString(keyHash);
+        new SerialNumber(new BigInteger(new byte[] {
+            (byte)(serial >> 8), (byte)serial })).encode(out);
+
+        return new CertId(new DerInputStream(out.toByteArray()));
+    }
+
+    /**
+     * Cached statuses are found by an equal certificate ID, the other
+     * lookups are misses.
+     *
+     * @exception Exception if a certificate ID cannot be created
+     */
+    void testHitMiss() throws Exception {
+        OCSPResponseCache cache = new OCSPResponseCache(4);
+
+        assertEquals("not cached", -1, cache.get(certId(1), NOW));
+        assertEquals("first miss", 1, cache.getMisses());
+
+        cache.put(certId(1), CertStatus.REVOKED, NOW, NOW + 1000, NOW);
+        assertEquals("cached", CertStatus.REVOKED, cache.get(certId(1), NOW));
+        assertEquals("other", -1, cache.get(certId(2), NOW));
+        assertEquals("hits", 1, cache.getHits());
+        assertEquals("misses", 2, cache.getMisses());
+
+        // a response without nextUpdate is not cached
+        cache.put(certId(3), CertStatus.GOOD, NOW, 0, NOW);
+        assertEquals("no nextUpdate", -1, cache.get(certId(3), NOW));
+    }
+
+    /**
+     * A status is used from the thisUpdate time until the nextUpdate
+     * time of its response, a response with a thisUpdate time later
+     * than the current time is not cached.
+     *
+     * @exception Exception if a certificate ID cannot be created
+     */
+    void testExpiry() throws Exception {
+        OCSPResponseCache cache = new OCSPResponseCache(4);
+
+        cache.put(certId(1), CertStatus.GOOD, NOW, NOW + 100, NOW);
+        assertEquals("at nextUpdate", CertStatus.GOOD,
+                     cache.get(certId(1), NOW + 100));
+        assertEquals("after nextUpdate", -1, cache.get(certId(1), NOW + 101));
+        assertEquals("expired status removed", -1, cache.get(certId(1), NOW));
+        assertEquals("hits", 1, cache.getHits());
+        assertEquals("misses", 2, cache.getMisses());
+
+        // a newer response replaces the expired one
+        cache.put(certId(1), CertStatus.REVOKED, NOW, NOW + 1000, NOW);
+        assertEquals("replaced", CertStatus.REVOKED,
+                     cache.get(certId(1), NOW + 500));
+
+        // a status is not used before its thisUpdate time
+        cache.put(certId(2), CertStatus.GOOD, NOW - 100, NOW + 1000, NOW);
+        assertEquals("at thisUpdate", CertStatus.GOOD,
+                     cache.get(certId(2), NOW - 100));
+        assertEquals("before thisUpdate", -1, cache.get(certId(2), NOW - 101));
+        assertEquals("kept for later", CertStatus.GOOD,
+                     cache.get(certId(2), NOW));
+
+        // a response from the future is not cached
+        cache.put(certId(3), CertStatus.GOOD, NOW + 1, NOW + 1000, NOW);
+        assertEquals("thisUpdate after now", -1,
+                     cache.get(certId(3), NOW + 500));
+    }
+
+    /**
+     * The least recently used status is removed when the cache is full.
+     *
+     * @exception Exception if a certificate ID cannot be created
+     */
+    void testEviction() throws Exception {
+        OCSPResponseCache cache = new OCSPResponseCache(2);
+
+        cache.put(certId(1), CertStatus.GOOD, NOW, NOW + 1000, NOW);
+        cache.put(certId(2), CertStatus.GOOD, NOW, NOW + 1000, NOW);
+
+        // 1 is used, so 2 is the least recently used
+        assertEquals("1 used", CertStatus.GOOD, cache.get(certId(1), NOW));
+        cache.put(certId(3), CertStatus.GOOD, NOW, NOW + 1000, NOW);
+
+        assertEquals("2 evicted", -1, cache.get(certId(2), NOW));
+        assertEquals("1 kept", CertStatus.GOOD, cache.get(certId(1), NOW));
+        assertEquals("3 kept", CertStatus.GOOD, cache.get(certId(3), NOW));
+
+        // updating a cached status does not evict another one
+        cache.put(certId(1), CertStatus.REVOKED, NOW, NOW + 1000, NOW);
+        assertEquals("1 updated", CertStatus.REVOKED,
+                     cache.get(certId(1), NOW));
+        assertEquals("3 still kept", CertStatus.GOOD,
+                     cache.get(certId(3), NOW));
+    }
+
+    /**
+     * A cache of size 0 keeps nothing and counts no lookups.
+     *
+     * @exception Exception if a certificate ID cannot be created
+     */
+    void testDisabled() throws Exception {
+        OCSPResponseCache cache = new OCSPResponseCache(0);
+
+        cache.put(certId(1), CertStatus.GOOD, NOW, NOW + 1000, NOW);
+        assertEquals("not cached", -1, cache.get(certId(1), NOW));
+        assertEquals("no hits", 0, cache.getHits());
+        assertEquals("no misses", 0, cache.getMisses());
+    }
+
+    /**
+     * Run all tests.
+     *
+     * @exception Throwable if a test fails unexpectedly
+     */
+    public void runTests() throws Throwable {
+        declare("testHitMiss");
+        testHitMiss();
+
+        declare("testExpiry");
+        testExpiry();
+
+        declare("testEviction");
+        testEviction();
+
+        declare("testDisabled");
+        testDisabled();
+    }
+}
@@ -46,4 +46,23 @@ public class OCSPValidatorImpl implements OCSPValidator {
             throws OCSPException {
         return CertStatus.GOOD;
     }
+
+    /**
+     * Returns the number of status checks answered from cached responses.
+     *
+     * @return 0, no responses are cached
+     */
+    public int getCacheHits() {
+        return 0;
+    }
+
+    /**
+     * Returns the number of status checks cached responses could not
+     * answer.
+     *
+     * @return 0, no responses are cached
+     */
+    public int getCacheMisses() {
+        return 0;
+    }
 }
@@ -0,0 +1,166 @@
+/*
+ *    
+ *
+ * Copyright  1990-2007 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.pki;
+
+import java.util.Hashtable;
+import java.util.Vector;
+
+import com.sun.midp.main.Configuration;
+
+/**
+ * A bounded cache of parsed certificates, keyed by their DER encoding.
+ * Servers and suites present the same certificates again and again; a
+ * certificate found here is not parsed or hashed again, and keeps the
+ * issuer key it has been verified with, so verifying it again does not
+ * need RSA.
+ * <p>
+ * Certificates are immutable once parsed, so a cached certificate can be
+ * shared. Their validity period is checked when they are used, not here.
+ */
+final class CertificateCache {
+    /** Certificates by encoding. */
+    private static Hashtable certs = new Hashtable();
+
+    /** Encodings, the least recently used first. */
+    private static Vector encodings = new Vector();
+
+    /** Maximum number of certificates cached, 0 for no caching. */
+    private static int maxSize = Configuration.getNonNegativeIntProperty(
+        "com.sun.midp.pki.certCacheSize", 16);
+
+    /** No instances. */
+    private CertificateCache() {
+    }
+
+    /**
+     * Gets the certificate having the given encoding.
+     *
+     * @param buf buffer containing the encoding
+     * @param off offset of the encoding in the buffer
+     * @param len length of the encoding
+     *
+     * @return the certificate or null if it is not cached
+     */
+    static synchronized X509Certificate get(byte[] buf, int off, int len) {
+        if (maxSize == 0) {
+            return null;
+        }
+
+        Encoding key = new Encoding(buf, off, len);
+        X509Certificate cert = (X509Certificate)certs.get(key);
+
+        if (cert != null) {
+            encodings.removeElement(key);
+            encodings.addElement(key);
+        }
+
+        return cert;
+    }
+
+    /**
+     * Adds a certificate, removing the least recently used one if the
+     * cache is full.
+     *
+     * @param enc encoding of the certificate, must not be modified
+     * @param cert the certificate
+     */
+    static synchronized void put(byte[] enc, X509Certificate cert) {
+        if (maxSize == 0) {
+            return;
+        }
+
+        Encoding key = new Encoding(enc, 0, enc.length);
+
+        if (certs.put(key, cert) != null) {
+            encodings.removeElement(key);
+        } else if (encodings.size() >= maxSize) {
+            certs.remove(encodings.elementAt(0));
+            encodings.removeElementAt(0);
+        }
+
+        encodings.addElement(key);
+    }
+
+    /** A range of bytes usable as a hash key. */
+    private static class Encoding {
+        /** Buffer holding the bytes. */
+        private byte[] buf;
+        /** Offset of the bytes. */
+        private int off;
+        /** Number of bytes. */
+        private int len;
+        /** Hash code of the bytes. */
+        private int hash;
+
+        /**
+         * Creates a key for the given bytes, without copying them.
+         *
+         * @param buf buffer holding the bytes
+         * @param off offset of the bytes
+         * @param len number of bytes
+         */
+        Encoding(byte[] buf, int off, int len) {
+            this.buf = buf;
+            this.off = off;
+            this.len = len;
+
+            int h = len;
+            for (int i = 0; i < len; i++) {
+                h = 31 * h + buf[off + i];
+            }
+
+            hash = h;
+        }
+
+        /**
+         * Returns the hash code of the bytes.
+         *
+         * @return hash code
+         */
+        public int hashCode() {
+            return hash;
+        }
+
+        /**
+         * Compares the bytes with the bytes of another key.
+         *
+         * @param obj the other key
+         *
+         * @return true if the bytes are the same
+         */
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Encoding)) {
+                return false;
+            }
+
+            Encoding that = (Encoding)obj;
+
+            return hash == that.hash && len == that.len &&
+                Utils.byteMatch(buf, off, that.buf, that.off, len);
+        }
+    }
+}
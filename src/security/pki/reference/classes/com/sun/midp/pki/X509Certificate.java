@@ -329,6 +329,8 @@ public class X509Certificate implements Certificate {
     private byte[] signature = null;
     /** Hash of TBSCertificate. */
     private byte[] TBSCertHash = null;
+    /** Issuer key the signature has been verified with, if any. */
+    private RSAPublicKey verifiedKey = null;
     /** True if cert has unrecognized critical extension. */
     private boolean badExt = false; 
     /** Subject alternative names and types. */
@@ -980,6 +982,11 @@ public class X509Certificate implements Certificate {
          */
         int test = buf[off] + buf[len - 1] + buf[off + len - 1];
 
+        X509Certificate cached = CertificateCache.get(buf, off, len);
+        if (cached != null) {
+            return cached;
+        }
+
         try {
             int start = 0;
             int size = 0;
@@ -1257,6 +1264,8 @@ public class X509Certificate implements Certificate {
                                sigLen + "-byte signature: " +
                                Utils.hexEncode(res.signature));
             }
+
+            CertificateCache.put(res.enc, res);
             return res;
         } catch (IndexOutOfBoundsException e) {
             throw new IOException("Bad length detected in cert DER");
@@ -1853,6 +1862,11 @@ public class X509Certificate implements Certificate {
 
         pk = (RSAPublicKey)k;
 
+        if (verifiedKey != null && verifiedKey.equals(pk)) {
+            // the signature has already been checked with this key
+            return;
+        }
+
         /*
          * Since selfSigned certificates are stored without
          * TBSCertHash and signature fields (to save memory),
@@ -1943,6 +1957,7 @@ public class X509Certificate implements Certificate {
                             PREFIX_MD2, 0, PREFIX_MD2.length) &&
             Utils.byteMatch(result, PREFIX_MD2.length,
                             TBSCertHash, 0, TBSCertHash.length)) {
+            verifiedKey = pk;
             return;
         }
 
@@ -1952,6 +1967,7 @@ public class X509Certificate implements Certificate {
                             PREFIX_MD5, 0, PREFIX_MD5.length) &&
             Utils.byteMatch(result, PREFIX_MD5.length,
                             TBSCertHash, 0, TBSCertHash.length)) {
+            verifiedKey = pk;
             return;
         }
 
@@ -1961,6 +1977,7 @@ public class X509Certificate implements Certificate {
                                  PREFIX_SHA1, 0, PREFIX_SHA1.length) &&
                  Utils.byteMatch(result, PREFIX_SHA1.length,
                                  TBSCertHash, 0, TBSCertHash.length)) {
+            verifiedKey = pk;
             return;
         }
 
@@ -31,12 +31,19 @@ import java.util.*;
 
 /**
  * A read-only public keystore for use with MIDP.
+ * <p>
+ * Lookups do not lock the store: they use a snapshot of the key list,
+ * indexed by owner and by key, which is replaced as a whole when the
+ * key list changes.
  */
 public class PublicKeyStore {
 
     /** Holds the all the keys as {@link PublicKeyInfo} objects. */
     private Vector keyList = null;
 
+    /** Snapshot of the key list used by the lookups. */
+    private Snapshot snapshot = new Snapshot(new Vector());
+
     /**
      * Constructor for subclasses.
      */
@@ -80,6 +87,7 @@ public class PublicKeyStore {
         }
 
         keyList = sharedKeyList;
+        keysChanged();
     }
 
     /**
@@ -102,12 +110,27 @@ public class PublicKeyStore {
         }
 
         keyList = sharedKeyList;
-        for (;;) {
-            keyInfo = PublicKeyInfo.getKeyFromStorage(storage);
-            if (keyInfo == null)
-                return;
-            
-            keyList.addElement(keyInfo);
+        try {
+            for (;;) {
+                keyInfo = PublicKeyInfo.getKeyFromStorage(storage);
+                if (keyInfo == null)
+                    return;
+
+                keyList.addElement(keyInfo);
+            }
+        } finally {
+            keysChanged();
+        }
+    }
+
+    /**
+     * Rebuilds the snapshot the lookups use after the key list of a
+     * subclass has been changed. Lookups made meanwhile still use the
+     * previous snapshot.
+     */
+    protected synchronized void keysChanged() {
+        if (keyList != null) {
+            snapshot = new Snapshot(keyList);
         }
     }
 
@@ -121,8 +144,14 @@ public class PublicKeyStore {
      * @exception  ArrayIndexOutOfBoundsException  if an invalid number was
      *             given.
      */
-    public synchronized PublicKeyInfo getKey(int number) {
-        return (PublicKeyInfo)keyList.elementAt(number);
+    public PublicKeyInfo getKey(int number) {
+        PublicKeyInfo[] keys = snapshot.keys;
+
+        if (number < 0 || number >= keys.length) {
+            throw new ArrayIndexOutOfBoundsException(number);
+        }
+
+        return keys[number];
     }
 
     /**
@@ -131,22 +160,20 @@ public class PublicKeyStore {
      * @param owner distinguished name of keys' owner
      * @return public key information of the keys
      */
-    public synchronized Vector findKeys(String owner) {
-        PublicKeyInfo keyInfo;
-        Vector keys = null;
-  
-        for (int i = 0; i < keyList.size(); i++) {
-            keyInfo = (PublicKeyInfo)keyList.elementAt(i);
-	        if (keyInfo.getOwner().compareTo(owner) == 0) {
-                if (keys == null) {
-                    keys = new Vector();
-                }
-
-                keys.addElement(keyInfo);
-            }                               
-        }
+    public Vector findKeys(String owner) {
+        return toVector((PublicKeyInfo[])snapshot.byOwner.get(owner));
+    }
 
-        return keys;
+    /**
+     * Finds the keys having the given modulus and exponent.
+     *
+     * @param modulus modulus of the keys
+     * @param exponent exponent of the keys
+     * @return public key information of the keys or null if there are none
+     */
+    public Vector findKeys(byte[] modulus, byte[] exponent) {
+        return toVector((PublicKeyInfo[])snapshot.byKey.get(
+            new KeyFingerprint(modulus, exponent)));
     }
 
     /**
@@ -154,15 +181,12 @@ public class PublicKeyStore {
      *
      * @return public key information of the keys
      */
-    public synchronized Vector getKeys() {
-        Object keyInfo;
-        Vector keys;
-
-        keys = new Vector(keyList.size());
+    public Vector getKeys() {
+        PublicKeyInfo[] keyArray = snapshot.keys;
+        Vector keys = new Vector(keyArray.length);
 
-        for (int i = 0; i < keyList.size(); i++) {
-            keyInfo = keyList.elementAt(i);
-            keys.addElement(keyInfo);
+        for (int i = 0; i < keyArray.length; i++) {
+            keys.addElement(keyArray[i]);
         }
 
         return keys;
@@ -172,7 +196,172 @@ public class PublicKeyStore {
      * Gets the number of keys in the store.
      * @return number of keys in the keystore
      */
-    public synchronized int numberOfKeys() {
-        return keyList.size();
+    public int numberOfKeys() {
+        return snapshot.keys.length;
+    }
+
+    /**
+     * Copies keys of an index into a new vector.
+     *
+     * @param keys the keys, can be null
+     * @return vector of the keys or null if there are none
+     */
+    private static Vector toVector(PublicKeyInfo[] keys) {
+        if (keys == null) {
+            return null;
+        }
+
+        Vector v = new Vector(keys.length);
+
+        for (int i = 0; i < keys.length; i++) {
+            v.addElement(keys[i]);
+        }
+
+        return v;
+    }
+
+    /**
+     * Adds a key to the keys an index has under the given index key.
+     *
+     * @param index the index
+     * @param indexKey the index key
+     * @param keyInfo key to add
+     */
+    private static void addToIndex(Hashtable index, Object indexKey,
+                                   PublicKeyInfo keyInfo) {
+        PublicKeyInfo[] keys = (PublicKeyInfo[])index.get(indexKey);
+        PublicKeyInfo[] newKeys;
+
+        if (keys == null) {
+            newKeys = new PublicKeyInfo[1];
+        } else {
+            newKeys = new PublicKeyInfo[keys.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, keys.length);
+        }
+
+        newKeys[newKeys.length - 1] = keyInfo;
+        index.put(indexKey, newKeys);
+    }
+
+    /** Keys of the store and their indexes. Never changed once built. */
+    private static class Snapshot {
+        /** The keys in the order of the key list. */
+        PublicKeyInfo[] keys;
+        /** Arrays of keys by owner. */
+        Hashtable byOwner;
+        /** Arrays of keys by {@link KeyFingerprint}. */
+        Hashtable byKey;
+
+        /**
+         * Builds a snapshot of a key list.
+         *
+         * @param keyList vector of {@link PublicKeyInfo} objects
+         */
+        Snapshot(Vector keyList) {
+            keys = new PublicKeyInfo[keyList.size()];
+            keyList.copyInto(keys);
+
+            byOwner = new Hashtable(keys.length + 1);
+            byKey = new Hashtable(keys.length + 1);
+
+            for (int i = 0; i < keys.length; i++) {
+                addToIndex(byOwner, keys[i].getOwner(), keys[i]);
+                addToIndex(byKey, new KeyFingerprint(keys[i].getModulus(),
+                    keys[i].getExponent()), keys[i]);
+            }
+        }
+    }
+
+    /** Modulus and exponent of a key usable as a hash key. */
+    private static class KeyFingerprint {
+        /** Modulus of the key. */
+        private byte[] modulus;
+        /** Exponent of the key. */
+        private byte[] exponent;
+        /** Hash code of the modulus and exponent. */
+        private int hash;
+
+        /**
+         * Creates a fingerprint, without copying the key.
+         *
+         * @param modulus modulus of the key
+         * @param exponent exponent of the key
+         */
+        KeyFingerprint(byte[] modulus, byte[] exponent) {
+            this.modulus = modulus;
+            this.exponent = exponent;
+            hash = hash(hash(1, modulus), exponent);
+        }
+
+        /**
+         * Adds bytes to a hash code.
+         *
+         * @param h hash code so far
+         * @param data the bytes
+         * @return the new hash code
+         */
+        private static int hash(int h, byte[] data) {
+            if (data == null) {
+                return h;
+            }
+
+            for (int i = 0; i < data.length; i++) {
+                h = 31 * h + data[i];
+            }
+
+            return h;
+        }
+
+        /**
+         * Returns the hash code of the key.
+         *
+         * @return hash code
+         */
+        public int hashCode() {
+            return hash;
+        }
+
+        /**
+         * Compares the key with the key of another fingerprint.
+         *
+         * @param obj the other fingerprint
+         * @return true if the keys are the same
+         */
+        public boolean equals(Object obj) {
+            if (!(obj instanceof KeyFingerprint)) {
+                return false;
+            }
+
+            KeyFingerprint that = (KeyFingerprint)obj;
+
+            return hash == that.hash &&
+                bytesEqual(modulus, that.modulus) &&
+                bytesEqual(exponent, that.exponent);
+        }
+
+        /**
+         * Compares two byte arrays.
+         *
+         * @param a first array
+         * @param b second array
+         * @return true if the arrays hold the same bytes
+         */
+        private static boolean bytesEqual(byte[] a, byte[] b) {
+            if (a == null || b == null) {
+                return a == b;
+            }
+
+            if (a.length != b.length) {
+                return false;
+            }
+
+            for (int i = 0; i < a.length; i++) {
+                if (a[i] != b[i]) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
     }
 }
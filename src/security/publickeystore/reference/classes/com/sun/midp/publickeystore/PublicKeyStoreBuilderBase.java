@@ -91,6 +91,7 @@ public class PublicKeyStoreBuilderBase extends PublicKeyStore {
      */
     public synchronized void addKey(PublicKeyInfo keyInfo) {
         keyList.addElement(keyInfo);
+        keysChanged();
     }
 
     /**
@@ -112,6 +113,7 @@ public class PublicKeyStoreBuilderBase extends PublicKeyStore {
         newKeyInfo.setDomain(oldKeyInfo.getDomain());
 
         keyList.setElementAt(newKeyInfo, number);
+        keysChanged();
     }
 
     /**
@@ -122,8 +124,9 @@ public class PublicKeyStoreBuilderBase extends PublicKeyStore {
      * @exception  ArrayIndexOutOfBoundsException  if an invalid number was
      *             given.
      */
-    public void deleteKey(int number) {
+    public synchronized void deleteKey(int number) {
         keyList.removeElementAt(number);
+        keysChanged();
     }
 
     /**
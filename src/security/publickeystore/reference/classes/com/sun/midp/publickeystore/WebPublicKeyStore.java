@@ -71,6 +71,9 @@ public class WebPublicKeyStore extends PublicKeyStore
     /** keystore this package uses for verifying descriptors */
     private static Vector sharedKeyList;
 
+    /** Number of times keys of the trusted keystore have been changed. */
+    private static int changeCount;
+
     /**
      * Load the certificate authorities for the MIDP from storage
      * into the SSL keystore.
@@ -168,9 +171,21 @@ public class WebPublicKeyStore extends PublicKeyStore
             keyInfo.enabled = enabled;
         }
 
+        changeCount++;
         saveKeyList();
     }
 
+    /**
+     * Returns the number of times keys of the trusted keystore have been
+     * enabled or disabled, so caches built from the keys can tell when
+     * they are stale.
+     *
+     * @return change count of the trusted keystore
+     */
+    public static int getChangeCount() {
+        return changeCount;
+    }
+
     /** Saves the shared key list to main key store. */
     private static void saveKeyList() {
         PublicKeyStoreBuilderBase keystore;
@@ -0,0 +1,279 @@
+/*
+ *   
+ *
+ * Copyright  1990-2007 Sun Microsystems, Inc. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ * 
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ * 
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+
+package com.sun.midp.publickeystore;
+
+import com.sun.midp.i3test.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Vector;
+
+/**
+ * Tests the lookups of a public key store by owner and by modulus and
+ * exponent after keys are added, updated and deleted, with several
+ * keys of the same owner and the same key stored twice.
+ */
+public class TestPublicKeyStore extends TestCase {
+
+    /** Exponent of the test keys. */
+    static final byte[] EXPONENT = { 1, 0, 1 };
+
+    /** The store under test. */
+    PublicKeyStoreBuilderBase store;
+
+    /**
+     * Creates a modulus.
+     *
+     * @param seed the value distinguishing the modulus
+     *
+     * @return the modulus
+     */
+    static byte[] modulus(int seed) {
+        byte[] modulus = new byte[64];
+
+        for (int i = 0; i < modulus.length; i++) {
+            modulus[i] = (byte)(seed * 7 + i);
+        }
+
+        return modulus;
+    }
+
+    /**
+     * Creates a key.
+     *
+     * @param owner the owner of the key
+     * @param seed the value distinguishing the modulus
+     *
+     * @return the key
+     */
+    static PublicKeyInfo key(String owner, int seed) {
+        return new PublicKeyInfo(owner, 0, Long.MAX_VALUE, modulus(seed),
+                                 EXPONENT, "operator");
+    }
+
+    /**
+     * Checks the keys found by a lookup.
+     *
+     * @param message the message of the failed assertions
+     * @param found the keys found, can be null
+     * @param expected the keys expected in this order, empty if none
+     */
+    void assertKeys(String message, Vector found, PublicKeyInfo[] expected) {
+        if (expected.length == 0) {
+            assertNull(message + ": none", found);
+            return;
+        }
+
+        assertNotNull(message, found);
+        if (found == null) {
+            return;
+        }
+
+        assertEquals(message + ": count", expected.length, found.size());
+        for (int i = 0; i < expected.length && i < found.size(); i++) {
+            assertSame(message + ": key " + i, expected[i],
+                       found.elementAt(i));
+        }
+    }
+
+    /**
+     * Keys added are found by owner and by key, in the order they
+     * were added.
+     */
+    void testAdd() {
+        PublicKeyInfo a1 = key("A", 1);
+        PublicKeyInfo b2 = key("B", 2);
+        PublicKeyInfo a3 = key("A", 3);
+
+        store.addKey(a1);
+        store.addKey(b2);
+        store.addKey(a3);
+
+        assertEquals("number of keys", 3, store.numberOfKeys());
+        assertSame("key 1", b2, store.getKey(1));
+        assertKeys("owner A", store.findKeys("A"),
+                   new PublicKeyInfo[] { a1, a3 });
+        assertKeys("owner B", store.findKeys("B"),
+                   new PublicKeyInfo[] { b2 });
+        assertKeys("owner C", store.findKeys("C"), new PublicKeyInfo[0]);
+
+        // a copy of the modulus finds the key
+        assertKeys("modulus 3", store.findKeys(modulus(3), EXPONENT),
+                   new PublicKeyInfo[] { a3 });
+        assertKeys("other exponent",
+                   store.findKeys(modulus(3), new byte[] { 3 }),
+                   new PublicKeyInfo[0]);
+        assertKeys("other modulus", store.findKeys(modulus(4), EXPONENT),
+                   new PublicKeyInfo[0]);
+    }
+
+    /**
+     * An updated key is found by its new owner and key only.
+     */
+    void testUpdate() {
+        PublicKeyInfo a3 = store.getKey(2);
+        PublicKeyInfo c4 = new PublicKeyInfo("C", 0, Long.MAX_VALUE,
+            modulus(4), EXPONENT, "operator");
+
+        store.updateKey(0, c4);
+
+        assertEquals("number of keys", 3, store.numberOfKeys());
+        assertSame("key 0", c4, store.getKey(0));
+        assertKeys("owner A", store.findKeys("A"),
+                   new PublicKeyInfo[] { a3 });
+        assertKeys("owner C", store.findKeys("C"),
+                   new PublicKeyInfo[] { c4 });
+        assertKeys("old modulus", store.findKeys(modulus(1), EXPONENT),
+                   new PublicKeyInfo[0]);
+        assertKeys("new modulus", store.findKeys(modulus(4), EXPONENT),
+                   new PublicKeyInfo[] { c4 });
+    }
+
+    /**
+     * A deleted key is not found, the numbers of the following keys
+     * move down.
+     */
+    void testDelete() {
+        PublicKeyInfo a3 = store.getKey(2);
+
+        store.deleteKey(1);
+
+        assertEquals("number of keys", 2, store.numberOfKeys());
+        assertSame("key 1", a3, store.getKey(1));
+        assertKeys("owner B", store.findKeys("B"), new PublicKeyInfo[0]);
+        assertKeys("modulus 2", store.findKeys(modulus(2), EXPONENT),
+                   new PublicKeyInfo[0]);
+        assertKeys("owner A", store.findKeys("A"),
+                   new PublicKeyInfo[] { a3 });
+
+        try {
+            store.getKey(2);
+            fail("deleted number found");
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    /**
+     * The same key stored twice for an owner is found twice, deleting
+     * one copy leaves the other.
+     */
+    void testDuplicates() {
+        PublicKeyInfo d5 = key("D", 5);
+        PublicKeyInfo d5copy = key("D", 5);
+        PublicKeyInfo e5 = key("E", 5);
+
+        store.addKey(d5);
+        store.addKey(d5copy);
+        store.addKey(e5);
+
+        assertKeys("owner D", store.findKeys("D"),
+                   new PublicKeyInfo[] { d5, d5copy });
+        assertKeys("modulus 5", store.findKeys(modulus(5), EXPONENT),
+                   new PublicKeyInfo[] { d5, d5copy, e5 });
+
+        store.deleteKey(store.numberOfKeys() - 3);
+
+        assertKeys("owner D after delete", store.findKeys("D"),
+                   new PublicKeyInfo[] { d5copy });
+        assertKeys("modulus 5 after delete",
+                   store.findKeys(modulus(5), EXPONENT),
+                   new PublicKeyInfo[] { d5copy, e5 });
+    }
+
+    /**
+     * Keys returned by a lookup are not changed by later changes of
+     * the store.
+     */
+    void testSnapshot() {
+        Vector before = store.findKeys("A");
+        int count = before.size();
+        PublicKeyInfo a6 = key("A", 6);
+
+        store.addKey(a6);
+
+        assertEquals("old result kept", count, before.size());
+        assertEquals("new result", count + 1, store.findKeys("A").size());
+        assertSame("new key last", a6,
+                   store.findKeys("A").elementAt(count));
+    }
+
+    /**
+     * A store read back from its serialized form has the same lookups.
+     *
+     * @exception Exception if the store cannot be serialized or read
+     */
+    void testLoad() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        store.serialize(out);
+
+        PublicKeyStore loaded = new PublicKeyStore(
+            new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals("number of keys", store.numberOfKeys(),
+                     loaded.numberOfKeys());
+
+        for (int i = 0; i < store.numberOfKeys(); i++) {
+            PublicKeyInfo key = store.getKey(i);
+
+            assertEquals("owner " + i,
+                         store.findKeys(key.getOwner()).size(),
+                         loaded.findKeys(key.getOwner()).size());
+            assertEquals("modulus " + i,
+                         store.findKeys(key.getModulus(),
+                                        key.getExponent()).size(),
+                         loaded.findKeys(key.getModulus(),
+                                         key.getExponent()).size());
+        }
+    }
+
+    /**
+     * Run all tests.
+     *
+     * @exception Throwable if a test fails unexpectedly
+     */
+    public void runTests() throws Throwable {
+        store = new PublicKeyStoreBuilderBase();
+
+        declare("testAdd");
+        testAdd();
+
+        declare("testUpdate");
+        testUpdate();
+
+        declare("testDelete");
+        testDelete();
+
+        declare("testDuplicates");
+        testDuplicates();
+
+        declare("testSnapshot");
+        testSnapshot();
+
+        declare("testLoad");
+        testLoad();
+    }
+}
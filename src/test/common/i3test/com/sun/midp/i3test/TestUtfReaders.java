@@ -93,6 +93,151 @@ public class TestUtfReaders extends TestCase {
         }catch(Throwable t) { t.printStackTrace(); }
     }
 
+    /**
+     * An input stream that reports only a few bytes as available at a
+     * time, like a slow connection.
+     */
+    static class TrickleInputStream extends ByteArrayInputStream {
+        /** bytes reported available before the next trickle */
+        int trickle;
+
+        TrickleInputStream(byte[] b) {
+            super(b);
+        }
+
+        public synchronized int available() {
+            if (trickle == 0) {
+                trickle = 3;
+            }
+            return Math.min(trickle, super.available());
+        }
+
+        public synchronized int read() {
+            if (trickle > 0) {
+                trickle--;
+            }
+            return super.read();
+        }
+    }
+
+    /**
+     * Opens a reader for the given encoding.
+     */
+    StreamReader openReader(InputStream in, String e) throws Exception {
+        StreamReader r = (StreamReader)
+            Class.forName("com.sun.cldc.i18n.j2me."+e+"_Reader").newInstance();
+        r.open(in, e);
+        return r;
+    }
+
+    /**
+     * Opens a writer for the given encoding.
+     */
+    StreamWriter openWriter(OutputStream out, String e) throws Exception {
+        StreamWriter w = (StreamWriter)
+            Class.forName("com.sun.cldc.i18n.j2me."+e+"_Writer").newInstance();
+        w.open(out, e);
+        return w;
+    }
+
+    /**
+     * Tests a reader returns what is available without waiting for the
+     * rest of the buffer and still decodes characters split between reads.
+     */
+    public void testAvailable(int strId, String s, String e) {
+        try{
+            declare("test available string#"+strId+" "+s+" "+e);
+            byte[] b = s.getBytes(e);
+            StreamReader r = openReader(new TrickleInputStream(b), e);
+            char[] cbuf = new char[64];
+            String s2 = "";
+            int n;
+            while (-1 != (n = r.read(cbuf, 0, cbuf.length))) {
+                assertTrue("read must return at least one char", n > 0);
+                s2 += new String(cbuf, 0, n);
+            }
+            assertEquals("strings (original and read) must be equal",s,s2);
+        }catch(Throwable t) { t.printStackTrace(); }
+    }
+
+    /**
+     * Tests a malformed UTF-8 sequence is replaced and the byte that
+     * broke it starts the next character.
+     */
+    public void testMalformed() {
+        try{
+            declare("test malformed UTF_8");
+            byte[] b = {(byte)0xc3, 0x41, 0x42, 0x43};
+            StreamReader r = openReader(new ByteArrayInputStream(b), "UTF_8");
+            char[] cbuf = new char[8];
+            int n = r.read(cbuf, 0, cbuf.length);
+            assertEquals("replacement and the three letters", "\ufffdABC",
+                         new String(cbuf, 0, n));
+        }catch(Throwable t) { t.printStackTrace(); }
+    }
+
+    /**
+     * Measures decoding and encoding throughput in MB/s.
+     */
+    public void testThroughput(String name, String s, String e) {
+        try{
+            declare("test throughput "+name+" "+e);
+            final int rounds = 16;
+            char[] chars = s.toCharArray();
+            char[] cbuf = new char[2048];
+            byte[] b = s.getBytes(e);
+            int total = 0;
+            int n;
+
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < rounds; i++) {
+                StreamReader r = openReader(new ByteArrayInputStream(b), e);
+                while (-1 != (n = r.read(cbuf, 0, cbuf.length))) {
+                    total += n;
+                }
+            }
+            long decodeTime = System.currentTimeMillis() - start;
+            assertEquals("all chars decoded", rounds * chars.length, total);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(b.length);
+            start = System.currentTimeMillis();
+            for (int i = 0; i < rounds; i++) {
+                out.reset();
+                StreamWriter w = openWriter(out, e);
+                for (int off = 0; off < chars.length; off += cbuf.length) {
+                    w.write(chars, off, Math.min(cbuf.length, chars.length - off));
+                }
+            }
+            long encodeTime = System.currentTimeMillis() - start;
+            assertEquals("all bytes encoded", b.length, out.size());
+
+            info(name+" "+e+": decode "+rate(rounds * b.length, decodeTime)+
+                 " MB/s, encode "+rate(rounds * b.length, encodeTime)+" MB/s");
+        }catch(Throwable t) { t.printStackTrace(); }
+    }
+
+    /**
+     * Formats bytes per milliseconds as MB/s.
+     */
+    static String rate(int bytes, long ms) {
+        if (ms <= 0) {
+            ms = 1;
+        }
+        long kbps = (bytes * 1000L / ms) / 1024;
+        return (kbps / 1024) + "." + ((kbps % 1024) * 10 / 1024);
+    }
+
+    /**
+     * Builds a string of about the given length by repeating a sample.
+     */
+    static String repeat(String sample, int length) {
+        StringBuffer sb = new StringBuffer(length + sample.length());
+        while (sb.length() < length) {
+            sb.append(sample);
+        }
+        return sb.toString();
+    }
+
     /**
      * Runs all the tests.
      */
@@ -103,8 +248,15 @@ public class TestUtfReaders extends TestCase {
             for (int j=0;j<str.length;j++) {
                 test2way(j,str[j],enc[i]);
                 testMark(j,str[j],enc[i]);
+                testAvailable(j,str[j],enc[i]);
             }
         }
+        testMalformed();
+        String ascii = repeat(teststr3, 64 * 1024);
+        String mixed = repeat(teststr3+teststr2+teststr1, 64 * 1024);
+        testThroughput("ascii", ascii, "UTF_8");
+        testThroughput("mixed", mixed, "UTF_8");
+        testThroughput("mixed", mixed, "UTF_16BE");
     }
 
 }
@@ -608,7 +608,7 @@ public class MEKeyTool {
         exponent = rsaKey.getPublicExponent().toByteArray();
 
         // add the key
-        keys = keystore.findKeys(owner);
+        keys = keystore.findKeys(modulus, exponent);
         if (keys != null) {
             boolean duplicateKey = false;
 
@@ -616,18 +616,7 @@ public class MEKeyTool {
                 PublicKeyInfo key = (PublicKeyInfo)keys.elementAt(n);
 
                 if (key.getOwner().equals(owner)) {
-                    byte[] temp = key.getModulus();
-
-                    if (modulus.length == temp.length) {
-                        duplicateKey = true;
-                        for (int m = 0; j < modulus.length && m < temp.length;
-                                 m++) {
-                            if (modulus[m] != temp[m]) {
-                                duplicateKey = false;
-                                break;
-                            }
-                        }
-                    }
+                    duplicateKey = true;
                 }
             }
                 